@@ -0,0 +1,131 @@
+package br.com.carro.armazenamento;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Persistência do conteúdo dos arquivos, desacoplada do meio físico.
+ * O conteúdo é endereçado por uma chave relativa (ex.: "blobs/ab/cd/&lt;sha256&gt;"), que é o valor gravado
+ * em caminho_armazenamento. A implementação ativa é escolhida pela propriedade "armazenamento.tipo":
+ * "local" (padrão), "memoria" ou "s3".
+ * Chaves inexistentes são sinalizadas com {@link NoSuchFileException}; demais falhas do meio com IOException.
+ */
+public interface Armazenamento {
+
+    /**
+     * Tamanho e data de modificação de um conteúdo armazenado.
+     */
+    record Metadados(long tamanho, Instant ultimaModificacao) {}
+
+    /**
+     * Define a chave definitiva de um conteúdo novo. Implementações com mais de um destino físico
+     * (ex.: vários volumes) acrescentam à chave a informação de onde ele será gravado.
+     * @param chave Chave lógica (ex.: a chave do blob).
+     * @param tamanho Tamanho do conteúdo em bytes.
+     * @return A chave a ser gravada em caminho_armazenamento.
+     */
+    default String alocar(String chave, long tamanho) {
+        return chave;
+    }
+
+    /**
+     * Como {@link #alocar(String, long)}, para um conteúdo já recebido em um temporário. Quando o temporário está
+     * em um diretório devolvido por {@link #diretorioTemporario(long)}, a chave fica no mesmo disco dele.
+     * @param temporario Temporário com o conteúdo, ou null se ele já foi consumido.
+     */
+    default String alocar(String chave, long tamanho, Path temporario) {
+        return alocar(chave, tamanho);
+    }
+
+    /**
+     * Diretório onde receber o temporário de um conteúdo novo. Implementações com mais de um disco devolvem
+     * um diretório no disco que vai guardar o conteúdo, para que {@link #gravar(String, Path)} seja um rename
+     * e cada byte seja escrito uma única vez, no disco escolhido.
+     * @param tamanhoPrevisto Tamanho esperado do conteúdo (0 se desconhecido).
+     * @return O diretório, ou vazio para usar o diretório temporário da aplicação.
+     */
+    default Optional<Path> diretorioTemporario(long tamanhoPrevisto) {
+        return Optional.empty();
+    }
+
+    /**
+     * Chave lógica de uma chave devolvida por {@link #alocar(String, long)}, sem a informação de localização.
+     */
+    default String chaveLogica(String chave) {
+        return chave;
+    }
+
+    /**
+     * Grava o conteúdo de um temporário local sob a chave. O temporário é consumido: no disco local
+     * é apenas renomeado, nas demais implementações é enviado e depois removido.
+     * @param chave Chave de destino (sobrescrita se já existir).
+     * @param temporario Arquivo completo no diretório temporário da aplicação.
+     * @throws IOException Se não for possível gravar.
+     */
+    void gravar(String chave, Path temporario) throws IOException;
+
+    /**
+     * Grava o conteúdo de um stream de tamanho conhecido sob a chave.
+     * @param chave Chave de destino (sobrescrita se já existir).
+     * @param conteudo Stream de origem (não é fechado por este método).
+     * @param tamanho Quantidade de bytes do stream.
+     * @throws IOException Se não for possível gravar.
+     */
+    void gravar(String chave, InputStream conteudo, long tamanho) throws IOException;
+
+    /**
+     * Abre o conteúdo inteiro para leitura. O stream deve ser fechado pelo chamador.
+     * @throws NoSuchFileException Se a chave não existir.
+     */
+    InputStream ler(String chave) throws IOException;
+
+    /**
+     * Abre um intervalo do conteúdo para leitura. O stream deve ser fechado pelo chamador.
+     * @param inicio Offset do primeiro byte.
+     * @param quantidade Quantidade de bytes a partir do offset.
+     * @throws NoSuchFileException Se a chave não existir.
+     */
+    InputStream ler(String chave, long inicio, long quantidade) throws IOException;
+
+    /**
+     * Tamanho e data de modificação do conteúdo, ou vazio se a chave não existir.
+     */
+    Optional<Metadados> consultar(String chave) throws IOException;
+
+    default boolean existe(String chave) throws IOException {
+        return consultar(chave).isPresent();
+    }
+
+    /**
+     * Remove o conteúdo. Não faz nada se a chave não existir.
+     */
+    void excluir(String chave) throws IOException;
+
+    /**
+     * Move o conteúdo para outra chave (atômico no disco local; cópia e remoção nos demais).
+     * @throws NoSuchFileException Se a chave de origem não existir.
+     */
+    void mover(String origem, String destino) throws IOException;
+
+    /**
+     * Chaves armazenadas, em ordem lexicográfica, a partir da primeira maior que {@code depoisDe}
+     * (paginação por keyset: a próxima página começa depois da última chave da anterior).
+     * Nomes iniciados por "." (ex.: o diretório temporário) não são listados.
+     * @param depoisDe Última chave já vista ("" para começar do início).
+     * @param limite Quantidade máxima de chaves.
+     */
+    List<String> listar(String depoisDe, int limite) throws IOException;
+
+    /**
+     * Caminho no sistema de arquivos local, quando o conteúdo está em disco. Permite envios sem cópia
+     * (sendfile/transferTo); implementações remotas devolvem vazio e são lidas com {@link #ler(String, long, long)}.
+     */
+    default Optional<Path> caminhoLocal(String chave) {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,38 @@
+package br.com.carro.armazenamento;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Camada fria: diretório de arquivamento (disco mais barato) para blobs sem acesso recente.
+ * Usa a chave lógica do blob, então o mesmo conteúdo tem o mesmo caminho em qualquer volume de origem.
+ * Não implementa {@link Armazenamento} para não concorrer com o armazenamento principal na injeção.
+ */
+@Component
+public class ArmazenamentoFrio {
+
+    private final ArmazenamentoLocal armazenamento;
+
+    public ArmazenamentoFrio(@Value("${armazenamento.frio.raiz:uploads-frio}") String raiz) {
+        this.armazenamento = new ArmazenamentoLocal(raiz);
+    }
+
+    public void gravar(String chave, InputStream conteudo, long tamanho) throws IOException {
+        armazenamento.gravar(chave, conteudo, tamanho);
+    }
+
+    public InputStream ler(String chave) throws IOException {
+        return armazenamento.ler(chave);
+    }
+
+    public boolean existe(String chave) {
+        return armazenamento.existe(chave);
+    }
+
+    public void excluir(String chave) throws IOException {
+        armazenamento.excluir(chave);
+    }
+}
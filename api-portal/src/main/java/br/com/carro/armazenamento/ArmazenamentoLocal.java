@@ -0,0 +1,195 @@
+package br.com.carro.armazenamento;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Armazenamento no sistema de arquivos local, com as chaves resolvidas sob um diretório raiz
+ * (por padrão "uploads", o mesmo volume do diretório temporário, para que gravar seja só um rename).
+ */
+@Component
+@ConditionalOnProperty(name = "armazenamento.tipo", havingValue = "local", matchIfMissing = true)
+public class ArmazenamentoLocal implements Armazenamento {
+
+    private final Path raiz;
+
+    public ArmazenamentoLocal(@Value("${armazenamento.local.raiz:uploads}") String raiz) {
+        this.raiz = Paths.get(raiz).toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(this.raiz);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível criar o diretório de uploads.", e);
+        }
+    }
+
+    @Override
+    public void gravar(String chave, Path temporario) throws IOException {
+        Path destino = resolver(chave);
+        Files.createDirectories(destino.getParent());
+        try {
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Temporário em outro volume: cópia seguida de remoção
+            Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void gravar(String chave, InputStream conteudo, long tamanho) throws IOException {
+        Path destino = resolver(chave);
+        Files.createDirectories(destino.getParent());
+        Files.copy(conteudo, destino, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public InputStream ler(String chave) throws IOException {
+        return Files.newInputStream(resolver(chave));
+    }
+
+    @Override
+    public InputStream ler(String chave, long inicio, long quantidade) throws IOException {
+        FileChannel canal = FileChannel.open(resolver(chave), StandardOpenOption.READ);
+        canal.position(inicio);
+        InputStream conteudo = Channels.newInputStream(canal);
+        return new InputStream() {
+            private long restante = quantidade;
+
+            @Override
+            public int read() throws IOException {
+                if (restante <= 0) {
+                    return -1;
+                }
+                int lido = conteudo.read();
+                if (lido != -1) {
+                    restante--;
+                }
+                return lido;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (restante <= 0) {
+                    return -1;
+                }
+                int lidos = conteudo.read(b, off, (int) Math.min(len, restante));
+                if (lidos > 0) {
+                    restante -= lidos;
+                }
+                return lidos;
+            }
+
+            @Override
+            public void close() throws IOException {
+                conteudo.close();
+            }
+        };
+    }
+
+    @Override
+    public Optional<Metadados> consultar(String chave) throws IOException {
+        try {
+            BasicFileAttributes atributos = Files.readAttributes(resolver(chave), BasicFileAttributes.class);
+            return Optional.of(new Metadados(atributos.size(), atributos.lastModifiedTime().toInstant()));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public boolean existe(String chave) {
+        return Files.exists(resolver(chave));
+    }
+
+    @Override
+    public void excluir(String chave) throws IOException {
+        Files.deleteIfExists(resolver(chave));
+    }
+
+    @Override
+    public void mover(String origem, String destino) throws IOException {
+        Path caminhoDestino = resolver(destino);
+        Files.createDirectories(caminhoDestino.getParent());
+        Files.move(resolver(origem), caminhoDestino, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public Optional<Path> caminhoLocal(String chave) {
+        return Optional.of(resolver(chave));
+    }
+
+    @Override
+    public List<String> listar(String depoisDe, int limite) throws IOException {
+        List<String> chaves = new ArrayList<>();
+        listar(this.raiz, "", depoisDe, limite, chaves);
+        return chaves;
+    }
+
+    /**
+     * Percorre o diretório em ordem de chave, descendo só nas subárvores que podem ter chaves depois do cursor.
+     * Um diretório "x" é ordenado como "x/", o prefixo de todas as suas chaves.
+     */
+    private void listar(Path diretorio, String prefixo, String depoisDe, int limite, List<String> chaves) throws IOException {
+        List<Path> filhos;
+        try (Stream<Path> conteudo = Files.list(diretorio)) {
+            filhos = conteudo.filter(filho -> !filho.getFileName().toString().startsWith("."))
+                    .sorted(Comparator.comparing(ArmazenamentoLocal::nomeOrdenado))
+                    .toList();
+        } catch (NoSuchFileException e) {
+            // Removido durante a listagem
+            return;
+        }
+        for (Path filho : filhos) {
+            if (chaves.size() >= limite) {
+                return;
+            }
+            String chave = prefixo + filho.getFileName();
+            if (Files.isDirectory(filho)) {
+                String subprefixo = chave + "/";
+                if (depoisDe.startsWith(subprefixo) || depoisDe.compareTo(subprefixo) < 0) {
+                    listar(filho, subprefixo, depoisDe, limite, chaves);
+                }
+            } else if (chave.compareTo(depoisDe) > 0) {
+                chaves.add(chave);
+            }
+        }
+    }
+
+    private static String nomeOrdenado(Path caminho) {
+        String nome = caminho.getFileName().toString();
+        return Files.isDirectory(caminho) ? nome + "/" : nome;
+    }
+
+    public Path getRaiz() {
+        return this.raiz;
+    }
+
+    /**
+     * Resolve a chave sob a raiz, recusando chaves que escapem dela (caminhos absolutos ou com "..").
+     */
+    private Path resolver(String chave) {
+        Path caminho = this.raiz.resolve(chave).normalize();
+        if (!caminho.startsWith(this.raiz) || caminho.equals(this.raiz)) {
+            throw new IllegalArgumentException("Chave de armazenamento inválida: " + chave);
+        }
+        return caminho;
+    }
+}
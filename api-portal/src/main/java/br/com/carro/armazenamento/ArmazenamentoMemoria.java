@@ -0,0 +1,93 @@
+package br.com.carro.armazenamento;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Armazenamento em memória, para testes e benchmarks de throughput sem I/O de disco.
+ * O conteúdo não sobrevive a um restart.
+ */
+@Component
+@ConditionalOnProperty(name = "armazenamento.tipo", havingValue = "memoria")
+public class ArmazenamentoMemoria implements Armazenamento {
+
+    private record Conteudo(byte[] bytes, Instant ultimaModificacao) {}
+
+    private final Map<String, Conteudo> conteudos = new ConcurrentHashMap<>();
+
+    @Override
+    public void gravar(String chave, Path temporario) throws IOException {
+        conteudos.put(chave, new Conteudo(Files.readAllBytes(temporario), Instant.now()));
+        Files.deleteIfExists(temporario);
+    }
+
+    @Override
+    public void gravar(String chave, InputStream conteudo, long tamanho) throws IOException {
+        byte[] bytes = conteudo.readNBytes((int) tamanho);
+        if (bytes.length != tamanho) {
+            throw new IOException("Stream terminou antes do tamanho informado.");
+        }
+        conteudos.put(chave, new Conteudo(bytes, Instant.now()));
+    }
+
+    @Override
+    public InputStream ler(String chave) throws IOException {
+        return new ByteArrayInputStream(buscar(chave).bytes());
+    }
+
+    @Override
+    public InputStream ler(String chave, long inicio, long quantidade) throws IOException {
+        byte[] bytes = buscar(chave).bytes();
+        int offset = (int) Math.min(inicio, bytes.length);
+        return new ByteArrayInputStream(bytes, offset, (int) Math.min(quantidade, bytes.length - offset));
+    }
+
+    @Override
+    public Optional<Metadados> consultar(String chave) {
+        return Optional.ofNullable(conteudos.get(chave))
+                .map(conteudo -> new Metadados(conteudo.bytes().length, conteudo.ultimaModificacao()));
+    }
+
+    @Override
+    public void excluir(String chave) {
+        conteudos.remove(chave);
+    }
+
+    @Override
+    public void mover(String origem, String destino) throws IOException {
+        Conteudo conteudo = conteudos.remove(origem);
+        if (conteudo == null) {
+            throw new NoSuchFileException(origem);
+        }
+        conteudos.put(destino, conteudo);
+    }
+
+    @Override
+    public List<String> listar(String depoisDe, int limite) {
+        return conteudos.keySet().stream()
+                .filter(chave -> chave.compareTo(depoisDe) > 0 && !chave.startsWith("."))
+                .sorted()
+                .limit(limite)
+                .toList();
+    }
+
+    private Conteudo buscar(String chave) throws NoSuchFileException {
+        Conteudo conteudo = conteudos.get(chave);
+        if (conteudo == null) {
+            throw new NoSuchFileException(chave);
+        }
+        return conteudo;
+    }
+}
@@ -0,0 +1,162 @@
+package br.com.carro.armazenamento;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Armazenamento em um object storage compatível com S3 (AWS S3, MinIO etc.), permitindo que vários nós
+ * da aplicação compartilhem o mesmo conteúdo. Para um MinIO local basta informar o endpoint
+ * (ex.: http://localhost:9000), pois o acesso é feito no estilo path ("endpoint/bucket/chave").
+ */
+@Component
+@ConditionalOnProperty(name = "armazenamento.tipo", havingValue = "s3")
+public class ArmazenamentoS3 implements Armazenamento {
+
+    private final S3Client s3;
+    private final String bucket;
+
+    public ArmazenamentoS3(
+            @Value("${armazenamento.s3.bucket}") String bucket,
+            @Value("${armazenamento.s3.regiao:us-east-1}") String regiao,
+            @Value("${armazenamento.s3.endpoint:}") String endpoint,
+            @Value("${armazenamento.s3.chave-acesso:}") String chaveAcesso,
+            @Value("${armazenamento.s3.chave-secreta:}") String chaveSecreta
+    ) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(regiao))
+                .forcePathStyle(true);
+        if (StringUtils.hasText(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        if (StringUtils.hasText(chaveAcesso)) {
+            builder.credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(chaveAcesso, chaveSecreta)));
+        } else {
+            builder.credentialsProvider(DefaultCredentialsProvider.builder().build());
+        }
+        this.s3 = builder.build();
+        this.bucket = bucket;
+    }
+
+    @PreDestroy
+    public void fechar() {
+        s3.close();
+    }
+
+    @Override
+    public void gravar(String chave, Path temporario) throws IOException {
+        try {
+            s3.putObject(req -> req.bucket(bucket).key(chave), RequestBody.fromFile(temporario));
+        } catch (SdkException e) {
+            throw new IOException("Falha ao gravar " + chave + " no S3.", e);
+        }
+        Files.deleteIfExists(temporario);
+    }
+
+    @Override
+    public void gravar(String chave, InputStream conteudo, long tamanho) throws IOException {
+        try {
+            s3.putObject(req -> req.bucket(bucket).key(chave), RequestBody.fromInputStream(conteudo, tamanho));
+        } catch (SdkException e) {
+            throw new IOException("Falha ao gravar " + chave + " no S3.", e);
+        }
+    }
+
+    @Override
+    public InputStream ler(String chave) throws IOException {
+        try {
+            return s3.getObject(req -> req.bucket(bucket).key(chave));
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(chave);
+        } catch (SdkException e) {
+            throw new IOException("Falha ao ler " + chave + " do S3.", e);
+        }
+    }
+
+    @Override
+    public InputStream ler(String chave, long inicio, long quantidade) throws IOException {
+        String range = "bytes=" + inicio + "-" + (inicio + quantidade - 1);
+        try {
+            return s3.getObject(req -> req.bucket(bucket).key(chave).range(range));
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(chave);
+        } catch (SdkException e) {
+            throw new IOException("Falha ao ler " + chave + " do S3.", e);
+        }
+    }
+
+    @Override
+    public Optional<Metadados> consultar(String chave) throws IOException {
+        try {
+            HeadObjectResponse resposta = s3.headObject(req -> req.bucket(bucket).key(chave));
+            return Optional.of(new Metadados(resposta.contentLength(), resposta.lastModified()));
+        } catch (S3Exception e) {
+            // HEAD não tem corpo, então a ausência chega apenas como status 404
+            if (e.statusCode() == 404) {
+                return Optional.empty();
+            }
+            throw new IOException("Falha ao consultar " + chave + " no S3.", e);
+        } catch (SdkException e) {
+            throw new IOException("Falha ao consultar " + chave + " no S3.", e);
+        }
+    }
+
+    @Override
+    public void excluir(String chave) throws IOException {
+        try {
+            s3.deleteObject(req -> req.bucket(bucket).key(chave));
+        } catch (SdkException e) {
+            throw new IOException("Falha ao excluir " + chave + " do S3.", e);
+        }
+    }
+
+    @Override
+    public List<String> listar(String depoisDe, int limite) throws IOException {
+        try {
+            // O S3 já lista em ordem de chave; startAfter é o próprio cursor do keyset
+            ListObjectsV2Response resposta = s3.listObjectsV2(req -> req.bucket(bucket).startAfter(depoisDe).maxKeys(limite));
+            return resposta.contents().stream()
+                    .map(S3Object::key)
+                    .filter(chave -> !chave.startsWith("."))
+                    .toList();
+        } catch (SdkException e) {
+            throw new IOException("Falha ao listar o bucket " + bucket + " no S3.", e);
+        }
+    }
+
+    @Override
+    public void mover(String origem, String destino) throws IOException {
+        try {
+            s3.copyObject(req -> req.sourceBucket(bucket).sourceKey(origem).destinationBucket(bucket).destinationKey(destino));
+            s3.deleteObject(req -> req.bucket(bucket).key(origem));
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(origem);
+        } catch (SdkException e) {
+            throw new IOException("Falha ao mover " + origem + " para " + destino + " no S3.", e);
+        }
+    }
+}
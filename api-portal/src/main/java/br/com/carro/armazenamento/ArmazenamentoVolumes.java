@@ -0,0 +1,344 @@
+package br.com.carro.armazenamento;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Armazenamento local distribuído entre vários volumes (discos), para somar o IOPS de todos nos picos de upload.
+ * Os volumes são configurados em "armazenamento.volumes.raizes" no formato "nome=raiz,nome=raiz".
+ * O volume fica gravado na própria chave ("@disco2/blobs/ab/cd/&lt;sha256&gt;"), então a leitura sabe onde
+ * buscar só pelo caminho_armazenamento; chaves sem prefixo pertencem ao primeiro volume da lista, o que
+ * mantém válido tudo o que foi gravado antes da distribuição.
+ * Conteúdos novos vão para o volume com melhor relação entre espaço livre e escrita recente; cada volume tem o
+ * próprio diretório temporário (".tmp" na raiz), onde o upload é recebido para depois ser só renomeado.
+ */
+@Component
+@ConditionalOnProperty(name = "armazenamento.tipo", havingValue = "volumes")
+public class ArmazenamentoVolumes implements Armazenamento {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArmazenamentoVolumes.class);
+
+    private static final String PREFIXO_VOLUME = "@";
+
+    /** Meia-vida, em segundos, da carga de escrita recente de cada volume. */
+    private static final double MEIA_VIDA_CARGA_SEGUNDOS = 30;
+
+    /** Bytes escritos recentemente que equivalem a dividir pela metade a atratividade de um volume. */
+    private static final double CARGA_REFERENCIA = 256L * 1024 * 1024;
+
+    /**
+     * Ocupação de um volume em um instante.
+     */
+    public record SituacaoVolume(String nome, long totalBytes, long livreBytes, double cargaRecenteBytes) {
+        public double ocupacao() {
+            return totalBytes == 0 ? 1.0 : 1.0 - (double) livreBytes / totalBytes;
+        }
+    }
+
+    private final Map<String, Volume> volumes = new LinkedHashMap<>();
+    private final Volume volumePadrao;
+    private final long reservaLivre;
+
+    public ArmazenamentoVolumes(
+            @Value("${armazenamento.volumes.raizes}") String raizes,
+            @Value("${armazenamento.volumes.reserva-livre-bytes:1073741824}") long reservaLivre
+    ) {
+        for (String definicao : raizes.split(",")) {
+            String[] partes = definicao.trim().split("=", 2);
+            if (partes.length != 2 || !partes[0].trim().matches("[A-Za-z0-9-]+") || partes[1].isBlank()) {
+                throw new IllegalArgumentException("Volume inválido em armazenamento.volumes.raizes: " + definicao);
+            }
+            String nome = partes[0].trim();
+            if (volumes.putIfAbsent(nome, new Volume(nome, new ArmazenamentoLocal(partes[1].trim()))) != null) {
+                throw new IllegalArgumentException("Volume repetido em armazenamento.volumes.raizes: " + nome);
+            }
+        }
+        if (volumes.isEmpty()) {
+            throw new IllegalArgumentException("Nenhum volume configurado em armazenamento.volumes.raizes.");
+        }
+        this.volumePadrao = volumes.values().iterator().next();
+        this.reservaLivre = reservaLivre;
+    }
+
+    /**
+     * Escolhe o volume de um conteúdo novo: entre os que comportam o tamanho mantendo a reserva livre,
+     * o de maior espaço livre ponderado pela escrita recente (um disco ocupado com uploads agora perde a vez).
+     */
+    @Override
+    public String alocar(String chave, long tamanho) {
+        return chaveNoVolume(escolher(tamanho).nome, chave);
+    }
+
+    /**
+     * O volume do temporário, se ele estiver no diretório temporário de um volume; senão, como {@link #alocar(String, long)}.
+     */
+    @Override
+    public String alocar(String chave, long tamanho, Path temporario) {
+        if (temporario != null) {
+            Path caminho = temporario.toAbsolutePath().normalize();
+            for (Volume volume : volumes.values()) {
+                if (caminho.startsWith(volume.temporario)) {
+                    return chaveNoVolume(volume.nome, chave);
+                }
+            }
+        }
+        return alocar(chave, tamanho);
+    }
+
+    /**
+     * Diretório temporário do volume que {@link #alocar(String, long)} escolheria agora para o tamanho.
+     */
+    @Override
+    public Optional<Path> diretorioTemporario(long tamanhoPrevisto) {
+        return Optional.of(escolher(tamanhoPrevisto).temporario);
+    }
+
+    private Volume escolher(long tamanho) {
+        Volume escolhido = null;
+        double melhorPontuacao = -1;
+        for (Volume volume : volumes.values()) {
+            long livre = volume.livre();
+            if (livre - tamanho < reservaLivre) {
+                continue;
+            }
+            double pontuacao = livre / (1.0 + volume.cargaRecente() / CARGA_REFERENCIA);
+            if (pontuacao > melhorPontuacao) {
+                melhorPontuacao = pontuacao;
+                escolhido = volume;
+            }
+        }
+        if (escolhido == null) {
+            logger.warn("Nenhum volume com espaço livre acima da reserva; usando o volume padrão.");
+            escolhido = volumePadrao;
+        }
+        return escolhido;
+    }
+
+    @Override
+    public String chaveLogica(String chave) {
+        return resolver(chave).chave();
+    }
+
+    @Override
+    public void gravar(String chave, Path temporario) throws IOException {
+        Localizacao local = resolver(chave);
+        long tamanho = Files.size(temporario);
+        local.volume().armazenamento.gravar(local.chave(), temporario);
+        local.volume().registrarEscrita(tamanho);
+    }
+
+    @Override
+    public void gravar(String chave, InputStream conteudo, long tamanho) throws IOException {
+        Localizacao local = resolver(chave);
+        local.volume().armazenamento.gravar(local.chave(), conteudo, tamanho);
+        local.volume().registrarEscrita(tamanho);
+    }
+
+    @Override
+    public InputStream ler(String chave) throws IOException {
+        Localizacao local = resolver(chave);
+        return local.volume().armazenamento.ler(local.chave());
+    }
+
+    @Override
+    public InputStream ler(String chave, long inicio, long quantidade) throws IOException {
+        Localizacao local = resolver(chave);
+        return local.volume().armazenamento.ler(local.chave(), inicio, quantidade);
+    }
+
+    @Override
+    public Optional<Metadados> consultar(String chave) throws IOException {
+        Localizacao local = resolver(chave);
+        return local.volume().armazenamento.consultar(local.chave());
+    }
+
+    @Override
+    public boolean existe(String chave) {
+        Localizacao local = resolver(chave);
+        return local.volume().armazenamento.existe(local.chave());
+    }
+
+    @Override
+    public void excluir(String chave) throws IOException {
+        Localizacao local = resolver(chave);
+        local.volume().armazenamento.excluir(local.chave());
+    }
+
+    @Override
+    public void mover(String origem, String destino) throws IOException {
+        Localizacao de = resolver(origem);
+        Localizacao para = resolver(destino);
+        if (de.volume() == para.volume()) {
+            de.volume().armazenamento.mover(de.chave(), para.chave());
+            return;
+        }
+        // Entre discos diferentes não há rename: copia e só então remove a origem
+        Metadados metadados = de.volume().armazenamento.consultar(de.chave())
+                .orElseThrow(() -> new NoSuchFileException(origem));
+        try (InputStream conteudo = de.volume().armazenamento.ler(de.chave())) {
+            gravar(destino, conteudo, metadados.tamanho());
+        }
+        de.volume().armazenamento.excluir(de.chave());
+    }
+
+    @Override
+    public Optional<Path> caminhoLocal(String chave) {
+        Localizacao local = resolver(chave);
+        return local.volume().armazenamento.caminhoLocal(local.chave());
+    }
+
+    /**
+     * Junta as listagens dos volumes: cada um lista a partir do cursor traduzido para as suas chaves
+     * (os volumes cujas chaves vêm todas antes do cursor são pulados) e ficam as menores do conjunto.
+     */
+    @Override
+    public List<String> listar(String depoisDe, int limite) throws IOException {
+        List<String> chaves = new ArrayList<>();
+        for (Volume volume : volumes.values()) {
+            String prefixo = volume == volumePadrao ? "" : PREFIXO_VOLUME + volume.nome + "/";
+            String cursor;
+            if (depoisDe.startsWith(prefixo)) {
+                cursor = depoisDe.substring(prefixo.length());
+            } else if (depoisDe.compareTo(prefixo) < 0) {
+                cursor = "";
+            } else {
+                continue;
+            }
+            for (String chave : volume.armazenamento.listar(cursor, limite)) {
+                chaves.add(prefixo + chave);
+            }
+        }
+        Collections.sort(chaves);
+        return chaves.size() > limite ? new ArrayList<>(chaves.subList(0, limite)) : chaves;
+    }
+
+    /**
+     * Espaço total, livre e carga recente de cada volume, na ordem da configuração.
+     */
+    public List<SituacaoVolume> situacao() {
+        List<SituacaoVolume> situacao = new ArrayList<>(volumes.size());
+        for (Volume volume : volumes.values()) {
+            situacao.add(new SituacaoVolume(volume.nome, volume.total(), volume.livre(), volume.cargaRecente()));
+        }
+        return Collections.unmodifiableList(situacao);
+    }
+
+    /**
+     * Nome do volume onde está a chave.
+     */
+    public String volumeDe(String chave) {
+        return resolver(chave).volume().nome;
+    }
+
+    /**
+     * Chave equivalente em outro volume.
+     */
+    public String chaveNoVolume(String volume, String chave) {
+        if (!volumes.containsKey(volume)) {
+            throw new IllegalArgumentException("Volume desconhecido: " + volume);
+        }
+        String logica = chaveLogica(chave);
+        return volume.equals(volumePadrao.nome) ? logica : PREFIXO_VOLUME + volume + "/" + logica;
+    }
+
+    /**
+     * Padrões LIKE (incluir/excluir) que selecionam as chaves de um volume em caminho_armazenamento.
+     * As chaves do volume padrão não têm prefixo, então são todas as que não começam com "@".
+     */
+    public record FiltroVolume(String incluir, String excluir) {}
+
+    public FiltroVolume filtroDoVolume(String volume) {
+        if (volume.equals(volumePadrao.nome)) {
+            return new FiltroVolume("%", PREFIXO_VOLUME + "%");
+        }
+        return new FiltroVolume(PREFIXO_VOLUME + volume + "/%", "");
+    }
+
+    private record Localizacao(Volume volume, String chave) {}
+
+    private Localizacao resolver(String chave) {
+        if (chave.startsWith(PREFIXO_VOLUME)) {
+            int barra = chave.indexOf('/');
+            Volume volume = barra > 0 ? volumes.get(chave.substring(PREFIXO_VOLUME.length(), barra)) : null;
+            if (volume == null) {
+                throw new IllegalArgumentException("Chave de armazenamento com volume desconhecido: " + chave);
+            }
+            return new Localizacao(volume, chave.substring(barra + 1));
+        }
+        return new Localizacao(volumePadrao, chave);
+    }
+
+    private static final class Volume {
+        private final String nome;
+        private final ArmazenamentoLocal armazenamento;
+        private final FileStore fileStore;
+        private final Path temporario;
+
+        private double cargaRecente;
+        private long atualizadoEm = System.nanoTime();
+
+        private Volume(String nome, ArmazenamentoLocal armazenamento) {
+            this.nome = nome;
+            this.armazenamento = armazenamento;
+            // Começa com "." para não aparecer na listagem das chaves
+            this.temporario = armazenamento.getRaiz().resolve(".tmp");
+            try {
+                Files.createDirectories(this.temporario);
+                this.fileStore = Files.getFileStore(armazenamento.getRaiz());
+            } catch (IOException e) {
+                throw new IllegalStateException("Não foi possível consultar o volume " + nome, e);
+            }
+        }
+
+        private long livre() {
+            try {
+                return fileStore.getUsableSpace();
+            } catch (IOException e) {
+                logger.warn("Não foi possível consultar o espaço livre do volume {}", nome, e);
+                return 0;
+            }
+        }
+
+        private long total() {
+            try {
+                return fileStore.getTotalSpace();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        private synchronized void registrarEscrita(long bytes) {
+            decair();
+            cargaRecente += bytes;
+        }
+
+        private synchronized double cargaRecente() {
+            decair();
+            return cargaRecente;
+        }
+
+        // Decaimento exponencial: a escrita de 30 s atrás pesa metade da escrita de agora
+        private void decair() {
+            long agora = System.nanoTime();
+            double segundos = (agora - atualizadoEm) / 1e9;
+            cargaRecente *= Math.pow(0.5, segundos / MEIA_VIDA_CARGA_SEGUNDOS);
+            atualizadoEm = agora;
+        }
+    }
+}
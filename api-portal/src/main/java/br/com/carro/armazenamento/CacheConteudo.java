@@ -0,0 +1,335 @@
+package br.com.carro.armazenamento;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache em memória fora do heap para o conteúdo de arquivos pequenos e muito baixados.
+ * A memória é reservada em slabs de ByteBuffer direto, divididos em páginas fixas; cada entrada ocupa
+ * as páginas de que precisa (sem fragmentação) e a remoção segue a ordem LRU até caber o novo conteúdo.
+ * Um arquivo só entra no cache na segunda falha recente (como o "doorkeeper" do TinyLFU), então
+ * leituras únicas, como as de um ZIP de pasta inteira, não expulsam os arquivos realmente populares.
+ * Páginas de uma entrada removida enquanto está sendo enviada só voltam a ser usadas quando o envio termina.
+ * Desligado por padrão; a memória direta usada não passa de "armazenamento.cache.bytes-maximo"
+ * (e deve caber em -XX:MaxDirectMemorySize).
+ */
+@Component
+public class CacheConteudo {
+
+    private static final int TAMANHO_PAGINA = 64 * 1024;
+    private static final int PAGINAS_POR_SLAB = 64;
+    private static final int CHAVES_VISTAS = 10_000;
+
+    /**
+     * Contadores do cache desde o início da aplicação.
+     */
+    public record Estatisticas(boolean habilitado, long acertos, long falhas, long remocoes,
+                               int entradas, long bytesUsados, long bytesMaximo) {}
+
+    private final boolean habilitado;
+    private final long bytesMaximo;
+    private final long bytesMaximoArquivo;
+    private final int maximoSlabs;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final ArrayDeque<Integer> paginasLivres = new ArrayDeque<>();
+    // Em ordem de acesso: o primeiro é o menos usado recentemente
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    // Chaves que falharam uma vez e ainda não foram admitidas
+    private final LinkedHashMap<String, Boolean> vistas = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> maisAntiga) {
+            return size() > CHAVES_VISTAS;
+        }
+    };
+
+    private final LongAdder acertos = new LongAdder();
+    private final LongAdder falhas = new LongAdder();
+    private final LongAdder remocoes = new LongAdder();
+
+    public CacheConteudo(@Value("${armazenamento.cache.habilitado:false}") boolean habilitado,
+                         @Value("${armazenamento.cache.bytes-maximo:268435456}") long bytesMaximo,
+                         @Value("${armazenamento.cache.bytes-maximo-arquivo:2097152}") long bytesMaximoArquivo) {
+        long bytesPorSlab = (long) TAMANHO_PAGINA * PAGINAS_POR_SLAB;
+        this.maximoSlabs = (int) Math.min(Integer.MAX_VALUE / PAGINAS_POR_SLAB, bytesMaximo / bytesPorSlab);
+        this.habilitado = habilitado && maximoSlabs > 0;
+        this.bytesMaximo = maximoSlabs * bytesPorSlab;
+        this.bytesMaximoArquivo = Math.min(bytesMaximoArquivo, this.bytesMaximo);
+    }
+
+    /**
+     * Conteúdo de uma entrada do cache. Enquanto não for fechado, suas páginas não são reaproveitadas.
+     */
+    public final class Conteudo implements AutoCloseable {
+
+        private final Entrada entrada;
+        private final AtomicBoolean fechado = new AtomicBoolean(false);
+
+        private Conteudo(Entrada entrada) {
+            this.entrada = entrada;
+        }
+
+        public long tamanho() {
+            return entrada.tamanho;
+        }
+
+        /**
+         * Escreve um trecho do conteúdo no canal, direto da memória do cache.
+         */
+        public void escrever(long inicio, long quantidade, WritableByteChannel destino) throws IOException {
+            if (inicio < 0 || quantidade < 0 || inicio + quantidade > entrada.tamanho) {
+                throw new IllegalArgumentException("Trecho fora do conteúdo.");
+            }
+            long posicao = inicio;
+            long restante = quantidade;
+            while (restante > 0) {
+                int deslocamento = (int) (posicao % TAMANHO_PAGINA);
+                int tamanhoTrecho = (int) Math.min(restante, TAMANHO_PAGINA - deslocamento);
+                ByteBuffer trecho = pagina(entrada.paginas[(int) (posicao / TAMANHO_PAGINA)], deslocamento, tamanhoTrecho);
+                while (trecho.hasRemaining()) {
+                    destino.write(trecho);
+                }
+                posicao += tamanhoTrecho;
+                restante -= tamanhoTrecho;
+            }
+        }
+
+        /**
+         * O conteúdo como InputStream; fechar o stream fecha este Conteudo.
+         */
+        public InputStream comoStream() {
+            return new InputStream() {
+                private long posicao;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] um = new byte[1];
+                    return read(um, 0, 1) == -1 ? -1 : um[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] destino, int inicio, int quantidade) {
+                    if (posicao >= entrada.tamanho) {
+                        return -1;
+                    }
+                    int deslocamento = (int) (posicao % TAMANHO_PAGINA);
+                    int lidos = (int) Math.min(Math.min(quantidade, TAMANHO_PAGINA - deslocamento), entrada.tamanho - posicao);
+                    pagina(entrada.paginas[(int) (posicao / TAMANHO_PAGINA)], deslocamento, lidos).get(destino, inicio, lidos);
+                    posicao += lidos;
+                    return lidos;
+                }
+
+                @Override
+                public int available() {
+                    return (int) Math.min(Integer.MAX_VALUE, entrada.tamanho - posicao);
+                }
+
+                @Override
+                public void close() {
+                    Conteudo.this.close();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if (fechado.compareAndSet(false, true)) {
+                soltar(entrada);
+            }
+        }
+    }
+
+    /**
+     * Busca o conteúdo no cache ou, se for pequeno e já tiver falhado recentemente, o lê do armazenamento
+     * para o cache. Uma entrada com tamanho diferente do atual é descartada (o conteúdo mudou).
+     * @param chave Chave do conteúdo no armazenamento.
+     * @param tamanho Tamanho atual do conteúdo.
+     * @param armazenamento De onde ler o conteúdo em caso de falha.
+     * @return O conteúdo em cache, que deve ser fechado após o uso; vazio se o cache não for usado.
+     * @throws IOException Se houver erro ao ler o conteúdo do armazenamento.
+     */
+    public Optional<Conteudo> abrir(String chave, long tamanho, Armazenamento armazenamento) throws IOException {
+        return abrir(chave, tamanho, armazenamento, false);
+    }
+
+    /**
+     * Mesmo que {@link #abrir(String, long, Armazenamento)}; com {@code conhecidoQuente} o conteúdo
+     * entra no cache já na primeira falha (o chamador sabe, pelos contadores de acesso, que é popular).
+     */
+    public Optional<Conteudo> abrir(String chave, long tamanho, Armazenamento armazenamento,
+                                    boolean conhecidoQuente) throws IOException {
+        if (!habilitado || tamanho > bytesMaximoArquivo) {
+            return Optional.empty();
+        }
+        int[] paginas;
+        synchronized (this) {
+            Entrada entrada = entradas.get(chave);
+            if (entrada != null && entrada.tamanho == tamanho) {
+                acertos.increment();
+                entrada.leitores++;
+                return Optional.of(new Conteudo(entrada));
+            }
+            falhas.increment();
+            if (entrada != null) {
+                remover(chave);
+            } else if (vistas.remove(chave) == null && !conhecidoQuente) {
+                vistas.put(chave, Boolean.TRUE);
+                return Optional.empty();
+            }
+            paginas = reservar((int) ((tamanho + TAMANHO_PAGINA - 1) / TAMANHO_PAGINA));
+            if (paginas == null) {
+                return Optional.empty();
+            }
+        }
+
+        // Leitura fora do lock: as páginas reservadas não estão nem livres nem em nenhuma entrada
+        try (ReadableByteChannel origem = Channels.newChannel(armazenamento.ler(chave))) {
+            long restante = tamanho;
+            for (int pagina : paginas) {
+                ByteBuffer destino = pagina(pagina, 0, (int) Math.min(restante, TAMANHO_PAGINA));
+                while (destino.hasRemaining()) {
+                    if (origem.read(destino) == -1) {
+                        throw new EOFException("Conteúdo menor que o esperado: " + chave);
+                    }
+                }
+                restante -= TAMANHO_PAGINA;
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                liberar(paginas);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            Entrada existente = entradas.get(chave);
+            if (existente != null && existente.tamanho == tamanho) {
+                // Outra leitura carregou a mesma chave ao mesmo tempo
+                liberar(paginas);
+                existente.leitores++;
+                return Optional.of(new Conteudo(existente));
+            }
+            if (existente != null) {
+                remover(chave);
+            }
+            Entrada entrada = new Entrada(paginas, tamanho);
+            entrada.leitores++;
+            entradas.put(chave, entrada);
+            return Optional.of(new Conteudo(entrada));
+        }
+    }
+
+    /**
+     * Descarta a entrada da chave, se houver. Envios em andamento terminam com o conteúdo antigo.
+     */
+    public void invalidar(String chave) {
+        if (!habilitado || chave == null) {
+            return;
+        }
+        synchronized (this) {
+            remover(chave);
+            vistas.remove(chave);
+        }
+    }
+
+    public synchronized Estatisticas estatisticas() {
+        long paginasEmUso = (long) slabs.size() * PAGINAS_POR_SLAB - paginasLivres.size();
+        return new Estatisticas(habilitado, acertos.sum(), falhas.sum(), remocoes.sum(),
+                entradas.size(), paginasEmUso * TAMANHO_PAGINA, bytesMaximo);
+    }
+
+    /**
+     * Separa as páginas para um novo conteúdo: primeiro as livres, depois novos slabs e, por fim,
+     * removendo entradas da menos para a mais usada recentemente.
+     * @return null se não houver páginas suficientes nem removendo (todas em envio).
+     */
+    private int[] reservar(int quantidade) {
+        while (paginasLivres.size() < quantidade && slabs.size() < maximoSlabs) {
+            int primeira = slabs.size() * PAGINAS_POR_SLAB;
+            slabs.add(ByteBuffer.allocateDirect(TAMANHO_PAGINA * PAGINAS_POR_SLAB));
+            for (int i = 0; i < PAGINAS_POR_SLAB; i++) {
+                paginasLivres.add(primeira + i);
+            }
+        }
+        Iterator<Map.Entry<String, Entrada>> menosUsadas = entradas.entrySet().iterator();
+        while (paginasLivres.size() < quantidade && menosUsadas.hasNext()) {
+            Entrada entrada = menosUsadas.next().getValue();
+            menosUsadas.remove();
+            descartar(entrada);
+        }
+        if (paginasLivres.size() < quantidade) {
+            return null;
+        }
+        int[] paginas = new int[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            paginas[i] = paginasLivres.poll();
+        }
+        return paginas;
+    }
+
+    private void remover(String chave) {
+        Entrada entrada = entradas.remove(chave);
+        if (entrada != null) {
+            descartar(entrada);
+        }
+    }
+
+    private void descartar(Entrada entrada) {
+        remocoes.increment();
+        entrada.removida = true;
+        if (entrada.leitores == 0) {
+            liberar(entrada.paginas);
+        }
+    }
+
+    private synchronized void soltar(Entrada entrada) {
+        entrada.leitores--;
+        if (entrada.removida && entrada.leitores == 0) {
+            liberar(entrada.paginas);
+        }
+    }
+
+    private void liberar(int[] paginas) {
+        for (int pagina : paginas) {
+            paginasLivres.push(pagina);
+        }
+    }
+
+    private ByteBuffer pagina(int pagina, int deslocamento, int quantidade) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get(pagina / PAGINAS_POR_SLAB);
+        }
+        int inicio = (pagina % PAGINAS_POR_SLAB) * TAMANHO_PAGINA + deslocamento;
+        return slab.duplicate().position(inicio).limit(inicio + quantidade);
+    }
+
+    private static final class Entrada {
+        final int[] paginas;
+        final long tamanho;
+        int leitores;
+        boolean removida;
+
+        Entrada(int[] paginas, long tamanho) {
+            this.paginas = paginas;
+            this.tamanho = tamanho;
+        }
+    }
+}
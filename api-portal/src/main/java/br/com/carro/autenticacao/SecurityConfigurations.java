@@ -122,6 +122,9 @@ public class SecurityConfigurations {
                     .requestMatchers(HttpMethod.POST, "/login").permitAll() // ✅ Permite acesso público ao endpoint de login
                     // ✅ Permite POST para /api/login sem autenticação
                     .requestMatchers(HttpMethod.POST, "/api/login").permitAll()
+                    // ✅ Links de download assinados: o token na URL é a credencial
+                    .requestMatchers(HttpMethod.GET, "/api/arquivo/link/*").permitAll()
+                    .requestMatchers(HttpMethod.HEAD, "/api/arquivo/link/*").permitAll()
                     .anyRequest().authenticated()
                 )
                 .oauth2ResourceServer(oauth2 -> oauth2.jwt(jwt -> jwt.jwtAuthenticationConverter(jwtAuthenticationConverter()))) // Configura o servidor de recursos OAuth2 para usar JWT
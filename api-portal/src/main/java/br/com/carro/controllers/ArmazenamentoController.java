@@ -0,0 +1,90 @@
+package br.com.carro.controllers;
+
+import br.com.carro.armazenamento.CacheConteudo;
+import br.com.carro.services.MigracaoLayoutService;
+import br.com.carro.services.VerificacaoIntegridadeService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Operações administrativas sobre o armazenamento físico dos arquivos.
+ */
+@RestController
+@RequestMapping("/api/admin/armazenamento")
+public class ArmazenamentoController {
+
+    public record Mensagem(String mensagem) {}
+
+    private final MigracaoLayoutService migracaoLayoutService;
+    private final CacheConteudo cacheConteudo;
+    private final VerificacaoIntegridadeService verificacaoIntegridadeService;
+
+    @Autowired
+    public ArmazenamentoController(MigracaoLayoutService migracaoLayoutService, CacheConteudo cacheConteudo,
+                                   VerificacaoIntegridadeService verificacaoIntegridadeService) {
+        this.migracaoLayoutService = migracaoLayoutService;
+        this.cacheConteudo = cacheConteudo;
+        this.verificacaoIntegridadeService = verificacaoIntegridadeService;
+    }
+
+    /**
+     * Inicia em segundo plano a migração dos arquivos para o layout com fan-out por hash.
+     * Responde 202 com a situação inicial, ou 409 se já houver uma migração em andamento.
+     * Acesso apenas para 'ADMIN'.
+     */
+    @PostMapping("/migrar-layout")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> migrarLayout() {
+        if (!migracaoLayoutService.iniciar()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new Mensagem("Já existe uma migração em andamento."));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(migracaoLayoutService.relatorio());
+    }
+
+    /**
+     * Situação da última migração de layout.
+     * Acesso apenas para 'ADMIN'.
+     */
+    @GetMapping("/migrar-layout")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<MigracaoLayoutService.RelatorioMigracao> situacaoMigracao() {
+        return ResponseEntity.ok(migracaoLayoutService.relatorio());
+    }
+
+    /**
+     * Continua a verificação de integridade até o fim da passagem atual, sem esperar as execuções agendadas.
+     * Responde 202 com a situação, ou 409 se já houver uma verificação em andamento.
+     * Acesso apenas para 'ADMIN'.
+     */
+    @PostMapping("/verificacao")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> iniciarVerificacao() {
+        if (!verificacaoIntegridadeService.iniciar()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new Mensagem("Já existe uma verificação em andamento."));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(verificacaoIntegridadeService.relatorio());
+    }
+
+    /**
+     * Situação da verificação de integridade e problemas encontrados recentemente.
+     * Acesso apenas para 'ADMIN'.
+     */
+    @GetMapping("/verificacao")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<VerificacaoIntegridadeService.RelatorioVerificacao> situacaoVerificacao() {
+        return ResponseEntity.ok(verificacaoIntegridadeService.relatorio());
+    }
+
+    /**
+     * Acertos, falhas, remoções e ocupação do cache de conteúdo em memória.
+     * Acesso apenas para 'ADMIN'.
+     */
+    @GetMapping("/cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<CacheConteudo.Estatisticas> estatisticasCache() {
+        return ResponseEntity.ok(cacheConteudo.estatisticas());
+    }
+}
@@ -0,0 +1,328 @@
+package br.com.carro.controllers;
+
+import br.com.carro.autenticacao.JpaUserDetailsService;
+import br.com.carro.entities.Arquivo;
+import br.com.carro.entities.ArquivoDto;
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.exceptions.CotaExcedidaException;
+import br.com.carro.services.ArquivoService;
+import br.com.carro.services.CamadasArmazenamentoService;
+import br.com.carro.services.DownloadArquivoService;
+import br.com.carro.services.LinkDownloadService;
+import br.com.carro.services.UploadEmLoteService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.zip.ZipException;
+
+@RestController
+@RequestMapping("/api/arquivo")
+public class ArquivoController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArquivoController.class);
+    public record Mensagem(String mensagem) {}
+    public record LinkDownload(String url, Instant expiraEm) {}
+
+    private final ArquivoService arquivoService;
+    private final DownloadArquivoService downloadArquivoService;
+    private final CamadasArmazenamentoService camadasArmazenamentoService;
+    private final UploadEmLoteService uploadEmLoteService;
+    private final LinkDownloadService linkDownloadService;
+    private final JpaUserDetailsService userDetailsService;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ArquivoController(ArquivoService arquivoService, DownloadArquivoService downloadArquivoService,
+                             CamadasArmazenamentoService camadasArmazenamentoService,
+                             UploadEmLoteService uploadEmLoteService, LinkDownloadService linkDownloadService,
+                             JpaUserDetailsService userDetailsService, ObjectMapper objectMapper) {
+        this.arquivoService = arquivoService;
+        this.downloadArquivoService = downloadArquivoService;
+        this.camadasArmazenamentoService = camadasArmazenamentoService;
+        this.uploadEmLoteService = uploadEmLoteService;
+        this.linkDownloadService = linkDownloadService;
+        this.userDetailsService = userDetailsService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Upload multipart em streaming.
+     * O corpo é lido parte a parte direto do socket (sem o buffer em disco do Tomcat) e o
+     * primeiro campo de arquivo é gravado no destino final. O ID da pasta vem no path (e não em
+     * um parâmetro) porque request.getParameter() faria o Tomcat interpretar o multipart inteiro.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @PostMapping(value = "/upload/{pastaId}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> uploadMultipart(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable Long pastaId,
+            HttpServletRequest request
+    ) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+            FileItemInputIterator partes = upload.getItemIterator(request);
+            while (partes.hasNext()) {
+                FileItemInput parte = partes.next();
+                if (parte.isFormField()) {
+                    continue;
+                }
+                try (InputStream conteudo = parte.getInputStream()) {
+                    Arquivo arquivo = arquivoService.salvarArquivo(conteudo, parte.getName(), parte.getContentType(), pastaId, usuarioLogado);
+                    return ResponseEntity.status(HttpStatus.CREATED).body(ArquivoDto.de(arquivo));
+                }
+            }
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem("Nenhum arquivo enviado."));
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (CotaExcedidaException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(new Mensagem(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        } catch (IOException e) {
+            logger.error("Falha no upload para a pasta {}", pastaId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Mensagem("Erro ao salvar o arquivo: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Upload bruto: o corpo da requisição é o próprio PDF (Content-Type: application/pdf).
+     * Os bytes são copiados do socket para o arquivo final em uma única passada.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @PutMapping(value = "/upload/{pastaId}", consumes = MediaType.APPLICATION_PDF_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> uploadBruto(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable Long pastaId,
+            @RequestParam String nome,
+            HttpServletRequest request
+    ) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try (InputStream conteudo = request.getInputStream()) {
+            Arquivo arquivo = arquivoService.salvarArquivo(conteudo, nome, request.getContentType(), pastaId, usuarioLogado);
+            return ResponseEntity.status(HttpStatus.CREATED).body(ArquivoDto.de(arquivo));
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (CotaExcedidaException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(new Mensagem(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        } catch (IOException e) {
+            logger.error("Falha no upload para a pasta {}", pastaId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Mensagem("Erro ao salvar o arquivo: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Upload de vários PDFs em um único multipart, lido em streaming. Os arquivos são gravados em lotes
+     * (metadados em um batch JDBC por lote) e a resposta traz o resultado de cada parte.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @PostMapping(value = "/upload/{pastaId}/lote", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> uploadLote(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable Long pastaId,
+            HttpServletRequest request
+    ) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+            FileItemInputIterator partes = upload.getItemIterator(request);
+            UploadEmLoteService.ResultadoImportacao resultado = uploadEmLoteService.salvarArquivos(() -> {
+                while (partes.hasNext()) {
+                    FileItemInput parte = partes.next();
+                    if (!parte.isFormField()) {
+                        return new UploadEmLoteService.ParteArquivo(parte.getName(), parte.getContentType(), parte.getInputStream());
+                    }
+                }
+                return null;
+            }, pastaId, usuarioLogado);
+            return ResponseEntity.status(HttpStatus.CREATED).body(resultado);
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (CotaExcedidaException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        } catch (IOException e) {
+            logger.error("Falha no upload em lote para a pasta {}", pastaId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Mensagem("Erro ao salvar os arquivos: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Upload de um ZIP (corpo da requisição com Content-Type: application/zip), expandido na pasta:
+     * as subpastas do ZIP são criadas e os PDFs gravados em lotes, lidos do socket entrada por entrada.
+     * Responde com o resultado de cada entrada (arquivo criado ou motivo da recusa).
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @PutMapping(value = "/upload/{pastaId}/zip", consumes = "application/zip")
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> uploadZip(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable Long pastaId,
+            HttpServletRequest request
+    ) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try (InputStream conteudo = request.getInputStream()) {
+            UploadEmLoteService.ResultadoImportacao resultado = uploadEmLoteService.importarZip(conteudo, pastaId, usuarioLogado);
+            return ResponseEntity.status(HttpStatus.CREATED).body(resultado);
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (CotaExcedidaException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        } catch (ZipException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem("ZIP inválido: " + e.getMessage()));
+        } catch (IOException e) {
+            logger.error("Falha ao expandir o ZIP na pasta {}", pastaId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Mensagem("Erro ao salvar os arquivos: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Download com suporte a Range (206, inclusive multi-range), ETag forte e Last-Modified (304).
+     * Leitores de PDF buscam só os trechos que exibem e revalidam o cache sem baixar o arquivo de novo.
+     * Um arquivo na camada fria é promovido ao armazenamento principal antes do envio.
+     * Acesso para 'ADMIN', 'BASIC' e 'GERENTE'.
+     */
+    @GetMapping("/{id}/download")
+    @PreAuthorize("hasAnyRole('ADMIN', 'BASIC', 'GERENTE')")
+    public void download(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable Long id,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            Arquivo arquivo = arquivoService.buscarParaDownload(id, usuarioLogado);
+            camadasArmazenamentoService.prepararLeitura(arquivo);
+            downloadArquivoService.enviar(arquivo, arquivo.getCaminhoArmazenamento(), request, response, usuarioLogado);
+        } catch (IllegalAccessException e) {
+            responderErro(response, HttpStatus.FORBIDDEN, e.getMessage());
+        } catch (IllegalArgumentException | NoSuchFileException e) {
+            responderErro(response, HttpStatus.NOT_FOUND, "Arquivo não encontrado.");
+        }
+    }
+
+    /**
+     * Emite um link de download assinado e de validade curta, após validar a permissão de leitura.
+     * Um arquivo na camada fria é promovido agora, para que o link sirva o conteúdo sem outras consultas.
+     * Acesso para 'ADMIN', 'BASIC' e 'GERENTE'.
+     */
+    @PostMapping("/{id}/link")
+    @PreAuthorize("hasAnyRole('ADMIN', 'BASIC', 'GERENTE')")
+    public ResponseEntity<?> emitirLink(@AuthenticationPrincipal Jwt jwt, @PathVariable Long id) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            Arquivo arquivo = arquivoService.buscarParaDownload(id, usuarioLogado);
+            camadasArmazenamentoService.prepararLeitura(arquivo);
+            // A promoção pode ter mudado o local do conteúdo
+            arquivo = arquivoService.buscarParaDownload(id, usuarioLogado);
+            LinkDownloadService.LinkEmitido link = linkDownloadService.emitir(arquivo, usuarioLogado);
+            return ResponseEntity.ok(new LinkDownload("/api/arquivo/link/" + link.token(), link.expiraEm()));
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem("Arquivo não encontrado."));
+        } catch (IOException e) {
+            logger.error("Falha ao preparar o arquivo {} para o link de download", id, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Mensagem("Erro ao preparar o arquivo: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Download por link assinado: sem JWT, carga do usuário ou consulta de permissão, apenas a verificação da
+     * assinatura e a busca do arquivo pelo ID. Mesmo suporte a Range e condicionais do download autenticado; a
+     * resposta pode ficar no cache do proxy até o link expirar. Um arquivo excluído ou que voltou à camada fria
+     * responde 404 e o link deve ser emitido de novo.
+     * Acesso público (o token é a credencial).
+     */
+    @GetMapping("/link/{token}")
+    public void downloadPorLink(@PathVariable String token, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        try {
+            LinkDownloadService.Link link = linkDownloadService.verificar(token);
+            long restante = Math.max(0, Duration.between(Instant.now(), Instant.ofEpochSecond(link.expira())).toSeconds());
+            Arquivo arquivo = linkDownloadService.buscarArquivo(link);
+            downloadArquivoService.enviar(arquivo, arquivo.getCaminhoArmazenamento(), request, response, link.usuario(),
+                    "public, max-age=" + restante);
+        } catch (IllegalAccessException e) {
+            responderErro(response, HttpStatus.FORBIDDEN, e.getMessage());
+        } catch (NoSuchFileException e) {
+            responderErro(response, HttpStatus.NOT_FOUND, "Arquivo não encontrado.");
+        }
+    }
+
+    private void responderErro(HttpServletResponse response, HttpStatus status, String mensagem) throws IOException {
+        if (response.isCommitted()) {
+            return;
+        }
+        response.resetBuffer();
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getOutputStream(), new Mensagem(mensagem));
+    }
+}
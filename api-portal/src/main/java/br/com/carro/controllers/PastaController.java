@@ -2,7 +2,10 @@ package br.com.carro.controllers;
 
 import br.com.carro.autenticacao.JpaUserDetailsService;
 import br.com.carro.entities.Pasta;
+import br.com.carro.entities.PastaArvoreDto;
 import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.exceptions.CotaExcedidaException;
+import br.com.carro.services.DownloadPastaService;
 import br.com.carro.services.PastaService;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
@@ -12,12 +15,19 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/pasta")
@@ -25,14 +35,18 @@ public class PastaController {
 
     private static final Logger logger = LoggerFactory.getLogger(PastaController.class);
     public record Mensagem(String mensagem) {}
+    public record MoverPasta(Long pastaPaiId) {}
 
     @Autowired
     private final PastaService pastaService;
+    private final DownloadPastaService downloadPastaService;
     private final JpaUserDetailsService userDetailsService; // ✅ Injetando o service de usuário
 
     @Autowired
-    public PastaController(PastaService pastaService, JpaUserDetailsService userDetailsService) {
+    public PastaController(PastaService pastaService, DownloadPastaService downloadPastaService,
+                           JpaUserDetailsService userDetailsService) {
         this.pastaService = pastaService;
+        this.downloadPastaService = downloadPastaService;
         this.userDetailsService = userDetailsService;
     }
 
@@ -96,6 +110,37 @@ public class PastaController {
         return ResponseEntity.ok(subpastas);
     }
 
+    /**
+     * Árvore de pastas de um setor (inteira ou até 'profundidade' níveis abaixo das principais), aninhada e
+     * carregada em uma única consulta. Usuários que não são ADMIN só veem a árvore do próprio setor.
+     * Acesso para 'ADMIN', 'BASIC' e 'GERENTE'.
+     */
+    @GetMapping("/setor/{setorId}/arvore")
+    @PreAuthorize("hasAnyRole('ADMIN', 'BASIC', 'GERENTE')")
+    public ResponseEntity<?> arvoreDoSetor(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable Long setorId,
+            @RequestParam(required = false) Integer profundidade
+    ) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+        boolean isAdmin = usuarioLogado.getRoles().stream().anyMatch(r -> r.getNome().equals("ROLE_ADMIN"));
+        if (!isAdmin && (usuarioLogado.getSetor() == null || !setorId.equals(usuarioLogado.getSetor().getId()))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem("Você não tem acesso a este setor."));
+        }
+
+        try {
+            List<PastaArvoreDto> arvore = pastaService.montarArvore(setorId, profundidade);
+            return ResponseEntity.ok(arvore);
+        } catch (jakarta.persistence.EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        }
+    }
+
     /**
      * Busca uma pasta por ID.
      * Acesso para 'ADMIN', 'BASIC' e 'GERENTE'.
@@ -111,6 +156,34 @@ public class PastaController {
         }
     }
 
+    /**
+     * Baixa a pasta e todas as subpastas em um ZIP, gerado em streaming enquanto é enviado.
+     * Arquivos de pastas que o usuário não pode ler ficam de fora.
+     * Acesso para 'ADMIN', 'BASIC' e 'GERENTE'.
+     */
+    @GetMapping("/{id}/download")
+    @PreAuthorize("hasAnyRole('ADMIN', 'BASIC', 'GERENTE')")
+    public ResponseEntity<?> downloadZip(@AuthenticationPrincipal Jwt jwt, @PathVariable Long id) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            DownloadPastaService.ConteudoZip conteudo = downloadPastaService.listarConteudo(id, usuarioLogado);
+            StreamingResponseBody corpo = saida -> downloadPastaService.escreverZip(conteudo.entradas(), saida, usuarioLogado);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                            .filename(conteudo.nomeArquivo(), StandardCharsets.UTF_8).build().toString())
+                    .body(corpo);
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (jakarta.persistence.EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        }
+    }
+
     /**
      * Cria uma nova pasta. Ela pode ser uma pasta raiz (sem pastaPai) ou uma subpasta.
      * Acesso restrito a 'ADMIN'.
@@ -144,6 +217,27 @@ public class PastaController {
         }
     }
 
+    /**
+     * Move a pasta, com subpastas e arquivos, para dentro de outra pasta (inclusive de outro setor) ou, sem
+     * pastaPaiId, para a raiz do setor dela.
+     * Só os metadados mudam; os caminhos das subpastas são reescritos em um único comando.
+     * Acesso restrito a 'ADMIN'.
+     */
+    @PatchMapping("/{id}/mover")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> mover(@PathVariable Long id, @RequestBody MoverPasta destino) {
+        try {
+            Pasta pastaMovida = this.pastaService.mover(id, destino.pastaPaiId());
+            return ResponseEntity.ok(pastaMovida);
+        } catch (jakarta.persistence.EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        } catch (CotaExcedidaException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        }
+    }
+
     /**
      * Exclui uma pasta e suas subpastas.
      * Acesso restrito a 'ADMIN'.
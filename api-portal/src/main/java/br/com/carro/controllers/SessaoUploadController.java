@@ -0,0 +1,201 @@
+package br.com.carro.controllers;
+
+import br.com.carro.autenticacao.JpaUserDetailsService;
+import br.com.carro.entities.ArquivoDto;
+import br.com.carro.entities.Upload.SessaoUpload;
+import br.com.carro.entities.Upload.SessaoUploadDto;
+import br.com.carro.entities.Upload.SessaoUploadRequest;
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.exceptions.CotaExcedidaException;
+import br.com.carro.services.SessaoUploadService;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * Upload retomável em blocos (no estilo do protocolo tus).
+ * POST cria a sessão, HEAD informa o offset confirmado (Upload-Offset), PATCH envia um bloco a partir
+ * desse offset e DELETE cancela. O último PATCH finaliza a sessão e devolve o Arquivo criado.
+ */
+@RestController
+@RequestMapping("/api/upload-sessao")
+public class SessaoUploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessaoUploadController.class);
+    public record Mensagem(String mensagem) {}
+
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    static final String UPLOAD_LENGTH = "Upload-Length";
+    static final String CONTEUDO_BLOCO = "application/offset+octet-stream";
+
+    private final SessaoUploadService sessaoUploadService;
+    private final JpaUserDetailsService userDetailsService;
+
+    @Autowired
+    public SessaoUploadController(SessaoUploadService sessaoUploadService, JpaUserDetailsService userDetailsService) {
+        this.sessaoUploadService = sessaoUploadService;
+        this.userDetailsService = userDetailsService;
+    }
+
+    /**
+     * Cria uma sessão de upload para uma pasta.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @PostMapping
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> criar(@AuthenticationPrincipal Jwt jwt, @RequestBody SessaoUploadRequest corpo) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            SessaoUpload sessao = sessaoUploadService.criar(corpo.pastaId(), corpo.nomeArquivo(), corpo.tamanhoBytes(), usuarioLogado);
+            URI local = ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(sessao.getId()).toUri();
+            return ResponseEntity.created(local)
+                    .header(UPLOAD_OFFSET, "0")
+                    .header(UPLOAD_LENGTH, String.valueOf(sessao.getTamanhoTotal()))
+                    .body(SessaoUploadDto.de(sessao));
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (CotaExcedidaException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(new Mensagem(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        } catch (IOException e) {
+            logger.error("Falha ao criar sessão de upload", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Mensagem("Erro ao criar a sessão de upload: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Consulta o offset confirmado de uma sessão, para retomar o envio.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @RequestMapping(value = "/{id}", method = RequestMethod.HEAD)
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<Void> consultarOffset(@AuthenticationPrincipal Jwt jwt, @PathVariable String id) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            SessaoUpload sessao = sessaoUploadService.buscar(id, usuarioLogado);
+            return ResponseEntity.ok()
+                    .header(UPLOAD_OFFSET, String.valueOf(sessao.getBytesRecebidos()))
+                    .header(UPLOAD_LENGTH, String.valueOf(sessao.getTamanhoTotal()))
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .build();
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+    }
+
+    /**
+     * Consulta o estado de uma sessão em JSON.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @GetMapping("/{id}")
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> buscar(@AuthenticationPrincipal Jwt jwt, @PathVariable String id) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            return ResponseEntity.ok(SessaoUploadDto.de(sessaoUploadService.buscar(id, usuarioLogado)));
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        }
+    }
+
+    /**
+     * Envia um bloco a partir do offset informado em Upload-Offset.
+     * Responde 204 com o novo offset ou, no último bloco, 201 com o Arquivo criado.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @PatchMapping(value = "/{id}", consumes = CONTEUDO_BLOCO)
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> enviarBloco(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable String id,
+            @RequestHeader(UPLOAD_OFFSET) long offset,
+            HttpServletRequest request
+    ) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try (InputStream conteudo = request.getInputStream()) {
+            SessaoUploadService.ResultadoBloco resultado = sessaoUploadService.anexar(id, offset, conteudo, usuarioLogado);
+            if (resultado.arquivo() == null) {
+                return ResponseEntity.noContent()
+                        .header(UPLOAD_OFFSET, String.valueOf(resultado.sessao().getBytesRecebidos()))
+                        .build();
+            }
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(UPLOAD_OFFSET, String.valueOf(resultado.sessao().getBytesRecebidos()))
+                    .body(ArquivoDto.de(resultado.arquivo()));
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        } catch (CotaExcedidaException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(new Mensagem(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new Mensagem(e.getMessage()));
+        } catch (IOException e) {
+            logger.warn("Envio de bloco interrompido na sessão {}", id, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Mensagem("Envio interrompido; consulte o offset e retome: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Cancela a sessão e descarta o conteúdo parcial.
+     * Acesso para 'ADMIN' e 'GERENTE'.
+     */
+    @DeleteMapping("/{id}")
+    @PreAuthorize("hasAnyRole('ADMIN', 'GERENTE')")
+    public ResponseEntity<?> cancelar(@AuthenticationPrincipal Jwt jwt, @PathVariable String id) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+
+        try {
+            sessaoUploadService.cancelar(id, usuarioLogado);
+            return ResponseEntity.noContent().build();
+        } catch (IllegalAccessException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem(e.getMessage()));
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        }
+    }
+}
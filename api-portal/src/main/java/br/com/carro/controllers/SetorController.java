@@ -1,7 +1,12 @@
 package br.com.carro.controllers;
 
+import br.com.carro.autenticacao.JpaUserDetailsService;
 import br.com.carro.entities.Setor;
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.services.ContadorAcessoService;
+import br.com.carro.services.CotaSetorService;
 import br.com.carro.services.SetorService;
+import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +18,8 @@ import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
 
 @RestController
@@ -21,12 +28,20 @@ public class SetorController {
 
     private static final Logger logger = LoggerFactory.getLogger(SetorController.class);
     public record Mensagem(String mensagem) {}
+    public record LimiteCota(Long limiteBytes) {}
 
     @Autowired
     private final SetorService setorService;
+    private final ContadorAcessoService contadorAcessoService;
+    private final CotaSetorService cotaSetorService;
+    private final JpaUserDetailsService userDetailsService;
 
-    public SetorController(SetorService setorService) {
+    public SetorController(SetorService setorService, ContadorAcessoService contadorAcessoService,
+                           CotaSetorService cotaSetorService, JpaUserDetailsService userDetailsService) {
         this.setorService = setorService;
+        this.contadorAcessoService = contadorAcessoService;
+        this.cotaSetorService = cotaSetorService;
+        this.userDetailsService = userDetailsService;
     }
 
     // Listar registros com paginação, filtros e ordenação
@@ -115,4 +130,86 @@ public class SetorController {
         Page<Setor> setores = setorService.listarPaginado(page, size);
         return ResponseEntity.ok(setores);
     }
-}
\ No newline at end of file
+
+    /**
+     * Arquivos mais acessados (downloads + visualizações) nas pastas do setor e em suas subpastas.
+     * Acesso para 'ADMIN' (qualquer setor), 'GERENTE' e 'BASIC' (apenas o próprio setor).
+     */
+    @GetMapping("/{id}/arquivos-mais-acessados")
+    @PreAuthorize("hasAnyRole('ADMIN','BASIC','GERENTE')")
+    public ResponseEntity<?> arquivosMaisAcessados(
+            @AuthenticationPrincipal Jwt jwt,
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "10") int limite
+    ) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+        boolean isAdmin = usuarioLogado.getRoles().stream().anyMatch(r -> r.getNome().equals("ROLE_ADMIN"));
+        if (!isAdmin && (usuarioLogado.getSetor() == null || !id.equals(usuarioLogado.getSetor().getId()))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem("Você não tem acesso a este setor."));
+        }
+        if (limite < 1 || limite > 100) {
+            return ResponseEntity.badRequest().body(new Mensagem("O limite deve estar entre 1 e 100."));
+        }
+        return ResponseEntity.ok(contadorAcessoService.maisAcessadosDoSetor(id, limite));
+    }
+
+    /**
+     * Uso e cota de armazenamento de todos os setores. Acesso restrito a 'ADMIN'.
+     */
+    @GetMapping("/cotas")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> listarCotas() {
+        return ResponseEntity.ok(cotaSetorService.listar());
+    }
+
+    /**
+     * Uso e cota de armazenamento de um setor.
+     * Acesso para 'ADMIN' (qualquer setor), 'GERENTE' e 'BASIC' (apenas o próprio setor).
+     */
+    @GetMapping("/{id}/cota")
+    @PreAuthorize("hasAnyRole('ADMIN','BASIC','GERENTE')")
+    public ResponseEntity<?> buscarCota(@AuthenticationPrincipal Jwt jwt, @PathVariable Long id) {
+        if (jwt == null || !jwt.hasClaim("sub")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Usuario usuarioLogado = (Usuario) userDetailsService.loadUserByUsername(jwt.getSubject());
+        boolean isAdmin = usuarioLogado.getRoles().stream().anyMatch(r -> r.getNome().equals("ROLE_ADMIN"));
+        if (!isAdmin && (usuarioLogado.getSetor() == null || !id.equals(usuarioLogado.getSetor().getId()))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new Mensagem("Você não tem acesso a este setor."));
+        }
+        try {
+            return ResponseEntity.ok(cotaSetorService.buscar(id));
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        }
+    }
+
+    /**
+     * Define o limite de armazenamento do setor em bytes ({"limiteBytes": null} remove o limite).
+     * Acesso restrito a 'ADMIN'.
+     */
+    @PutMapping("/{id}/cota")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> definirCota(@PathVariable Long id, @RequestBody LimiteCota limite) {
+        try {
+            return ResponseEntity.ok(cotaSetorService.definirLimite(id, limite.limiteBytes()));
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new Mensagem(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new Mensagem(e.getMessage()));
+        }
+    }
+
+    /**
+     * Recalcula o uso de todos os setores a partir dos arquivos (correção de divergências).
+     * Acesso restrito a 'ADMIN'.
+     */
+    @PostMapping("/cotas/recalcular")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> recalcularCotas() {
+        return ResponseEntity.ok(cotaSetorService.recalcular());
+    }
+}
@@ -41,6 +41,12 @@ public class Arquivo {
     @Column(name = "tamanho_bytes")
     private Long tamanhoBytes;
 
+    /**
+     * Hash SHA-256 (hexadecimal) do conteúdo, calculado na mesma passada da gravação.
+     */
+    @Column(name = "hash_sha256", length = 64)
+    private String hashSha256;
+
     /**
      * Data e hora em que o arquivo foi enviado.
      */
@@ -0,0 +1,27 @@
+package br.com.carro.entities;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO com os metadados de um arquivo expostos pela API.
+ * Evita serializar a entidade completa (e o usuário que fez o upload).
+ */
+public record ArquivoDto(
+        Long id,
+        String nomeArquivo,
+        Long tamanhoBytes,
+        String hashSha256,
+        LocalDateTime dataUpload,
+        Long pastaId
+) {
+    public static ArquivoDto de(Arquivo arquivo) {
+        return new ArquivoDto(
+                arquivo.getId(),
+                arquivo.getNomeArquivo(),
+                arquivo.getTamanhoBytes(),
+                arquivo.getHashSha256(),
+                arquivo.getDataUpload(),
+                arquivo.getPasta() != null ? arquivo.getPasta().getId() : null
+        );
+    }
+}
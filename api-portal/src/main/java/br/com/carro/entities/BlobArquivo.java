@@ -0,0 +1,84 @@
+package br.com.carro.entities;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDateTime;
+
+/**
+ * Representa o conteúdo físico de um arquivo, endereçado pelo seu hash SHA-256.
+ * Uploads repetidos do mesmo PDF compartilham o mesmo blob; cada Arquivo que aponta
+ * para ele conta como uma referência.
+ */
+
+@Entity
+@Table(name = "tb_blob_arquivo")
+@Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+public class BlobArquivo {
+
+    /**
+     * Hash SHA-256 (hexadecimal) do conteúdo. É a chave do blob.
+     */
+    @EqualsAndHashCode.Include
+    @Id
+    @Column(name = "hash_sha256", length = 64)
+    private String hashSha256;
+
+    /**
+     * Chave do blob no armazenamento principal (mantida mesmo quando o conteúdo está na camada fria).
+     */
+    @Column(name = "caminho_armazenamento", nullable = false)
+    private String caminhoArmazenamento;
+
+    /**
+     * Tamanho do conteúdo em bytes.
+     */
+    @Column(name = "tamanho_bytes", nullable = false)
+    private Long tamanhoBytes;
+
+    /**
+     * CRC-32 do conteúdo, exigido pelas entradas sem compressão de um ZIP. Nulo em blobs anteriores ao cálculo.
+     */
+    @Column(name = "crc32")
+    private Long crc32;
+
+    /**
+     * Raiz (hexadecimal) do hash em árvore do conteúdo, em blocos de 4 MiB. Nulo em blobs anteriores ao cálculo.
+     */
+    @Column(name = "hash_arvore", length = 64)
+    private String hashArvore;
+
+    /**
+     * Folhas do hash em árvore (SHA-256 de cada bloco, concatenados), usadas para localizar blocos corrompidos.
+     */
+    @Lob
+    @Column(name = "hashes_blocos", columnDefinition = "MEDIUMBLOB")
+    private byte[] hashesBlocos;
+
+    /**
+     * Quantidade de registros de tb_arquivo que apontam para este blob.
+     */
+    @Column(name = "referencias", nullable = false)
+    private Long referencias;
+
+    /**
+     * Data e hora em que o conteúdo foi gravado pela primeira vez.
+     */
+    @Column(name = "data_criacao", nullable = false)
+    private LocalDateTime dataCriacao;
+
+    /**
+     * Camada em que o conteúdo está (QUENTE no armazenamento principal, FRIA no arquivamento).
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "camada", nullable = false, length = 10)
+    private CamadaArmazenamento camada;
+
+    /**
+     * Último acesso ao conteúdo (download), gravado de forma agregada. Nulo se nunca foi lido.
+     */
+    @Column(name = "ultimo_acesso")
+    private LocalDateTime ultimoAcesso;
+}
@@ -0,0 +1,10 @@
+package br.com.carro.entities;
+
+/**
+ * Camada onde o conteúdo de um blob está gravado.
+ * QUENTE: no armazenamento principal (volume rápido). FRIA: no diretório de arquivamento.
+ */
+public enum CamadaArmazenamento {
+    QUENTE,
+    FRIA
+}
@@ -0,0 +1,43 @@
+package br.com.carro.entities;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Cota de armazenamento de um setor e o uso atual, mantido de forma incremental a cada upload,
+ * substituição e exclusão de arquivo (sem somar tb_arquivo).
+ */
+
+@Entity
+@Table(name = "tb_setor_cota")
+@Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+public class CotaSetor {
+
+    /**
+     * ID do setor (uma linha por setor).
+     */
+    @EqualsAndHashCode.Include
+    @Id
+    @Column(name = "setor_id")
+    private Long setorId;
+
+    /**
+     * Limite em bytes. Nulo quando o setor não tem limite.
+     */
+    @Column(name = "limite_bytes")
+    private Long limiteBytes;
+
+    /**
+     * Soma do tamanho dos arquivos das pastas do setor (cada Arquivo conta, mesmo com o conteúdo deduplicado).
+     */
+    @Column(name = "usado_bytes", nullable = false)
+    private Long usadoBytes;
+
+    /**
+     * Quantidade de arquivos das pastas do setor.
+     */
+    @Column(name = "arquivos", nullable = false)
+    private Long arquivos;
+}
@@ -84,6 +84,27 @@ public class Pasta {
     @Column(name = "data_criacao", nullable = false)
     private LocalDateTime dataCriacao;
 
+    /**
+     * Agregados da pasta, mantidos pelo banco com deltas (PastaRepository.ajustarAgregados) e só lidos aqui:
+     * arquivos nela, arquivos e bytes nela e em todas as subpastas, subpastas diretas e a última alteração
+     * do conteúdo (arquivo enviado, substituído ou excluído, subpasta criada, movida ou excluída).
+     * A última alteração é nula em uma pasta que ainda não mudou desde a criação (vale dataCriacao).
+     */
+    @Column(name = "arquivos_diretos", insertable = false, updatable = false)
+    private Long arquivosDiretos;
+
+    @Column(name = "arquivos_total", insertable = false, updatable = false)
+    private Long arquivosTotal;
+
+    @Column(name = "bytes_total", insertable = false, updatable = false)
+    private Long bytesTotal;
+
+    @Column(name = "subpastas_diretas", insertable = false, updatable = false)
+    private Long subpastasDiretas;
+
+    @Column(name = "ultima_alteracao", insertable = false, updatable = false)
+    private LocalDateTime ultimaAlteracao;
+
     /**
      * Relacionamento muitos-para-muitos para permissões especiais.
      * Permite que usuários de outros setores acessem esta pasta, se necessário.
@@ -0,0 +1,18 @@
+package br.com.carro.entities;
+
+import java.util.List;
+
+/**
+ * Nó da árvore de pastas de um setor, só com o necessário para a navegação.
+ * Em uma árvore com profundidade limitada, 'possuiSubpastas' indica se há pastas abaixo das que vieram.
+ * 'arquivosTotal' e 'bytesTotal' contam a pasta e todas as subpastas (agregados mantidos em tb_pasta).
+ */
+public record PastaArvoreDto(
+        Long id,
+        String nomePasta,
+        boolean possuiSubpastas,
+        long arquivosTotal,
+        long bytesTotal,
+        List<PastaArvoreDto> subpastas
+) {
+}
@@ -0,0 +1,94 @@
+package br.com.carro.entities.Upload;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDateTime;
+
+/**
+ * Sessão de upload retomável (no estilo do protocolo tus).
+ * O cliente cria a sessão informando o tamanho total e envia o conteúdo em blocos a partir
+ * do offset confirmado; quando todos os bytes chegam, a sessão vira um Arquivo.
+ */
+
+@Entity
+@Table(name = "tb_sessao_upload")
+@Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+public class SessaoUpload {
+
+    @EqualsAndHashCode.Include
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    /**
+     * Pasta de destino do arquivo.
+     */
+    @Column(name = "pasta_id", nullable = false)
+    private Long pastaId;
+
+    /**
+     * Usuário dono da sessão. Só ele pode enviar blocos.
+     */
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+
+    /**
+     * Nome do arquivo que será criado ao final do upload.
+     */
+    @Column(name = "nome_arquivo", nullable = false)
+    private String nomeArquivo;
+
+    /**
+     * Tamanho total esperado, em bytes.
+     */
+    @Column(name = "tamanho_total", nullable = false)
+    private Long tamanhoTotal;
+
+    /**
+     * Quantidade de bytes já gravados e confirmados (offset para o próximo bloco).
+     */
+    @Column(name = "bytes_recebidos", nullable = false)
+    private Long bytesRecebidos;
+
+    /**
+     * Arquivo temporário que acumula o conteúdo parcial.
+     */
+    @Column(name = "caminho_temporario", nullable = false)
+    private String caminhoTemporario;
+
+    /**
+     * Folhas do hash em árvore dos blocos de 4 MiB já completos, calculadas a cada bloco enviado.
+     */
+    @Lob
+    @Column(name = "hashes_blocos", columnDefinition = "MEDIUMBLOB")
+    private byte[] hashesBlocos;
+
+    /**
+     * Conteúdo completo já publicado no armazenamento (o temporário foi consumido), mas cujo Arquivo ainda não
+     * foi criado por uma falha transitória: hash, CRC-32 e a chave em que ele foi gravado. Com eles a finalização
+     * é repetida sem reenviar nada. hashesBlocos passa então a guardar todas as folhas, inclusive a do último bloco.
+     */
+    @Column(name = "hash_sha256", length = 64)
+    private String hashSha256;
+
+    @Column(name = "crc32")
+    private Long crc32;
+
+    @Column(name = "chave_publicada")
+    private String chavePublicada;
+
+    /**
+     * Data e hora de criação da sessão.
+     */
+    @Column(name = "data_criacao", nullable = false)
+    private LocalDateTime dataCriacao;
+
+    /**
+     * Sessões sem atividade após esta data são descartadas.
+     */
+    @Column(name = "data_expiracao", nullable = false)
+    private LocalDateTime dataExpiracao;
+}
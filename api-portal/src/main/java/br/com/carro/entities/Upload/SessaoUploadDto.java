@@ -0,0 +1,26 @@
+package br.com.carro.entities.Upload;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO com o estado de uma sessão de upload retomável.
+ */
+public record SessaoUploadDto(
+        String id,
+        Long pastaId,
+        String nomeArquivo,
+        Long tamanhoTotal,
+        Long bytesRecebidos,
+        LocalDateTime dataExpiracao
+) {
+    public static SessaoUploadDto de(SessaoUpload sessao) {
+        return new SessaoUploadDto(
+                sessao.getId(),
+                sessao.getPastaId(),
+                sessao.getNomeArquivo(),
+                sessao.getTamanhoTotal(),
+                sessao.getBytesRecebidos(),
+                sessao.getDataExpiracao()
+        );
+    }
+}
@@ -0,0 +1,10 @@
+package br.com.carro.entities.Upload;
+
+/**
+ * Dados para criar uma sessão de upload retomável.
+ */
+public record SessaoUploadRequest(
+        Long pastaId,
+        String nomeArquivo,
+        Long tamanhoBytes
+) {}
@@ -0,0 +1,12 @@
+package br.com.carro.exceptions;
+
+/**
+ * O conteúdo não cabe na cota de armazenamento do setor. Estende IllegalStateException para que os
+ * endpoints que não a tratam de forma específica continuem respondendo 409.
+ */
+public class CotaExcedidaException extends IllegalStateException {
+
+    public CotaExcedidaException(String mensagem) {
+        super(mensagem);
+    }
+}
@@ -3,13 +3,107 @@ package br.com.carro.repositories;
 
 import br.com.carro.entities.Arquivo;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ArquivoRepository extends JpaRepository<Arquivo, Long> {
 
     // Método para listar todos os arquivos de uma pasta específica
     List<Arquivo> findByPastaId(Long pastaId);
+
+    // Arquivo com o nome na pasta (o banco compara sem diferenciar maiúsculas)
+    Optional<Arquivo> findFirstByPastaIdAndNomeArquivo(Long pastaId, String nomeArquivo);
+
+    boolean existsByPastaIdAndNomeArquivo(Long pastaId, String nomeArquivo);
+
+    // Nomes da pasta que começam com o prefixo (LIKE com '!' como caractere de escape)
+    @Query("SELECT a.nomeArquivo FROM Arquivo a WHERE a.pasta.id = :pastaId AND a.nomeArquivo LIKE :prefixo ESCAPE '!'")
+    List<String> buscarNomesComPrefixo(@Param("pastaId") Long pastaId, @Param("prefixo") String prefixo);
+
+    // Projeção leve (sem carregar pasta e usuário) com a localização física de um arquivo
+    interface LocalizacaoArquivo {
+        Long getId();
+        String getCaminhoArmazenamento();
+        String getHashSha256();
+        Long getTamanhoBytes();
+    }
+
+    // Projeção de um arquivo para o download em ZIP, com o CRC-32 do blob quando já calculado
+    interface ConteudoArquivo {
+        Long getId();
+        Long getPastaId();
+        String getNomeArquivo();
+        String getCaminhoArmazenamento();
+        String getHashSha256();
+        LocalDateTime getDataUpload();
+        Long getCrc32();
+    }
+
+    // Arquivos de várias pastas, sem carregar pasta e usuário de cada um
+    @Query("SELECT a.id AS id, a.pasta.id AS pastaId, a.nomeArquivo AS nomeArquivo, " +
+            "a.caminhoArmazenamento AS caminhoArmazenamento, a.hashSha256 AS hashSha256, a.dataUpload AS dataUpload, " +
+            "b.crc32 AS crc32 FROM Arquivo a LEFT JOIN BlobArquivo b ON b.hashSha256 = a.hashSha256 " +
+            "WHERE a.pasta.id IN :pastaIds ORDER BY a.id")
+    List<ConteudoArquivo> buscarConteudoPorPastas(@Param("pastaIds") Collection<Long> pastaIds);
+
+    // O mesmo para um único arquivo (download por link assinado), por chave primária
+    @Query("SELECT a.id AS id, a.pasta.id AS pastaId, a.nomeArquivo AS nomeArquivo, " +
+            "a.caminhoArmazenamento AS caminhoArmazenamento, a.hashSha256 AS hashSha256, a.dataUpload AS dataUpload, " +
+            "b.crc32 AS crc32 FROM Arquivo a LEFT JOIN BlobArquivo b ON b.hashSha256 = a.hashSha256 WHERE a.id = :id")
+    Optional<ConteudoArquivo> buscarConteudo(@Param("id") Long id);
+
+    // Arquivo já existente com o mesmo nome de um arquivo enviado em lote
+    interface NomeOcupado {
+        Long getId();
+        Long getPastaId();
+        String getNomeArquivo();
+        String getCaminhoArmazenamento();
+        String getHashSha256();
+        Long getTamanhoBytes();
+    }
+
+    // Arquivos com um dos nomes em uma das pastas (candidatos a conflito em um upload em lote)
+    @Query("SELECT a.id AS id, a.pasta.id AS pastaId, a.nomeArquivo AS nomeArquivo, " +
+            "a.caminhoArmazenamento AS caminhoArmazenamento, a.hashSha256 AS hashSha256, a.tamanhoBytes AS tamanhoBytes " +
+            "FROM Arquivo a WHERE a.pasta.id IN :pastaIds AND a.nomeArquivo IN :nomes ORDER BY a.id")
+    List<NomeOcupado> buscarPorPastasENomes(@Param("pastaIds") Collection<Long> pastaIds,
+                                                @Param("nomes") Collection<String> nomes);
+
+    // Percorre tb_arquivo em ordem de ID (keyset), uma página por vez
+    List<LocalizacaoArquivo> findTop500ByIdGreaterThanOrderByIdAsc(Long id);
+
+    // Quais dos caminhos são usados por algum arquivo (busca de órfãos no armazenamento)
+    @Query("SELECT DISTINCT a.caminhoArmazenamento FROM Arquivo a WHERE a.caminhoArmazenamento IN :caminhos")
+    List<String> buscarCaminhos(@Param("caminhos") Collection<String> caminhos);
+
+    // Aponta um arquivo para um novo local de armazenamento (e registra hash e tamanho do conteúdo)
+    @Modifying
+    @Query("UPDATE Arquivo a SET a.caminhoArmazenamento = :caminho, a.hashSha256 = :hash, a.tamanhoBytes = :tamanho WHERE a.id = :id")
+    int atualizarArmazenamento(@Param("id") Long id, @Param("caminho") String caminho,
+                               @Param("hash") String hash, @Param("tamanho") Long tamanho);
+
+    // Reaponta todos os arquivos de um blob que mudou de lugar
+    @Modifying
+    @Query("UPDATE Arquivo a SET a.caminhoArmazenamento = :novo WHERE a.hashSha256 = :hash AND a.caminhoArmazenamento = :antigo")
+    int moverArmazenamento(@Param("hash") String hash, @Param("antigo") String antigo, @Param("novo") String novo);
+
+    // Conteúdos no layout antigo (sem blob correspondente) dos arquivos de uma pasta e de todas as subpastas
+    @Query(value = "SELECT a.caminho_armazenamento FROM tb_pasta_fechamento f " +
+            "JOIN tb_arquivo a ON a.pasta_id = f.descendente_id " +
+            "LEFT JOIN tb_blob_arquivo b ON b.hash_sha256 = a.hash_sha256 AND b.caminho_armazenamento = a.caminho_armazenamento " +
+            "WHERE f.ancestral_id = :pasta AND b.hash_sha256 IS NULL", nativeQuery = true)
+    List<String> buscarConteudoForaDeBlobsDaSubarvore(@Param("pasta") Long pastaId);
+
+    // Exclui os arquivos das pastas de uma vez (os contadores de acesso saem em cascata)
+    @Modifying(clearAutomatically = true)
+    @Query(value = "DELETE FROM tb_arquivo WHERE pasta_id IN :pastas", nativeQuery = true)
+    int excluirPorPastas(@Param("pastas") Collection<Long> pastaIds);
 }
\ No newline at end of file
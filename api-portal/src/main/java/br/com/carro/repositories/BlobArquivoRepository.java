@@ -0,0 +1,122 @@
+package br.com.carro.repositories;
+
+import br.com.carro.entities.BlobArquivo;
+import br.com.carro.entities.CamadaArmazenamento;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BlobArquivoRepository extends JpaRepository<BlobArquivo, String> {
+
+    // Cria o blob com uma referência ou, se o hash já existir, apenas incrementa o contador.
+    // O MySQL devolve 1 quando a linha foi inserida e 2 quando uma linha existente foi atualizada.
+    // Um blob antigo, ainda sem CRC-32 ou sem hash em árvore, os recebe aqui.
+    @Modifying(clearAutomatically = true)
+    @Query(value = "INSERT INTO tb_blob_arquivo (hash_sha256, caminho_armazenamento, tamanho_bytes, crc32, " +
+            "hash_arvore, hashes_blocos, referencias, data_criacao) " +
+            "VALUES (:hash, :caminho, :tamanho, :crc32, :raiz, :folhas, 1, NOW(6)) " +
+            "ON DUPLICATE KEY UPDATE referencias = referencias + 1, crc32 = COALESCE(crc32, VALUES(crc32)), " +
+            "hashes_blocos = IF(hash_arvore IS NULL, VALUES(hashes_blocos), hashes_blocos), " +
+            "hash_arvore = COALESCE(hash_arvore, VALUES(hash_arvore))", nativeQuery = true)
+    int registrarReferencia(@Param("hash") String hash, @Param("caminho") String caminho, @Param("tamanho") long tamanho,
+                            @Param("crc32") long crc32, @Param("raiz") String raiz, @Param("folhas") byte[] folhas);
+
+    // Incrementa as referências de um blob existente (upload deduplicado só com metadados)
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE BlobArquivo b SET b.referencias = b.referencias + 1 WHERE b.hashSha256 = :hash")
+    int incrementarReferencias(@Param("hash") String hash);
+
+    // Decrementa as referências; o UPDATE mantém a linha bloqueada até o fim da transação
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE BlobArquivo b SET b.referencias = b.referencias - 1 WHERE b.hashSha256 = :hash AND b.referencias > 0")
+    int decrementarReferencias(@Param("hash") String hash);
+
+    // Desconta de cada blob as referências dos arquivos de uma pasta e de todas as subpastas, em um único UPDATE
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_blob_arquivo b JOIN (SELECT a.hash_sha256 AS hash, a.caminho_armazenamento AS caminho, " +
+            "COUNT(*) AS quantidade FROM tb_pasta_fechamento f JOIN tb_arquivo a ON a.pasta_id = f.descendente_id " +
+            "WHERE f.ancestral_id = :pasta AND a.hash_sha256 IS NOT NULL GROUP BY a.hash_sha256, a.caminho_armazenamento) r " +
+            "ON r.hash = b.hash_sha256 AND r.caminho = b.caminho_armazenamento " +
+            "SET b.referencias = GREATEST(b.referencias - r.quantidade, 0)", nativeQuery = true)
+    int liberarReferenciasDaSubarvore(@Param("pasta") Long pastaId);
+
+    // Blobs usados pelos arquivos de uma pasta e de suas subpastas que ficaram sem referências
+    @Query(value = "SELECT DISTINCT b.hash_sha256 FROM tb_pasta_fechamento f " +
+            "JOIN tb_arquivo a ON a.pasta_id = f.descendente_id " +
+            "JOIN tb_blob_arquivo b ON b.hash_sha256 = a.hash_sha256 AND b.caminho_armazenamento = a.caminho_armazenamento " +
+            "WHERE f.ancestral_id = :pasta AND b.referencias = 0", nativeQuery = true)
+    List<String> buscarSemReferenciasDaSubarvore(@Param("pasta") Long pastaId);
+
+    // Remove o blob somente se ninguém mais o referencia
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM BlobArquivo b WHERE b.hashSha256 = :hash AND b.referencias = 0")
+    int excluirSemReferencias(@Param("hash") String hash);
+
+    // Grava o CRC-32 de um blob antigo, calculado na primeira vez em que foi incluído em um ZIP
+    @Transactional
+    @Modifying
+    @Query("UPDATE BlobArquivo b SET b.crc32 = :crc32 WHERE b.hashSha256 = :hash AND b.crc32 IS NULL")
+    int definirCrc32(@Param("hash") String hash, @Param("crc32") long crc32);
+
+    // Grava o hash em árvore de um blob antigo, calculado na verificação de integridade
+    @Transactional
+    @Modifying
+    @Query("UPDATE BlobArquivo b SET b.hashArvore = :raiz, b.hashesBlocos = :folhas WHERE b.hashSha256 = :hash AND b.hashArvore IS NULL")
+    int definirArvore(@Param("hash") String hash, @Param("raiz") String raiz, @Param("folhas") byte[] folhas);
+
+    // Percorre tb_blob_arquivo em ordem de hash (keyset), uma página por vez
+    List<BlobArquivo> findTop500ByHashSha256GreaterThanOrderByHashSha256Asc(String hash);
+
+    // Quais dos caminhos pertencem a algum blob (busca de órfãos no armazenamento)
+    @Query("SELECT b.caminhoArmazenamento FROM BlobArquivo b WHERE b.caminhoArmazenamento IN :caminhos")
+    List<String> buscarCaminhos(@Param("caminhos") Collection<String> caminhos);
+
+    // Atualiza o caminho de um blob movido, desde que ninguém o tenha movido antes
+    @Modifying
+    @Query("UPDATE BlobArquivo b SET b.caminhoArmazenamento = :novo WHERE b.hashSha256 = :hash AND b.caminhoArmazenamento = :antigo")
+    int moverArmazenamento(@Param("hash") String hash, @Param("antigo") String antigo, @Param("novo") String novo);
+
+    // Blobs quentes cuja chave casa com o padrão de um volume, paginados pelo hash (keyset)
+    @Query("SELECT b FROM BlobArquivo b WHERE b.hashSha256 > :hash AND b.caminhoArmazenamento LIKE :incluir " +
+            "AND b.caminhoArmazenamento NOT LIKE :excluir " +
+            "AND b.camada = br.com.carro.entities.CamadaArmazenamento.QUENTE ORDER BY b.hashSha256")
+    List<BlobArquivo> buscarPorPadraoDeCaminho(@Param("hash") String hash, @Param("incluir") String incluir,
+                                               @Param("excluir") String excluir, Pageable pagina);
+
+    // Blobs quentes sem acesso desde o limite (ou nunca lidos e criados antes dele), paginados pelo hash
+    @Query("SELECT b FROM BlobArquivo b WHERE b.camada = :camada AND b.hashSha256 > :hash " +
+            "AND COALESCE(b.ultimoAcesso, b.dataCriacao) < :limite ORDER BY b.hashSha256")
+    List<BlobArquivo> buscarSemAcessoDesde(@Param("camada") CamadaArmazenamento camada, @Param("hash") String hash,
+                                           @Param("limite") LocalDateTime limite, Pageable pagina);
+
+    // Troca a camada do blob, desde que ele ainda esteja na camada e no caminho esperados
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE BlobArquivo b SET b.camada = :nova WHERE b.hashSha256 = :hash AND b.camada = :atual " +
+            "AND b.caminhoArmazenamento = :caminho")
+    int alterarCamada(@Param("hash") String hash, @Param("caminho") String caminho,
+                      @Param("atual") CamadaArmazenamento atual, @Param("nova") CamadaArmazenamento nova);
+
+    // Bloqueia a linha do blob a arquivar, se ele continuar quente, no caminho esperado e sem acesso desde o limite
+    @Query(value = "SELECT hash_sha256 FROM tb_blob_arquivo WHERE hash_sha256 = :hash AND caminho_armazenamento = :caminho " +
+            "AND camada = 'QUENTE' AND COALESCE(ultimo_acesso, data_criacao) < :limite FOR UPDATE", nativeQuery = true)
+    Optional<String> bloquearParaArquivar(@Param("hash") String hash, @Param("caminho") String caminho,
+                                          @Param("limite") LocalDateTime limite);
+
+    // Arquiva o blob somente se ele continuar sem acesso desde o limite
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE BlobArquivo b SET b.camada = br.com.carro.entities.CamadaArmazenamento.FRIA " +
+            "WHERE b.hashSha256 = :hash AND b.caminhoArmazenamento = :caminho " +
+            "AND b.camada = br.com.carro.entities.CamadaArmazenamento.QUENTE " +
+            "AND COALESCE(b.ultimoAcesso, b.dataCriacao) < :limite")
+    int arquivar(@Param("hash") String hash, @Param("caminho") String caminho, @Param("limite") LocalDateTime limite);
+}
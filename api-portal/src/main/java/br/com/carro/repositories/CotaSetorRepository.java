@@ -0,0 +1,77 @@
+package br.com.carro.repositories;
+
+import br.com.carro.entities.CotaSetor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface CotaSetorRepository extends JpaRepository<CotaSetor, Long> {
+
+    // Soma o delta ao uso do setor, desde que caiba no limite (um delta negativo sempre passa).
+    // É um único UPDATE condicional: a linha fica bloqueada até o commit, então duas transações não
+    // enxergam o mesmo espaço livre. Devolve 0 se a cota estourar ou se o setor ainda não tiver linha.
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_setor_cota SET usado_bytes = GREATEST(usado_bytes + :bytes, 0), " +
+            "arquivos = GREATEST(arquivos + :arquivos, 0) WHERE setor_id = :setor " +
+            "AND (:bytes <= 0 OR limite_bytes IS NULL OR usado_bytes + :bytes <= limite_bytes)", nativeQuery = true)
+    int ajustarUso(@Param("setor") Long setorId, @Param("bytes") long bytes, @Param("arquivos") long arquivos);
+
+    // Bloqueia as linhas dos setores até o commit, sempre em ordem de ID (duas transferências opostas não se travam)
+    @Query(value = "SELECT setor_id FROM tb_setor_cota WHERE setor_id IN :setores ORDER BY setor_id FOR UPDATE", nativeQuery = true)
+    List<Long> bloquear(@Param("setores") Collection<Long> setorIds);
+
+    // Cria a linha de um setor novo (sem limite e sem uso); não faz nada se ela já existir
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO tb_setor_cota (setor_id, usado_bytes, arquivos) VALUES (:setor, 0, 0)", nativeQuery = true)
+    int criarSeAusente(@Param("setor") Long setorId);
+
+    // Define (ou remove, com null) o limite de um setor que já tem linha
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE CotaSetor c SET c.limiteBytes = :limite WHERE c.setorId = :setor")
+    int definirLimite(@Param("setor") Long setorId, @Param("limite") Long limiteBytes);
+
+    // Setor de uma pasta: o dela ou, em uma subpasta sem setor próprio, o da pasta mais próxima acima
+    // (ancestrais pela tabela de fechamento, em ordem de profundidade)
+    @Query(value = "SELECT p.setor_id FROM tb_pasta_fechamento f JOIN tb_pasta p ON p.id = f.ancestral_id " +
+            "WHERE f.descendente_id = :pasta AND p.setor_id IS NOT NULL ORDER BY f.profundidade LIMIT 1", nativeQuery = true)
+    Long buscarSetorDaPasta(@Param("pasta") Long pastaId);
+
+    // Tamanho e quantidade dos arquivos de uma pasta e de todas as suas subpastas, por setor que responde por
+    // cada subpasta (o dela ou o da pasta mais próxima acima, como em buscarSetorDaPasta). setorInterno é esse
+    // mesmo setor quando ele vem de uma pasta da própria subárvore, e nulo quando vem de uma pasta acima dela
+    interface UsoPorSetor {
+        Long getSetorId();
+        Long getSetorInterno();
+        Long getBytes();
+        Long getArquivos();
+    }
+
+    @Query(value = "SELECT s.setor_id AS setorId, " +
+            "CASE WHEN s.profundidade <= f.profundidade THEN s.setor_id END AS setorInterno, " +
+            "COALESCE(SUM(ar.tamanho_bytes), 0) AS bytes, COUNT(ar.id) AS arquivos " +
+            "FROM tb_pasta_fechamento f " +
+            "LEFT JOIN LATERAL (SELECT p.setor_id, fa.profundidade FROM tb_pasta_fechamento fa " +
+            "JOIN tb_pasta p ON p.id = fa.ancestral_id WHERE fa.descendente_id = f.descendente_id " +
+            "AND p.setor_id IS NOT NULL ORDER BY fa.profundidade LIMIT 1) s ON TRUE " +
+            "JOIN tb_arquivo ar ON ar.pasta_id = f.descendente_id " +
+            "WHERE f.ancestral_id = :pasta GROUP BY setorId, setorInterno ORDER BY setorId", nativeQuery = true)
+    List<UsoPorSetor> somarSubarvorePorSetor(@Param("pasta") Long pastaId);
+
+    // Recalcula o uso de todos os setores a partir de tb_arquivo (correção manual de divergências)
+    @Modifying(clearAutomatically = true)
+    @Query(value = "INSERT INTO tb_setor_cota (setor_id, usado_bytes, arquivos) " +
+            "WITH RECURSIVE pastas_setor (id, setor_id) AS (" +
+            "SELECT id, setor_id FROM tb_pasta WHERE pasta_pai_id IS NULL " +
+            "UNION ALL SELECT p.id, COALESCE(p.setor_id, s.setor_id) FROM tb_pasta p JOIN pastas_setor s ON p.pasta_pai_id = s.id) " +
+            "SELECT s.id, COALESCE(SUM(a.tamanho_bytes), 0), COUNT(a.id) FROM tb_setor s " +
+            "LEFT JOIN pastas_setor ps ON ps.setor_id = s.id LEFT JOIN tb_arquivo a ON a.pasta_id = ps.id " +
+            "GROUP BY s.id " +
+            "ON DUPLICATE KEY UPDATE usado_bytes = VALUES(usado_bytes), arquivos = VALUES(arquivos)", nativeQuery = true)
+    int recalcularUso();
+}
@@ -4,7 +4,12 @@ import br.com.carro.entities.Pasta;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface PastaRepository extends JpaRepository<Pasta, Long> {
@@ -18,6 +23,160 @@ public interface PastaRepository extends JpaRepository<Pasta, Long> {
     // Método para buscar subpastas de uma pasta pai específica
     Page<Pasta> findByPastaPaiId(Long pastaPaiId, Pageable pageable);
 
+    // Subpastas diretas de várias pastas de uma vez (um nível da árvore por consulta)
+    List<Pasta> findByPastaPaiIdIn(Collection<Long> pastaPaiIds);
 
+    // Registra uma pasta nova na tabela de fechamento: ela mesma (profundidade 0) e os ancestrais do pai
+    // (sem pai, só a primeira linha). O pai já deve estar registrado
+    @Modifying
+    @Query(value = "INSERT INTO tb_pasta_fechamento (ancestral_id, descendente_id, profundidade) " +
+            "SELECT :pasta, :pasta, 0 UNION ALL " +
+            "SELECT ancestral_id, :pasta, profundidade + 1 FROM tb_pasta_fechamento WHERE descendente_id = :pai", nativeQuery = true)
+    int registrarNoFechamento(@Param("pasta") Long pastaId, @Param("pai") Long pastaPaiId);
 
+    // Aplica um delta aos agregados da pasta e de todos os ancestrais em um único UPDATE (pela tabela de fechamento).
+    // Arquivos e bytes valem para a subárvore inteira; 'diretos' e 'subpastas' só para a própria pasta.
+    // As linhas ficam bloqueadas até o commit; quem também ajusta a cota do setor deve ajustá-la antes
+    @Modifying
+    @Query(value = "UPDATE tb_pasta p JOIN tb_pasta_fechamento f ON f.ancestral_id = p.id " +
+            "SET p.arquivos_diretos = GREATEST(p.arquivos_diretos + IF(f.profundidade = 0, :diretos, 0), 0), " +
+            "p.arquivos_total = GREATEST(p.arquivos_total + :arquivos, 0), " +
+            "p.bytes_total = GREATEST(p.bytes_total + :bytes, 0), " +
+            "p.subpastas_diretas = GREATEST(p.subpastas_diretas + IF(f.profundidade = 0, :subpastas, 0), 0), " +
+            "p.ultima_alteracao = :agora WHERE f.descendente_id = :pasta", nativeQuery = true)
+    int ajustarAgregados(@Param("pasta") Long pastaId, @Param("diretos") long arquivosDiretos,
+                         @Param("arquivos") long arquivos, @Param("bytes") long bytes,
+                         @Param("subpastas") long subpastas, @Param("agora") LocalDateTime agora);
+
+    // Pai e totais atuais de uma pasta, com a linha bloqueada (movimentação e exclusão da subárvore)
+    interface TotaisPasta {
+        Long getPastaPaiId();
+        Long getArquivos();
+        Long getBytes();
+    }
+
+    @Query(value = "SELECT pasta_pai_id AS pastaPaiId, arquivos_total AS arquivos, bytes_total AS bytes " +
+            "FROM tb_pasta WHERE id = :pasta FOR UPDATE", nativeQuery = true)
+    TotaisPasta bloquearTotais(@Param("pasta") Long pastaId);
+
+    // Todas as subpastas de uma pasta (sem ela), em ordem de profundidade: um pai vem antes dos filhos
+    @Query(value = "SELECT p.* FROM tb_pasta_fechamento f JOIN tb_pasta p ON p.id = f.descendente_id " +
+            "WHERE f.ancestral_id = :pasta AND f.profundidade > 0 ORDER BY f.profundidade, p.id", nativeQuery = true)
+    List<Pasta> buscarSubpastasRecursivas(@Param("pasta") Long pastaId);
+
+    // Bloqueia as pastas até o commit (movimentações concorrentes das mesmas pastas ficam em fila) e lê nome e
+    // caminho atuais. Lidos depois do bloqueio, já refletem renomeações e
+    // movimentações de ancestrais confirmadas antes dele (a entidade carregada antes pode estar defasada)
+    interface CaminhoPasta {
+        Long getId();
+        String getNomePasta();
+        String getCaminhoCompleto();
+    }
+
+    @Query(value = "SELECT id AS id, nome_pasta AS nomePasta, caminho_completo AS caminhoCompleto " +
+            "FROM tb_pasta WHERE id IN :pastas FOR UPDATE", nativeQuery = true)
+    List<CaminhoPasta> bloquearCaminhos(@Param("pastas") Collection<Long> pastaIds);
+
+    // 1 se a pasta 'descendente' está na subárvore de 'ancestral' (ou é ela). Leitura com bloqueio, para ver
+    // o fechamento mais recente mesmo em uma transação que já leu antes
+    @Query(value = "SELECT COUNT(*) FROM tb_pasta_fechamento WHERE ancestral_id = :ancestral " +
+            "AND descendente_id = :descendente FOR SHARE", nativeQuery = true)
+    long contem(@Param("ancestral") Long ancestralId, @Param("descendente") Long descendenteId);
+
+    // Movimentação de uma subárvore: desliga a subárvore dos ancestrais antigos (mantém as ligações internas)
+    // e liga ao novo pai, combinando os ancestrais dele com cada descendente
+    @Modifying(clearAutomatically = true)
+    @Query(value = "DELETE a FROM tb_pasta_fechamento a " +
+            "JOIN tb_pasta_fechamento d ON d.descendente_id = a.descendente_id AND d.ancestral_id = :pasta " +
+            "LEFT JOIN tb_pasta_fechamento i ON i.ancestral_id = :pasta AND i.descendente_id = a.ancestral_id " +
+            "WHERE i.descendente_id IS NULL", nativeQuery = true)
+    int desligarSubarvore(@Param("pasta") Long pastaId);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "INSERT INTO tb_pasta_fechamento (ancestral_id, descendente_id, profundidade) " +
+            "SELECT acima.ancestral_id, abaixo.descendente_id, acima.profundidade + abaixo.profundidade + 1 " +
+            "FROM tb_pasta_fechamento acima JOIN tb_pasta_fechamento abaixo " +
+            "ON acima.descendente_id = :pai AND abaixo.ancestral_id = :pasta", nativeQuery = true)
+    int ligarSubarvore(@Param("pasta") Long pastaId, @Param("pai") Long pastaPaiId);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_pasta SET pasta_pai_id = :pai WHERE id = :pasta", nativeQuery = true)
+    int definirPai(@Param("pasta") Long pastaId, @Param("pai") Long pastaPaiId);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_pasta SET nome_pasta = :nome WHERE id = :pasta", nativeQuery = true)
+    int definirNome(@Param("pasta") Long pastaId, @Param("nome") String nome);
+
+    // Troca o prefixo do caminho da pasta e de todas as subpastas em um único UPDATE
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_pasta p JOIN tb_pasta_fechamento f ON f.descendente_id = p.id " +
+            "SET p.caminho_completo = CONCAT(:novo, SUBSTRING(p.caminho_completo, CHAR_LENGTH(:antigo) + 1)) " +
+            "WHERE f.ancestral_id = :pasta AND LEFT(p.caminho_completo, CHAR_LENGTH(:antigo)) = :antigo", nativeQuery = true)
+    int reescreverCaminhos(@Param("pasta") Long pastaId, @Param("antigo") String prefixoAntigo,
+                           @Param("novo") String prefixoNovo);
+
+    // Pastas da subárvore que têm setor próprio passam para o setor informado (as demais o herdam)
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_pasta p JOIN tb_pasta_fechamento f ON f.descendente_id = p.id SET p.setor_id = :setor " +
+            "WHERE f.ancestral_id = :pasta AND p.setor_id IS NOT NULL", nativeQuery = true)
+    int redefinirSetor(@Param("pasta") Long pastaId, @Param("setor") Long setorId);
+
+    // Setor próprio de uma única pasta (uma pasta que vira principal fica com o setor que herdava)
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_pasta SET setor_id = :setor WHERE id = :pasta", nativeQuery = true)
+    int definirSetor(@Param("pasta") Long pastaId, @Param("setor") Long setorId);
+
+    // IDs de uma pasta e de todas as suas subpastas
+    @Query(value = "SELECT descendente_id FROM tb_pasta_fechamento WHERE ancestral_id = :pasta", nativeQuery = true)
+    List<Long> buscarIdsDaSubarvore(@Param("pasta") Long pastaId);
+
+    // Exclusão em massa de uma subárvore (PastaService.excluir), em lotes de IDs. Os vínculos com o pai são
+    // desfeitos antes, para que a ordem das linhas não esbarre na chave estrangeira pasta_pai_id
+    @Modifying(clearAutomatically = true)
+    @Query(value = "DELETE FROM tb_permissao_pasta WHERE pasta_id IN :pastas", nativeQuery = true)
+    int excluirPermissoes(@Param("pastas") Collection<Long> pastaIds);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE tb_pasta SET pasta_pai_id = NULL WHERE id IN :pastas", nativeQuery = true)
+    int desvincularDoPai(@Param("pastas") Collection<Long> pastaIds);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "DELETE FROM tb_pasta_fechamento WHERE descendente_id IN :pastas", nativeQuery = true)
+    int excluirDoFechamento(@Param("pastas") Collection<Long> pastaIds);
+
+    @Modifying(clearAutomatically = true)
+    @Query(value = "DELETE FROM tb_pasta WHERE id IN :pastas", nativeQuery = true)
+    int excluirPorIds(@Param("pastas") Collection<Long> pastaIds);
+
+    // Acesso herdado de uma pasta: o setor da pasta mais próxima acima (ou dela) que tem setor, e se o usuário
+    // tem permissão especial nela ou em algum ancestral
+    interface AcessoPasta {
+        Long getSetorId();
+        Long getPermissaoEspecial();
+    }
+
+    @Query(value = "SELECT (SELECT p.setor_id FROM tb_pasta_fechamento f JOIN tb_pasta p ON p.id = f.ancestral_id " +
+            "WHERE f.descendente_id = :pasta AND p.setor_id IS NOT NULL ORDER BY f.profundidade LIMIT 1) AS setorId, " +
+            "EXISTS (SELECT 1 FROM tb_pasta_fechamento f JOIN tb_permissao_pasta pp ON pp.pasta_id = f.ancestral_id " +
+            "WHERE f.descendente_id = :pasta AND pp.usuario_id = :usuario) AS permissaoEspecial", nativeQuery = true)
+    AcessoPasta buscarAcesso(@Param("pasta") Long pastaId, @Param("usuario") Long usuarioId);
+
+    // Uma pasta da árvore de um setor, sem carregar a entidade (e o pai e o setor EAGER de cada uma)
+    interface NoArvore {
+        Long getId();
+        String getNomePasta();
+        Long getPastaPaiId();
+        Long getPossuiSubpastas();
+        Long getArquivosTotal();
+        Long getBytesTotal();
+    }
+
+    // Pastas principais do setor e suas subpastas até a profundidade (0 = só as principais), em ordem de
+    // profundidade e nome: cada pai vem antes dos filhos
+    @Query(value = "SELECT p.id AS id, p.nome_pasta AS nomePasta, p.pasta_pai_id AS pastaPaiId, " +
+            "p.subpastas_diretas > 0 AS possuiSubpastas, p.arquivos_total AS arquivosTotal, p.bytes_total AS bytesTotal " +
+            "FROM tb_pasta r JOIN tb_pasta_fechamento f ON f.ancestral_id = r.id JOIN tb_pasta p ON p.id = f.descendente_id " +
+            "WHERE r.setor_id = :setor AND r.pasta_pai_id IS NULL AND f.profundidade <= :profundidade " +
+            "ORDER BY f.profundidade, p.nome_pasta, p.id", nativeQuery = true)
+    List<NoArvore> buscarArvoreDoSetor(@Param("setor") Long setorId, @Param("profundidade") int profundidade);
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package br.com.carro.repositories;
+
+import br.com.carro.entities.Upload.SessaoUpload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface SessaoUploadRepository extends JpaRepository<SessaoUpload, String> {
+
+    // Confirma o novo offset de uma sessão, com as folhas dos blocos completos, e renova sua validade
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE SessaoUpload s SET s.bytesRecebidos = :bytes, s.hashesBlocos = :folhas, s.dataExpiracao = :expiracao " +
+            "WHERE s.id = :id")
+    int atualizarProgresso(@Param("id") String id, @Param("bytes") long bytes, @Param("folhas") byte[] folhas,
+                           @Param("expiracao") LocalDateTime expiracao);
+
+    // Guarda o conteúdo publicado de uma sessão cuja finalização ainda não terminou
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE SessaoUpload s SET s.hashSha256 = :hash, s.crc32 = :crc32, s.hashesBlocos = :folhas, " +
+            "s.chavePublicada = :chave WHERE s.id = :id")
+    int registrarPublicacao(@Param("id") String id, @Param("hash") String hash, @Param("crc32") long crc32,
+                            @Param("folhas") byte[] folhas, @Param("chave") String chave);
+
+    // Sessões abandonadas, para limpeza
+    List<SessaoUpload> findTop100ByDataExpiracaoBefore(LocalDateTime data);
+
+    // Temporários das sessões abertas nas pastas (exclusão de uma subárvore)
+    @Query("SELECT s.caminhoTemporario FROM SessaoUpload s WHERE s.pastaId IN :pastas")
+    List<String> buscarTemporariosPorPastas(@Param("pastas") Collection<Long> pastaIds);
+
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM SessaoUpload s WHERE s.pastaId IN :pastas")
+    int excluirPorPastas(@Param("pastas") Collection<Long> pastaIds);
+}
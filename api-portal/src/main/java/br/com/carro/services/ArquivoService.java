@@ -1,45 +1,90 @@
 package br.com.carro.services;
 
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.armazenamento.CacheConteudo;
 import br.com.carro.entities.Arquivo;
+import br.com.carro.entities.BlobArquivo;
 import br.com.carro.entities.Pasta;
 import br.com.carro.entities.Usuario.Usuario;
 import br.com.carro.repositories.ArquivoRepository;
 import br.com.carro.repositories.PastaRepository;
+import br.com.carro.utilitarios.TravasPorChave;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class ArquivoService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ArquivoService.class);
+    private static final String INDICE_NOME_UNICO = "uk_arquivo_pasta_nome";
+    // Tentativas de gravar um arquivo quando o nome escolhido já foi gravado por outro upload
+    static final int TENTATIVAS_NOME = 3;
+
     @Autowired
     private ArquivoRepository arquivoRepository;
 
     @Autowired
     private PastaRepository pastaRepository;
 
-    private final Path diretorioRaiz = Paths.get("uploads");
+    @Autowired
+    private BlobArquivoService blobArquivoService;
 
-    public ArquivoService() {
-        try {
-            Files.createDirectories(this.diretorioRaiz);
-        } catch (IOException e) {
-            throw new RuntimeException("Não foi possível criar o diretório de uploads.", e);
-        }
+    @Autowired
+    private Armazenamento armazenamento;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private CacheConteudo cacheConteudo;
+
+    @Autowired
+    private CotaSetorService cotaSetorService;
+
+    /**
+     * O que fazer quando já existe um arquivo com o mesmo nome na pasta de destino
+     * (propriedade "upload.conflito.politica").
+     */
+    public enum PoliticaConflito {
+        /** Recusa o upload (409). */
+        REJEITAR,
+        /** Salva com um sufixo numérico antes da extensão: "relatorio (2).pdf". */
+        RENOMEAR,
+        /** O arquivo existente (mesmo ID) passa a apontar para o novo conteúdo; o anterior perde a referência. */
+        NOVA_VERSAO
     }
 
+    @Value("${upload.conflito.politica:RENOMEAR}")
+    private PoliticaConflito politicaConflito;
+
+    // Serializa uploads do mesmo nome na mesma pasta (até o commit) sem bloquear os demais
+    private final TravasPorChave travasPorNome = new TravasPorChave(256);
+
     /**
      * Salva um arquivo PDF no servidor e seus metadados no banco de dados.
      * @param arquivo O arquivo a ser enviado.
@@ -49,8 +94,123 @@ public class ArquivoService {
      * @throws IllegalAccessException Se o usuário não tiver permissão de escrita.
      * @throws IOException Se houver um erro ao salvar o arquivo.
      */
-    @Transactional
     public Arquivo salvarArquivo(MultipartFile arquivo, Long pastaId, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        try (InputStream conteudo = arquivo.getInputStream()) {
+            return salvarArquivo(conteudo, arquivo.getOriginalFilename(), arquivo.getContentType(), pastaId, usuarioLogado);
+        }
+    }
+
+    /**
+     * Salva um arquivo PDF lendo o conteúdo diretamente do corpo da requisição.
+     * Os bytes são gravados uma única vez via FileChannel, e o tamanho e o hash SHA-256 são
+     * calculados na mesma passada, com uso de memória constante. Se o mesmo conteúdo já estiver
+     * armazenado, o novo Arquivo apenas referencia o blob existente.
+     * O conteúdo é recebido em um temporário fora de qualquer transação; só a publicação (rename atômico
+     * para a chave do blob e INSERT do Arquivo) acontece sob o lock do nome e dentro da transação.
+     * @param conteudo Stream com o conteúdo do arquivo (não é fechado por este método).
+     * @param nomeDoArquivo Nome original do arquivo.
+     * @param contentType Tipo de conteúdo informado pelo cliente.
+     * @param pastaId ID da pasta onde o arquivo será salvo.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return O objeto Arquivo salvo no banco de dados.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita.
+     * @throws IOException Se houver um erro ao salvar o arquivo.
+     */
+    public Arquivo salvarArquivo(InputStream conteudo, String nomeDoArquivo, String contentType, Long pastaId, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        if (contentType == null || !MediaType.APPLICATION_PDF.isCompatibleWith(MediaType.parseMediaType(contentType))) {
+            throw new IllegalArgumentException("Apenas arquivos PDF são permitidos.");
+        }
+
+        // Recusa antes de receber os bytes; a verificação definitiva é refeita na publicação
+        emTransacao(() -> validarUpload(pastaId, nomeDoArquivo, usuarioLogado));
+
+        BlobArquivoService.ConteudoRecebido recebido = blobArquivoService.receber(conteudo);
+        return salvarConteudoRecebido(recebido, nomeDoArquivo, pastaId, usuarioLogado);
+    }
+
+    /**
+     * Cria o Arquivo a partir de um conteúdo que já foi recebido em um temporário
+     * (por exemplo, ao final de um upload retomável). O temporário é sempre consumido ou removido.
+     * @param recebido Conteúdo gravado, com tamanho e hash.
+     * @param nomeDoArquivo Nome do arquivo.
+     * @param pastaId ID da pasta onde o arquivo será salvo.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return O objeto Arquivo salvo no banco de dados.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita.
+     * @throws IOException Se houver um erro ao armazenar o conteúdo.
+     */
+    public Arquivo salvarConteudoRecebido(BlobArquivoService.ConteudoRecebido recebido, String nomeDoArquivo, Long pastaId, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        try {
+            // Recusa antes de publicar o blob; a reserva definitiva é feita na transação de publicação
+            cotaSetorService.verificar(cotaSetorService.setorDaPasta(pastaId), recebido.tamanho());
+            return publicar(pastaId, nomeDoArquivo, usuarioLogado, () -> blobArquivoService.armazenar(recebido))
+                    .orElseThrow(() -> new IllegalStateException("Conteúdo não armazenado."));
+        } finally {
+            // Depois de publicado o temporário não existe mais; em qualquer outro caso é removido aqui
+            blobArquivoService.descartar(recebido);
+        }
+    }
+
+    /**
+     * Cria o Arquivo a partir de um conteúdo já gravado no armazenamento por {@link BlobArquivoService#publicar}
+     * (ao final de um upload retomável). Ao contrário de {@link #salvarConteudoRecebido}, o temporário (se ainda
+     * existir) nunca é removido aqui, para que a operação possa ser repetida depois de uma falha.
+     * @param recebido Conteúdo recebido, com tamanho, hashes e o temporário (null se já consumido).
+     * @param publicada Chave em que o conteúdo foi publicado, ou null se ele já estava armazenado.
+     * @param nomeDoArquivo Nome do arquivo.
+     * @param pastaId ID da pasta onde o arquivo será salvo.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return O objeto Arquivo salvo no banco de dados.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita.
+     * @throws IOException Se houver um erro ao armazenar o conteúdo.
+     */
+    public Arquivo salvarConteudoPublicado(BlobArquivoService.ConteudoRecebido recebido, String publicada, String nomeDoArquivo,
+                                           Long pastaId, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        cotaSetorService.verificar(cotaSetorService.setorDaPasta(pastaId), recebido.tamanho());
+        return publicar(pastaId, nomeDoArquivo, usuarioLogado, () -> blobArquivoService.registrar(recebido, publicada))
+                .orElseThrow(() -> new IllegalStateException("Conteúdo não armazenado."));
+    }
+
+    /**
+     * Valida, antes de receber qualquer byte, se o usuário pode enviar um arquivo com este nome para a pasta.
+     * Com a política REJEITAR, também recusa um nome que já existe na pasta. Como o tamanho ainda não é
+     * conhecido, só recusa pela cota um setor que já está cheio.
+     * @param pastaId ID da pasta de destino.
+     * @param nomeDoArquivo Nome do arquivo.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return O nome do arquivo normalizado.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita.
+     */
+    @Transactional(readOnly = true)
+    public String validarUpload(Long pastaId, String nomeDoArquivo, Usuario usuarioLogado) throws IllegalAccessException {
+        return validarUpload(pastaId, nomeDoArquivo, usuarioLogado, 1);
+    }
+
+    /**
+     * Como {@link #validarUpload(Long, String, Usuario)}, para um envio de tamanho já declarado.
+     * @param tamanhoPrevisto Bytes que precisam caber na cota do setor.
+     * @throws br.com.carro.exceptions.CotaExcedidaException Se o tamanho não couber na cota.
+     */
+    @Transactional(readOnly = true)
+    public String validarUpload(Long pastaId, String nomeDoArquivo, Usuario usuarioLogado, long tamanhoPrevisto) throws IllegalAccessException {
+        buscarPastaParaEscrita(pastaId, usuarioLogado);
+        String nomeLimpo = validarNomeArquivo(nomeDoArquivo);
+        if (politicaConflito == PoliticaConflito.REJEITAR && arquivoRepository.existsByPastaIdAndNomeArquivo(pastaId, nomeLimpo)) {
+            throw new IllegalStateException("Já existe um arquivo com este nome nesta pasta.");
+        }
+        cotaSetorService.verificar(cotaSetorService.setorDaPasta(pastaId), tamanhoPrevisto);
+        return nomeLimpo;
+    }
+
+    /**
+     * Busca a pasta de destino de um upload, validando a permissão de escrita.
+     * @param pastaId ID da pasta.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return A pasta encontrada.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita.
+     */
+    @Transactional(readOnly = true)
+    public Pasta buscarPastaParaEscrita(Long pastaId, Usuario usuarioLogado) throws IllegalAccessException {
         Optional<Pasta> pastaOptional = pastaRepository.findById(pastaId);
         if (!pastaOptional.isPresent()) {
             throw new IllegalArgumentException("Pasta não encontrada.");
@@ -58,24 +218,208 @@ public class ArquivoService {
         Pasta pastaDestino = pastaOptional.get();
 
         validarPermissao(usuarioLogado, pastaDestino, "ESCRITA");
+        return pastaDestino;
+    }
 
-        if (!"application/pdf".equals(arquivo.getContentType())) {
-            throw new IllegalArgumentException("Apenas arquivos PDF são permitidos.");
+    /**
+     * Origem do blob de um upload, executada dentro da transação de publicação.
+     */
+    @FunctionalInterface
+    private interface FonteBlob {
+        /**
+         * @return O blob referenciado, ou null se o conteúdo não existir.
+         */
+        BlobArquivo obter() throws IOException;
+    }
+
+    /**
+     * Publica um upload com o lock de (pasta, nome) mantido até o commit: dois uploads simultâneos do mesmo
+     * nome na mesma pasta são serializados e o segundo enxerga o Arquivo criado pelo primeiro, aplicando a
+     * política de conflito. Uploads de nomes diferentes não esperam uns pelos outros. O nome "x (n).ext" escolhido
+     * pela política RENOMEAR não está sob a trava; se outro upload o gravar antes, o índice único de
+     * (pasta, nome) recusa o INSERT e a publicação é repetida, escolhendo outro nome.
+     */
+    private Optional<Arquivo> publicar(Long pastaId, String nomeDoArquivo, Usuario usuarioLogado, FonteBlob fonte) throws IllegalAccessException, IOException {
+        String nomeLimpo = validarNomeArquivo(nomeDoArquivo);
+        TravasPorChave.Travamento travamento = travarNomes(List.of(chaveDeNome(pastaId, nomeLimpo)));
+        try {
+            for (int tentativa = 1; ; tentativa++) {
+                try {
+                    return publicarSobTrava(pastaId, nomeLimpo, usuarioLogado, fonte);
+                } catch (DataIntegrityViolationException e) {
+                    if (tentativa == TENTATIVAS_NOME || !nomeJaUsado(e)) {
+                        throw e;
+                    }
+                    // O nome escolhido foi gravado por outro upload (de outra trava); a transação foi desfeita
+                    logger.debug("Nome já usado na pasta {} ao publicar {}; nova tentativa", pastaId, nomeLimpo);
+                }
+            }
+        } finally {
+            travamento.close();
         }
+    }
 
-        String nomeDoArquivo = arquivo.getOriginalFilename();
-        Path caminhoDoArquivo = this.diretorioRaiz.resolve(pastaDestino.getCaminhoCompleto() + "/" + nomeDoArquivo);
-        Files.copy(arquivo.getInputStream(), caminhoDoArquivo);
+    /**
+     * Uma tentativa de publicação, em uma transação; o lock do nome pedido já está com o chamador.
+     */
+    private Optional<Arquivo> publicarSobTrava(Long pastaId, String nomeLimpo, Usuario usuarioLogado, FonteBlob fonte) throws IllegalAccessException, IOException {
+        return emTransacao(() -> {
+            Pasta pastaDestino = buscarPastaParaEscrita(pastaId, usuarioLogado);
+            Optional<Arquivo> existente = arquivoRepository.findFirstByPastaIdAndNomeArquivo(pastaId, nomeLimpo);
+            if (existente.isPresent() && politicaConflito == PoliticaConflito.REJEITAR) {
+                throw new IllegalStateException("Já existe um arquivo com este nome nesta pasta.");
+            }
+
+            BlobArquivo blob = fonte.obter();
+            if (blob == null) {
+                return Optional.empty();
+            }
+            // Por último, para que a linha da cota (e depois as das pastas acima) fique bloqueada só até o commit
+            Long setorId = cotaSetorService.setorDaPasta(pastaId);
+            if (existente.isPresent() && politicaConflito == PoliticaConflito.NOVA_VERSAO) {
+                Long tamanhoAnterior = existente.get().getTamanhoBytes();
+                long delta = blob.getTamanhoBytes() - (tamanhoAnterior != null ? tamanhoAnterior : 0);
+                cotaSetorService.reservar(setorId, delta, 0);
+                pastaRepository.ajustarAgregados(pastaId, 0, 0, delta, 0, LocalDateTime.now());
+                return Optional.of(substituirConteudo(existente.get(), blob, usuarioLogado));
+            }
+            cotaSetorService.reservar(setorId, blob.getTamanhoBytes(), 1);
+            pastaRepository.ajustarAgregados(pastaId, 1, 1, blob.getTamanhoBytes(), 0, LocalDateTime.now());
+            String nome = existente.isPresent() ? nomeLivre(pastaId, nomeLimpo, Set.of()) : nomeLimpo;
+            return Optional.of(arquivoRepository.save(novoArquivo(nome, blob, pastaDestino, usuarioLogado)));
+        });
+    }
+
+    /**
+     * Aponta o Arquivo existente para o novo conteúdo e libera a referência ao conteúdo anterior.
+     */
+    private Arquivo substituirConteudo(Arquivo existente, BlobArquivo blob, Usuario usuarioLogado) throws IOException {
+        String hashAnterior = existente.getHashSha256();
+        String caminhoAnterior = existente.getCaminhoArmazenamento();
+        boolean anteriorEraBlob = blobArquivoService.armazenadoComoBlob(existente);
+
+        existente.setCaminhoArmazenamento(blob.getCaminhoArmazenamento());
+        existente.setTamanhoBytes(blob.getTamanhoBytes());
+        existente.setHashSha256(blob.getHashSha256());
+        existente.setDataUpload(LocalDateTime.now());
+        existente.setCriadoPor(usuarioLogado);
+        Arquivo salvo = arquivoRepository.save(existente);
+
+        liberarConteudoAnterior(hashAnterior, caminhoAnterior, anteriorEraBlob);
+        return salvo;
+    }
+
+    /**
+     * Libera o conteúdo que um Arquivo deixou de referenciar: a referência ao blob ou, no layout antigo,
+     * o próprio arquivo (removido só após o commit). Deve ser chamado dentro da transação.
+     */
+    void liberarConteudoAnterior(String hash, String caminho, boolean eraBlob) throws IOException {
+        cacheConteudo.invalidar(caminho);
+        if (eraBlob) {
+            blobArquivoService.liberarReferencia(hash);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // Um download concorrente pode ter colocado o conteúdo antigo de volta no cache
+                cacheConteudo.invalidar(caminho);
+                try {
+                    armazenamento.excluir(caminho);
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Não foi possível remover o conteúdo anterior {}", caminho, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Primeiro nome "base (n).ext" ainda não usado na pasta (nem em {@code reservados}, nomes já
+     * atribuídos no mesmo lote, em minúsculas).
+     */
+    String nomeLivre(Long pastaId, String nome, Set<String> reservados) {
+        int ponto = nome.lastIndexOf('.');
+        String base = ponto > 0 ? nome.substring(0, ponto) : nome;
+        String extensao = ponto > 0 ? nome.substring(ponto) : "";
+        String prefixo = base.replace("!", "!!").replace("%", "!%").replace("_", "!_") + " (%";
+        Set<String> usados = new HashSet<>();
+        arquivoRepository.buscarNomesComPrefixo(pastaId, prefixo).forEach(usado -> usados.add(usado.toLowerCase(Locale.ROOT)));
+        for (int i = 2; ; i++) {
+            String candidato = base + " (" + i + ")" + extensao;
+            String chave = candidato.toLowerCase(Locale.ROOT);
+            if (!usados.contains(chave) && !reservados.contains(chave)) {
+                return candidato;
+            }
+        }
+    }
+
+    /**
+     * Indica se a falha foi o índice único de (pasta, nome) recusando um nome já gravado por outro upload.
+     */
+    boolean nomeJaUsado(DataIntegrityViolationException e) {
+        String mensagem = e.getMostSpecificCause().getMessage();
+        return mensagem != null && mensagem.contains(INDICE_NOME_UNICO);
+    }
+
+    PoliticaConflito getPoliticaConflito() {
+        return politicaConflito;
+    }
+
+    /**
+     * Chave do lock de um nome de arquivo em uma pasta (sem diferenciar maiúsculas, como o banco).
+     */
+    String chaveDeNome(Long pastaId, String nome) {
+        return pastaId + "/" + nome.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adquire os locks de vários nomes (em ordem fixa, sem risco de deadlock com outros uploads).
+     */
+    TravasPorChave.Travamento travarNomes(Collection<String> chaves) {
+        return travasPorNome.travar(chaves);
+    }
+
+    @FunctionalInterface
+    private interface OperacaoUpload<T> {
+        T executar() throws IllegalAccessException, IOException;
+    }
+
+    /**
+     * Executa a operação em uma transação, desfeita também em caso de IllegalAccessException e IOException.
+     */
+    private <T> T emTransacao(OperacaoUpload<T> operacao) throws IllegalAccessException, IOException {
+        try {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return operacao.executar();
+                } catch (IllegalAccessException | IOException e) {
+                    throw new FalhaNaOperacao(e);
+                }
+            });
+        } catch (FalhaNaOperacao e) {
+            if (e.getCause() instanceof IllegalAccessException erro) {
+                throw erro;
+            }
+            throw (IOException) e.getCause();
+        }
+    }
 
+    private static final class FalhaNaOperacao extends RuntimeException {
+        private FalhaNaOperacao(Exception causa) {
+            super(causa);
+        }
+    }
+
+    private Arquivo novoArquivo(String nome, BlobArquivo blob, Pasta pastaDestino, Usuario usuarioLogado) {
         Arquivo novoArquivo = new Arquivo();
-        novoArquivo.setNomeArquivo(nomeDoArquivo);
-        novoArquivo.setCaminhoArmazenamento(caminhoDoArquivo.toString());
-        novoArquivo.setTamanhoBytes(arquivo.getSize());
+        novoArquivo.setNomeArquivo(nome);
+        novoArquivo.setCaminhoArmazenamento(blob.getCaminhoArmazenamento());
+        novoArquivo.setTamanhoBytes(blob.getTamanhoBytes());
+        novoArquivo.setHashSha256(blob.getHashSha256());
         novoArquivo.setDataUpload(LocalDateTime.now());
         novoArquivo.setPasta(pastaDestino);
         novoArquivo.setCriadoPor(usuarioLogado);
-
-        return arquivoRepository.save(novoArquivo);
+        return novoArquivo;
     }
 
     /**
@@ -84,10 +428,10 @@ public class ArquivoService {
      * @param usuarioLogado O usuário que está tentando baixar o arquivo.
      * @return O recurso de arquivo (Resource) para download.
      * @throws IllegalAccessException Se o usuário não tiver permissão de leitura.
-     * @throws MalformedURLException Se o caminho do arquivo for inválido.
+     * @throws IOException Se não for possível abrir o conteúdo no armazenamento.
      */
     @Transactional(readOnly = true)
-    public Resource carregarArquivo(Long arquivoId, Usuario usuarioLogado) throws IllegalAccessException, MalformedURLException {
+    public Resource carregarArquivo(Long arquivoId, Usuario usuarioLogado) throws IllegalAccessException, IOException {
         Optional<Arquivo> arquivoOptional = arquivoRepository.findById(arquivoId);
         if (!arquivoOptional.isPresent()) {
             throw new IllegalArgumentException("Arquivo não encontrado.");
@@ -96,8 +440,19 @@ public class ArquivoService {
 
         validarPermissao(usuarioLogado, arquivoParaBaixar.getPasta(), "LEITURA");
 
-        Path caminho = Paths.get(arquivoParaBaixar.getCaminhoArmazenamento());
-        Resource resource = new UrlResource(caminho.toUri());
+        String chave = arquivoParaBaixar.getCaminhoArmazenamento();
+        Optional<Armazenamento.Metadados> metadados = armazenamento.consultar(chave);
+        if (metadados.isPresent()) {
+            Optional<CacheConteudo.Conteudo> emCache = cacheConteudo.abrir(chave, metadados.get().tamanho(), armazenamento);
+            if (emCache.isPresent()) {
+                // O stream devolve as páginas ao cache quando for fechado
+                return new InputStreamResource(emCache.get().comoStream());
+            }
+        }
+        Optional<Path> caminho = armazenamento.caminhoLocal(chave);
+        Resource resource = caminho.isPresent()
+                ? new UrlResource(caminho.get().toUri())
+                : new InputStreamResource(armazenamento.ler(chave));
 
         if (resource.exists() && resource.isReadable()) {
             return resource;
@@ -106,6 +461,21 @@ public class ArquivoService {
         }
     }
 
+    /**
+     * Busca os metadados de um arquivo para download, validando a permissão de leitura.
+     * @param arquivoId ID do arquivo a ser baixado.
+     * @param usuarioLogado O usuário que está tentando baixar o arquivo.
+     * @return O Arquivo encontrado.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de leitura.
+     */
+    @Transactional(readOnly = true)
+    public Arquivo buscarParaDownload(Long arquivoId, Usuario usuarioLogado) throws IllegalAccessException {
+        Arquivo arquivo = arquivoRepository.findById(arquivoId)
+                .orElseThrow(() -> new IllegalArgumentException("Arquivo não encontrado."));
+        validarPermissao(usuarioLogado, arquivo.getPasta(), "LEITURA");
+        return arquivo;
+    }
+
     /**
      * Deleta um arquivo.
      * @param arquivoId ID do arquivo a ser deletado.
@@ -123,8 +493,19 @@ public class ArquivoService {
 
         validarPermissao(usuarioLogado, arquivoParaDeletar.getPasta(), "ESCRITA");
 
-        Files.deleteIfExists(Paths.get(arquivoParaDeletar.getCaminhoArmazenamento()));
         arquivoRepository.delete(arquivoParaDeletar);
+        Long tamanho = arquivoParaDeletar.getTamanhoBytes();
+        cotaSetorService.liberar(cotaSetorService.setorDaPasta(arquivoParaDeletar.getPasta().getId()),
+                tamanho != null ? tamanho : 0, 1);
+        pastaRepository.ajustarAgregados(arquivoParaDeletar.getPasta().getId(), -1, -1,
+                -(tamanho != null ? tamanho : 0), 0, LocalDateTime.now());
+        cacheConteudo.invalidar(arquivoParaDeletar.getCaminhoArmazenamento());
+        if (blobArquivoService.armazenadoComoBlob(arquivoParaDeletar)) {
+            // O conteúdo só sai do disco quando a última referência for removida
+            blobArquivoService.liberarReferencia(arquivoParaDeletar.getHashSha256());
+        } else {
+            armazenamento.excluir(arquivoParaDeletar.getCaminhoArmazenamento());
+        }
     }
 
     /**
@@ -137,8 +518,47 @@ public class ArquivoService {
         return arquivoRepository.findByPastaId(pastaId);
     }
 
+    /**
+     * Indica se o usuário pode ler os arquivos da pasta, pelas mesmas regras de {@link #validarPermissao}.
+     */
+    public boolean podeLer(Usuario usuario, Pasta pasta) {
+        try {
+            validarPermissao(usuario, pasta, "LEITURA");
+            return true;
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Indica se o usuário pode enviar e apagar arquivos na pasta, pelas mesmas regras de {@link #validarPermissao}.
+     */
+    public boolean podeEscrever(Usuario usuario, Pasta pasta) {
+        try {
+            validarPermissao(usuario, pasta, "ESCRITA");
+            return true;
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Garante que o nome do arquivo não contenha diretórios (evita path traversal).
+     */
+    String validarNomeArquivo(String nomeDoArquivo) {
+        if (nomeDoArquivo == null || nomeDoArquivo.isBlank()) {
+            throw new IllegalArgumentException("O nome do arquivo é obrigatório.");
+        }
+        String nomeLimpo = StringUtils.getFilename(StringUtils.cleanPath(nomeDoArquivo.replace('\\', '/')));
+        if (nomeLimpo == null || nomeLimpo.isBlank() || nomeLimpo.equals("..")) {
+            throw new IllegalArgumentException("Nome de arquivo inválido.");
+        }
+        return nomeLimpo;
+    }
+
     /**
      * Método auxiliar para validar permissões de usuário em uma pasta.
+     * O setor e as permissões especiais são herdados das pastas acima (uma consulta na tabela de fechamento).
      * @param usuario O usuário logado.
      * @param pasta A pasta a ser verificada.
      * @param tipo Ação a ser validada (LEITURA ou ESCRITA).
@@ -149,8 +569,10 @@ public class ArquivoService {
         boolean isAdmin = usuario.getRoles().stream().anyMatch(r -> r.getNome().equals("ADMINISTRADOR"));
         boolean isBasico = usuario.getRoles().stream().anyMatch(r -> r.getNome().equals("BASICO"));
 
+        PastaRepository.AcessoPasta acesso = pastaRepository.buscarAcesso(pasta.getId(), usuario.getId());
+
         // Verificação para usuários com permissões especiais
-        if (pasta.getUsuariosComPermissao() != null && pasta.getUsuariosComPermissao().contains(usuario)) {
+        if (acesso.getPermissaoEspecial() != null && acesso.getPermissaoEspecial() > 0) {
             // Se tiver permissão especial, pode fazer qualquer coisa, exceto o que for exclusivo do admin
             if ("ESCRITA".equals(tipo) && !isAdmin && !isGerente) {
                 throw new IllegalAccessException("Você não tem permissão para esta ação nesta pasta.");
@@ -159,7 +581,8 @@ public class ArquivoService {
         }
 
         // Verificação de acesso por setor
-        boolean pertenceAoSetor = pasta.getSetor() != null && pasta.getSetor().equals(usuario.getSetor());
+        boolean pertenceAoSetor = acesso.getSetorId() != null && usuario.getSetor() != null
+                && acesso.getSetorId().equals(usuario.getSetor().getId());
 
         if (!pertenceAoSetor && !isAdmin) {
             throw new IllegalAccessException("Você não tem acesso a este setor.");
@@ -0,0 +1,429 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.armazenamento.ArmazenamentoFrio;
+import br.com.carro.entities.Arquivo;
+import br.com.carro.entities.BlobArquivo;
+import br.com.carro.entities.CamadaArmazenamento;
+import br.com.carro.repositories.BlobArquivoRepository;
+import br.com.carro.utilitarios.HashEmArvore;
+import br.com.carro.utilitarios.LimitadorTaxa;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Armazenamento endereçado por conteúdo dos arquivos enviados.
+ * Cada conteúdo distinto é gravado uma única vez na chave "blobs/ab/cd/&lt;sha256&gt;" do {@link Armazenamento}
+ * ativo e contado por referência em tb_blob_arquivo; uploads repetidos só criam metadados.
+ * O upload é sempre recebido primeiro em um temporário local, onde o hash é calculado. O temporário fica no
+ * disco que vai guardar o conteúdo ({@link Armazenamento#diretorioTemporario(long)}), então publicá-lo é um rename.
+ */
+@Service
+public class BlobArquivoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobArquivoService.class);
+
+    /** Tamanho do buffer usado na gravação em streaming (64 KiB). */
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    /** Sufixo das chaves de blobs removidos aguardando o commit. */
+    public static final String SUFIXO_REMOVIDO = ".removido-";
+
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final Armazenamento armazenamento;
+    private final ArmazenamentoFrio armazenamentoFrio;
+
+    private final Path diretorioTemporario;
+
+    /** Pool que digere os blocos do hash em árvore; compartilhado por uploads e verificação. */
+    private final ExecutorService executorHash;
+
+    public BlobArquivoService(BlobArquivoRepository blobArquivoRepository, Armazenamento armazenamento,
+                              ArmazenamentoFrio armazenamentoFrio,
+                              @Value("${armazenamento.temporario:uploads/.tmp}") String diretorioTemporario,
+                              @Value("${armazenamento.hash-arvore.paralelismo:0}") int paralelismoHash) {
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.armazenamento = armazenamento;
+        this.armazenamentoFrio = armazenamentoFrio;
+        this.diretorioTemporario = Paths.get(diretorioTemporario);
+        try {
+            Files.createDirectories(this.diretorioTemporario);
+        } catch (IOException e) {
+            throw new RuntimeException("Não foi possível criar o diretório de uploads.", e);
+        }
+
+        // Zero usa um thread por núcleo: o SHA-256 de cada bloco é limitado pela CPU
+        int threads = paralelismoHash > 0 ? paralelismoHash : Runtime.getRuntime().availableProcessors();
+        AtomicInteger contador = new AtomicInteger();
+        this.executorHash = Executors.newFixedThreadPool(threads, tarefa -> {
+            Thread thread = new Thread(tarefa, "hash-arvore-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        executorHash.shutdownNow();
+    }
+
+    /**
+     * Conteúdo recebido e gravado em um arquivo temporário, ainda não publicado como blob.
+     * O temporário é null quando o conteúdo foi apenas inspecionado no armazenamento.
+     * O CRC-32 é guardado no blob para que o download em ZIP não precise ler o conteúdo duas vezes, e o hash em
+     * árvore, calculado na mesma leitura, para que a verificação de integridade digira os blocos em paralelo.
+     */
+    public record ConteudoRecebido(Path temporario, long tamanho, String sha256, long crc32, HashEmArvore.Resultado arvore) {}
+
+    /**
+     * Copia o stream para um arquivo temporário local através de um FileChannel,
+     * calculando tamanho, SHA-256, CRC-32 e o hash em árvore na mesma leitura. Usa um único buffer de tamanho fixo, então o
+     * consumo de heap não depende do tamanho do arquivo. Em caso de falha o temporário é removido.
+     * @param conteudo Stream de origem (não é fechado por este método).
+     * @return O temporário gravado, com tamanho e hash.
+     * @throws IOException Se houver um erro de leitura ou gravação.
+     */
+    public ConteudoRecebido receber(InputStream conteudo) throws IOException {
+        Path temporario = diretorioPara(0).resolve(UUID.randomUUID().toString());
+        MessageDigest digest = novoDigestSha256();
+        CRC32 crc = new CRC32();
+        HashEmArvore.Construtor arvore = new HashEmArvore.Construtor();
+        byte[] buffer = new byte[TAMANHO_BUFFER];
+        long total = 0;
+
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int lidos;
+            while ((lidos = conteudo.read(buffer)) != -1) {
+                digest.update(buffer, 0, lidos);
+                crc.update(buffer, 0, lidos);
+                arvore.atualizar(buffer, 0, lidos);
+                ByteBuffer bloco = ByteBuffer.wrap(buffer, 0, lidos);
+                while (bloco.hasRemaining()) {
+                    canal.write(bloco);
+                }
+                total += lidos;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporario);
+            throw e;
+        }
+
+        return new ConteudoRecebido(temporario, total, HexFormat.of().formatHex(digest.digest()), crc.getValue(),
+                arvore.concluir());
+    }
+
+    /**
+     * Cria um temporário local vazio, para ser preenchido aos poucos
+     * (upload retomável) e depois publicado com {@link #inspecionar(Path)} e {@link #armazenar(ConteudoRecebido)}.
+     * @param tamanhoPrevisto Tamanho declarado do conteúdo, para a escolha do disco.
+     * @return Caminho do temporário criado.
+     * @throws IOException Se não for possível criar o arquivo.
+     */
+    public Path novoTemporario(long tamanhoPrevisto) throws IOException {
+        return Files.createFile(diretorioPara(tamanhoPrevisto).resolve(UUID.randomUUID().toString()));
+    }
+
+    /**
+     * Diretório do temporário de um conteúdo novo: o do disco escolhido pelo armazenamento ou, se ele não
+     * escolher, o diretório temporário da aplicação.
+     */
+    private Path diretorioPara(long tamanhoPrevisto) {
+        return armazenamento.diretorioTemporario(tamanhoPrevisto).orElse(this.diretorioTemporario);
+    }
+
+    /**
+     * Lê um temporário já completo, calculando tamanho, SHA-256, CRC-32 e o hash em árvore em uma passada.
+     * @param temporario Arquivo criado por {@link #novoTemporario(long)}.
+     * @return O conteúdo pronto para ser armazenado.
+     * @throws IOException Se houver um erro de leitura.
+     */
+    public ConteudoRecebido inspecionar(Path temporario) throws IOException {
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.READ)) {
+            return digerir(canal, temporario);
+        }
+    }
+
+    /**
+     * Lê um conteúdo já armazenado, calculando tamanho, SHA-256, CRC-32 e o hash em árvore sem copiá-lo.
+     * @param chave Chave do conteúdo no armazenamento.
+     * @return Tamanho e hash do conteúdo (sem temporário).
+     * @throws IOException Se houver um erro de leitura.
+     */
+    public ConteudoRecebido inspecionarArmazenado(String chave) throws IOException {
+        try (ReadableByteChannel canal = Channels.newChannel(armazenamento.ler(chave))) {
+            return digerir(canal, null);
+        }
+    }
+
+    private ConteudoRecebido digerir(ReadableByteChannel canal, Path temporario) throws IOException {
+        MessageDigest digest = novoDigestSha256();
+        CRC32 crc = new CRC32();
+        HashEmArvore.Construtor arvore = new HashEmArvore.Construtor();
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+        long total = 0;
+        while (canal.read(buffer) != -1) {
+            buffer.flip();
+            total += buffer.remaining();
+            digest.update(buffer.duplicate());
+            arvore.atualizar(buffer.array(), buffer.position(), buffer.remaining());
+            crc.update(buffer);
+            buffer.clear();
+        }
+        return new ConteudoRecebido(temporario, total, HexFormat.of().formatHex(digest.digest()), crc.getValue(),
+                arvore.concluir());
+    }
+
+    /**
+     * Calcula o hash em árvore de um arquivo local, digerindo os blocos de 4 MiB em paralelo.
+     * @param arquivo Arquivo local (temporário ou blob no disco).
+     * @param limitador Limite de bytes por segundo da leitura, ou null para ler sem limite.
+     * @return Raiz e folhas da árvore.
+     * @throws IOException Se houver um erro de leitura.
+     */
+    public HashEmArvore.Resultado calcularArvore(Path arquivo, LimitadorTaxa limitador) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            return HashEmArvore.calcular(canal, canal.size(), executorHash, limitador);
+        }
+    }
+
+    /**
+     * Registra uma referência ao conteúdo recebido, com o hash em árvore calculado no recebimento. Se o hash
+     * ainda não existir, o temporário é gravado na chave do blob (no disco local, um rename sem nova cópia);
+     * se já existir, é descartado.
+     * Deve ser chamado dentro da transação que cria o Arquivo.
+     * @param recebido Conteúdo gravado por {@link #receber(InputStream)}.
+     * @return O blob que passa a guardar o conteúdo.
+     * @throws IOException Se não for possível publicar o blob.
+     */
+    @Transactional
+    public BlobArquivo armazenar(ConteudoRecebido recebido) throws IOException {
+        BlobArquivo blob = registrar(recebido, null);
+        Files.deleteIfExists(recebido.temporario());
+        return blob;
+    }
+
+    /**
+     * Registra uma referência a um conteúdo publicado antes com {@link #publicar} (ou que já estava armazenado),
+     * sem remover o temporário: se a transação for desfeita, o chamador ainda pode repetir a operação.
+     * Deve ser chamado dentro da transação que cria o Arquivo.
+     * @param recebido Conteúdo recebido (o temporário é null se já foi consumido pela publicação).
+     * @param publicada Chave devolvida por {@link #publicar}, ou null.
+     * @return O blob que passa a guardar o conteúdo.
+     * @throws IOException Se não for possível gravar o conteúdo que faltar.
+     */
+    @Transactional
+    public BlobArquivo registrar(ConteudoRecebido recebido, String publicada) throws IOException {
+        // Um INSERT concorrente do mesmo hash fica bloqueado aqui até o commit da transação que o criou
+        String chave = publicada != null ? publicada
+                : armazenamento.alocar(chaveDoBlob(recebido.sha256()), recebido.tamanho(), recebido.temporario());
+        blobArquivoRepository.registrarReferencia(recebido.sha256(), chave, recebido.tamanho(), recebido.crc32(),
+                recebido.arvore().raiz(), recebido.arvore().folhas());
+        BlobArquivo blob = blobArquivoRepository.findById(recebido.sha256())
+                .orElseThrow(() -> new IllegalStateException("Blob não encontrado após o registro: " + recebido.sha256()));
+        garantirConteudo(blob, recebido, publicada);
+        return blob;
+    }
+
+    /**
+     * Como {@link #publicar(ConteudoRecebido, BlobArquivo)}, buscando antes o registro do blob.
+     */
+    public String publicar(ConteudoRecebido recebido) throws IOException {
+        return publicar(recebido, blobArquivoRepository.findById(recebido.sha256()).orElse(null));
+    }
+
+    /**
+     * Grava no armazenamento, fora de qualquer transação, um conteúdo recebido que ainda não está armazenado,
+     * para que a transação que registra o blob não espere pela cópia. O registro vem depois, com a chave
+     * devolvida aqui, e {@link #garantirConteudo} confere o resultado. Se essa transação for desfeita, o
+     * conteúdo gravado fica órfão até a próxima varredura do armazenamento.
+     * @param recebido Conteúdo recebido em um temporário.
+     * @param existente Registro do blob lido antes, sem bloqueio, ou null se o hash ainda não existia.
+     * @return A chave gravada (o temporário foi consumido), ou null se o conteúdo já estava armazenado.
+     * @throws IOException Se não for possível gravar o conteúdo.
+     */
+    public String publicar(ConteudoRecebido recebido, BlobArquivo existente) throws IOException {
+        // Um blob arquivado já tem o conteúdo na camada fria; ele volta ao principal na primeira leitura
+        if (existente != null && (existente.getCamada() == CamadaArmazenamento.FRIA
+                || armazenamento.existe(existente.getCaminhoArmazenamento()))) {
+            return null;
+        }
+        String chave = existente != null ? existente.getCaminhoArmazenamento()
+                : armazenamento.alocar(chaveDoBlob(recebido.sha256()), recebido.tamanho(), recebido.temporario());
+        armazenamento.gravar(chave, recebido.temporario());
+        return chave;
+    }
+
+    /**
+     * Confere, na transação que registrou a referência, se o conteúdo do blob está no armazenamento. Um blob
+     * registrado cujo conteúdo sumiu (ex.: removido entre a publicação e o registro) é recomposto a partir do
+     * temporário, já que o conteúdo é o mesmo.
+     * @param blob Blob já com a referência registrada (e a linha bloqueada).
+     * @param recebido Conteúdo recebido.
+     * @param publicada Chave gravada por {@link #publicar}, ou null.
+     * @throws IOException Se não for possível gravar o conteúdo.
+     * @throws IllegalStateException Se o conteúdo faltar e o temporário já tiver sido consumido.
+     */
+    public void garantirConteudo(BlobArquivo blob, ConteudoRecebido recebido, String publicada) throws IOException {
+        if (blob.getCamada() == CamadaArmazenamento.FRIA || blob.getCaminhoArmazenamento().equals(publicada)
+                || armazenamento.existe(blob.getCaminhoArmazenamento())) {
+            return;
+        }
+        if (recebido.temporario() == null || !Files.exists(recebido.temporario())) {
+            throw new IllegalStateException("Conteúdo do blob " + blob.getHashSha256() + " indisponível no armazenamento.");
+        }
+        // Se a transação for desfeita o blob fica órfão no armazenamento, mas nunca é removido enquanto pode ser referenciado
+        armazenamento.gravar(blob.getCaminhoArmazenamento(), recebido.temporario());
+    }
+
+    /**
+     * Remove uma referência ao blob. Quando a última referência sai, o registro é excluído e o
+     * conteúdo é movido para uma lixeira ainda dentro da transação (com a linha bloqueada, então
+     * nenhum upload concorrente do mesmo conteúdo o enxerga); a remoção definitiva ocorre após o commit
+     * e, em caso de rollback, o nome original é restaurado.
+     * @param hash Hash SHA-256 do conteúdo.
+     * @throws IOException Se não for possível mover o blob para a lixeira.
+     */
+    @Transactional
+    public void liberarReferencia(String hash) throws IOException {
+        if (blobArquivoRepository.decrementarReferencias(hash) == 0) {
+            return;
+        }
+        removerSeSemReferencias(hash);
+    }
+
+    /**
+     * Remove o blob se ele não tiver mais referências (ex.: depois de uma exclusão em massa que só decrementou
+     * os contadores), pelas mesmas regras de {@link #liberarReferencia}. Um blob que voltou a ser referenciado
+     * enquanto isso é mantido.
+     * @param hash Hash SHA-256 do conteúdo.
+     * @throws IOException Se não for possível mover o blob para a lixeira.
+     */
+    @Transactional
+    public void removerSeSemReferencias(String hash) throws IOException {
+        BlobArquivo registro = blobArquivoRepository.findById(hash).orElse(null);
+        if (registro == null || blobArquivoRepository.excluirSemReferencias(hash) == 0) {
+            return;
+        }
+
+        String chave = registro.getCaminhoArmazenamento();
+        if (registro.getCamada() == CamadaArmazenamento.FRIA) {
+            excluirCopiaFriaAposCommit(armazenamento.chaveLogica(chave));
+            return;
+        }
+        // Ao lado do próprio blob, para que a movimentação seja um rename no mesmo volume
+        String lixeira = chave + SUFIXO_REMOVIDO + UUID.randomUUID();
+        try {
+            armazenamento.mover(chave, lixeira);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                try {
+                    if (status == STATUS_COMMITTED) {
+                        armazenamento.excluir(lixeira);
+                    } else {
+                        armazenamento.mover(lixeira, chave);
+                    }
+                } catch (IOException e) {
+                    logger.error("Falha ao finalizar a remoção do blob {}", hash, e);
+                }
+            }
+        });
+    }
+
+    private void excluirCopiaFriaAposCommit(String chaveFria) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    armazenamentoFrio.excluir(chaveFria);
+                } catch (IOException e) {
+                    logger.error("Falha ao remover a cópia fria {}", chaveFria, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Indica se o Arquivo aponta para um blob endereçado por conteúdo (e não para o layout antigo por pasta).
+     */
+    public boolean armazenadoComoBlob(Arquivo arquivo) {
+        return armazenadoComoBlob(arquivo.getHashSha256(), arquivo.getCaminhoArmazenamento());
+    }
+
+    /**
+     * Indica se o hash e o caminho gravados em um Arquivo correspondem a um blob endereçado por conteúdo.
+     */
+    public boolean armazenadoComoBlob(String hash, String caminhoArmazenamento) {
+        return hash != null && blobArquivoRepository.findById(hash)
+                .map(blob -> blob.getCaminhoArmazenamento().equals(caminhoArmazenamento))
+                .orElse(false);
+    }
+
+    /**
+     * Descarta um conteúdo recebido que não será armazenado.
+     */
+    public void descartar(ConteudoRecebido recebido) {
+        if (recebido.temporario() == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(recebido.temporario());
+        } catch (IOException e) {
+            logger.warn("Não foi possível remover o temporário {}", recebido.temporario(), e);
+        }
+    }
+
+    /**
+     * Chave de um blob no layout com fan-out por prefixo do hash: "blobs/ab/cd/abcd...".
+     * Os 65.536 diretórios de dois níveis mantêm cada diretório pequeno, independentemente de
+     * quantos arquivos uma pasta lógica tenha, e a chave não muda quando a pasta é renomeada.
+     */
+    public String chaveDoBlob(String hash) {
+        return "blobs/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+    }
+
+    /**
+     * Indica se o caminho gravado já está no layout com fan-out, em qualquer localização física.
+     */
+    public boolean noLayoutDeBlobs(String hash, String caminhoArmazenamento) {
+        return hash != null && chaveDoBlob(hash).equals(armazenamento.chaveLogica(caminhoArmazenamento));
+    }
+
+    private static MessageDigest novoDigestSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Algoritmo SHA-256 indisponível.", e);
+        }
+    }
+}
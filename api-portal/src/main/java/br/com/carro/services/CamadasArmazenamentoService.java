@@ -0,0 +1,295 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.armazenamento.ArmazenamentoFrio;
+import br.com.carro.entities.Arquivo;
+import br.com.carro.entities.BlobArquivo;
+import br.com.carro.entities.CamadaArmazenamento;
+import br.com.carro.repositories.BlobArquivoRepository;
+import br.com.carro.utilitarios.LimitadorTaxa;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Camadas quente/fria do armazenamento.
+ * Os downloads registram o último acesso de cada blob (em memória, gravado em lote periodicamente); uma tarefa
+ * em segundo plano move para o diretório de arquivamento os blobs sem acesso há mais de N dias, com I/O
+ * limitado, e um download de um blob arquivado o promove de volta ao armazenamento principal antes do envio.
+ * O caminho_armazenamento dos arquivos não muda: a camada fica em tb_blob_arquivo.
+ */
+@Service
+public class CamadasArmazenamentoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CamadasArmazenamentoService.class);
+
+    private static final int TAMANHO_PAGINA = 500;
+
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final Armazenamento armazenamento;
+    private final ArmazenamentoFrio armazenamentoFrio;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LimitadorTaxa limitadorTaxa;
+
+    @Value("${armazenamento.camadas.dias-sem-acesso:30}")
+    private long diasSemAcesso;
+
+    // Último acesso de cada blob ainda não gravado no banco
+    private final Map<String, LocalDateTime> acessosPendentes = new ConcurrentHashMap<>();
+
+    // Uma única promoção (ou arquivamento) por blob; leituras simultâneas do mesmo blob esperam a mesma cópia
+    private final Map<String, CompletableFuture<Void>> promocoes = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean arquivando = new AtomicBoolean(false);
+
+    public CamadasArmazenamentoService(BlobArquivoRepository blobArquivoRepository, Armazenamento armazenamento,
+                                       ArmazenamentoFrio armazenamentoFrio, JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${armazenamento.camadas.bytes-por-segundo:20971520}") long bytesPorSegundo) {
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.armazenamento = armazenamento;
+        this.armazenamentoFrio = armazenamentoFrio;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.limitadorTaxa = new LimitadorTaxa(bytesPorSegundo, bytesPorSegundo);
+    }
+
+    /**
+     * Registra o acesso ao arquivo e, se o conteúdo estiver na camada fria, o traz de volta ao
+     * armazenamento principal. Deve ser chamado antes de enviar o conteúdo.
+     * @param arquivo Arquivo que será lido.
+     * @throws IOException Se não for possível promover o conteúdo.
+     */
+    public void prepararLeitura(Arquivo arquivo) throws IOException {
+        prepararLeitura(arquivo.getHashSha256(), arquivo.getCaminhoArmazenamento());
+    }
+
+    /**
+     * Mesmo que {@link #prepararLeitura(Arquivo)}, a partir do hash e do caminho do arquivo.
+     */
+    public void prepararLeitura(String hash, String caminhoArmazenamento) throws IOException {
+        if (hash == null) {
+            return;
+        }
+        // Registrado antes de ler a camada: um arquivamento que ainda não o viu é desfeito (ver arquivar)
+        acessosPendentes.merge(hash, LocalDateTime.now(), (anterior, atual) -> atual.isAfter(anterior) ? atual : anterior);
+
+        // Relido depois de esperar por um arquivamento ou pela promoção de outra leitura
+        while (true) {
+            BlobArquivo blob = blobArquivoRepository.findById(hash).orElse(null);
+            if (blob == null || blob.getCamada() != CamadaArmazenamento.FRIA
+                    || !blob.getCaminhoArmazenamento().equals(caminhoArmazenamento)) {
+                return;
+            }
+            if (promover(blob)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Grava periodicamente, em um único lote, os acessos registrados desde a última gravação.
+     */
+    @Scheduled(fixedDelayString = "${armazenamento.camadas.intervalo-registro-acesso-ms:60000}")
+    public synchronized void gravarAcessos() {
+        if (acessosPendentes.isEmpty()) {
+            return;
+        }
+        List<Object[]> parametros = new ArrayList<>();
+        for (Map.Entry<String, LocalDateTime> acesso : acessosPendentes.entrySet()) {
+            if (acessosPendentes.remove(acesso.getKey(), acesso.getValue())) {
+                Timestamp momento = Timestamp.valueOf(acesso.getValue());
+                parametros.add(new Object[]{momento, acesso.getKey(), momento});
+            }
+        }
+        jdbcTemplate.batchUpdate("UPDATE tb_blob_arquivo SET ultimo_acesso = ? " +
+                "WHERE hash_sha256 = ? AND (ultimo_acesso IS NULL OR ultimo_acesso < ?)", parametros);
+    }
+
+    /**
+     * Move para a camada fria os blobs sem acesso há mais de "armazenamento.camadas.dias-sem-acesso" dias.
+     */
+    @Scheduled(fixedDelayString = "${armazenamento.camadas.intervalo-ms:3600000}",
+            initialDelayString = "${armazenamento.camadas.intervalo-ms:3600000}")
+    public void arquivarSemAcesso() {
+        if (!arquivando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // Acessos ainda em memória também contam
+            gravarAcessos();
+            LocalDateTime limite = LocalDateTime.now().minusDays(diasSemAcesso);
+            String ultimoHash = "";
+            long arquivados = 0;
+            List<BlobArquivo> pagina;
+            do {
+                pagina = blobArquivoRepository.buscarSemAcessoDesde(CamadaArmazenamento.QUENTE, ultimoHash, limite,
+                        PageRequest.of(0, TAMANHO_PAGINA));
+                for (BlobArquivo blob : pagina) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    if (arquivar(blob, limite)) {
+                        arquivados++;
+                    }
+                    ultimoHash = blob.getHashSha256();
+                }
+            } while (pagina.size() == TAMANHO_PAGINA);
+            if (arquivados > 0) {
+                logger.info("{} blobs sem acesso desde {} movidos para a camada fria", arquivados, limite);
+            }
+        } finally {
+            arquivando.set(false);
+        }
+    }
+
+    /**
+     * Copia o blob para a camada fria e só então o marca como FRIA (se continuar sem acesso); a cópia
+     * quente é removida após o commit. Se o blob foi lido, movido ou excluído no meio, a cópia fria é descartada.
+     * Uma leitura registra o acesso antes de ler a camada. O acesso é conferido com a linha do blob bloqueada,
+     * antes do UPDATE condicional que troca a camada, e de novo depois do commit: uma leitura que chegou entre
+     * as duas conferências pode ter lido a camada QUENTE, e então a troca é desfeita e a cópia quente fica.
+     * Uma leitura posterior já enxerga FRIA e espera, pelo mapa de promoções, a cópia quente ser removida
+     * antes de promover o blob.
+     */
+    private boolean arquivar(BlobArquivo blob, LocalDateTime limite) {
+        String hash = blob.getHashSha256();
+        String chave = blob.getCaminhoArmazenamento();
+        String chaveFria = armazenamento.chaveLogica(chave);
+        CompletableFuture<Void> arquivamento = new CompletableFuture<>();
+        if (promocoes.putIfAbsent(hash, arquivamento) != null) {
+            // Sendo promovido por uma leitura
+            return false;
+        }
+        Integer atualizados = null;
+        try {
+            try (InputStream conteudo = limitadorTaxa.limitar(armazenamento.ler(chave))) {
+                armazenamentoFrio.gravar(chaveFria, conteudo, blob.getTamanhoBytes());
+            }
+            atualizados = transactionTemplate.execute(status -> {
+                // Sem o monitor de gravarAcessos, que pode estar esperando por esta linha; um acesso que ele
+                // retirou do mapa e ainda não gravou aparece na conferência depois do commit
+                if (blobArquivoRepository.bloquearParaArquivar(hash, chave, limite).isEmpty()
+                        || acessosPendentes.containsKey(hash)) {
+                    return 0;
+                }
+                return blobArquivoRepository.arquivar(hash, chave, limite);
+            });
+            if (atualizados != null && atualizados > 0 && acessado(hash, limite)) {
+                // Lido entre a conferência e o commit: a leitura pode estar usando a cópia quente
+                Integer desfeitos = transactionTemplate.execute(status -> blobArquivoRepository.alterarCamada(
+                        hash, chave, CamadaArmazenamento.FRIA, CamadaArmazenamento.QUENTE));
+                if (desfeitos == null || desfeitos == 0) {
+                    // Excluído nesse meio tempo; a exclusão cuida da cópia fria
+                    return false;
+                }
+                atualizados = 0;
+            }
+            if (atualizados != null && atualizados > 0) {
+                armazenamento.excluir(chave);
+                return true;
+            }
+            armazenamentoFrio.excluir(chaveFria);
+            return false;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Falha ao arquivar o blob {}", hash, e);
+            if (atualizados == null) {
+                excluirCopiaFria(chaveFria);
+            }
+            return false;
+        } finally {
+            promocoes.remove(hash, arquivamento);
+            arquivamento.complete(null);
+        }
+    }
+
+    /**
+     * Se o blob teve acesso desde o limite, ainda em memória ou já gravado. Sincronizado com
+     * {@link #gravarAcessos}, para que um acesso retirado do mapa já esteja no banco; chamado fora de transação.
+     */
+    private synchronized boolean acessado(String hash, LocalDateTime limite) {
+        if (acessosPendentes.containsKey(hash)) {
+            return true;
+        }
+        return blobArquivoRepository.findById(hash)
+                .map(atual -> atual.getUltimoAcesso() != null && !atual.getUltimoAcesso().isBefore(limite))
+                .orElse(false);
+    }
+
+    /**
+     * Promove o blob, ou espera a promoção (ou o arquivamento) em andamento.
+     * @return false se esperou por outra operação: o chamador relê o blob.
+     */
+    private boolean promover(BlobArquivo blob) throws IOException {
+        CompletableFuture<Void> minhaPromocao = new CompletableFuture<>();
+        CompletableFuture<Void> emAndamento = promocoes.putIfAbsent(blob.getHashSha256(), minhaPromocao);
+        if (emAndamento != null) {
+            aguardar(emAndamento);
+            return false;
+        }
+        try {
+            copiarParaCamadaQuente(blob);
+            minhaPromocao.complete(null);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            minhaPromocao.completeExceptionally(e);
+            throw e;
+        } finally {
+            promocoes.remove(blob.getHashSha256(), minhaPromocao);
+        }
+    }
+
+    private void copiarParaCamadaQuente(BlobArquivo blob) throws IOException {
+        String chave = blob.getCaminhoArmazenamento();
+        String chaveFria = armazenamento.chaveLogica(chave);
+        try (InputStream conteudo = armazenamentoFrio.ler(chaveFria)) {
+            armazenamento.gravar(chave, conteudo, blob.getTamanhoBytes());
+        }
+        Integer atualizados = transactionTemplate.execute(status -> blobArquivoRepository.alterarCamada(
+                blob.getHashSha256(), chave, CamadaArmazenamento.FRIA, CamadaArmazenamento.QUENTE));
+        if (atualizados != null && atualizados > 0) {
+            excluirCopiaFria(chaveFria);
+        } else if (!blobArquivoRepository.existsById(blob.getHashSha256())) {
+            // O blob foi excluído durante a promoção: a cópia quente não é referenciada por ninguém
+            armazenamento.excluir(chave);
+        }
+    }
+
+    private void excluirCopiaFria(String chaveFria) {
+        try {
+            armazenamentoFrio.excluir(chaveFria);
+        } catch (IOException e) {
+            logger.warn("Não foi possível remover a cópia fria {}", chaveFria, e);
+        }
+    }
+
+    private static void aguardar(CompletableFuture<Void> promocao) throws IOException {
+        try {
+            promocao.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException erro) {
+                throw erro;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package br.com.carro.services;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores de download e visualização por arquivo.
+ * Cada acesso só soma aos contadores do arquivo em memória (LongAdder, sem lock nem disputa entre acessos
+ * simultâneos ao mesmo arquivo); periodicamente os valores acumulados são somados a tb_arquivo_acesso com um único batch de upsert.
+ * Os arquivos mais acessados nos últimos dias ficam em memória para decisões de cache.
+ */
+@Service
+public class ContadorAcessoService {
+
+    private static final String SQL_SOMAR_ACESSOS = "INSERT INTO tb_arquivo_acesso " +
+            "(arquivo_id, downloads, visualizacoes, ultimo_acesso) " +
+            "SELECT a.id, ?, ?, ? FROM tb_arquivo a WHERE a.id = ? " +
+            "ON DUPLICATE KEY UPDATE downloads = downloads + VALUES(downloads), " +
+            "visualizacoes = visualizacoes + VALUES(visualizacoes), " +
+            "ultimo_acesso = GREATEST(COALESCE(ultimo_acesso, VALUES(ultimo_acesso)), VALUES(ultimo_acesso))";
+
+    // Pastas do setor: as que têm o setor e todas as suas subpastas (que normalmente não têm setor próprio)
+    private static final String SQL_MAIS_ACESSADOS_SETOR = "SELECT a.id, a.nome_arquivo, a.pasta_id, " +
+            "c.downloads, c.visualizacoes, c.ultimo_acesso " +
+            "FROM tb_arquivo_acesso c " +
+            "JOIN tb_arquivo a ON a.id = c.arquivo_id " +
+            "WHERE a.pasta_id IN (SELECT f.descendente_id FROM tb_pasta_fechamento f " +
+            "JOIN tb_pasta r ON r.id = f.ancestral_id WHERE r.setor_id = ?) " +
+            "ORDER BY c.downloads + c.visualizacoes DESC, a.id LIMIT ?";
+
+    private static final String SQL_QUENTES = "SELECT arquivo_id FROM tb_arquivo_acesso " +
+            "WHERE ultimo_acesso >= ? ORDER BY downloads + visualizacoes DESC LIMIT ?";
+
+    /**
+     * Um arquivo e seus acessos, para a lista dos mais acessados.
+     */
+    public record ArquivoMaisAcessado(Long id, String nomeArquivo, Long pastaId, long downloads,
+                                      long visualizacoes, LocalDateTime ultimoAcesso) {}
+
+    /**
+     * Acessos de um arquivo ainda não gravados. A gravação esvazia os contadores sem tirá-los do mapa; só os
+     * de um arquivo sem acessos desde a gravação anterior saem dele, marcados como retirados.
+     */
+    private static final class Contadores {
+        final LongAdder downloads = new LongAdder();
+        final LongAdder visualizacoes = new LongAdder();
+        // Em milissegundos desde a época
+        final LongAccumulator ultimoAcesso = new LongAccumulator(Math::max, 0);
+        // Quem ainda somar em uma instância retirada leva a soma para a instância atual do arquivo
+        volatile boolean retirado;
+
+        void somar(long downloads, long visualizacoes, long acesso) {
+            this.downloads.add(downloads);
+            this.visualizacoes.add(visualizacoes);
+            ultimoAcesso.accumulate(acesso);
+        }
+
+        /**
+         * Esvazia os contadores. Cada parcela é zerada de forma atômica: um acesso concorrente fica nesta
+         * retirada ou na próxima, nunca em nenhuma.
+         */
+        Retirada retirar() {
+            return new Retirada(downloads.sumThenReset(), visualizacoes.sumThenReset(), ultimoAcesso.getThenReset());
+        }
+    }
+
+    private record Retirada(long downloads, long visualizacoes, long ultimoAcesso) {
+        boolean vazia() {
+            return downloads == 0 && visualizacoes == 0;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${arquivo.acessos.quentes.quantidade:1000}")
+    private int quantidadeQuentes;
+
+    @Value("${arquivo.acessos.quentes.dias:7}")
+    private long diasQuentes;
+
+    // Acessos ainda não gravados no banco
+    private final Map<Long, Contadores> pendentes = new ConcurrentHashMap<>();
+
+    private volatile Set<Long> quentes = Set.of();
+
+    public ContadorAcessoService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Registra o download do arquivo inteiro.
+     */
+    public void registrarDownload(Long arquivoId) {
+        registrar(arquivoId, 1, 0);
+    }
+
+    /**
+     * Registra a abertura do arquivo em um leitor de PDF (requisição de intervalo a partir do início).
+     */
+    public void registrarVisualizacao(Long arquivoId) {
+        registrar(arquivoId, 0, 1);
+    }
+
+    /**
+     * Se o arquivo está entre os mais acessados nos últimos "arquivo.acessos.quentes.dias" dias.
+     */
+    public boolean ehQuente(Long arquivoId) {
+        return quentes.contains(arquivoId);
+    }
+
+    /**
+     * Os arquivos mais acessados das pastas do setor (e subpastas), pelo que já foi gravado no banco: os acessos
+     * ainda em memória entram na próxima gravação ("arquivo.acessos.intervalo-gravacao-ms").
+     * @param setorId ID do setor.
+     * @param limite Quantidade máxima de arquivos.
+     */
+    public List<ArquivoMaisAcessado> maisAcessadosDoSetor(Long setorId, int limite) {
+        return jdbcTemplate.query(SQL_MAIS_ACESSADOS_SETOR, (rs, linha) -> new ArquivoMaisAcessado(
+                rs.getLong("id"), rs.getString("nome_arquivo"), rs.getObject("pasta_id", Long.class),
+                rs.getLong("downloads"), rs.getLong("visualizacoes"),
+                rs.getObject("ultimo_acesso", LocalDateTime.class)), setorId, limite);
+    }
+
+    /**
+     * Soma ao banco, em um único batch, os acessos acumulados desde a última gravação.
+     * Os contadores de cada arquivo são esvaziados com sumThenReset, sem lock: um acesso concorrente entra nesta
+     * gravação ou na próxima, nunca se perde. Os de um arquivo sem acessos desde a última gravação saem do mapa
+     * (remoção e nova leitura, para não perder um acesso que chegou no meio). Se o batch falhar, os valores
+     * voltam para o mapa e são gravados na próxima vez. Arquivos excluídos nesse meio tempo são ignorados pelo
+     * INSERT ... SELECT.
+     */
+    @Scheduled(fixedDelayString = "${arquivo.acessos.intervalo-gravacao-ms:30000}")
+    public synchronized void gravarContadores() {
+        if (pendentes.isEmpty()) {
+            return;
+        }
+        Map<Long, Retirada> retiradas = new HashMap<>();
+        for (Map.Entry<Long, Contadores> entrada : pendentes.entrySet()) {
+            Contadores contadores = entrada.getValue();
+            Retirada retirada = contadores.retirar();
+            if (retirada.vazia() && pendentes.remove(entrada.getKey(), contadores)) {
+                contadores.retirado = true;
+                // O que chegou entre a leitura e a remoção
+                retirada = contadores.retirar();
+            }
+            if (!retirada.vazia()) {
+                retiradas.put(entrada.getKey(), retirada);
+            }
+        }
+        if (retiradas.isEmpty()) {
+            return;
+        }
+        List<Object[]> parametros = new ArrayList<>(retiradas.size());
+        retiradas.forEach((arquivoId, retirada) -> parametros.add(new Object[]{retirada.downloads(),
+                retirada.visualizacoes(), new Timestamp(retirada.ultimoAcesso() > 0 ? retirada.ultimoAcesso()
+                : System.currentTimeMillis()), arquivoId}));
+        try {
+            jdbcTemplate.batchUpdate(SQL_SOMAR_ACESSOS, parametros);
+        } catch (RuntimeException e) {
+            retiradas.forEach((arquivoId, retirada) ->
+                    somar(arquivoId, retirada.downloads(), retirada.visualizacoes(), retirada.ultimoAcesso()));
+            throw e;
+        }
+    }
+
+    /**
+     * Recarrega o conjunto de arquivos mais acessados, usado pelo cache de conteúdo.
+     */
+    @Scheduled(fixedDelayString = "${arquivo.acessos.quentes.intervalo-ms:300000}",
+            initialDelayString = "${arquivo.acessos.intervalo-gravacao-ms:30000}")
+    public void atualizarQuentes() {
+        Timestamp desde = Timestamp.valueOf(LocalDateTime.now().minusDays(diasQuentes));
+        quentes = Set.copyOf(jdbcTemplate.queryForList(SQL_QUENTES, Long.class, desde, quantidadeQuentes));
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        gravarContadores();
+    }
+
+    private void registrar(Long arquivoId, long downloads, long visualizacoes) {
+        somar(arquivoId, downloads, visualizacoes, System.currentTimeMillis());
+    }
+
+    private void somar(Long arquivoId, long downloads, long visualizacoes, long acesso) {
+        // Leitura sem lock; o computeIfAbsent só é usado no primeiro acesso depois de uma gravação
+        Contadores contadores = pendentes.get(arquivoId);
+        if (contadores == null) {
+            contadores = pendentes.computeIfAbsent(arquivoId, id -> new Contadores());
+        }
+        contadores.somar(downloads, visualizacoes, acesso);
+        if (contadores.retirado) {
+            // Retirada do mapa pela gravação depois da leitura acima: o que ainda está nela vai para a atual
+            Retirada resto = contadores.retirar();
+            if (!resto.vazia()) {
+                somar(arquivoId, resto.downloads(), resto.visualizacoes(), resto.ultimoAcesso());
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package br.com.carro.services;
+
+import br.com.carro.entities.CotaSetor;
+import br.com.carro.entities.Setor;
+import br.com.carro.exceptions.CotaExcedidaException;
+import br.com.carro.repositories.CotaSetorRepository;
+import br.com.carro.repositories.SetorRepository;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cotas de armazenamento por setor. O uso de cada setor fica em tb_setor_cota e é ajustado na mesma
+ * transação que cria, substitui ou exclui o Arquivo, com um UPDATE condicional: a verificação custa uma
+ * linha, independentemente de quantos arquivos o setor tenha. Pastas sem setor (nem acima delas) não têm cota.
+ */
+@Service
+public class CotaSetorService {
+
+    private final CotaSetorRepository cotaSetorRepository;
+    private final SetorRepository setorRepository;
+
+    public CotaSetorService(CotaSetorRepository cotaSetorRepository, SetorRepository setorRepository) {
+        this.cotaSetorRepository = cotaSetorRepository;
+        this.setorRepository = setorRepository;
+    }
+
+    /**
+     * Uso e limite de um setor. disponivelBytes é nulo quando o setor não tem limite.
+     */
+    public record UsoSetor(Long setorId, String nome, Long limiteBytes, long usadoBytes, long arquivos, Long disponivelBytes) {}
+
+    /**
+     * Setor que responde pela cota da pasta (o dela ou o da pasta mais próxima acima), ou null.
+     */
+    @Transactional(readOnly = true)
+    public Long setorDaPasta(Long pastaId) {
+        return cotaSetorRepository.buscarSetorDaPasta(pastaId);
+    }
+
+    /**
+     * Espaço livre do setor, ou Long.MAX_VALUE se ele não tiver limite (ou não houver setor).
+     * É só uma leitura: a reserva definitiva é feita por {@link #reservar} ou {@link #reservarCada}.
+     */
+    @Transactional(readOnly = true)
+    public long disponivel(Long setorId) {
+        if (setorId == null) {
+            return Long.MAX_VALUE;
+        }
+        return cotaSetorRepository.findById(setorId)
+                .filter(cota -> cota.getLimiteBytes() != null)
+                .map(cota -> Math.max(0, cota.getLimiteBytes() - cota.getUsadoBytes()))
+                .orElse(Long.MAX_VALUE);
+    }
+
+    /**
+     * Recusa cedo (antes de receber ou publicar o conteúdo) um envio que já não cabe na cota.
+     * @throws CotaExcedidaException Se os bytes não couberem no espaço livre atual.
+     */
+    public void verificar(Long setorId, long bytes) {
+        if (bytes > disponivel(setorId)) {
+            throw new CotaExcedidaException("Cota de armazenamento do setor excedida.");
+        }
+    }
+
+    /**
+     * Soma bytes e arquivos ao uso do setor, se couberem no limite. Deve ser chamado na transação que grava
+     * os Arquivos, o mais perto possível do commit: a linha do setor fica bloqueada até lá.
+     * @param bytes Bytes a somar (negativo em uma substituição por um conteúdo menor, sempre aceito).
+     * @param arquivos Quantidade de arquivos criados.
+     * @throws CotaExcedidaException Se o limite for excedido.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reservar(Long setorId, long bytes, long arquivos) {
+        if (setorId == null || (bytes == 0 && arquivos == 0)) {
+            return;
+        }
+        if (cotaSetorRepository.ajustarUso(setorId, bytes, arquivos) > 0) {
+            return;
+        }
+        // Setor criado depois da migração: a linha nasce sem limite e o ajuste é refeito
+        cotaSetorRepository.criarSeAusente(setorId);
+        if (cotaSetorRepository.ajustarUso(setorId, bytes, arquivos) == 0) {
+            throw new CotaExcedidaException("Cota de armazenamento do setor excedida.");
+        }
+    }
+
+    /**
+     * Espaço de um envio: bytes somados ao uso e arquivos criados (0 em uma substituição).
+     */
+    public record Reserva(long bytes, long arquivos) {}
+
+    /**
+     * Reserva o espaço de cada envio, na ordem, em uma transação própria e curta, antes de o conteúdo ser
+     * publicado: os que cabem ficam reservados e os demais são recusados um a um, sem derrubar os outros.
+     * Uma reserva cujo arquivo acabar não sendo gravado deve ser devolvida com {@link #estornar}.
+     * @return Para cada envio, se o espaço foi reservado.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public boolean[] reservarCada(Long setorId, List<Reserva> reservas) {
+        boolean[] reservadas = new boolean[reservas.size()];
+        if (setorId == null) {
+            Arrays.fill(reservadas, true);
+            return reservadas;
+        }
+        cotaSetorRepository.criarSeAusente(setorId);
+        for (int i = 0; i < reservas.size(); i++) {
+            Reserva reserva = reservas.get(i);
+            reservadas[i] = (reserva.bytes() == 0 && reserva.arquivos() == 0)
+                    || cotaSetorRepository.ajustarUso(setorId, reserva.bytes(), reserva.arquivos()) > 0;
+        }
+        return reservadas;
+    }
+
+    /**
+     * Devolve, em uma transação própria, o que foi reservado por {@link #reservarCada} para arquivos que não
+     * foram gravados.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void estornar(Long setorId, long bytes, long arquivos) {
+        liberar(setorId, bytes, arquivos);
+    }
+
+    /**
+     * Subtrai do uso do setor o que foi excluído. Deve ser chamado na transação da exclusão.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void liberar(Long setorId, long bytes, long arquivos) {
+        if (setorId != null && (bytes != 0 || arquivos != 0)) {
+            cotaSetorRepository.ajustarUso(setorId, -bytes, -arquivos);
+        }
+    }
+
+    /**
+     * Subtrai do uso de cada setor os arquivos de uma pasta e de todas as suas subpastas, antes de ela ser
+     * excluída. Uma subpasta com setor próprio é descontada desse setor, e não do da pasta excluída.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void liberarPasta(Long pastaId) {
+        for (CotaSetorRepository.UsoPorSetor uso : cotaSetorRepository.somarSubarvorePorSetor(pastaId)) {
+            liberar(uso.getSetorId(), uso.getBytes(), uso.getArquivos());
+        }
+    }
+
+    /**
+     * Transfere o uso de uma pasta e de todas as suas subpastas para o setor de destino (movimentação entre
+     * setores), do mesmo jeito que a movimentação redefine os setores: com um setor de destino, toda a subárvore
+     * passa para ele; sem, cada subpasta fica com o setor próprio mais próximo dentro da subárvore (ou sem cota).
+     * As linhas dos setores envolvidos são bloqueadas antes, em ordem de ID, e devem sê-lo antes de qualquer pasta.
+     * @throws CotaExcedidaException Se o conteúdo não couber no limite do setor de destino.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void transferirPasta(Long pastaId, Long setorOrigem, Long setorDestino) {
+        if (Objects.equals(setorOrigem, setorDestino)) {
+            return;
+        }
+        Set<Long> setores = new TreeSet<>();
+        Stream.of(setorOrigem, setorDestino).filter(Objects::nonNull).forEach(setores::add);
+        cotaSetorRepository.somarSubarvorePorSetor(pastaId).stream()
+                .map(CotaSetorRepository.UsoPorSetor::getSetorId)
+                .filter(Objects::nonNull)
+                .forEach(setores::add);
+        cotaSetorRepository.bloquear(setores);
+
+        // Somado de novo com as linhas bloqueadas: nenhum upload na subárvore muda o uso enquanto isso
+        for (CotaSetorRepository.UsoPorSetor uso : cotaSetorRepository.somarSubarvorePorSetor(pastaId)) {
+            Long novo = setorDestino != null ? setorDestino : uso.getSetorInterno();
+            if (!Objects.equals(uso.getSetorId(), novo)) {
+                reservar(novo, uso.getBytes(), uso.getArquivos());
+                liberar(uso.getSetorId(), uso.getBytes(), uso.getArquivos());
+            }
+        }
+    }
+
+    /**
+     * Uso e limite de todos os setores.
+     */
+    @Transactional(readOnly = true)
+    public List<UsoSetor> listar() {
+        Map<Long, CotaSetor> cotas = cotaSetorRepository.findAll().stream()
+                .collect(Collectors.toMap(CotaSetor::getSetorId, Function.identity()));
+        return setorRepository.findAll().stream()
+                .map(setor -> uso(setor, cotas.get(setor.getId())))
+                .toList();
+    }
+
+    @Transactional(readOnly = true)
+    public UsoSetor buscar(Long setorId) {
+        Setor setor = setorRepository.findById(setorId)
+                .orElseThrow(() -> new EntityNotFoundException("Setor não encontrado com o ID: " + setorId));
+        return uso(setor, cotaSetorRepository.findById(setorId).orElse(null));
+    }
+
+    /**
+     * Define o limite do setor. Um limite menor que o uso atual é aceito: nada é removido, mas novos
+     * envios são recusados até que o uso caia abaixo dele.
+     * @param limiteBytes Novo limite, ou null para remover o limite.
+     */
+    @Transactional
+    public UsoSetor definirLimite(Long setorId, Long limiteBytes) {
+        if (limiteBytes != null && limiteBytes < 0) {
+            throw new IllegalArgumentException("O limite não pode ser negativo.");
+        }
+        if (!setorRepository.existsById(setorId)) {
+            throw new EntityNotFoundException("Setor não encontrado com o ID: " + setorId);
+        }
+        cotaSetorRepository.criarSeAusente(setorId);
+        cotaSetorRepository.definirLimite(setorId, limiteBytes);
+        return buscar(setorId);
+    }
+
+    /**
+     * Recalcula o uso de todos os setores somando tb_arquivo. Serve para corrigir divergências
+     * (ex.: arquivos removidos direto no banco); uploads concorrentes podem deixar uma pequena diferença.
+     */
+    @Transactional
+    public List<UsoSetor> recalcular() {
+        cotaSetorRepository.recalcularUso();
+        return listar();
+    }
+
+    private UsoSetor uso(Setor setor, CotaSetor cota) {
+        if (cota == null) {
+            return new UsoSetor(setor.getId(), setor.getNome(), null, 0, 0, null);
+        }
+        Long disponivel = cota.getLimiteBytes() != null ? Math.max(0, cota.getLimiteBytes() - cota.getUsadoBytes()) : null;
+        return new UsoSetor(setor.getId(), setor.getNome(), cota.getLimiteBytes(), cota.getUsadoBytes(),
+                cota.getArquivos(), disponivel);
+    }
+}
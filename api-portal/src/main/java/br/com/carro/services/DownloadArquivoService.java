@@ -0,0 +1,478 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.armazenamento.CacheConteudo;
+import br.com.carro.entities.Arquivo;
+import br.com.carro.entities.Usuario.Usuario;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Envia o conteúdo de um Arquivo na resposta HTTP com suporte a Range (RFC 9110) e requisições condicionais.
+ * Com o armazenamento local o conteúdo nunca passa pelo heap: respostas de intervalo único usam o sendfile
+ * do Tomcat quando disponível e, nos demais casos, FileChannel.transferTo direto para o stream da resposta.
+ * Com armazenamentos remotos cada intervalo é lido com uma leitura parcial e copiado em streaming.
+ * Arquivos pequenos e populares podem ser servidos pelo CacheConteudo, sem acesso ao armazenamento.
+ * Com o limite de banda ativo, uma resposta acima do saldo do usuário ou do setor é enviada em streaming
+ * pelo {@link LimiteBandaService}, sem sendfile.
+ * Atrás do nginx (download.x-accel.habilitado), um conteúdo local sob uma das raízes mapeadas não passa pela
+ * aplicação: ela só valida a permissão, conta o acesso e responde com X-Accel-Redirect para uma location
+ * interna, e o nginx envia o arquivo (Range e validadores inclusos). Sem o mapeamento, o envio segue aqui.
+ */
+@Service
+public class DownloadArquivoService {
+
+    // Atributos de requisição do Tomcat para delegar o envio ao sendfile do conector
+    private static final String SENDFILE_SUPORTADO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_ARQUIVO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIM = "org.apache.tomcat.sendfile.end";
+
+    // Cabeçalho que o nginx acrescenta às requisições que passam por ele; sem ele não há para quem delegar
+    private static final String ACCEL_DISPONIVEL = "X-Accel-Disponivel";
+    private static final String ACCEL_REDIRECT = "X-Accel-Redirect";
+    private static final String ACCEL_LIMITE = "X-Accel-Limit-Rate";
+
+    /**
+     * Raiz local servida pelo nginx em uma location interna (prefixo da URI, terminado em '/').
+     */
+    private record LocationInterna(Path raiz, String prefixo) {
+    }
+
+    private final Armazenamento armazenamento;
+    private final CacheConteudo cacheConteudo;
+    private final ContadorAcessoService contadorAcessoService;
+    private final LimiteBandaService limiteBandaService;
+    private final boolean accelHabilitado;
+    private final List<LocationInterna> locationsInternas;
+
+    public DownloadArquivoService(Armazenamento armazenamento, CacheConteudo cacheConteudo,
+                                  ContadorAcessoService contadorAcessoService, LimiteBandaService limiteBandaService,
+                                  @Value("${download.x-accel.habilitado:false}") boolean accelHabilitado,
+                                  @Value("${download.x-accel.mapeamentos:}") String mapeamentos) {
+        this.armazenamento = armazenamento;
+        this.cacheConteudo = cacheConteudo;
+        this.contadorAcessoService = contadorAcessoService;
+        this.limiteBandaService = limiteBandaService;
+        this.accelHabilitado = accelHabilitado;
+        this.locationsInternas = lerMapeamentos(mapeamentos);
+    }
+
+    /**
+     * Lê a lista "caminhoLocal=/prefixo/,..." das raízes que o nginx enxerga.
+     * @throws IllegalArgumentException Se uma entrada não tiver o formato esperado.
+     */
+    private static List<LocationInterna> lerMapeamentos(String mapeamentos) {
+        List<LocationInterna> locations = new ArrayList<>();
+        for (String entrada : mapeamentos.split(",")) {
+            if (entrada.isBlank()) {
+                continue;
+            }
+            int separador = entrada.lastIndexOf('=');
+            if (separador <= 0 || !entrada.substring(separador + 1).trim().startsWith("/")) {
+                throw new IllegalArgumentException("Mapeamento X-Accel inválido: " + entrada.trim());
+            }
+            String prefixo = entrada.substring(separador + 1).trim();
+            locations.add(new LocationInterna(Path.of(entrada.substring(0, separador).trim()).toAbsolutePath().normalize(),
+                    prefixo.endsWith("/") ? prefixo : prefixo + "/"));
+        }
+        return List.copyOf(locations);
+    }
+
+    /**
+     * Escreve o arquivo na resposta, tratando If-None-Match, If-Modified-Since, If-Range e Range.
+     * @param arquivo Metadados do arquivo (já validados quanto à permissão).
+     * @param chave Chave do conteúdo no armazenamento.
+     * @param request Requisição HTTP.
+     * @param response Resposta HTTP.
+     * @param usuario Quem baixa, para o limite de banda (null sem limite).
+     * @throws NoSuchFileException Se o conteúdo não existir no armazenamento.
+     * @throws IOException Se houver um erro ao ler o arquivo ou escrever a resposta.
+     */
+    public void enviar(Arquivo arquivo, String chave, HttpServletRequest request, HttpServletResponse response,
+                       Usuario usuario) throws IOException {
+        enviar(arquivo, chave, request, response, usuario, "private, no-cache");
+    }
+
+    /**
+     * Mesmo que {@link #enviar(Arquivo, String, HttpServletRequest, HttpServletResponse, Usuario)}, com o
+     * Cache-Control informado (ex.: um link assinado pode ser guardado pelo proxy até expirar).
+     */
+    public void enviar(Arquivo arquivo, String chave, HttpServletRequest request, HttpServletResponse response,
+                       Usuario usuario, String cacheControl) throws IOException {
+        long tamanho = armazenamento.consultar(chave)
+                .orElseThrow(() -> new NoSuchFileException(chave))
+                .tamanho();
+        String etag = gerarEtag(arquivo, tamanho);
+        long ultimaModificacao = ultimaModificacao(arquivo);
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, ultimaModificacao);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+
+        if (naoModificado(request, etag, ultimaModificacao)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.inline()
+                .filename(arquivo.getNomeArquivo(), StandardCharsets.UTF_8).build().toString());
+
+        if (delegarAoProxy(arquivo, chave, tamanho, request, response, usuario)) {
+            return;
+        }
+
+        String cabecalhoRange = request.getHeader(HttpHeaders.RANGE);
+        List<long[]> intervalos = null;
+        if (cabecalhoRange != null && rangeAplicavel(request, etag, ultimaModificacao)) {
+            try {
+                intervalos = resolverIntervalos(cabecalhoRange, tamanho);
+            } catch (IllegalArgumentException e) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + tamanho);
+                return;
+            }
+        }
+
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+        if (!head) {
+            registrarAcesso(arquivo.getId(), intervalos);
+        }
+
+        // Dentro do saldo (ex.: a visualização de um PDF) a resposta sai sem limite; acima dele, segue limitada
+        LimiteBandaService.Banda banda = limiteBandaService.para(usuario);
+        long bytesResposta = bytesDaResposta(intervalos, tamanho);
+        LimiteBandaService.Banda limite = head || banda.ilimitada() || banda.tentarReservar(bytesResposta) ? null : banda;
+
+        CacheConteudo.Conteudo emCache = head ? null : cacheConteudo.abrir(chave, tamanho, armazenamento,
+                contadorAcessoService.ehQuente(arquivo.getId())).orElse(null);
+        try {
+            if (intervalos == null) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+                response.setContentLengthLong(tamanho);
+                escreverIntervalo(chave, emCache, limite, 0, tamanho, request, response);
+                return;
+            }
+
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            if (intervalos.size() == 1) {
+                long inicio = intervalos.get(0)[0];
+                long fim = intervalos.get(0)[1];
+                response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + inicio + "-" + fim + "/" + tamanho);
+                response.setContentLengthLong(fim - inicio + 1);
+                escreverIntervalo(chave, emCache, limite, inicio, fim - inicio + 1, request, response);
+            } else {
+                escreverMultiplosIntervalos(chave, emCache, limite, intervalos, tamanho, request, response);
+            }
+        } finally {
+            if (emCache != null) {
+                emCache.close();
+            }
+        }
+    }
+
+    /**
+     * Responde com X-Accel-Redirect quando o nginx está na frente e enxerga o arquivo local. O nginx trata Range,
+     * If-Range e as condicionais com os próprios validadores (estáveis, pois um blob nunca é reescrito).
+     * @return false se o envio deve ser feito pela aplicação.
+     */
+    private boolean delegarAoProxy(Arquivo arquivo, String chave, long tamanho, HttpServletRequest request,
+                                   HttpServletResponse response, Usuario usuario) {
+        if (!accelHabilitado || locationsInternas.isEmpty() || request.getHeader(ACCEL_DISPONIVEL) == null) {
+            return false;
+        }
+        Optional<String> uri = armazenamento.caminhoLocal(chave).flatMap(this::uriInterna);
+        if (uri.isEmpty()) {
+            return false;
+        }
+
+        // O Range é resolvido pelas mesmas regras do envio pela aplicação, para contar o acesso do mesmo jeito
+        String cabecalhoRange = request.getHeader(HttpHeaders.RANGE);
+        List<long[]> intervalos = null;
+        boolean rangeInvalido = false;
+        if (cabecalhoRange != null) {
+            try {
+                intervalos = resolverIntervalos(cabecalhoRange, tamanho);
+            } catch (IllegalArgumentException e) {
+                // A aplicação responderia 416 sem contar o acesso
+                rangeInvalido = true;
+            }
+        }
+        long bytesResposta = rangeInvalido ? 0 : bytesDaResposta(intervalos, tamanho);
+
+        if (!"HEAD".equalsIgnoreCase(request.getMethod())) {
+            if (!rangeInvalido) {
+                registrarAcesso(arquivo.getId(), intervalos);
+            }
+            // Acima do saldo, o nginx envia na menor das taxas configuradas
+            LimiteBandaService.Banda banda = limiteBandaService.para(usuario);
+            if (!banda.ilimitada() && !banda.tentarReservar(bytesResposta)) {
+                response.setHeader(ACCEL_LIMITE, Long.toString(banda.taxaPorSegundo()));
+            }
+        }
+
+        // O nginx mantém Content-Type, Content-Disposition e Cache-Control da resposta da aplicação
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(ACCEL_REDIRECT, uri.get());
+        return true;
+    }
+
+    /**
+     * URI da location interna para um caminho local, se estiver sob uma das raízes mapeadas.
+     */
+    private Optional<String> uriInterna(Path caminho) {
+        Path absoluto = caminho.toAbsolutePath().normalize();
+        for (LocationInterna location : locationsInternas) {
+            if (absoluto.startsWith(location.raiz()) && !absoluto.equals(location.raiz())) {
+                Path relativo = location.raiz().relativize(absoluto);
+                List<String> segmentos = new ArrayList<>(relativo.getNameCount());
+                for (Path segmento : relativo) {
+                    segmentos.add(UriUtils.encodePathSegment(segmento.toString(), StandardCharsets.UTF_8));
+                }
+                return Optional.of(location.prefixo() + String.join("/", segmentos));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * ETag forte: o hash SHA-256 do conteúdo quando conhecido; senão ID, tamanho e data de upload.
+     */
+    public String gerarEtag(Arquivo arquivo, long tamanho) {
+        if (arquivo.getHashSha256() != null) {
+            return "\"" + arquivo.getHashSha256() + "\"";
+        }
+        return "\"" + arquivo.getId() + "-" + tamanho + "-" + ultimaModificacao(arquivo) + "\"";
+    }
+
+    private long ultimaModificacao(Arquivo arquivo) {
+        // Cabeçalhos HTTP têm resolução de segundos
+        long millis = arquivo.getDataUpload().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return millis - (millis % 1000);
+    }
+
+    private boolean naoModificado(HttpServletRequest request, String etag, long ultimaModificacao) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidata : ifNoneMatch.split(",")) {
+                String valor = candidata.trim();
+                if (valor.equals("*") || valor.equals(etag) || valor.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = lerData(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && ultimaModificacao <= ifModifiedSince;
+    }
+
+    private boolean rangeAplicavel(HttpServletRequest request, String etag, long ultimaModificacao) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(etag);
+        }
+        long data = lerData(request, HttpHeaders.IF_RANGE);
+        return data != -1 && data == ultimaModificacao;
+    }
+
+    private long lerData(HttpServletRequest request, String cabecalho) {
+        try {
+            return request.getDateHeader(cabecalho);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Conta o acesso pelo que a resposta entrega. Leitores de PDF pedem vários intervalos; só o pedido que começa
+     * no byte 0 conta como uma visualização.
+     * @param intervalos Intervalos resolvidos do Range, ou null quando a resposta é o arquivo inteiro (download).
+     */
+    private void registrarAcesso(Long arquivoId, List<long[]> intervalos) {
+        if (intervalos == null) {
+            contadorAcessoService.registrarDownload(arquivoId);
+        } else if (intervalos.get(0)[0] == 0) {
+            contadorAcessoService.registrarVisualizacao(arquivoId);
+        }
+    }
+
+    /**
+     * Bytes de conteúdo da resposta: a soma dos intervalos, ou o arquivo inteiro se não houver intervalos.
+     */
+    private static long bytesDaResposta(List<long[]> intervalos, long tamanho) {
+        if (intervalos == null) {
+            return tamanho;
+        }
+        long bytes = 0;
+        for (long[] intervalo : intervalos) {
+            bytes += intervalo[1] - intervalo[0] + 1;
+        }
+        return bytes;
+    }
+
+    /**
+     * Converte o cabeçalho Range em pares [início, fim] inclusivos.
+     * @throws IllegalArgumentException Se o cabeçalho for inválido, insatisfazível ou pedir mais bytes que o arquivo.
+     */
+    private List<long[]> resolverIntervalos(String cabecalhoRange, long tamanho) {
+        List<HttpRange> ranges = HttpRange.parseRanges(cabecalhoRange);
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("Range vazio.");
+        }
+        List<long[]> intervalos = new ArrayList<>(ranges.size());
+        long total = 0;
+        for (HttpRange range : ranges) {
+            long inicio = range.getRangeStart(tamanho);
+            long fim = range.getRangeEnd(tamanho);
+            if (inicio >= tamanho || inicio > fim) {
+                throw new IllegalArgumentException("Range fora do arquivo.");
+            }
+            intervalos.add(new long[]{inicio, fim});
+            total += fim - inicio + 1;
+        }
+        // Mesma proteção do Spring contra pedidos que multiplicam o arquivo com ranges sobrepostos
+        if (intervalos.size() > 1 && total > tamanho) {
+            throw new IllegalArgumentException("Ranges somam mais bytes que o arquivo.");
+        }
+        return intervalos;
+    }
+
+    /**
+     * Stream da resposta, limitado quando o envio não coube no saldo de banda.
+     */
+    private static OutputStream saida(HttpServletResponse response, LimiteBandaService.Banda limite) throws IOException {
+        return limite != null ? limite.limitar(response.getOutputStream()) : response.getOutputStream();
+    }
+
+    private void escreverIntervalo(String chave, CacheConteudo.Conteudo emCache, LimiteBandaService.Banda limite,
+                                   long inicio, long quantidade,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            return;
+        }
+        if (emCache != null) {
+            OutputStream saida = saida(response, limite);
+            emCache.escrever(inicio, quantidade, Channels.newChannel(saida));
+            saida.flush();
+            return;
+        }
+        Optional<Path> caminho = armazenamento.caminhoLocal(chave);
+        if (limite == null && caminho.isPresent() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPORTADO))) {
+            // O conector envia o arquivo com sendfile após o retorno do controller
+            request.setAttribute(SENDFILE_ARQUIVO, caminho.get().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_INICIO, inicio);
+            request.setAttribute(SENDFILE_FIM, inicio + quantidade);
+            return;
+        }
+        OutputStream saida = saida(response, limite);
+        if (caminho.isPresent()) {
+            try (FileChannel canal = FileChannel.open(caminho.get(), StandardOpenOption.READ)) {
+                transferir(canal, inicio, quantidade, Channels.newChannel(saida));
+            }
+        } else {
+            copiarIntervalo(chave, inicio, quantidade, saida);
+        }
+        saida.flush();
+    }
+
+    private void escreverMultiplosIntervalos(String chave, CacheConteudo.Conteudo emCache, LimiteBandaService.Banda limite,
+                                             List<long[]> intervalos, long tamanho, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String separador = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> cabecalhosPartes = new ArrayList<>(intervalos.size());
+        long tamanhoCorpo = 0;
+        for (long[] intervalo : intervalos) {
+            byte[] cabecalho = ("\r\n--" + separador + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_PDF_VALUE + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + intervalo[0] + "-" + intervalo[1] + "/" + tamanho + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            cabecalhosPartes.add(cabecalho);
+            tamanhoCorpo += cabecalho.length + (intervalo[1] - intervalo[0] + 1);
+        }
+        byte[] fechamento = ("\r\n--" + separador + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        tamanhoCorpo += fechamento.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + separador);
+        response.setContentLengthLong(tamanhoCorpo);
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            return;
+        }
+
+        OutputStream saida = saida(response, limite);
+        Optional<Path> caminho = armazenamento.caminhoLocal(chave);
+        if (emCache != null) {
+            WritableByteChannel destino = Channels.newChannel(saida);
+            for (int i = 0; i < intervalos.size(); i++) {
+                long[] intervalo = intervalos.get(i);
+                saida.write(cabecalhosPartes.get(i));
+                emCache.escrever(intervalo[0], intervalo[1] - intervalo[0] + 1, destino);
+            }
+        } else if (caminho.isPresent()) {
+            WritableByteChannel destino = Channels.newChannel(saida);
+            try (FileChannel canal = FileChannel.open(caminho.get(), StandardOpenOption.READ)) {
+                for (int i = 0; i < intervalos.size(); i++) {
+                    long[] intervalo = intervalos.get(i);
+                    saida.write(cabecalhosPartes.get(i));
+                    transferir(canal, intervalo[0], intervalo[1] - intervalo[0] + 1, destino);
+                }
+            }
+        } else {
+            for (int i = 0; i < intervalos.size(); i++) {
+                long[] intervalo = intervalos.get(i);
+                saida.write(cabecalhosPartes.get(i));
+                copiarIntervalo(chave, intervalo[0], intervalo[1] - intervalo[0] + 1, saida);
+            }
+        }
+        saida.write(fechamento);
+        saida.flush();
+    }
+
+    private void copiarIntervalo(String chave, long inicio, long quantidade, OutputStream saida) throws IOException {
+        try (InputStream conteudo = armazenamento.ler(chave, inicio, quantidade)) {
+            if (conteudo.transferTo(saida) != quantidade) {
+                throw new IOException("Arquivo truncado durante o envio.");
+            }
+        }
+    }
+
+    private static void transferir(FileChannel canal, long inicio, long quantidade, WritableByteChannel destino) throws IOException {
+        long posicao = inicio;
+        long restante = quantidade;
+        while (restante > 0) {
+            long enviados = canal.transferTo(posicao, restante, destino);
+            if (enviados <= 0) {
+                throw new IOException("Arquivo truncado durante o envio.");
+            }
+            posicao += enviados;
+            restante -= enviados;
+        }
+    }
+}
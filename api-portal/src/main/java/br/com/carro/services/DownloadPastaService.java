@@ -0,0 +1,220 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.entities.Pasta;
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.repositories.ArquivoRepository;
+import br.com.carro.repositories.BlobArquivoRepository;
+import br.com.carro.repositories.PastaRepository;
+import jakarta.persistence.EntityNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Download de uma pasta inteira (com todas as subpastas) em um único ZIP.
+ * A lista de arquivos é montada antes do envio, em uma transação curta; o ZIP é escrito direto na
+ * resposta, um arquivo de cada vez, sem temporário e sem manter o arquivo compactado em memória.
+ * PDFs já são comprimidos, então entram sem compressão (STORED), usando o CRC-32 gravado no blob.
+ */
+@Service
+public class DownloadPastaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadPastaService.class);
+
+    /** Quantidade máxima de pastas por consulta de arquivos (limite da cláusula IN). */
+    private static final int PASTAS_POR_CONSULTA = 1000;
+
+    private final PastaRepository pastaRepository;
+    private final ArquivoRepository arquivoRepository;
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final ArquivoService arquivoService;
+    private final CamadasArmazenamentoService camadasArmazenamentoService;
+    private final Armazenamento armazenamento;
+    private final LimiteBandaService limiteBandaService;
+
+    public DownloadPastaService(PastaRepository pastaRepository, ArquivoRepository arquivoRepository,
+                                BlobArquivoRepository blobArquivoRepository, ArquivoService arquivoService,
+                                CamadasArmazenamentoService camadasArmazenamentoService, Armazenamento armazenamento,
+                                LimiteBandaService limiteBandaService) {
+        this.pastaRepository = pastaRepository;
+        this.arquivoRepository = arquivoRepository;
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.arquivoService = arquivoService;
+        this.camadasArmazenamentoService = camadasArmazenamentoService;
+        this.armazenamento = armazenamento;
+        this.limiteBandaService = limiteBandaService;
+    }
+
+    /**
+     * Um arquivo a ser incluído no ZIP, com o nome (caminho relativo) que terá dentro dele.
+     */
+    public record EntradaZip(String nome, String chave, String hashSha256, Long crc32, LocalDateTime dataUpload) {}
+
+    /**
+     * Nome sugerido para o download e arquivos que farão parte do ZIP.
+     */
+    public record ConteudoZip(String nomeArquivo, List<EntradaZip> entradas) {}
+
+    /**
+     * Arquivos que o usuário pode ler na pasta e em todas as suas subpastas.
+     * As pastas sem permissão de leitura são omitidas, mas suas subpastas continuam sendo
+     * verificadas (podem ter permissão especial).
+     * @param pastaId ID da pasta raiz do ZIP.
+     * @param usuario O usuário que está baixando.
+     * @return O nome sugerido para o ZIP e as entradas, na ordem da árvore.
+     * @throws IllegalAccessException Se o usuário não puder ler nenhuma pasta da árvore.
+     */
+    @Transactional(readOnly = true)
+    public ConteudoZip listarConteudo(Long pastaId, Usuario usuario) throws IllegalAccessException {
+        Pasta raiz = pastaRepository.findById(pastaId)
+                .orElseThrow(() -> new EntityNotFoundException("Pasta não encontrada."));
+
+        // Caminho de cada pasta dentro do ZIP; a subárvore vem em uma consulta, com cada pai antes dos filhos
+        Map<Long, String> caminhos = new HashMap<>();
+        Set<Long> legiveis = new HashSet<>();
+        String nomeRaiz = nomeSeguro(raiz.getNomePasta(), "pasta");
+        caminhos.put(raiz.getId(), nomeRaiz + "/");
+        if (arquivoService.podeLer(usuario, raiz)) {
+            legiveis.add(raiz.getId());
+        }
+        Map<Long, Set<String>> nomesPorPai = new HashMap<>();
+        for (Pasta subpasta : pastaRepository.buscarSubpastasRecursivas(raiz.getId())) {
+            Long paiId = subpasta.getPastaPai().getId();
+            String nome = nomeUnico(nomeSeguro(subpasta.getNomePasta(), "pasta"),
+                    nomesPorPai.computeIfAbsent(paiId, id -> new HashSet<>()));
+            caminhos.put(subpasta.getId(), caminhos.get(paiId) + nome + "/");
+            if (arquivoService.podeLer(usuario, subpasta)) {
+                legiveis.add(subpasta.getId());
+            }
+        }
+        if (legiveis.isEmpty()) {
+            throw new IllegalAccessException("Você não tem permissão para ler esta pasta.");
+        }
+
+        List<EntradaZip> entradas = new ArrayList<>();
+        Map<Long, Set<String>> nomesPorPasta = new HashMap<>();
+        List<Long> pastas = new ArrayList<>(legiveis);
+        for (int i = 0; i < pastas.size(); i += PASTAS_POR_CONSULTA) {
+            List<Long> lote = pastas.subList(i, Math.min(i + PASTAS_POR_CONSULTA, pastas.size()));
+            for (ArquivoRepository.ConteudoArquivo arquivo : arquivoRepository.buscarConteudoPorPastas(lote)) {
+                String nome = nomeUnico(nomeSeguro(arquivo.getNomeArquivo(), "arquivo-" + arquivo.getId()),
+                        nomesPorPasta.computeIfAbsent(arquivo.getPastaId(), id -> new HashSet<>()));
+                entradas.add(new EntradaZip(caminhos.get(arquivo.getPastaId()) + nome, arquivo.getCaminhoArmazenamento(),
+                        arquivo.getHashSha256(), arquivo.getCrc32(), arquivo.getDataUpload()));
+            }
+        }
+        entradas.sort((a, b) -> a.nome().compareTo(b.nome()));
+        return new ConteudoZip(nomeRaiz + ".zip", entradas);
+    }
+
+    /**
+     * Escreve o ZIP no stream de saída, lendo cada arquivo do armazenamento uma única vez
+     * (duas para blobs antigos ainda sem CRC-32, que passa a ser gravado). Arquivos cujo conteúdo
+     * sumiu do armazenamento são pulados. O stream de saída não é fechado.
+     * O envio passa pelo limite de banda do usuário e do setor (um ZIP é sempre uma transferência em massa).
+     * @param usuario Quem baixa, para o limite de banda (null sem limite).
+     * @throws IOException Se houver erro de leitura ou se o cliente desconectar.
+     */
+    public void escreverZip(List<EntradaZip> entradas, OutputStream saida, Usuario usuario) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(limiteBandaService.para(usuario).limitar(saida));
+        for (EntradaZip entrada : entradas) {
+            camadasArmazenamentoService.prepararLeitura(entrada.hashSha256(), entrada.chave());
+            Optional<Armazenamento.Metadados> metadados;
+            try {
+                metadados = armazenamento.consultar(entrada.chave());
+            } catch (IllegalArgumentException e) {
+                metadados = Optional.empty();
+            }
+            if (metadados.isEmpty()) {
+                logger.warn("Conteúdo de {} não encontrado em {}; fora do ZIP", entrada.nome(), entrada.chave());
+                continue;
+            }
+
+            ZipEntry entradaZip = new ZipEntry(entrada.nome());
+            if (entrada.dataUpload() != null) {
+                entradaZip.setTimeLocal(entrada.dataUpload());
+            }
+            if (entrada.nome().toLowerCase().endsWith(".pdf")) {
+                long tamanho = metadados.get().tamanho();
+                entradaZip.setMethod(ZipEntry.STORED);
+                entradaZip.setSize(tamanho);
+                entradaZip.setCompressedSize(tamanho);
+                entradaZip.setCrc(entrada.crc32() != null ? entrada.crc32() : calcularCrc32(entrada));
+            }
+
+            try (InputStream conteudo = armazenamento.ler(entrada.chave())) {
+                zip.putNextEntry(entradaZip);
+                conteudo.transferTo(zip);
+            } catch (NoSuchFileException e) {
+                // Removido entre a consulta e a leitura, antes de qualquer byte da entrada ser escrito
+                logger.warn("Conteúdo de {} removido durante o download do ZIP", entrada.nome());
+                continue;
+            }
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    private long calcularCrc32(EntradaZip entrada) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream conteudo = armazenamento.ler(entrada.chave())) {
+            int lidos;
+            while ((lidos = conteudo.read(buffer)) != -1) {
+                crc.update(buffer, 0, lidos);
+            }
+        }
+        if (entrada.hashSha256() != null) {
+            blobArquivoRepository.definirCrc32(entrada.hashSha256(), crc.getValue());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Nome de pasta ou arquivo utilizável dentro do ZIP (sem separadores nem "." e "..").
+     */
+    private static String nomeSeguro(String nome, String padrao) {
+        String limpo = nome == null ? "" : nome.replace('/', '_').replace('\\', '_').strip();
+        if (limpo.isEmpty() || limpo.equals(".") || limpo.equals("..")) {
+            return padrao;
+        }
+        return limpo;
+    }
+
+    /**
+     * Acrescenta " (2)", " (3)"... antes da extensão quando o nome já foi usado no mesmo diretório do ZIP.
+     */
+    private static String nomeUnico(String nome, Set<String> usados) {
+        if (usados.add(nome.toLowerCase())) {
+            return nome;
+        }
+        int ponto = nome.lastIndexOf('.');
+        String base = ponto > 0 ? nome.substring(0, ponto) : nome;
+        String extensao = ponto > 0 ? nome.substring(ponto) : "";
+        for (int i = 2; ; i++) {
+            String candidato = base + " (" + i + ")" + extensao;
+            if (usados.add(candidato.toLowerCase())) {
+                return candidato;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.armazenamento.CacheConteudo;
+import br.com.carro.repositories.ArquivoRepository;
+import br.com.carro.repositories.BlobArquivoRepository;
+import br.com.carro.repositories.PastaRepository;
+import br.com.carro.repositories.SessaoUploadRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exclusão de uma pasta com todas as subpastas por comandos em conjunto (DELETE/UPDATE sobre a subárvore,
+ * pela tabela de fechamento), sem carregar pastas e arquivos no contexto de persistência.
+ * Na transação saem os registros e as referências aos blobs; o conteúdo (blobs sem referência, arquivos do
+ * layout antigo e temporários de uploads abertos) é removido depois do commit, em segundo plano.
+ */
+@Service
+public class ExclusaoPastaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExclusaoPastaService.class);
+
+    /** Pastas por comando: mantém a lista do IN em um tamanho razoável. */
+    private static final int PASTAS_POR_LOTE = 1000;
+
+    private final PastaRepository pastaRepository;
+    private final ArquivoRepository arquivoRepository;
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final SessaoUploadRepository sessaoUploadRepository;
+    private final BlobArquivoService blobArquivoService;
+    private final CotaSetorService cotaSetorService;
+    private final Armazenamento armazenamento;
+    private final CacheConteudo cacheConteudo;
+
+    /** Um único thread: a remoção do conteúdo não disputa o disco com os uploads. */
+    private final ExecutorService executorRemocao = Executors.newSingleThreadExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "exclusao-pasta");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ExclusaoPastaService(PastaRepository pastaRepository, ArquivoRepository arquivoRepository,
+                                BlobArquivoRepository blobArquivoRepository, SessaoUploadRepository sessaoUploadRepository,
+                                BlobArquivoService blobArquivoService, CotaSetorService cotaSetorService,
+                                Armazenamento armazenamento, CacheConteudo cacheConteudo) {
+        this.pastaRepository = pastaRepository;
+        this.arquivoRepository = arquivoRepository;
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.sessaoUploadRepository = sessaoUploadRepository;
+        this.blobArquivoService = blobArquivoService;
+        this.cotaSetorService = cotaSetorService;
+        this.armazenamento = armazenamento;
+        this.cacheConteudo = cacheConteudo;
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        executorRemocao.shutdown();
+    }
+
+    /**
+     * Exclui a pasta, as subpastas, os arquivos, as permissões especiais e as sessões de upload abertas nelas.
+     * O uso do setor e os agregados das pastas acima dela são reduzidos na mesma transação.
+     * @param pastaId ID da pasta (já validado como existente).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void excluirSubarvore(Long pastaId) {
+        cotaSetorService.liberarPasta(pastaId);
+        // Os totais da subárvore saem dos agregados do pai e dos ancestrais dele
+        PastaRepository.TotaisPasta totais = pastaRepository.bloquearTotais(pastaId);
+        if (totais.getPastaPaiId() != null) {
+            pastaRepository.ajustarAgregados(totais.getPastaPaiId(), 0, -totais.getArquivos(), -totais.getBytes(), -1,
+                    LocalDateTime.now());
+        }
+
+        // Conteúdo a remover depois do commit, levantado antes de os arquivos saírem
+        List<String> foraDeBlobs = arquivoRepository.buscarConteudoForaDeBlobsDaSubarvore(pastaId);
+        blobArquivoRepository.liberarReferenciasDaSubarvore(pastaId);
+        List<String> blobsSemReferencia = blobArquivoRepository.buscarSemReferenciasDaSubarvore(pastaId);
+
+        List<Long> pastas = pastaRepository.buscarIdsDaSubarvore(pastaId);
+        List<String> temporarios = new ArrayList<>();
+        for (int i = 0; i < pastas.size(); i += PASTAS_POR_LOTE) {
+            List<Long> lote = pastas.subList(i, Math.min(i + PASTAS_POR_LOTE, pastas.size()));
+            temporarios.addAll(sessaoUploadRepository.buscarTemporariosPorPastas(lote));
+            sessaoUploadRepository.excluirPorPastas(lote);
+            arquivoRepository.excluirPorPastas(lote);
+            pastaRepository.excluirPermissoes(lote);
+            pastaRepository.desvincularDoPai(lote);
+        }
+        for (int i = 0; i < pastas.size(); i += PASTAS_POR_LOTE) {
+            List<Long> lote = pastas.subList(i, Math.min(i + PASTAS_POR_LOTE, pastas.size()));
+            pastaRepository.excluirDoFechamento(lote);
+            pastaRepository.excluirPorIds(lote);
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                executorRemocao.execute(() -> removerConteudo(pastaId, foraDeBlobs, blobsSemReferencia, temporarios));
+            }
+        });
+    }
+
+    private void removerConteudo(Long pastaId, List<String> foraDeBlobs, List<String> blobsSemReferencia,
+                                 List<String> temporarios) {
+        int falhas = 0;
+        for (String caminho : foraDeBlobs) {
+            cacheConteudo.invalidar(caminho);
+            try {
+                armazenamento.excluir(caminho);
+            } catch (IOException | RuntimeException e) {
+                falhas++;
+                logger.warn("Não foi possível remover o conteúdo {} da pasta excluída {}", caminho, pastaId, e);
+            }
+        }
+        for (String hash : blobsSemReferencia) {
+            try {
+                // Em uma transação curta por blob; um blob que voltou a ser referenciado é mantido
+                blobArquivoService.removerSeSemReferencias(hash);
+            } catch (IOException | RuntimeException e) {
+                falhas++;
+                logger.warn("Não foi possível remover o blob {} da pasta excluída {}", hash, pastaId, e);
+            }
+        }
+        for (String temporario : temporarios) {
+            try {
+                Files.deleteIfExists(Paths.get(temporario));
+            } catch (IOException | RuntimeException e) {
+                falhas++;
+                logger.warn("Não foi possível remover o temporário {} da pasta excluída {}", temporario, pastaId, e);
+            }
+        }
+        logger.info("Conteúdo da pasta excluída {} removido: {} arquivos, {} blobs, {} temporários ({} falhas)",
+                pastaId, foraDeBlobs.size(), blobsSemReferencia.size(), temporarios.size(), falhas);
+    }
+}
@@ -0,0 +1,162 @@
+package br.com.carro.services;
+
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.utilitarios.LimitadorTaxa;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limite de banda dos downloads, com um token bucket (bytes por segundo e rajada) por usuário e outro por
+ * setor do usuário. Um download só avança quando os dois têm saldo, então um usuário baixando um ZIP grande
+ * não ocupa o link inteiro, nem o setor todo ocupa o link dos demais.
+ * A rajada mantém rápidas as visualizações: uma resposta que cabe no saldo é reservada de uma vez e enviada
+ * sem limite (inclusive com sendfile); transferências maiores seguem em streaming na taxa configurada.
+ */
+@Service
+public class LimiteBandaService {
+
+    /** Maior escrita liberada de uma vez, para que a espera seja distribuída ao longo do envio. */
+    private static final int TAMANHO_FATIA = 64 * 1024;
+
+    private static final Banda SEM_LIMITE = new Banda(List.of(), 0);
+
+    @Value("${download.banda.habilitada:false}")
+    private boolean habilitada;
+
+    @Value("${download.banda.usuario.bytes-por-segundo:5242880}")
+    private long bytesPorSegundoUsuario;
+
+    @Value("${download.banda.usuario.rajada-bytes:33554432}")
+    private long rajadaUsuario;
+
+    @Value("${download.banda.setor.bytes-por-segundo:20971520}")
+    private long bytesPorSegundoSetor;
+
+    @Value("${download.banda.setor.rajada-bytes:67108864}")
+    private long rajadaSetor;
+
+    private final Map<Long, LimitadorTaxa> porUsuario = new ConcurrentHashMap<>();
+    private final Map<Long, LimitadorTaxa> porSetor = new ConcurrentHashMap<>();
+
+    /**
+     * Limitadores que se aplicam aos downloads do usuário (nenhum se o limite estiver desativado).
+     */
+    public Banda para(Usuario usuario) {
+        if (!habilitada || usuario == null) {
+            return SEM_LIMITE;
+        }
+        List<LimitadorTaxa> limitadores = new ArrayList<>(2);
+        long taxa = Long.MAX_VALUE;
+        if (bytesPorSegundoUsuario > 0 && usuario.getId() != null) {
+            limitadores.add(porUsuario.computeIfAbsent(usuario.getId(),
+                    id -> new LimitadorTaxa(bytesPorSegundoUsuario, Math.max(rajadaUsuario, 1))));
+            taxa = bytesPorSegundoUsuario;
+        }
+        if (bytesPorSegundoSetor > 0 && usuario.getSetor() != null && usuario.getSetor().getId() != null) {
+            limitadores.add(porSetor.computeIfAbsent(usuario.getSetor().getId(),
+                    id -> new LimitadorTaxa(bytesPorSegundoSetor, Math.max(rajadaSetor, 1))));
+            taxa = Math.min(taxa, bytesPorSegundoSetor);
+        }
+        return limitadores.isEmpty() ? SEM_LIMITE : new Banda(limitadores, taxa);
+    }
+
+    /**
+     * Descarta os limitadores com saldo completo: um limitador novo se comporta igual. Um download que
+     * ainda segure a instância antiga pode, por alguns instantes, dividir o limite com uma nova.
+     */
+    @Scheduled(fixedDelayString = "${download.banda.limpeza-ms:60000}")
+    public void descartarOciosos() {
+        porUsuario.values().removeIf(LimitadorTaxa::cheio);
+        porSetor.values().removeIf(LimitadorTaxa::cheio);
+    }
+
+    /**
+     * Limitadores de um download.
+     */
+    public static final class Banda {
+
+        private final List<LimitadorTaxa> limitadores;
+        private final long taxaPorSegundo;
+
+        private Banda(List<LimitadorTaxa> limitadores, long taxaPorSegundo) {
+            this.limitadores = limitadores;
+            this.taxaPorSegundo = taxaPorSegundo;
+        }
+
+        public boolean ilimitada() {
+            return limitadores.isEmpty();
+        }
+
+        /**
+         * Menor das taxas configuradas, para quando o envio é feito por outro processo (ex.: o nginx,
+         * via X-Accel-Limit-Rate) e só pode receber uma taxa fixa.
+         */
+        public long taxaPorSegundo() {
+            return taxaPorSegundo;
+        }
+
+        /**
+         * Consome de uma vez os bytes da resposta, se couberem no saldo atual de todos os limitadores.
+         * @return true se a resposta pode ser enviada sem limite; false se nada foi consumido.
+         */
+        public boolean tentarReservar(long bytes) {
+            for (int i = 0; i < limitadores.size(); i++) {
+                if (!limitadores.get(i).tentarAdquirir(bytes)) {
+                    for (int j = 0; j < i; j++) {
+                        limitadores.get(j).devolver(bytes);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Envolve o stream da resposta para que cada escrita espere pelo saldo de todos os limitadores.
+         */
+        public OutputStream limitar(OutputStream saida) {
+            if (limitadores.isEmpty()) {
+                return saida;
+            }
+            return new FilterOutputStream(saida) {
+                @Override
+                public void write(int b) throws IOException {
+                    aguardar(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        int parte = Math.min(len, TAMANHO_FATIA);
+                        aguardar(parte);
+                        out.write(b, off, parte);
+                        off += parte;
+                        len -= parte;
+                    }
+                }
+            };
+        }
+
+        private void aguardar(int bytes) throws InterruptedIOException {
+            try {
+                for (LimitadorTaxa limitador : limitadores) {
+                    limitador.adquirir(bytes);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Envio interrompido durante a espera do limite de banda.");
+            }
+        }
+    }
+}
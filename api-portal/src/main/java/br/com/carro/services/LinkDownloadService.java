@@ -0,0 +1,162 @@
+package br.com.carro.services;
+
+import br.com.carro.entities.Arquivo;
+import br.com.carro.entities.Setor;
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.repositories.ArquivoRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Links de download assinados (HMAC-SHA256) e com validade curta, emitidos depois de uma única validação de
+ * permissão. O token assina apenas o arquivo, o usuário e o setor (para o limite de banda) e a validade; o local
+ * do conteúdo é lido na verificação por uma projeção do arquivo (uma consulta pela chave primária, sem pasta nem
+ * criador), sem JWT, carga do Usuario nem nova consulta de permissão.
+ * Nada do armazenamento interno nem o hash do conteúdo aparece na URL, que acaba em logs de proxy e no histórico.
+ * Um PDF aberto pelo link faz suas várias requisições de Range sem repetir a autenticação.
+ * A validade é arredondada para uma janela fixa, de modo que links emitidos em sequência para o mesmo usuário
+ * e arquivo tenham a mesma URL e possam ser aproveitados pelo cache do proxy.
+ */
+@Service
+public class LinkDownloadService {
+
+    private static final String VERSAO = "2";
+    private static final String SEPARADOR = "|";
+    private static final int CAMPOS = 5;
+    private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+    private final ArquivoRepository arquivoRepository;
+    private final SecretKeySpec chave;
+    private final long validadeSegundos;
+    private final long janelaSegundos;
+
+    /**
+     * Dados assinados de um link.
+     */
+    public record Link(Long arquivoId, Long usuarioId, Long setorId, long expira) {
+
+        /**
+         * Usuário transiente com ID e setor, para o limite de banda.
+         */
+        public Usuario usuario() {
+            Usuario usuario = new Usuario();
+            usuario.setId(usuarioId);
+            if (setorId != null) {
+                Setor setor = new Setor();
+                setor.setId(setorId);
+                usuario.setSetor(setor);
+            }
+            return usuario;
+        }
+    }
+
+    /**
+     * Link emitido: o token (parte da URL) e o instante em que deixa de valer.
+     */
+    public record LinkEmitido(String token, Instant expiraEm) {
+    }
+
+    public LinkDownloadService(ArquivoRepository arquivoRepository,
+                               @Value("${download.link.segredo}") String segredo,
+                               @Value("${jwt.secret}") String segredoJwt,
+                               @Value("${download.link.validade-segundos:300}") long validadeSegundos,
+                               @Value("${download.link.janela-segundos:60}") long janelaSegundos) {
+        byte[] bytes = segredo.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 32) {
+            throw new IllegalStateException("download.link.segredo deve ter pelo menos 32 bytes.");
+        }
+        if (segredo.equals(segredoJwt)) {
+            throw new IllegalStateException("download.link.segredo deve ser diferente do jwt.secret.");
+        }
+        this.arquivoRepository = arquivoRepository;
+        this.chave = new SecretKeySpec(bytes, "HmacSHA256");
+        this.validadeSegundos = Math.max(1, validadeSegundos);
+        this.janelaSegundos = Math.max(1, janelaSegundos);
+    }
+
+    /**
+     * Emite um link para o arquivo. A permissão do usuário já deve ter sido validada.
+     */
+    public LinkEmitido emitir(Arquivo arquivo, Usuario usuario) {
+        long agora = Instant.now().getEpochSecond();
+        // Arredonda para cima: o link vale pelo menos a validade configurada
+        long expira = (agora + validadeSegundos + janelaSegundos - 1) / janelaSegundos * janelaSegundos;
+        Long setorId = usuario.getSetor() != null ? usuario.getSetor().getId() : null;
+
+        String dados = String.join(SEPARADOR, VERSAO, String.valueOf(arquivo.getId()), String.valueOf(usuario.getId()),
+                setorId != null ? setorId.toString() : "", Long.toString(expira));
+        byte[] bytesDados = dados.getBytes(StandardCharsets.UTF_8);
+        String token = BASE64.encodeToString(bytesDados) + "." + BASE64.encodeToString(assinar(bytesDados));
+        return new LinkEmitido(token, Instant.ofEpochSecond(expira));
+    }
+
+    /**
+     * Verifica assinatura e validade de um token, sem acesso ao banco.
+     * @throws IllegalAccessException Se o token for inválido, adulterado ou estiver expirado.
+     */
+    public Link verificar(String token) throws IllegalAccessException {
+        int ponto = token.indexOf('.');
+        if (ponto <= 0) {
+            throw new IllegalAccessException("Link de download inválido.");
+        }
+        byte[] bytesDados;
+        byte[] assinatura;
+        try {
+            bytesDados = Base64.getUrlDecoder().decode(token.substring(0, ponto));
+            assinatura = Base64.getUrlDecoder().decode(token.substring(ponto + 1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalAccessException("Link de download inválido.");
+        }
+        if (!MessageDigest.isEqual(assinar(bytesDados), assinatura)) {
+            throw new IllegalAccessException("Link de download inválido.");
+        }
+
+        String[] campos = new String(bytesDados, StandardCharsets.UTF_8).split("\\|", -1);
+        if (campos.length != CAMPOS || !VERSAO.equals(campos[0])) {
+            throw new IllegalAccessException("Link de download inválido.");
+        }
+        long expira = Long.parseLong(campos[4]);
+        if (Instant.now().getEpochSecond() >= expira) {
+            throw new IllegalAccessException("Link de download expirado.");
+        }
+        return new Link(Long.valueOf(campos[1]), Long.valueOf(campos[2]),
+                campos[3].isEmpty() ? null : Long.valueOf(campos[3]), expira);
+    }
+
+    /**
+     * Arquivo transiente de um link já verificado, só com os campos usados pelo envio (local atual do conteúdo,
+     * nome, hash e data de upload). Não carrega a entidade, que traria pasta, setor e criador junto.
+     * @throws NoSuchFileException Se o arquivo foi excluído depois da emissão.
+     */
+    public Arquivo buscarArquivo(Link link) throws NoSuchFileException {
+        ArquivoRepository.ConteudoArquivo conteudo = arquivoRepository.buscarConteudo(link.arquivoId())
+                .orElseThrow(() -> new NoSuchFileException("Arquivo " + link.arquivoId()));
+        Arquivo arquivo = new Arquivo();
+        arquivo.setId(conteudo.getId());
+        arquivo.setNomeArquivo(conteudo.getNomeArquivo());
+        arquivo.setCaminhoArmazenamento(conteudo.getCaminhoArmazenamento());
+        arquivo.setHashSha256(conteudo.getHashSha256());
+        arquivo.setDataUpload(conteudo.getDataUpload());
+        return arquivo;
+    }
+
+    private byte[] assinar(byte[] dados) {
+        try {
+            // Mac não é thread-safe; criar um por assinatura é barato perto de uma requisição
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(chave);
+            return mac.doFinal(dados);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Algoritmo HmacSHA256 indisponível.", e);
+        }
+    }
+}
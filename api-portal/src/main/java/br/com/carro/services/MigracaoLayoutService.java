@@ -0,0 +1,271 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.entities.BlobArquivo;
+import br.com.carro.repositories.ArquivoRepository;
+import br.com.carro.repositories.BlobArquivoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ferramenta de migração para o layout de blobs com fan-out por hash.
+ * Move em paralelo (pool limitado) os blobs do layout plano "blobs/&lt;hash&gt;" e os arquivos do layout
+ * antigo por pasta ("&lt;caminhoCompleto&gt;/&lt;nome&gt;") para "blobs/ab/cd/&lt;hash&gt;", reescrevendo
+ * caminho_armazenamento. Cada item é migrado em sua própria transação, então a ferramenta pode ser
+ * interrompida e executada de novo: o que já está no layout novo é ignorado.
+ */
+@Service
+public class MigracaoLayoutService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MigracaoLayoutService.class);
+
+    private final ArquivoRepository arquivoRepository;
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final BlobArquivoService blobArquivoService;
+    private final Armazenamento armazenamento;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${armazenamento.migracao.paralelismo:4}")
+    private int paralelismo;
+
+    private final AtomicBoolean emExecucao = new AtomicBoolean(false);
+    private volatile LocalDateTime inicio;
+    private volatile LocalDateTime fim;
+    private final AtomicLong blobsMovidos = new AtomicLong();
+    private final AtomicLong arquivosMigrados = new AtomicLong();
+    private final AtomicLong arquivosAusentes = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+
+    public MigracaoLayoutService(ArquivoRepository arquivoRepository, BlobArquivoRepository blobArquivoRepository,
+                                 BlobArquivoService blobArquivoService, Armazenamento armazenamento,
+                                 PlatformTransactionManager transactionManager) {
+        this.arquivoRepository = arquivoRepository;
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.blobArquivoService = blobArquivoService;
+        this.armazenamento = armazenamento;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Situação da última (ou atual) execução da migração.
+     */
+    public record RelatorioMigracao(
+            boolean emExecucao,
+            LocalDateTime inicio,
+            LocalDateTime fim,
+            long blobsMovidos,
+            long arquivosMigrados,
+            long arquivosAusentes,
+            long falhas
+    ) {}
+
+    /**
+     * Inicia a migração em segundo plano.
+     * @return false se já houver uma migração em andamento.
+     */
+    public boolean iniciar() {
+        if (!emExecucao.compareAndSet(false, true)) {
+            return false;
+        }
+        inicio = LocalDateTime.now();
+        fim = null;
+        blobsMovidos.set(0);
+        arquivosMigrados.set(0);
+        arquivosAusentes.set(0);
+        falhas.set(0);
+
+        Thread coordenador = new Thread(this::executar, "migracao-layout");
+        coordenador.setDaemon(true);
+        coordenador.start();
+        return true;
+    }
+
+    public RelatorioMigracao relatorio() {
+        return new RelatorioMigracao(emExecucao.get(), inicio, fim, blobsMovidos.get(),
+                arquivosMigrados.get(), arquivosAusentes.get(), falhas.get());
+    }
+
+    private void executar() {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, paralelismo));
+        try {
+            migrarBlobs(executor);
+            migrarArquivosLegados(executor);
+            logger.info("Migração de layout concluída: {}", relatorio());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Migração de layout interrompida: {}", relatorio());
+        } catch (RuntimeException e) {
+            logger.error("Migração de layout abortada", e);
+        } finally {
+            executor.shutdownNow();
+            fim = LocalDateTime.now();
+            emExecucao.set(false);
+        }
+    }
+
+    private void migrarBlobs(ExecutorService executor) throws InterruptedException {
+        String ultimoHash = "";
+        List<BlobArquivo> pagina;
+        do {
+            pagina = blobArquivoRepository.findTop500ByHashSha256GreaterThanOrderByHashSha256Asc(ultimoHash);
+            List<Callable<Void>> tarefas = new ArrayList<>();
+            for (BlobArquivo blob : pagina) {
+                if (!blobArquivoService.noLayoutDeBlobs(blob.getHashSha256(), blob.getCaminhoArmazenamento())) {
+                    String destino = blobArquivoService.chaveDoBlob(blob.getHashSha256());
+                    tarefas.add(() -> {
+                        moverBlob(blob.getHashSha256(), blob.getCaminhoArmazenamento(), destino);
+                        return null;
+                    });
+                }
+            }
+            executor.invokeAll(tarefas);
+            if (!pagina.isEmpty()) {
+                ultimoHash = pagina.get(pagina.size() - 1).getHashSha256();
+            }
+        } while (pagina.size() == 500);
+    }
+
+    private void migrarArquivosLegados(ExecutorService executor) throws InterruptedException {
+        long ultimoId = 0;
+        List<ArquivoRepository.LocalizacaoArquivo> pagina;
+        do {
+            pagina = arquivoRepository.findTop500ByIdGreaterThanOrderByIdAsc(ultimoId);
+            List<Callable<Void>> tarefas = new ArrayList<>();
+            for (ArquivoRepository.LocalizacaoArquivo arquivo : pagina) {
+                if (!blobArquivoService.noLayoutDeBlobs(arquivo.getHashSha256(), arquivo.getCaminhoArmazenamento())) {
+                    tarefas.add(() -> {
+                        adotarArquivoLegado(arquivo.getId(), arquivo.getCaminhoArmazenamento());
+                        return null;
+                    });
+                }
+            }
+            executor.invokeAll(tarefas);
+            if (!pagina.isEmpty()) {
+                ultimoId = pagina.get(pagina.size() - 1).getId();
+            }
+        } while (pagina.size() == 500);
+    }
+
+    /**
+     * Move um blob do layout plano para o layout com fan-out e reaponta o blob e seus arquivos.
+     */
+    private void moverBlob(String hash, String antigo, String novo) {
+        try {
+            boolean movido = false;
+            if (armazenamento.existe(antigo)) {
+                armazenamento.mover(antigo, novo);
+                movido = true;
+            } else if (!armazenamento.existe(novo)) {
+                arquivosAusentes.incrementAndGet();
+                return;
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    blobArquivoRepository.moverArmazenamento(hash, antigo, novo);
+                    arquivoRepository.moverArmazenamento(hash, antigo, novo);
+                });
+            } catch (RuntimeException e) {
+                if (movido) {
+                    armazenamento.mover(novo, antigo);
+                }
+                throw e;
+            }
+            blobsMovidos.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            falhas.incrementAndGet();
+            logger.error("Falha ao mover o blob {} para o novo layout", hash, e);
+        }
+    }
+
+    /**
+     * Leva um arquivo do layout antigo por pasta para o armazenamento por conteúdo: calcula o hash,
+     * registra a referência e move o arquivo para o blob (ou descarta a cópia, se o conteúdo já existir).
+     */
+    private void adotarArquivoLegado(Long arquivoId, String caminhoLegado) {
+        try {
+            if (!armazenamento.existe(caminhoLegado)) {
+                arquivosAusentes.incrementAndGet();
+                return;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Caminhos fora da raiz do armazenamento (ex.: absolutos de cargas antigas) não têm conteúdo a migrar
+            arquivosAusentes.incrementAndGet();
+            return;
+        }
+        try {
+            BlobArquivoService.ConteudoRecebido conteudo = blobArquivoService.inspecionarArmazenado(caminhoLegado);
+            transactionTemplate.executeWithoutResult(status -> {
+                blobArquivoRepository.registrarReferencia(conteudo.sha256(),
+                        blobArquivoService.chaveDoBlob(conteudo.sha256()), conteudo.tamanho(), conteudo.crc32(),
+                        conteudo.arvore().raiz(), conteudo.arvore().folhas());
+                BlobArquivo blob = blobArquivoRepository.findById(conteudo.sha256())
+                        .orElseThrow(() -> new IllegalStateException("Blob não encontrado após o registro: " + conteudo.sha256()));
+                String destino = blob.getCaminhoArmazenamento();
+                try {
+                    if (!armazenamento.existe(destino)) {
+                        armazenamento.mover(caminhoLegado, destino);
+                        aoDesfazer(() -> armazenamento.mover(destino, caminhoLegado));
+                    } else {
+                        aoConfirmar(() -> armazenamento.excluir(caminhoLegado));
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Não foi possível mover " + caminhoLegado + " para " + destino, e);
+                }
+                arquivoRepository.atualizarArmazenamento(arquivoId, destino, conteudo.sha256(), conteudo.tamanho());
+            });
+            arquivosMigrados.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            falhas.incrementAndGet();
+            logger.error("Falha ao migrar o arquivo {} ({})", arquivoId, caminhoLegado, e);
+        }
+    }
+
+    private interface AcaoArquivo {
+        void executar() throws IOException;
+    }
+
+    private void aoConfirmar(AcaoArquivo acao) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                executarComLog(acao);
+            }
+        });
+    }
+
+    private void aoDesfazer(AcaoArquivo acao) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    executarComLog(acao);
+                }
+            }
+        });
+    }
+
+    private void executarComLog(AcaoArquivo acao) {
+        try {
+            acao.executar();
+        } catch (IOException e) {
+            logger.error("Falha ao finalizar movimentação de arquivo da migração", e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package br.com.carro.services;
 
 import br.com.carro.entities.Pasta;
+import br.com.carro.entities.PastaArvoreDto;
 import br.com.carro.repositories.PastaRepository;
 import br.com.carro.repositories.SetorRepository;
 import br.com.carro.repositories.UsuarioRepository;
@@ -9,8 +10,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @Service
 public class PastaService {
@@ -18,12 +25,17 @@ public class PastaService {
     private final PastaRepository pastaRepository;
     private final SetorRepository setorRepository;
     private final UsuarioRepository usuarioRepository;
+    private final ExclusaoPastaService exclusaoPastaService;
+    private final CotaSetorService cotaSetorService;
 
     @Autowired
-    public PastaService(PastaRepository pastaRepository, SetorRepository setorRepository, UsuarioRepository usuarioRepository) {
+    public PastaService(PastaRepository pastaRepository, SetorRepository setorRepository, UsuarioRepository usuarioRepository,
+                        ExclusaoPastaService exclusaoPastaService, CotaSetorService cotaSetorService) {
         this.pastaRepository = pastaRepository;
         this.setorRepository = setorRepository;
         this.usuarioRepository = usuarioRepository;
+        this.exclusaoPastaService = exclusaoPastaService;
+        this.cotaSetorService = cotaSetorService;
     }
 
     /**
@@ -62,6 +74,42 @@ public class PastaService {
         return pastaRepository.findByPastaPaiId(pastaPaiId, pageable);
     }
 
+    /**
+     * Monta a árvore de pastas de um setor a partir de uma única consulta (tabela de fechamento), em O(n):
+     * as pastas vêm com cada pai antes dos filhos e são penduradas no pai por um mapa de ID.
+     * @param setorId O ID do setor.
+     * @param profundidade Níveis abaixo das pastas principais (nulo = a árvore inteira).
+     * @return As pastas principais do setor, com as subpastas aninhadas.
+     */
+    @Transactional(readOnly = true)
+    public List<PastaArvoreDto> montarArvore(Long setorId, Integer profundidade) {
+        if (!setorRepository.existsById(setorId)) {
+            throw new EntityNotFoundException("Setor não encontrado com o ID: " + setorId);
+        }
+        if (profundidade != null && profundidade < 0) {
+            throw new IllegalArgumentException("A profundidade não pode ser negativa.");
+        }
+
+        List<PastaRepository.NoArvore> nos = pastaRepository.buscarArvoreDoSetor(setorId,
+                profundidade != null ? profundidade : Integer.MAX_VALUE);
+        Map<Long, PastaArvoreDto> porId = new HashMap<>(nos.size() * 2);
+        List<PastaArvoreDto> principais = new ArrayList<>();
+        for (PastaRepository.NoArvore no : nos) {
+            PastaArvoreDto dto = new PastaArvoreDto(no.getId(), no.getNomePasta(),
+                    no.getPossuiSubpastas() != null && no.getPossuiSubpastas() > 0,
+                    no.getArquivosTotal() != null ? no.getArquivosTotal() : 0,
+                    no.getBytesTotal() != null ? no.getBytesTotal() : 0, new ArrayList<>());
+            porId.put(no.getId(), dto);
+            PastaArvoreDto pai = no.getPastaPaiId() != null ? porId.get(no.getPastaPaiId()) : null;
+            if (pai != null) {
+                pai.subpastas().add(dto);
+            } else {
+                principais.add(dto);
+            }
+        }
+        return principais;
+    }
+
     /**
      * Busca uma pasta por ID.
      * @param id O ID da pasta.
@@ -73,10 +121,11 @@ public class PastaService {
     }
 
     /**
-     * Cria uma nova pasta com validações de relacionamentos.
+     * Cria uma nova pasta com validações de relacionamentos e a registra na tabela de fechamento da hierarquia.
      * @param pasta O objeto Pasta a ser criado.
      * @return A pasta criada.
      */
+    @Transactional
     public Pasta criarPasta(Pasta pasta) {
         if (pasta.getNomePasta() == null || pasta.getNomePasta().isBlank()) {
             throw new IllegalArgumentException("O nome da pasta não pode ser vazio.");
@@ -102,37 +151,180 @@ public class PastaService {
         }
 
         pasta.setDataCriacao(LocalDateTime.now());
-        return pastaRepository.save(pasta);
+        Pasta criada = pastaRepository.save(pasta);
+        Long paiId = criada.getPastaPai() != null ? criada.getPastaPai().getId() : null;
+        pastaRepository.registrarNoFechamento(criada.getId(), paiId);
+        if (paiId != null) {
+            pastaRepository.ajustarAgregados(paiId, 0, 0, 0, 1, criada.getDataCriacao());
+        }
+        return criada;
     }
 
     /**
-     * Atualiza uma pasta existente.
+     * Atualiza uma pasta existente: renomeia, move (quando vier outra pasta pai) e, se informado, troca o caminho.
+     * Os caminhos das subpastas acompanham a pasta.
      * @param id O ID da pasta a ser atualizada.
      * @param pastaAtualizada O objeto com os dados de atualização.
      * @return A pasta atualizada.
      */
+    @Transactional
     public Pasta atualizar(Long id, Pasta pastaAtualizada) {
         Pasta pastaExistente = pastaRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Pasta não encontrada com o ID: " + id));
 
-        if (pastaAtualizada.getNomePasta() != null) {
-            pastaExistente.setNomePasta(pastaAtualizada.getNomePasta());
+        if (pastaAtualizada.getNomePasta() != null && !pastaAtualizada.getNomePasta().equals(pastaExistente.getNomePasta())) {
+            renomear(id, pastaAtualizada.getNomePasta());
+        }
+        Long paiAtual = pastaExistente.getPastaPai() != null ? pastaExistente.getPastaPai().getId() : null;
+        if (pastaAtualizada.getPastaPai() != null && pastaAtualizada.getPastaPai().getId() != null
+                && !pastaAtualizada.getPastaPai().getId().equals(paiAtual)) {
+            mover(id, pastaAtualizada.getPastaPai().getId());
+        }
+        if (pastaAtualizada.getCaminhoCompleto() != null && !pastaAtualizada.getCaminhoCompleto().isBlank()) {
+            String atual = buscarPorId(id).getCaminhoCompleto();
+            if (!atual.equals(pastaAtualizada.getCaminhoCompleto())) {
+                pastaRepository.reescreverCaminhos(id, atual, pastaAtualizada.getCaminhoCompleto());
+            }
+        }
+        return buscarPorId(id);
+    }
+
+    /**
+     * Renomeia uma pasta. O último trecho do caminho dela e de todas as subpastas é trocado em um único UPDATE;
+     * os arquivos não mudam de lugar no armazenamento (a chave do conteúdo não depende da pasta).
+     * @param id O ID da pasta.
+     * @param nome O novo nome.
+     * @return A pasta renomeada.
+     */
+    @Transactional
+    public Pasta renomear(Long id, String nome) {
+        String nomeLimpo = validarNome(nome);
+        if (!pastaRepository.existsById(id)) {
+            throw new EntityNotFoundException("Pasta não encontrada com o ID: " + id);
+        }
+        String antigo = semBarraFinal(bloquearCaminhos(List.of(id)).get(id).getCaminhoCompleto());
+        String novo = antigo.substring(0, antigo.lastIndexOf('/') + 1) + nomeLimpo;
+        pastaRepository.definirNome(id, nomeLimpo);
+        pastaRepository.reescreverCaminhos(id, antigo, novo);
+        return buscarPorId(id);
+    }
+
+    /**
+     * Move uma pasta, com todas as subpastas e arquivos, para dentro de outra ou para a raiz. Só metadados mudam:
+     * o pai, a tabela de fechamento da subárvore e o prefixo dos caminhos (um comando para cada); o conteúdo dos
+     * arquivos fica onde está. Entre setores, o uso da subárvore passa para a cota do setor de destino. Os totais
+     * da subárvore saem dos agregados do pai antigo (e dos ancestrais dele) e entram nos do novo, um UPDATE para
+     * cada lado. Movida para a raiz, a pasta vira principal do setor a que já pertencia, com o caminho "/" + nome.
+     * @param id O ID da pasta a ser movida.
+     * @param novoPaiId O ID da pasta de destino, ou nulo para a raiz.
+     * @return A pasta movida.
+     * @throws IllegalArgumentException Se o destino for a própria pasta ou uma subpasta dela.
+     * @throws br.com.carro.exceptions.CotaExcedidaException Se o conteúdo não couber na cota do setor de destino.
+     * @throws IllegalStateException Se o setor da pasta ou do destino mudar durante a operação.
+     */
+    @Transactional
+    public Pasta mover(Long id, Long novoPaiId) {
+        Pasta pasta = pastaRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Pasta não encontrada com o ID: " + id));
+        if (novoPaiId != null && !pastaRepository.existsById(novoPaiId)) {
+            throw new EntityNotFoundException("Pasta de destino não encontrada com o ID: " + novoPaiId);
+        }
+
+        // Conferências sem bloqueio, para não mexer na cota de uma movimentação inválida ou sem efeito; são
+        // repetidas abaixo, com as pastas bloqueadas
+        if (novoPaiId != null && pastaRepository.contem(id, novoPaiId) > 0) {
+            throw new IllegalArgumentException("Uma pasta não pode ser movida para dentro dela mesma ou de uma subpasta.");
+        }
+        if (Objects.equals(novoPaiId, pasta.getPastaPai() != null ? pasta.getPastaPai().getId() : null)) {
+            return pasta;
+        }
+
+        // A cota vem antes das pastas, na mesma ordem de bloqueio de um upload (cota e depois os ancestrais)
+        Long setorOrigem = cotaSetorService.setorDaPasta(id);
+        Long setorDestino = novoPaiId != null ? cotaSetorService.setorDaPasta(novoPaiId) : setorOrigem;
+        cotaSetorService.transferirPasta(id, setorOrigem, setorDestino);
+
+        // Com as duas pastas bloqueadas, movimentações cruzadas não criam um ciclo entre si. Os caminhos são lidos
+        // só agora: uma renomeação ou movimentação de um ancestral confirmada antes do bloqueio já aparece neles
+        Map<Long, PastaRepository.CaminhoPasta> caminhos =
+                bloquearCaminhos(novoPaiId != null ? List.of(id, novoPaiId) : List.of(id));
+        // Os setores usados na transferência da cota são relidos com as pastas bloqueadas; se uma movimentação
+        // concorrente os mudou, a transação é desfeita (a transferência junto)
+        if (!Objects.equals(setorOrigem, cotaSetorService.setorDaPasta(id)) || (novoPaiId != null
+                && !Objects.equals(setorDestino, cotaSetorService.setorDaPasta(novoPaiId)))) {
+            throw new IllegalStateException("A pasta foi alterada durante a movimentação. Tente novamente.");
+        }
+        if (novoPaiId != null && pastaRepository.contem(id, novoPaiId) > 0) {
+            throw new IllegalArgumentException("Uma pasta não pode ser movida para dentro dela mesma ou de uma subpasta.");
+        }
+        PastaRepository.TotaisPasta totais = pastaRepository.bloquearTotais(id);
+        if (Objects.equals(novoPaiId, totais.getPastaPaiId())) {
+            return pasta;
+        }
+
+        PastaRepository.CaminhoPasta movida = caminhos.get(id);
+        String prefixoDestino;
+        pastaRepository.desligarSubarvore(id);
+        if (novoPaiId != null) {
+            pastaRepository.ligarSubarvore(id, novoPaiId);
+            prefixoDestino = semBarraFinal(caminhos.get(novoPaiId).getCaminhoCompleto());
+        } else {
+            // Uma pasta principal tem o caminho "/" + nome, como as criadas na raiz
+            pastaRepository.definirSetor(id, setorOrigem);
+            prefixoDestino = "";
         }
-        if (pastaAtualizada.getCaminhoCompleto() != null) {
-            pastaExistente.setCaminhoCompleto(pastaAtualizada.getCaminhoCompleto());
+        pastaRepository.definirPai(id, novoPaiId);
+        pastaRepository.reescreverCaminhos(id, semBarraFinal(movida.getCaminhoCompleto()),
+                prefixoDestino + "/" + movida.getNomePasta());
+        if (setorDestino != null && !setorDestino.equals(setorOrigem)) {
+            pastaRepository.redefinirSetor(id, setorDestino);
         }
+        LocalDateTime agora = LocalDateTime.now();
+        if (totais.getPastaPaiId() != null) {
+            pastaRepository.ajustarAgregados(totais.getPastaPaiId(), 0, -totais.getArquivos(), -totais.getBytes(), -1, agora);
+        }
+        if (novoPaiId != null) {
+            pastaRepository.ajustarAgregados(novoPaiId, 0, totais.getArquivos(), totais.getBytes(), 1, agora);
+        }
+        return buscarPorId(id);
+    }
+
+    private Map<Long, PastaRepository.CaminhoPasta> bloquearCaminhos(List<Long> pastaIds) {
+        Map<Long, PastaRepository.CaminhoPasta> caminhos = new HashMap<>();
+        for (PastaRepository.CaminhoPasta caminho : pastaRepository.bloquearCaminhos(pastaIds)) {
+            caminhos.put(caminho.getId(), caminho);
+        }
+        if (caminhos.size() < pastaIds.size()) {
+            throw new EntityNotFoundException("Pasta não encontrada: excluída durante a operação.");
+        }
+        return caminhos;
+    }
+
+    private static String validarNome(String nome) {
+        if (nome == null || nome.isBlank()) {
+            throw new IllegalArgumentException("O nome da pasta não pode ser vazio.");
+        }
+        if (nome.contains("/") || nome.contains("\\")) {
+            throw new IllegalArgumentException("O nome da pasta não pode conter barras.");
+        }
+        return nome.trim();
+    }
 
-        return pastaRepository.save(pastaExistente);
+    private static String semBarraFinal(String caminho) {
+        return caminho.replaceAll("/+$", "");
     }
 
     /**
-     * Exclui uma pasta por ID, incluindo suas subpastas.
+     * Exclui uma pasta por ID, incluindo suas subpastas e arquivos, com poucos comandos sobre a subárvore inteira
+     * (sem carregar as entidades). O uso do setor é reduzido na mesma transação e o conteúdo dos arquivos é
+     * removido do armazenamento depois do commit.
      * @param id O ID da pasta a ser excluída.
      */
+    @Transactional
     public void excluir(Long id) {
         if (!pastaRepository.existsById(id)) {
             throw new EntityNotFoundException("Pasta não encontrada com o ID: " + id);
         }
-        pastaRepository.deleteById(id);
+        exclusaoPastaService.excluirSubarvore(id);
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.ArmazenamentoVolumes;
+import br.com.carro.entities.BlobArquivo;
+import br.com.carro.repositories.ArquivoRepository;
+import br.com.carro.repositories.BlobArquivoRepository;
+import br.com.carro.utilitarios.LimitadorTaxa;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rebalanceamento online entre volumes: quando a ocupação do volume mais cheio passa a do mais vazio por
+ * mais que o limiar, move blobs de um para o outro em segundo plano. A cópia é limitada em bytes por segundo
+ * para não competir com os uploads e downloads; o banco só é reapontado depois que a cópia terminou, e a
+ * origem só é removida depois do commit, então o conteúdo está sempre legível por uma das chaves. Leituras que
+ * já tinham a chave antiga (um stream aberto, um X-Accel-Redirect já enviado ao nginx) ainda a usam depois do
+ * commit, por isso ela só é removida após uma carência. Chaves que ainda aguardavam a carência quando a
+ * aplicação parou ficam órfãs até a próxima varredura do armazenamento.
+ */
+@Service
+@ConditionalOnProperty(name = "armazenamento.tipo", havingValue = "volumes")
+public class RebalanceamentoVolumesService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RebalanceamentoVolumesService.class);
+
+    private static final int TAMANHO_PAGINA = 500;
+
+    private final ArmazenamentoVolumes volumes;
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final ArquivoRepository arquivoRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final LimitadorTaxa limitadorTaxa;
+
+    @Value("${armazenamento.volumes.rebalanceamento.limiar:0.10}")
+    private double limiar;
+
+    @Value("${armazenamento.volumes.rebalanceamento.max-bytes-execucao:53687091200}")
+    private long maxBytesPorExecucao;
+
+    @Value("${armazenamento.volumes.rebalanceamento.carencia-exclusao-ms:900000}")
+    private long carenciaExclusao;
+
+    private final AtomicBoolean emExecucao = new AtomicBoolean(false);
+
+    // Chaves antigas de blobs já movidos, em ordem de prazo (a carência é a mesma para todas)
+    private final Queue<ExclusaoPendente> exclusoesPendentes = new ConcurrentLinkedQueue<>();
+
+    private record ExclusaoPendente(String chave, long prazo) {}
+
+    public RebalanceamentoVolumesService(ArmazenamentoVolumes volumes, BlobArquivoRepository blobArquivoRepository,
+                                         ArquivoRepository arquivoRepository, PlatformTransactionManager transactionManager,
+                                         @Value("${armazenamento.volumes.rebalanceamento.bytes-por-segundo:20971520}") long bytesPorSegundo) {
+        this.volumes = volumes;
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.arquivoRepository = arquivoRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.limitadorTaxa = new LimitadorTaxa(bytesPorSegundo, bytesPorSegundo);
+    }
+
+    /**
+     * Verifica periodicamente o desequilíbrio entre os volumes e move blobs do mais cheio para o mais vazio.
+     */
+    @Scheduled(fixedDelayString = "${armazenamento.volumes.rebalanceamento.intervalo-ms:3600000}",
+            initialDelayString = "${armazenamento.volumes.rebalanceamento.intervalo-ms:3600000}")
+    public void rebalancear() {
+        if (!emExecucao.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<ArmazenamentoVolumes.SituacaoVolume> situacao = volumes.situacao();
+            if (situacao.size() < 2) {
+                return;
+            }
+            ArmazenamentoVolumes.SituacaoVolume origem = situacao.stream()
+                    .max(Comparator.comparingDouble(ArmazenamentoVolumes.SituacaoVolume::ocupacao)).orElseThrow();
+            ArmazenamentoVolumes.SituacaoVolume destino = situacao.stream()
+                    .min(Comparator.comparingDouble(ArmazenamentoVolumes.SituacaoVolume::ocupacao)).orElseThrow();
+            double diferenca = origem.ocupacao() - destino.ocupacao();
+            if (diferenca < limiar) {
+                return;
+            }
+
+            // Metade da diferença aproxima as duas ocupações
+            long alvo = Math.min(maxBytesPorExecucao,
+                    (long) (diferenca / 2 * Math.min(origem.totalBytes(), destino.totalBytes())));
+            logger.info("Rebalanceando volumes: até {} bytes de {} ({}%) para {} ({}%)", alvo, origem.nome(),
+                    Math.round(origem.ocupacao() * 100), destino.nome(), Math.round(destino.ocupacao() * 100));
+            long movidos = moverBlobs(origem.nome(), destino.nome(), alvo);
+            logger.info("Rebalanceamento concluído: {} bytes movidos de {} para {}", movidos, origem.nome(), destino.nome());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            emExecucao.set(false);
+        }
+    }
+
+    /**
+     * Remove as chaves antigas dos blobs movidos cuja carência já terminou.
+     */
+    @Scheduled(fixedDelayString = "${armazenamento.volumes.rebalanceamento.intervalo-exclusao-ms:60000}")
+    public void excluirChavesAntigas() {
+        long agora = System.currentTimeMillis();
+        ExclusaoPendente pendente;
+        while ((pendente = exclusoesPendentes.peek()) != null && pendente.prazo() <= agora) {
+            exclusoesPendentes.poll();
+            try {
+                volumes.excluir(pendente.chave());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Não foi possível remover a chave antiga {}", pendente.chave(), e);
+            }
+        }
+    }
+
+    private long moverBlobs(String origem, String destino, long alvo) throws InterruptedException {
+        ArmazenamentoVolumes.FiltroVolume filtro = volumes.filtroDoVolume(origem);
+        String ultimoHash = "";
+        long movidos = 0;
+        List<BlobArquivo> pagina;
+        do {
+            pagina = blobArquivoRepository.buscarPorPadraoDeCaminho(ultimoHash, filtro.incluir(), filtro.excluir(),
+                    PageRequest.of(0, TAMANHO_PAGINA));
+            for (BlobArquivo blob : pagina) {
+                if (movidos >= alvo) {
+                    return movidos;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                if (moverBlob(blob, destino)) {
+                    movidos += blob.getTamanhoBytes();
+                }
+                ultimoHash = blob.getHashSha256();
+            }
+        } while (pagina.size() == TAMANHO_PAGINA);
+        return movidos;
+    }
+
+    /**
+     * Copia o blob para o volume de destino e reaponta o blob e seus arquivos.
+     * Se o blob foi removido (ou movido) durante a cópia, a cópia é descartada.
+     */
+    private boolean moverBlob(BlobArquivo blob, String volumeDestino) {
+        String antigo = blob.getCaminhoArmazenamento();
+        String novo = volumes.chaveNoVolume(volumeDestino, antigo);
+        Integer atualizados = null;
+        // Um blob que volta a um volume de onde saiu há pouco reusa a chave que aguardava a carência
+        exclusoesPendentes.removeIf(pendente -> pendente.chave().equals(novo));
+        try {
+            try (InputStream conteudo = limitadorTaxa.limitar(volumes.ler(antigo))) {
+                volumes.gravar(novo, conteudo, blob.getTamanhoBytes());
+            }
+            atualizados = transactionTemplate.execute(status -> {
+                int linhas = blobArquivoRepository.moverArmazenamento(blob.getHashSha256(), antigo, novo);
+                if (linhas > 0) {
+                    arquivoRepository.moverArmazenamento(blob.getHashSha256(), antigo, novo);
+                }
+                return linhas;
+            });
+            // Após o commit a chave antiga não é mais referenciada, mas ainda pode estar sendo lida; se nada foi
+            // atualizado, a cópia (que ninguém conhece) é que sobra
+            if (atualizados != null && atualizados > 0) {
+                exclusoesPendentes.add(new ExclusaoPendente(antigo, System.currentTimeMillis() + carenciaExclusao));
+                return true;
+            }
+            volumes.excluir(novo);
+            return false;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Falha ao mover o blob {} para o volume {}", blob.getHashSha256(), volumeDestino, e);
+            if (atualizados == null) {
+                try {
+                    volumes.excluir(novo);
+                } catch (IOException | RuntimeException erroLimpeza) {
+                    logger.warn("Não foi possível remover a cópia parcial {}", novo, erroLimpeza);
+                }
+            }
+            return false;
+        }
+    }
+}
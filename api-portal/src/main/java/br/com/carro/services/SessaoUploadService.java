@@ -0,0 +1,337 @@
+package br.com.carro.services;
+
+import br.com.carro.entities.Arquivo;
+import br.com.carro.entities.Upload.SessaoUpload;
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.repositories.SessaoUploadRepository;
+import br.com.carro.utilitarios.HashEmArvore;
+import jakarta.persistence.EntityNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Uploads retomáveis (no estilo do protocolo tus).
+ * O conteúdo parcial fica em um temporário no volume de uploads e o offset confirmado é persistido
+ * em tb_sessao_upload, então uma conexão que cai no meio só precisa reenviar os bytes que faltam,
+ * inclusive depois de um restart do servidor. Cada bloco enviado também atualiza as folhas do hash em
+ * árvore ({@link HashEmArvore}); na finalização elas conferem o temporário, e um bloco corrompido no
+ * disco é reenviado sozinho em vez do arquivo inteiro.
+ */
+@Service
+public class SessaoUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessaoUploadService.class);
+
+    /** Tamanho do buffer usado na gravação dos blocos (64 KiB). */
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    private static final byte[] ASSINATURA_PDF = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+
+    private final SessaoUploadRepository sessaoUploadRepository;
+    private final ArquivoService arquivoService;
+    private final BlobArquivoService blobArquivoService;
+
+    // Impede que dois PATCH da mesma sessão gravem ao mesmo tempo
+    private final Map<String, ReentrantLock> travas = new ConcurrentHashMap<>();
+
+    @Value("${upload.sessao.validade-horas:24}")
+    private long validadeHoras;
+
+    public SessaoUploadService(SessaoUploadRepository sessaoUploadRepository, ArquivoService arquivoService,
+                               BlobArquivoService blobArquivoService) {
+        this.sessaoUploadRepository = sessaoUploadRepository;
+        this.arquivoService = arquivoService;
+        this.blobArquivoService = blobArquivoService;
+    }
+
+    /**
+     * Resultado do envio de um bloco: a sessão atualizada e, se o upload terminou, o Arquivo criado.
+     */
+    public record ResultadoBloco(SessaoUpload sessao, Arquivo arquivo) {}
+
+    /**
+     * Cria uma sessão de upload, validando a pasta, a permissão de escrita e o nome do arquivo.
+     * @param pastaId ID da pasta de destino.
+     * @param nomeArquivo Nome do arquivo.
+     * @param tamanhoTotal Tamanho total do arquivo em bytes.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return A sessão criada.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita.
+     * @throws IOException Se não for possível criar o temporário.
+     */
+    public SessaoUpload criar(Long pastaId, String nomeArquivo, Long tamanhoTotal, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        if (pastaId == null) {
+            throw new IllegalArgumentException("A pasta de destino é obrigatória.");
+        }
+        if (tamanhoTotal == null || tamanhoTotal <= 0) {
+            throw new IllegalArgumentException("O tamanho do arquivo deve ser maior que zero.");
+        }
+        String nomeLimpo = arquivoService.validarUpload(pastaId, nomeArquivo, usuarioLogado, tamanhoTotal);
+
+        SessaoUpload sessao = new SessaoUpload();
+        sessao.setId(UUID.randomUUID().toString());
+        sessao.setPastaId(pastaId);
+        sessao.setUsuarioId(usuarioLogado.getId());
+        sessao.setNomeArquivo(nomeLimpo);
+        sessao.setTamanhoTotal(tamanhoTotal);
+        sessao.setBytesRecebidos(0L);
+        sessao.setCaminhoTemporario(blobArquivoService.novoTemporario(tamanhoTotal).toString());
+        sessao.setDataCriacao(LocalDateTime.now());
+        sessao.setDataExpiracao(LocalDateTime.now().plusHours(validadeHoras));
+        return sessaoUploadRepository.save(sessao);
+    }
+
+    /**
+     * Busca uma sessão do usuário (para consultar o offset atual).
+     * @param id ID da sessão.
+     * @param usuarioLogado O usuário dono da sessão.
+     * @return A sessão encontrada.
+     * @throws IllegalAccessException Se a sessão pertencer a outro usuário.
+     */
+    public SessaoUpload buscar(String id, Usuario usuarioLogado) throws IllegalAccessException {
+        SessaoUpload sessao = sessaoUploadRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Sessão de upload não encontrada: " + id));
+        if (!sessao.getUsuarioId().equals(usuarioLogado.getId())) {
+            throw new IllegalAccessException("A sessão de upload pertence a outro usuário.");
+        }
+        if (sessao.getDataExpiracao().isBefore(LocalDateTime.now())) {
+            throw new EntityNotFoundException("Sessão de upload expirada: " + id);
+        }
+        return sessao;
+    }
+
+    /**
+     * Grava um bloco a partir do offset informado. O offset precisa ser exatamente o número de bytes já
+     * confirmados. Se a conexão cair no meio do bloco, o que chegou até ali é confirmado mesmo assim.
+     * Ao receber o último byte a sessão é finalizada e vira um Arquivo. Se a finalização falhar por um erro
+     * transitório, a sessão é mantida e um novo PATCH vazio no offset final a repete.
+     * @param id ID da sessão.
+     * @param offset Offset do primeiro byte do bloco.
+     * @param conteudo Conteúdo do bloco (não é fechado por este método).
+     * @param usuarioLogado O usuário dono da sessão.
+     * @return A sessão atualizada e, se completou, o Arquivo criado.
+     * @throws IllegalStateException Se o offset não confere ou se outro bloco da mesma sessão está sendo gravado.
+     * @throws IllegalAccessException Se a sessão pertencer a outro usuário.
+     * @throws IOException Se houver um erro de leitura ou gravação.
+     */
+    public ResultadoBloco anexar(String id, long offset, InputStream conteudo, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        ReentrantLock trava = travas.computeIfAbsent(id, chave -> new ReentrantLock());
+        if (!trava.tryLock()) {
+            throw new IllegalStateException("Já existe um envio em andamento para esta sessão.");
+        }
+        try {
+            SessaoUpload sessao = buscar(id, usuarioLogado);
+            if (offset != sessao.getBytesRecebidos()) {
+                throw new IllegalStateException("Offset inválido: esperado " + sessao.getBytesRecebidos() + ", recebido " + offset + ".");
+            }
+
+            // Com todos os bytes já confirmados (finalização repetida), o bloco precisa vir vazio
+            long recebidos = offset < sessao.getTamanhoTotal() ? offset + gravarBloco(sessao, offset, conteudo) : offset;
+            if (offset == sessao.getTamanhoTotal() && conteudo.read() != -1) {
+                throw new IllegalArgumentException("O bloco ultrapassa o tamanho declarado do arquivo.");
+            }
+            sessao.setBytesRecebidos(recebidos);
+            sessao.setDataExpiracao(LocalDateTime.now().plusHours(validadeHoras));
+
+            if (recebidos < sessao.getTamanhoTotal()) {
+                return new ResultadoBloco(sessao, null);
+            }
+            return new ResultadoBloco(sessao, finalizar(sessao, usuarioLogado));
+        } finally {
+            // Remove antes de liberar para que um novo PATCH nunca reutilize uma trava já descartada
+            travas.remove(id, trava);
+            trava.unlock();
+        }
+    }
+
+    /**
+     * Cancela a sessão e remove o conteúdo parcial.
+     * @param id ID da sessão.
+     * @param usuarioLogado O usuário dono da sessão.
+     * @throws IllegalAccessException Se a sessão pertencer a outro usuário.
+     */
+    public void cancelar(String id, Usuario usuarioLogado) throws IllegalAccessException {
+        descartar(buscar(id, usuarioLogado));
+    }
+
+    /**
+     * Remove periodicamente as sessões abandonadas e seus temporários.
+     */
+    @Scheduled(fixedDelayString = "${upload.sessao.intervalo-limpeza-ms:600000}")
+    public void expirarSessoes() {
+        List<SessaoUpload> expiradas;
+        do {
+            expiradas = sessaoUploadRepository.findTop100ByDataExpiracaoBefore(LocalDateTime.now());
+            expiradas.forEach(this::descartar);
+        } while (expiradas.size() == 100);
+    }
+
+    private long gravarBloco(SessaoUpload sessao, long offset, InputStream conteudo) throws IOException {
+        long limite = sessao.getTamanhoTotal() - offset;
+        byte[] buffer = new byte[TAMANHO_BUFFER];
+        long escritos = 0;
+        HashEmArvore.Construtor arvore = new HashEmArvore.Construtor(sessao.getHashesBlocos());
+
+        try (FileChannel canal = FileChannel.open(Paths.get(sessao.getCaminhoTemporario()),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            retomarBloco(canal, arvore, offset);
+            canal.position(offset);
+            try {
+                int lidos;
+                while ((lidos = conteudo.read(buffer)) != -1) {
+                    if (escritos + lidos > limite) {
+                        throw new IllegalArgumentException("O bloco ultrapassa o tamanho declarado do arquivo.");
+                    }
+                    ByteBuffer bloco = ByteBuffer.wrap(buffer, 0, lidos);
+                    while (bloco.hasRemaining()) {
+                        canal.write(bloco);
+                    }
+                    escritos += lidos;
+                    arvore.atualizar(buffer, 0, lidos);
+                }
+            } finally {
+                // Confirma o que chegou ao disco, mesmo que a conexão tenha caído no meio do bloco
+                canal.truncate(offset + escritos);
+                canal.force(false);
+                sessao.setHashesBlocos(arvore.folhasFechadas());
+                sessaoUploadRepository.atualizarProgresso(sessao.getId(), offset + escritos, sessao.getHashesBlocos(),
+                        LocalDateTime.now().plusHours(validadeHoras));
+            }
+        }
+        return escritos;
+    }
+
+    /**
+     * Alimenta o construtor com a parte do bloco de 4 MiB em andamento que chegou em PATCHs anteriores
+     * (do fim do último bloco completo até o offset). Só esse trecho é relido do temporário.
+     */
+    private void retomarBloco(FileChannel canal, HashEmArvore.Construtor arvore, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+        long posicao = arvore.fimDosBlocosFechados();
+        while (posicao < offset) {
+            buffer.clear().limit((int) Math.min(TAMANHO_BUFFER, offset - posicao));
+            int lidos = canal.read(buffer, posicao);
+            if (lidos == -1) {
+                throw new IOException("Temporário da sessão menor que o offset confirmado.");
+            }
+            arvore.atualizar(buffer.array(), 0, lidos);
+            posicao += lidos;
+        }
+    }
+
+    /**
+     * Confere o temporário completo contra as folhas calculadas a cada PATCH. Se algum bloco mudou no disco
+     * depois de confirmado, a sessão volta para o início do primeiro bloco divergente e o cliente reenvia dali.
+     */
+    private void conferirBlocos(SessaoUpload sessao, Path temporario, HashEmArvore.Resultado lida) throws IOException {
+        HashEmArvore.Construtor construtor = new HashEmArvore.Construtor(sessao.getHashesBlocos());
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.READ)) {
+            retomarBloco(canal, construtor, sessao.getTamanhoTotal());
+        }
+        HashEmArvore.Resultado enviada = construtor.concluir();
+        if (enviada.raiz().equals(lida.raiz())) {
+            return;
+        }
+
+        int bloco = HashEmArvore.blocosDivergentes(enviada.folhas(), lida.folhas()).get(0);
+        long retomar = (long) bloco * HashEmArvore.TAMANHO_BLOCO;
+        byte[] folhas = Arrays.copyOf(enviada.folhas(),
+                Math.min(bloco * HashEmArvore.TAMANHO_HASH, construtor.folhasFechadas().length));
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.WRITE)) {
+            canal.truncate(retomar);
+        }
+        sessaoUploadRepository.atualizarProgresso(sessao.getId(), retomar, folhas,
+                LocalDateTime.now().plusHours(validadeHoras));
+        logger.warn("Temporário da sessão {} divergiu no bloco {}; upload retomado do offset {}", sessao.getId(), bloco, retomar);
+        throw new IllegalStateException("O conteúdo recebido foi corrompido no servidor; reenvie a partir do offset " + retomar + ".");
+    }
+
+    /**
+     * Publica o conteúdo completo e cria o Arquivo. A sessão só é descartada quando o envio é recusado de vez
+     * (não é PDF, nome em conflito, sem permissão, cota excedida); em um erro transitório (ex.: deadlock ou falha
+     * de I/O) ela é mantida. Se o conteúdo já tinha sido publicado, a sessão guarda onde, e a nova tentativa
+     * só refaz a transação.
+     */
+    private Arquivo finalizar(SessaoUpload sessao, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        BlobArquivoService.ConteudoRecebido recebido;
+        String publicada;
+        if (sessao.getChavePublicada() != null) {
+            byte[] folhas = sessao.getHashesBlocos();
+            recebido = new BlobArquivoService.ConteudoRecebido(null, sessao.getTamanhoTotal(), sessao.getHashSha256(),
+                    sessao.getCrc32(), new HashEmArvore.Resultado(HashEmArvore.raiz(folhas), folhas));
+            publicada = sessao.getChavePublicada();
+        } else {
+            Path temporario = Paths.get(sessao.getCaminhoTemporario());
+            try {
+                if (!comecaComAssinaturaPdf(temporario)) {
+                    throw new IllegalArgumentException("Apenas arquivos PDF são permitidos.");
+                }
+                // Recusa antes de publicar o conteúdo; a verificação definitiva é refeita na transação
+                arquivoService.validarUpload(sessao.getPastaId(), sessao.getNomeArquivo(), usuarioLogado, sessao.getTamanhoTotal());
+            } catch (IllegalArgumentException | IllegalStateException | IllegalAccessException e) {
+                descartar(sessao);
+                throw e;
+            }
+
+            // Uma única leitura calcula o SHA-256, o CRC-32 e a árvore que é conferida com a dos PATCHs
+            recebido = blobArquivoService.inspecionar(temporario);
+            conferirBlocos(sessao, temporario, recebido.arvore());
+            publicada = blobArquivoService.publicar(recebido);
+            if (publicada != null) {
+                sessaoUploadRepository.registrarPublicacao(sessao.getId(), recebido.sha256(), recebido.crc32(),
+                        recebido.arvore().folhas(), publicada);
+            }
+        }
+
+        Arquivo arquivo;
+        try {
+            arquivo = arquivoService.salvarConteudoPublicado(recebido, publicada, sessao.getNomeArquivo(),
+                    sessao.getPastaId(), usuarioLogado);
+        } catch (IllegalArgumentException | IllegalStateException | IllegalAccessException e) {
+            // Recusa definitiva (inclui CotaExcedidaException); um conteúdo já publicado fica para a varredura
+            descartar(sessao);
+            throw e;
+        }
+        descartar(sessao);
+        return arquivo;
+    }
+
+    private boolean comecaComAssinaturaPdf(Path temporario) throws IOException {
+        ByteBuffer inicio = ByteBuffer.allocate(ASSINATURA_PDF.length);
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.READ)) {
+            while (inicio.hasRemaining() && canal.read(inicio) != -1) {
+                // lê até completar a assinatura ou acabar o arquivo
+            }
+        }
+        return !inicio.hasRemaining() && inicio.flip().equals(ByteBuffer.wrap(ASSINATURA_PDF));
+    }
+
+    private void descartar(SessaoUpload sessao) {
+        try {
+            Files.deleteIfExists(Paths.get(sessao.getCaminhoTemporario()));
+        } catch (IOException e) {
+            logger.warn("Não foi possível remover o temporário da sessão {}", sessao.getId(), e);
+        }
+        sessaoUploadRepository.deleteById(sessao.getId());
+    }
+}
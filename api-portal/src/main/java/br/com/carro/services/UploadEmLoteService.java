@@ -0,0 +1,988 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.entities.ArquivoDto;
+import br.com.carro.entities.BlobArquivo;
+import br.com.carro.entities.Pasta;
+import br.com.carro.entities.Usuario.Usuario;
+import br.com.carro.repositories.ArquivoRepository;
+import br.com.carro.repositories.BlobArquivoRepository;
+import br.com.carro.repositories.PastaRepository;
+import br.com.carro.utilitarios.TravasPorChave;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Upload de muitos arquivos em uma única requisição (vários PDFs em um multipart, ou um ZIP com a
+ * árvore de pastas de um setor).
+ * O conteúdo é lido do stream uma entrada por vez para temporários locais; a cada lote de N arquivos,
+ * os conteúdos novos são publicados no armazenamento em paralelo, em um executor limitado e fora de
+ * transação, e depois uma transação só com batches JDBC registra os blobs e insere os arquivos.
+ */
+@Service
+public class UploadEmLoteService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadEmLoteService.class);
+
+    // Mesmo upsert de BlobArquivoRepository.registrarReferencia, executado em batch
+    private static final String SQL_REGISTRAR_BLOB = "INSERT INTO tb_blob_arquivo " +
+            "(hash_sha256, caminho_armazenamento, tamanho_bytes, crc32, hash_arvore, hashes_blocos, referencias, data_criacao) " +
+            "VALUES (?, ?, ?, ?, ?, ?, 1, NOW(6)) " +
+            "ON DUPLICATE KEY UPDATE referencias = referencias + 1, crc32 = COALESCE(crc32, VALUES(crc32)), " +
+            "hashes_blocos = IF(hash_arvore IS NULL, VALUES(hashes_blocos), hashes_blocos), " +
+            "hash_arvore = COALESCE(hash_arvore, VALUES(hash_arvore))";
+
+    private static final String SQL_INSERIR_PASTA = "INSERT INTO tb_pasta " +
+            "(nome_pasta, caminho_completo, data_criacao, setor_id, pasta_pai_id) VALUES (?, ?, ?, ?, ?)";
+
+    // Mesmo registro de PastaRepository.registrarNoFechamento, executado em batch
+    private static final String SQL_REGISTRAR_FECHAMENTO = "INSERT INTO tb_pasta_fechamento " +
+            "(ancestral_id, descendente_id, profundidade) SELECT ?, ?, 0 UNION ALL " +
+            "SELECT ancestral_id, ?, profundidade + 1 FROM tb_pasta_fechamento WHERE descendente_id = ?";
+
+    private static final String SQL_INSERIR_ARQUIVO = "INSERT INTO tb_arquivo " +
+            "(nome_arquivo, caminho_armazenamento, tamanho_bytes, hash_sha256, data_upload, pasta_id, criado_por_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_SUBSTITUIR_ARQUIVO = "UPDATE tb_arquivo SET caminho_armazenamento = ?, " +
+            "tamanho_bytes = ?, hash_sha256 = ?, data_upload = ?, criado_por_id = ? WHERE id = ?";
+
+    // Mesmo ajuste de PastaRepository.ajustarAgregados, executado em batch
+    private static final String SQL_AJUSTAR_AGREGADOS = "UPDATE tb_pasta p JOIN tb_pasta_fechamento f ON f.ancestral_id = p.id " +
+            "SET p.arquivos_diretos = GREATEST(p.arquivos_diretos + IF(f.profundidade = 0, ?, 0), 0), " +
+            "p.arquivos_total = GREATEST(p.arquivos_total + ?, 0), p.bytes_total = GREATEST(p.bytes_total + ?, 0), " +
+            "p.subpastas_diretas = GREATEST(p.subpastas_diretas + IF(f.profundidade = 0, ?, 0), 0), " +
+            "p.ultima_alteracao = ? WHERE f.descendente_id = ?";
+
+    private final ArquivoService arquivoService;
+    private final BlobArquivoService blobArquivoService;
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final ArquivoRepository arquivoRepository;
+    private final PastaRepository pastaRepository;
+    private final CotaSetorService cotaSetorService;
+    private final Armazenamento armazenamento;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+
+    @Value("${upload.lote.tamanho:200}")
+    private int tamanhoLote;
+
+    @Value("${upload.zip.max-bytes:21474836480}")
+    private long maxBytesZip;
+
+    public UploadEmLoteService(ArquivoService arquivoService, BlobArquivoService blobArquivoService,
+                               BlobArquivoRepository blobArquivoRepository, ArquivoRepository arquivoRepository,
+                               PastaRepository pastaRepository, CotaSetorService cotaSetorService,
+                               Armazenamento armazenamento, JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${upload.lote.paralelismo:4}") int paralelismo) {
+        this.arquivoService = arquivoService;
+        this.blobArquivoService = blobArquivoService;
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.arquivoRepository = arquivoRepository;
+        this.pastaRepository = pastaRepository;
+        this.cotaSetorService = cotaSetorService;
+        this.armazenamento = armazenamento;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        // Fila limitada: com ela cheia, a própria thread da requisição publica o conteúdo (contrapressão)
+        int threads = Math.max(1, paralelismo);
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4), tarefa -> {
+                    Thread thread = new Thread(tarefa, "upload-lote-" + contador.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Resultado de um arquivo do lote: o Arquivo criado ou o motivo de ter sido recusado.
+     */
+    public record ResultadoItem(String caminho, ArquivoDto arquivo, String erro) {}
+
+    /**
+     * Resultado de uma importação: pastas e arquivos criados e o resultado de cada arquivo, na ordem de envio.
+     */
+    public record ResultadoImportacao(int pastasCriadas, int arquivosCriados, List<ResultadoItem> itens) {}
+
+    /**
+     * Arquivo recebido em um temporário, aguardando a gravação do lote.
+     * @param pasta Caminho relativo da pasta de destino dentro da pasta raiz ("" para a própria raiz).
+     */
+    private record ItemRecebido(int indice, String pasta, String nome, BlobArquivoService.ConteudoRecebido recebido) {}
+
+    /**
+     * Pasta de destino resolvida.
+     * @param setorId Setor próprio da pasta (o que as subpastas criadas nela copiam), ou null.
+     * @param setorCota Setor que responde pela cota da pasta: o próprio ou o da pasta mais próxima acima, ou null.
+     */
+    private record PastaDestino(Long id, String caminhoCompleto, Long setorId, Long setorCota, boolean gravavel) {}
+
+    /**
+     * Delta dos agregados de uma pasta no lote: arquivos criados nela, bytes somados e subpastas criadas.
+     */
+    private static final class DeltaPasta {
+        private long arquivos;
+        private long bytes;
+        private long subpastas;
+    }
+
+    /**
+     * Estado de uma importação: pastas já resolvidas (por caminho relativo, sem diferenciar maiúsculas)
+     * e resultados de cada arquivo.
+     */
+    private static final class Importacao {
+        private final Usuario usuario;
+        private final Map<String, PastaDestino> pastas = new HashMap<>();
+        private final List<ResultadoItem> itens = new ArrayList<>();
+        private final List<ItemRecebido> lote = new ArrayList<>();
+        private final Set<String> diretorios = new LinkedHashSet<>();
+        private int pastasCriadas;
+        private int arquivosCriados;
+
+        private Importacao(Usuario usuario, Pasta raiz, Long setorDaRaiz) {
+            this.usuario = usuario;
+            pastas.put("", new PastaDestino(raiz.getId(), raiz.getCaminhoCompleto(),
+                    raiz.getSetor() != null ? raiz.getSetor().getId() : null, setorDaRaiz, true));
+        }
+
+        private ResultadoImportacao resultado() {
+            return new ResultadoImportacao(pastasCriadas, arquivosCriados, itens);
+        }
+    }
+
+    /**
+     * Um arquivo de um upload com várias partes.
+     * @param conteudo Stream da parte, válido só até a próxima parte ser solicitada.
+     */
+    public record ParteArquivo(String nome, String contentType, InputStream conteudo) {}
+
+    /**
+     * Partes de um upload com vários arquivos (ex.: um multipart lido em streaming), percorridas em ordem.
+     */
+    @FunctionalInterface
+    public interface PartesUpload {
+        /**
+         * @return A próxima parte com arquivo, ou null quando não houver mais.
+         */
+        ParteArquivo proxima() throws IOException;
+    }
+
+    /**
+     * Salva vários PDFs na mesma pasta. Cada arquivo é recebido em um temporário à medida que chega;
+     * a cada lote, os conteúdos novos são publicados em paralelo e todos os Arquivos são inseridos em um
+     * único batch JDBC, na transação que registra as referências aos blobs. Arquivos recusados (tipo ou nome
+     * inválido) não interrompem os demais.
+     * @param partes Arquivos enviados, na ordem em que chegam.
+     * @param pastaId ID da pasta onde os arquivos serão salvos.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return Arquivos criados e o resultado de cada parte, na ordem de envio.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita na pasta.
+     * @throws IOException Se houver erro de leitura ou não for possível armazenar o conteúdo.
+     */
+    public ResultadoImportacao salvarArquivos(PartesUpload partes, Long pastaId, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        Pasta pasta = arquivoService.buscarPastaParaEscrita(pastaId, usuarioLogado);
+        Importacao importacao = new Importacao(usuarioLogado, pasta, cotaSetorService.setorDaPasta(pastaId));
+        try {
+            ParteArquivo parte;
+            while ((parte = partes.proxima()) != null) {
+                if (!ehPdf(parte.contentType())) {
+                    importacao.itens.add(new ResultadoItem(parte.nome(), null, "Apenas arquivos PDF são permitidos."));
+                    continue;
+                }
+                String nome;
+                try {
+                    nome = arquivoService.validarNomeArquivo(parte.nome());
+                } catch (IllegalArgumentException e) {
+                    importacao.itens.add(new ResultadoItem(parte.nome(), null, e.getMessage()));
+                    continue;
+                }
+                receberArquivo(importacao, "", nome, parte.conteudo());
+            }
+            concluir(importacao);
+        } finally {
+            descartarPendentes(importacao);
+        }
+        logger.info("Upload em lote na pasta {}: {} arquivos criados", pastaId, importacao.arquivosCriados);
+        return importacao.resultado();
+    }
+
+    /**
+     * Expande um ZIP dentro da pasta, criando as subpastas que ele contém (ou reaproveitando as que já
+     * existem com o mesmo nome). Só entradas PDF viram arquivos; as demais são listadas como recusadas.
+     * Cada lote é gravado em uma transação: se um lote falhar, os anteriores permanecem gravados.
+     * @param conteudo Stream do ZIP (não é fechado por este método).
+     * @param pastaId ID da pasta onde o ZIP será expandido.
+     * @param usuarioLogado O usuário que está realizando o upload.
+     * @return Pastas e arquivos criados e o resultado de cada entrada.
+     * @throws IllegalAccessException Se o usuário não tiver permissão de escrita na pasta.
+     * @throws IOException Se o ZIP for inválido ou não for possível armazenar o conteúdo.
+     */
+    public ResultadoImportacao importarZip(InputStream conteudo, Long pastaId, Usuario usuarioLogado) throws IllegalAccessException, IOException {
+        Pasta raiz = arquivoService.buscarPastaParaEscrita(pastaId, usuarioLogado);
+        Importacao importacao = new Importacao(usuarioLogado, raiz, cotaSetorService.setorDaPasta(pastaId));
+        ZipInputStream zip = new ZipInputStream(conteudo, StandardCharsets.UTF_8);
+        InputStream expandido = limitar(zip, maxBytesZip);
+        try {
+            ZipEntry entrada;
+            while ((entrada = zip.getNextEntry()) != null) {
+                String nomeEntrada = entrada.getName().replace('\\', '/');
+                if (ignorar(nomeEntrada)) {
+                    continue;
+                }
+                List<String> partes = partes(nomeEntrada);
+                if (partes == null) {
+                    importacao.itens.add(new ResultadoItem(nomeEntrada, null, "Caminho inválido."));
+                    continue;
+                }
+                if (entrada.isDirectory()) {
+                    if (!partes.isEmpty()) {
+                        importacao.diretorios.add(String.join("/", partes));
+                    }
+                    continue;
+                }
+                String nome = partes.remove(partes.size() - 1);
+                if (!nome.toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+                    importacao.itens.add(new ResultadoItem(nomeEntrada, null, "Apenas arquivos PDF são permitidos."));
+                    continue;
+                }
+                receberArquivo(importacao, String.join("/", partes), nome, expandido);
+            }
+            concluir(importacao);
+        } finally {
+            descartarPendentes(importacao);
+        }
+        logger.info("ZIP expandido na pasta {}: {} pastas e {} arquivos criados", pastaId,
+                importacao.pastasCriadas, importacao.arquivosCriados);
+        return importacao.resultado();
+    }
+
+    /**
+     * Recebe um arquivo em um temporário e, quando o lote enche, grava o lote.
+     */
+    private void receberArquivo(Importacao importacao, String pasta, String nome, InputStream conteudo) throws IOException {
+        int indice = importacao.itens.size();
+        importacao.itens.add(null);
+        importacao.lote.add(new ItemRecebido(indice, pasta, nome, blobArquivoService.receber(conteudo)));
+        if (importacao.lote.size() >= tamanhoLote) {
+            concluir(importacao);
+        }
+    }
+
+    /**
+     * Grava o que estiver pendente (arquivos e pastas vazias) e começa um novo lote.
+     */
+    private void concluir(Importacao importacao) throws IOException {
+        if (importacao.lote.isEmpty() && importacao.diretorios.isEmpty()) {
+            return;
+        }
+        try {
+            gravarLote(importacao, importacao.lote, importacao.diretorios);
+        } finally {
+            importacao.lote.clear();
+            importacao.diretorios.clear();
+        }
+    }
+
+    private void descartarPendentes(Importacao importacao) {
+        importacao.lote.forEach(item -> blobArquivoService.descartar(item.recebido()));
+        importacao.lote.clear();
+    }
+
+    /**
+     * Grava um lote. As pastas que faltam são criadas em uma transação curta. Os conflitos de nome são resolvidos
+     * uma primeira vez sem locks, só para escolher o que vale publicar; a cota desses itens é reservada e os
+     * conteúdos novos são publicados no armazenamento em paralelo, sem transação e sem nenhum lock de nome (a
+     * chave do conteúdo não depende do nome). Só então os nomes são bloqueados, os conflitos resolvidos de novo
+     * e uma última transação, só com batches JDBC, registra os blobs e grava os arquivos. Os locks dos nomes
+     * valem só dessa segunda resolução até o fim dessa transação. Um conteúdo publicado para um item que só a
+     * segunda resolução recusa (um arquivo com o mesmo nome gravado no meio tempo) fica sem referência, como
+     * qualquer órfão do armazenamento, até a verificação de integridade. Os temporários do lote são sempre
+     * consumidos ou removidos.
+     */
+    private void gravarLote(Importacao importacao, List<ItemRecebido> lote, Set<String> diretorios) throws IOException {
+        try {
+            Set<String> pastasDoLote = new LinkedHashSet<>(diretorios);
+            lote.forEach(item -> pastasDoLote.add(item.pasta()));
+            transactionTemplate.executeWithoutResult(status -> {
+                // Em ordem de ID, para que as pastas acima sejam bloqueadas sempre na mesma sequência
+                Map<Long, DeltaPasta> subpastas = new TreeMap<>();
+                garantirPastas(importacao, pastasDoLote, subpastas);
+                ajustarAgregados(subpastas);
+            });
+
+            List<ItemRecebido> aGravar = new ArrayList<>();
+            for (ItemRecebido item : lote) {
+                if (importacao.pastas.get(chave(item.pasta())).gravavel()) {
+                    aGravar.add(item);
+                } else {
+                    importacao.itens.set(item.indice(), new ResultadoItem(caminho(item),
+                            null, "Você não tem permissão para fazer upload nesta pasta."));
+                }
+            }
+            if (aGravar.isEmpty()) {
+                return;
+            }
+
+            // Resolução prévia, sem locks: os recusados aqui não são publicados. Os demais seguem com o nome enviado
+            Set<Integer> candidatos = new HashSet<>();
+            resolverConflitos(importacao, aGravar, new HashMap<>()).forEach(item -> candidatos.add(item.indice()));
+            List<ItemRecebido> reservados = reservarCota(importacao, aGravar.stream()
+                    .filter(item -> candidatos.contains(item.indice()))
+                    .toList());
+            if (reservados.isEmpty()) {
+                return;
+            }
+            boolean gravado = false;
+            try {
+                Map<String, String> publicados = publicar(reservados);
+
+                // Locks dos nomes até o fim da transação dos arquivos, como no upload de um arquivo só
+                TravasPorChave.Travamento travamento = arquivoService.travarNomes(reservados.stream()
+                        .map(item -> arquivoService.chaveDeNome(idDaPasta(importacao, item), item.nome())).toList());
+                try {
+                    for (int tentativa = 1; ; tentativa++) {
+                        try {
+                            gravarSelecionados(importacao, reservados, publicados);
+                            break;
+                        } catch (DataIntegrityViolationException e) {
+                            if (tentativa == ArquivoService.TENTATIVAS_NOME || !arquivoService.nomeJaUsado(e)) {
+                                throw e;
+                            }
+                            // Um nome escolhido ao renomear foi gravado por outro upload; a transação foi desfeita
+                            logger.debug("Nome já usado ao gravar o lote da importação; nova tentativa");
+                        }
+                    }
+                } finally {
+                    travamento.close();
+                }
+                gravado = true;
+            } finally {
+                if (!gravado) {
+                    estornarCota(importacao, reservados);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            lote.forEach(item -> blobArquivoService.descartar(item.recebido()));
+        }
+    }
+
+    /**
+     * Resolve os conflitos sob os locks dos nomes e, em uma transação, devolve a cota dos recusados e grava os
+     * demais. Um nome "x (n).ext" escolhido ao renomear não está sob os locks: se outro upload o gravar antes, o
+     * índice único de (pasta, nome) recusa o INSERT, a transação é desfeita e o chamador repete a resolução.
+     */
+    private void gravarSelecionados(Importacao importacao, List<ItemRecebido> reservados, Map<String, String> publicados) {
+        Map<String, ArquivoRepository.NomeOcupado> ocupados = new HashMap<>();
+        List<ItemRecebido> selecionados = resolverConflitos(importacao, reservados, ocupados);
+        transactionTemplate.executeWithoutResult(status -> {
+            liberarExcedente(importacao, reservados, selecionados, ocupados);
+            if (!selecionados.isEmpty()) {
+                Map<Long, DeltaPasta> deltas = new TreeMap<>();
+                gravarArquivos(importacao, selecionados, ocupados, publicados, deltas);
+                ajustarAgregados(deltas);
+            }
+        });
+    }
+
+    /**
+     * Registra os blobs e grava os arquivos selecionados (com a cota já reservada) nas pastas já resolvidas,
+     * acumulando em {@code deltas} o que cada pasta recebeu. Deve ser chamado na transação dos arquivos.
+     * @param publicados Chave gravada por {@link #publicar} para cada hash cujo conteúdo este lote publicou.
+     */
+    private void gravarArquivos(Importacao importacao, List<ItemRecebido> selecionados,
+                                Map<String, ArquivoRepository.NomeOcupado> ocupados, Map<String, String> publicados,
+                                Map<Long, DeltaPasta> deltas) {
+        Map<String, BlobArquivo> blobs = registrarBlobs(selecionados, publicados);
+        conferirConteudos(selecionados, blobs, publicados);
+
+        List<ItemRecebido> novos = new ArrayList<>();
+        List<ItemRecebido> substituidos = new ArrayList<>();
+        for (ItemRecebido item : selecionados) {
+            String chaveNome = arquivoService.chaveDeNome(idDaPasta(importacao, item), item.nome());
+            (ocupados.containsKey(chaveNome) ? substituidos : novos).add(item);
+        }
+        inserirArquivos(importacao, novos, blobs);
+        substituirArquivos(importacao, substituidos, ocupados, blobs);
+        for (ItemRecebido item : selecionados) {
+            deltas.computeIfAbsent(idDaPasta(importacao, item), id -> new DeltaPasta()).bytes
+                    += usoAdicional(importacao, item, ocupados);
+        }
+        for (ItemRecebido item : novos) {
+            deltas.computeIfAbsent(idDaPasta(importacao, item), id -> new DeltaPasta()).arquivos++;
+        }
+    }
+
+    /**
+     * Aplica os deltas do lote aos agregados das pastas e dos ancestrais (um batch de UPDATE), depois da cota:
+     * a mesma ordem de bloqueio do upload de um arquivo só.
+     */
+    private void ajustarAgregados(Map<Long, DeltaPasta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Timestamp agora = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> linhas = new ArrayList<>(deltas.size());
+        deltas.forEach((pastaId, delta) -> linhas.add(new Object[]{delta.arquivos, delta.arquivos, delta.bytes,
+                delta.subpastas, agora, pastaId}));
+        jdbcTemplate.batchUpdate(SQL_AJUSTAR_AGREGADOS, linhas);
+    }
+
+    /**
+     * Resolve o ID de cada pasta do lote (e das intermediárias), nível a nível: uma consulta pelas
+     * subpastas existentes e um batch de INSERT com as que faltam. Subpastas criadas herdam o setor da pai.
+     * @param deltas Recebe, por pasta pai, as subpastas criadas.
+     */
+    private void garantirPastas(Importacao importacao, Set<String> caminhos, Map<Long, DeltaPasta> deltas) {
+        TreeMap<Integer, Set<String>> porNivel = new TreeMap<>();
+        for (String caminho : caminhos) {
+            String atual = "";
+            for (String parte : partes(caminho)) {
+                atual = atual.isEmpty() ? parte : atual + "/" + parte;
+                if (!importacao.pastas.containsKey(chave(atual))) {
+                    porNivel.computeIfAbsent(atual.split("/").length, nivel -> new LinkedHashSet<>()).add(atual);
+                }
+            }
+        }
+
+        LocalDateTime agora = LocalDateTime.now();
+        for (Set<String> nivel : porNivel.values()) {
+            Map<String, String> pendentes = new LinkedHashMap<>();
+            nivel.forEach(caminho -> pendentes.putIfAbsent(chave(caminho), caminho));
+            Set<Long> pais = new LinkedHashSet<>();
+            for (String caminho : pendentes.values()) {
+                PastaDestino destinoPai = importacao.pastas.get(chave(pai(caminho)));
+                if (destinoPai.gravavel()) {
+                    pais.add(destinoPai.id());
+                }
+            }
+
+            // Subpastas que já existem com o mesmo nome são reaproveitadas
+            Map<String, Pasta> existentes = new HashMap<>();
+            if (!pais.isEmpty()) {
+                for (Pasta subpasta : pastaRepository.findByPastaPaiIdIn(pais)) {
+                    existentes.putIfAbsent(subpasta.getPastaPai().getId() + "/" + subpasta.getNomePasta().toLowerCase(Locale.ROOT), subpasta);
+                }
+            }
+
+            List<String> novas = new ArrayList<>();
+            List<Object[]> linhas = new ArrayList<>();
+            for (String caminho : pendentes.values()) {
+                PastaDestino destinoPai = importacao.pastas.get(chave(pai(caminho)));
+                if (!destinoPai.gravavel()) {
+                    // Nada é criado dentro de uma pasta sem permissão de escrita; os arquivos dela são recusados
+                    importacao.pastas.put(chave(caminho), new PastaDestino(null, null, null, null, false));
+                    continue;
+                }
+                String nome = nome(caminho);
+                Pasta existente = existentes.get(destinoPai.id() + "/" + nome.toLowerCase(Locale.ROOT));
+                if (existente != null) {
+                    // Uma subpasta com setor próprio responde pela própria cota, não pela da raiz da importação
+                    Long setorProprio = existente.getSetor() != null ? existente.getSetor().getId() : null;
+                    importacao.pastas.put(chave(caminho), new PastaDestino(existente.getId(), existente.getCaminhoCompleto(),
+                            setorProprio, setorProprio != null ? setorProprio : destinoPai.setorCota(),
+                            arquivoService.podeEscrever(importacao.usuario, existente)));
+                    continue;
+                }
+                String caminhoCompleto = destinoPai.caminhoCompleto().replaceAll("/+$", "") + "/" + nome;
+                novas.add(caminho);
+                linhas.add(new Object[]{nome, caminhoCompleto, Timestamp.valueOf(agora), destinoPai.setorId(), destinoPai.id()});
+            }
+
+            List<Long> ids = inserirComChaves(SQL_INSERIR_PASTA, linhas);
+            List<Object[]> fechamento = new ArrayList<>(ids.size());
+            for (int i = 0; i < novas.size(); i++) {
+                String caminho = novas.get(i);
+                PastaDestino destinoPai = importacao.pastas.get(chave(pai(caminho)));
+                importacao.pastas.put(chave(caminho), new PastaDestino(ids.get(i), (String) linhas.get(i)[1],
+                        destinoPai.setorId(), destinoPai.setorCota(), true));
+                fechamento.add(new Object[]{ids.get(i), ids.get(i), ids.get(i), destinoPai.id()});
+                deltas.computeIfAbsent(destinoPai.id(), id -> new DeltaPasta()).subpastas++;
+            }
+            // Os pais são de níveis anteriores (ou já existiam), então já estão no fechamento
+            jdbcTemplate.batchUpdate(SQL_REGISTRAR_FECHAMENTO, fechamento);
+            importacao.pastasCriadas += novas.size();
+        }
+    }
+
+    /**
+     * Aplica a política de conflito de nomes do ArquivoService ao lote, contra os arquivos que já existem
+     * (uma consulta) e entre os próprios arquivos do lote. Os recusados recebem o resultado aqui.
+     * @param ocupados Preenchido com os arquivos existentes que serão substituídos (política NOVA_VERSAO), por nome.
+     * @return Os arquivos que serão gravados, já com o nome final.
+     */
+    private List<ItemRecebido> resolverConflitos(Importacao importacao, List<ItemRecebido> itens,
+                                                 Map<String, ArquivoRepository.NomeOcupado> ocupados) {
+        Set<Long> pastaIds = new LinkedHashSet<>();
+        Set<String> nomes = new LinkedHashSet<>();
+        itens.forEach(item -> {
+            pastaIds.add(idDaPasta(importacao, item));
+            nomes.add(item.nome());
+        });
+        Map<String, ArquivoRepository.NomeOcupado> existentes = new HashMap<>();
+        for (ArquivoRepository.NomeOcupado existente : arquivoRepository.buscarPorPastasENomes(pastaIds, nomes)) {
+            existentes.putIfAbsent(arquivoService.chaveDeNome(existente.getPastaId(), existente.getNomeArquivo()), existente);
+        }
+
+        ArquivoService.PoliticaConflito politica = arquivoService.getPoliticaConflito();
+        Map<String, ItemRecebido> selecionados = new LinkedHashMap<>();
+        Map<Long, Set<String>> reservados = new HashMap<>();
+        for (ItemRecebido item : itens) {
+            Long pastaId = idDaPasta(importacao, item);
+            String chaveNome = arquivoService.chaveDeNome(pastaId, item.nome());
+            Set<String> reservadosDaPasta = reservados.computeIfAbsent(pastaId, id -> new HashSet<>());
+            boolean existe = existentes.containsKey(chaveNome);
+            boolean repetido = selecionados.containsKey(chaveNome);
+            if (!existe && !repetido) {
+                selecionados.put(chaveNome, item);
+                reservadosDaPasta.add(item.nome().toLowerCase(Locale.ROOT));
+                continue;
+            }
+            switch (politica) {
+                case REJEITAR -> importacao.itens.set(item.indice(), new ResultadoItem(caminho(item), null,
+                        "Já existe um arquivo com este nome nesta pasta."));
+                case RENOMEAR -> {
+                    String nome = arquivoService.nomeLivre(pastaId, item.nome(), reservadosDaPasta);
+                    reservadosDaPasta.add(nome.toLowerCase(Locale.ROOT));
+                    selecionados.put(arquivoService.chaveDeNome(pastaId, nome),
+                            new ItemRecebido(item.indice(), item.pasta(), nome, item.recebido()));
+                }
+                case NOVA_VERSAO -> {
+                    // O último arquivo do lote com o nome é a versão que fica
+                    ItemRecebido anterior = selecionados.remove(chaveNome);
+                    if (anterior != null) {
+                        importacao.itens.set(anterior.indice(), new ResultadoItem(caminho(anterior), null,
+                                "Substituído por outro arquivo com o mesmo nome neste envio."));
+                    }
+                    if (existe) {
+                        ocupados.put(chaveNome, existentes.get(chaveNome));
+                    }
+                    selecionados.put(chaveNome, item);
+                }
+            }
+        }
+        return new ArrayList<>(selecionados.values());
+    }
+
+    /**
+     * Reserva a cota de cada item, na ordem de envio, antes de qualquer conteúdo ser publicado: uma transação
+     * própria, já confirmada na volta, para cada setor que responde pelas pastas de destino (em ordem de ID).
+     * Como os conflitos ainda não foram resolvidos sob lock, cada item reserva o máximo que pode ocupar (o tamanho
+     * inteiro e um arquivo novo); o que sobrar depois da resolução volta em {@link #liberarExcedente}.
+     * Os que não cabem são recusados aqui, um a um; os demais seguem.
+     * @return Os itens com o espaço reservado.
+     */
+    private List<ItemRecebido> reservarCota(Importacao importacao, List<ItemRecebido> itens) {
+        Map<Long, List<ItemRecebido>> porSetor = porSetor(importacao, itens);
+        Set<ItemRecebido> recusados = new HashSet<>();
+        List<ItemRecebido> reservados = new ArrayList<>();
+        try {
+            for (Map.Entry<Long, List<ItemRecebido>> grupo : porSetor.entrySet()) {
+                List<ItemRecebido> doSetor = grupo.getValue();
+                boolean[] reservadas = cotaSetorService.reservarCada(grupo.getKey(), doSetor.stream()
+                        .map(item -> new CotaSetorService.Reserva(item.recebido().tamanho(), 1))
+                        .toList());
+                for (int i = 0; i < doSetor.size(); i++) {
+                    (reservadas[i] ? reservados : recusados).add(doSetor.get(i));
+                }
+            }
+        } catch (RuntimeException e) {
+            estornarCota(importacao, reservados);
+            throw e;
+        }
+
+        List<ItemRecebido> aceitos = new ArrayList<>();
+        for (ItemRecebido item : itens) {
+            if (recusados.contains(item)) {
+                importacao.itens.set(item.indice(), new ResultadoItem(caminho(item), null,
+                        "Cota de armazenamento do setor excedida."));
+            } else {
+                aceitos.add(item);
+            }
+        }
+        return aceitos;
+    }
+
+    /**
+     * Devolve, na transação dos arquivos, o que foi reservado além do uso final: tudo de um item recusado na
+     * resolução sob lock, a versão anterior de uma substituição e o arquivo que ela não cria.
+     * @param reservados Itens com a cota reservada por {@link #reservarCota}.
+     * @param selecionados Os que serão gravados, com o nome final.
+     */
+    private void liberarExcedente(Importacao importacao, List<ItemRecebido> reservados, List<ItemRecebido> selecionados,
+                                  Map<String, ArquivoRepository.NomeOcupado> ocupados) {
+        Map<Integer, ItemRecebido> finais = new HashMap<>();
+        selecionados.forEach(item -> finais.put(item.indice(), item));
+        for (Map.Entry<Long, List<ItemRecebido>> grupo : porSetor(importacao, reservados).entrySet()) {
+            long bytes = 0;
+            long arquivos = 0;
+            for (ItemRecebido item : grupo.getValue()) {
+                ItemRecebido escolhido = finais.get(item.indice());
+                bytes += item.recebido().tamanho() - (escolhido != null ? usoAdicional(importacao, escolhido, ocupados) : 0);
+                arquivos += escolhido != null && !substitui(importacao, escolhido, ocupados) ? 0 : 1;
+            }
+            cotaSetorService.liberar(grupo.getKey(), bytes, arquivos);
+        }
+    }
+
+    /**
+     * Devolve toda a cota reservada por {@link #reservarCota} para itens que não chegaram a ser gravados (falha
+     * na publicação ou na transação), a cada setor o que foi reservado nele.
+     */
+    private void estornarCota(Importacao importacao, List<ItemRecebido> itens) {
+        for (Map.Entry<Long, List<ItemRecebido>> grupo : porSetor(importacao, itens).entrySet()) {
+            long bytes = grupo.getValue().stream().mapToLong(item -> item.recebido().tamanho()).sum();
+            try {
+                cotaSetorService.estornar(grupo.getKey(), bytes, grupo.getValue().size());
+            } catch (RuntimeException e) {
+                // O erro original do lote é o que interessa; a diferença é corrigida pelo recálculo das cotas
+                logger.error("Não foi possível estornar a cota do setor {} ({} bytes)", grupo.getKey(), bytes, e);
+            }
+        }
+    }
+
+    /**
+     * Itens agrupados pelo setor que responde pela pasta de destino, em ordem de ID do setor (a mesma ordem de
+     * bloqueio das transferências entre setores). Os itens de pastas sem setor ficam fora: não têm cota.
+     */
+    private static Map<Long, List<ItemRecebido>> porSetor(Importacao importacao, List<ItemRecebido> itens) {
+        Map<Long, List<ItemRecebido>> porSetor = new TreeMap<>();
+        for (ItemRecebido item : itens) {
+            Long setorId = importacao.pastas.get(chave(item.pasta())).setorCota();
+            if (setorId != null) {
+                porSetor.computeIfAbsent(setorId, id -> new ArrayList<>()).add(item);
+            }
+        }
+        return porSetor;
+    }
+
+    private boolean substitui(Importacao importacao, ItemRecebido item, Map<String, ArquivoRepository.NomeOcupado> ocupados) {
+        return ocupados.containsKey(arquivoService.chaveDeNome(idDaPasta(importacao, item), item.nome()));
+    }
+
+    /**
+     * Quanto o item soma ao uso do setor: o tamanho, ou a diferença para a versão que ele substitui.
+     */
+    private long usoAdicional(Importacao importacao, ItemRecebido item, Map<String, ArquivoRepository.NomeOcupado> ocupados) {
+        ArquivoRepository.NomeOcupado anterior = ocupados.get(arquivoService.chaveDeNome(idDaPasta(importacao, item), item.nome()));
+        long tamanhoAnterior = anterior != null && anterior.getTamanhoBytes() != null ? anterior.getTamanhoBytes() : 0;
+        return item.recebido().tamanho() - tamanhoAnterior;
+    }
+
+    /**
+     * Aponta os arquivos existentes para o novo conteúdo (um batch de UPDATE) e libera o conteúdo anterior.
+     */
+    private void substituirArquivos(Importacao importacao, List<ItemRecebido> itens,
+                                    Map<String, ArquivoRepository.NomeOcupado> ocupados, Map<String, BlobArquivo> blobs) {
+        if (itens.isEmpty()) {
+            return;
+        }
+        LocalDateTime agora = LocalDateTime.now();
+        List<Object[]> linhas = new ArrayList<>();
+        List<ArquivoRepository.NomeOcupado> anteriores = new ArrayList<>();
+        for (ItemRecebido item : itens) {
+            BlobArquivo blob = blobs.get(item.recebido().sha256());
+            ArquivoRepository.NomeOcupado anterior = ocupados.get(arquivoService.chaveDeNome(idDaPasta(importacao, item), item.nome()));
+            anteriores.add(anterior);
+            linhas.add(new Object[]{blob.getCaminhoArmazenamento(), blob.getTamanhoBytes(), blob.getHashSha256(),
+                    Timestamp.valueOf(agora), importacao.usuario.getId(), anterior.getId()});
+        }
+        jdbcTemplate.batchUpdate(SQL_SUBSTITUIR_ARQUIVO, linhas);
+
+        for (int i = 0; i < itens.size(); i++) {
+            ItemRecebido item = itens.get(i);
+            ArquivoRepository.NomeOcupado anterior = anteriores.get(i);
+            try {
+                arquivoService.liberarConteudoAnterior(anterior.getHashSha256(), anterior.getCaminhoArmazenamento(),
+                        blobArquivoService.armazenadoComoBlob(anterior.getHashSha256(), anterior.getCaminhoArmazenamento()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            BlobArquivo blob = blobs.get(item.recebido().sha256());
+            ArquivoDto arquivo = new ArquivoDto(anterior.getId(), anterior.getNomeArquivo(), blob.getTamanhoBytes(),
+                    blob.getHashSha256(), agora, anterior.getPastaId());
+            importacao.itens.set(item.indice(), new ResultadoItem(caminho(item), arquivo, null));
+        }
+        importacao.arquivosCriados += itens.size();
+    }
+
+    /**
+     * Registra uma referência por arquivo com um único batch, na chave em que o conteúdo foi publicado (ou na
+     * que o armazenamento escolher, para os que já existiam). As linhas são bloqueadas em ordem de hash,
+     * para que dois lotes simultâneos com conteúdos em comum não entrem em deadlock.
+     */
+    private Map<String, BlobArquivo> registrarBlobs(List<ItemRecebido> itens, Map<String, String> publicados) {
+        List<Object[]> linhas = itens.stream()
+                .map(ItemRecebido::recebido)
+                .sorted(Comparator.comparing(BlobArquivoService.ConteudoRecebido::sha256))
+                .map(recebido -> new Object[]{recebido.sha256(),
+                        publicados.containsKey(recebido.sha256()) ? publicados.get(recebido.sha256())
+                                : armazenamento.alocar(blobArquivoService.chaveDoBlob(recebido.sha256()),
+                                recebido.tamanho(), recebido.temporario()),
+                        recebido.tamanho(), recebido.crc32(), recebido.arvore().raiz(), recebido.arvore().folhas()})
+                .toList();
+        jdbcTemplate.batchUpdate(SQL_REGISTRAR_BLOB, linhas);
+
+        Map<String, BlobArquivo> blobs = new HashMap<>();
+        blobArquivoRepository.findAllById(porHash(itens).keySet()).forEach(blob -> blobs.put(blob.getHashSha256(), blob));
+        return blobs;
+    }
+
+    /**
+     * Publica no armazenamento, em paralelo e fora de qualquer transação, o conteúdo de cada hash do lote que
+     * ainda não está armazenado (um temporário por hash; os repetidos são descartados depois). Os blobs
+     * existentes são lidos sem bloqueio: a transação dos arquivos confere o resultado em {@link #conferirConteudos}.
+     * @return A chave gravada para cada hash publicado por este lote.
+     */
+    private Map<String, String> publicar(List<ItemRecebido> itens) {
+        Map<String, ItemRecebido> porHash = porHash(itens);
+        Map<String, BlobArquivo> existentes = new HashMap<>();
+        blobArquivoRepository.findAllById(porHash.keySet()).forEach(blob -> existentes.put(blob.getHashSha256(), blob));
+
+        Map<String, Future<String>> envios = new LinkedHashMap<>();
+        try {
+            for (ItemRecebido item : porHash.values()) {
+                BlobArquivo existente = existentes.get(item.recebido().sha256());
+                envios.put(item.recebido().sha256(),
+                        executor.submit(() -> blobArquivoService.publicar(item.recebido(), existente)));
+            }
+            Map<String, String> publicados = new HashMap<>();
+            for (Map.Entry<String, Future<String>> envio : envios.entrySet()) {
+                String chave = envio.getValue().get();
+                if (chave != null) {
+                    publicados.put(envio.getKey(), chave);
+                }
+            }
+            return publicados;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Upload interrompido.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException erro) {
+                throw new UncheckedIOException(erro);
+            }
+            throw new IllegalStateException("Falha ao armazenar o conteúdo.", e.getCause());
+        } finally {
+            envios.values().forEach(envio -> envio.cancel(true));
+        }
+    }
+
+    /**
+     * Confere, com as linhas dos blobs já bloqueadas, que o conteúdo de cada hash está armazenado. Só os blobs
+     * que não foram publicados por este lote são verificados (um conteúdo pode ter sido removido desde a leitura).
+     */
+    private void conferirConteudos(List<ItemRecebido> itens, Map<String, BlobArquivo> blobs, Map<String, String> publicados) {
+        try {
+            for (ItemRecebido item : porHash(itens).values()) {
+                String hash = item.recebido().sha256();
+                blobArquivoService.garantirConteudo(blobs.get(hash), item.recebido(), publicados.get(hash));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, ItemRecebido> porHash(List<ItemRecebido> itens) {
+        Map<String, ItemRecebido> porHash = new LinkedHashMap<>();
+        itens.forEach(item -> porHash.putIfAbsent(item.recebido().sha256(), item));
+        return porHash;
+    }
+
+    private void inserirArquivos(Importacao importacao, List<ItemRecebido> itens, Map<String, BlobArquivo> blobs) {
+        LocalDateTime agora = LocalDateTime.now();
+        List<Object[]> linhas = new ArrayList<>();
+        for (ItemRecebido item : itens) {
+            BlobArquivo blob = blobs.get(item.recebido().sha256());
+            linhas.add(new Object[]{item.nome(), blob.getCaminhoArmazenamento(), blob.getTamanhoBytes(),
+                    blob.getHashSha256(), Timestamp.valueOf(agora), importacao.pastas.get(chave(item.pasta())).id(),
+                    importacao.usuario.getId()});
+        }
+        List<Long> ids = inserirComChaves(SQL_INSERIR_ARQUIVO, linhas);
+        for (int i = 0; i < itens.size(); i++) {
+            ItemRecebido item = itens.get(i);
+            BlobArquivo blob = blobs.get(item.recebido().sha256());
+            ArquivoDto arquivo = new ArquivoDto(ids.get(i), item.nome(), blob.getTamanhoBytes(), blob.getHashSha256(),
+                    agora, importacao.pastas.get(chave(item.pasta())).id());
+            importacao.itens.set(item.indice(), new ResultadoItem(caminho(item), arquivo, null));
+        }
+        importacao.arquivosCriados += itens.size();
+    }
+
+    /**
+     * Executa os INSERTs em um único batch JDBC e devolve os IDs gerados, na ordem das linhas.
+     */
+    private List<Long> inserirComChaves(String sql, List<Object[]> linhas) {
+        if (linhas.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) conexao -> {
+            try (PreparedStatement comando = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (Object[] linha : linhas) {
+                    for (int i = 0; i < linha.length; i++) {
+                        comando.setObject(i + 1, linha[i]);
+                    }
+                    comando.addBatch();
+                }
+                comando.executeBatch();
+                List<Long> ids = new ArrayList<>(linhas.size());
+                try (ResultSet chaves = comando.getGeneratedKeys()) {
+                    while (chaves.next()) {
+                        ids.add(chaves.getLong(1));
+                    }
+                }
+                if (ids.size() != linhas.size()) {
+                    throw new IllegalStateException("O banco devolveu " + ids.size() + " IDs para " + linhas.size() + " linhas.");
+                }
+                return ids;
+            }
+        });
+    }
+
+    private static boolean ehPdf(String contentType) {
+        try {
+            return contentType != null && MediaType.APPLICATION_PDF.isCompatibleWith(MediaType.parseMediaType(contentType));
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Entradas de metadados de outros sistemas (ex.: "__MACOSX/", ".DS_Store") são puladas sem aviso.
+     */
+    private static boolean ignorar(String nomeEntrada) {
+        return nomeEntrada.startsWith("__MACOSX/") || nomeEntrada.endsWith("/.DS_Store")
+                || nomeEntrada.equals(".DS_Store") || nomeEntrada.endsWith("Thumbs.db");
+    }
+
+    /**
+     * Partes de um caminho relativo do ZIP, ou null se ele tentar sair da pasta (absoluto ou com "..").
+     */
+    private static List<String> partes(String caminho) {
+        if (caminho.startsWith("/") || caminho.matches("^[A-Za-z]:.*")) {
+            return null;
+        }
+        List<String> partes = new ArrayList<>();
+        for (String parte : caminho.split("/")) {
+            String limpa = parte.strip();
+            if (limpa.isEmpty() || limpa.equals(".")) {
+                continue;
+            }
+            if (limpa.equals("..")) {
+                return null;
+            }
+            partes.add(limpa);
+        }
+        return partes;
+    }
+
+    private static Long idDaPasta(Importacao importacao, ItemRecebido item) {
+        return importacao.pastas.get(chave(item.pasta())).id();
+    }
+
+    private static String chave(String caminho) {
+        return caminho.toLowerCase(Locale.ROOT);
+    }
+
+    private static String pai(String caminho) {
+        int barra = caminho.lastIndexOf('/');
+        return barra < 0 ? "" : caminho.substring(0, barra);
+    }
+
+    private static String nome(String caminho) {
+        return caminho.substring(caminho.lastIndexOf('/') + 1);
+    }
+
+    private static String caminho(ItemRecebido item) {
+        return item.pasta().isEmpty() ? item.nome() : item.pasta() + "/" + item.nome();
+    }
+
+    /**
+     * Limita a quantidade total de bytes expandidos do ZIP (proteção contra "ZIP bombs").
+     * O stream devolvido não fecha o original.
+     */
+    private static InputStream limitar(InputStream origem, long maxBytes) {
+        return new FilterInputStream(origem) {
+            private long total;
+
+            @Override
+            public int read() throws IOException {
+                int lido = super.read();
+                if (lido != -1) {
+                    contar(1);
+                }
+                return lido;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int lidos = super.read(b, off, len);
+                if (lidos > 0) {
+                    contar(lidos);
+                }
+                return lidos;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            private void contar(int bytes) {
+                total += bytes;
+                if (total > maxBytes) {
+                    throw new IllegalArgumentException("O conteúdo do ZIP excede o limite de " + maxBytes + " bytes.");
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,526 @@
+package br.com.carro.services;
+
+import br.com.carro.armazenamento.Armazenamento;
+import br.com.carro.armazenamento.ArmazenamentoFrio;
+import br.com.carro.entities.BlobArquivo;
+import br.com.carro.entities.CamadaArmazenamento;
+import br.com.carro.repositories.ArquivoRepository;
+import br.com.carro.repositories.BlobArquivoRepository;
+import br.com.carro.utilitarios.HashEmArvore;
+import br.com.carro.utilitarios.LimitadorTaxa;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Verificação de integridade entre o armazenamento e o banco, em segundo plano.
+ * Uma passagem tem três fases, cada uma percorrida por keyset: os blobs (existência, tamanho e SHA-256
+ * recalculado ou, para blobs locais com hash em árvore, os blocos de 4 MiB conferidos em paralelo), os arquivos fora do layout de blobs (existência, tamanho e hash, quando houver) e as chaves
+ * do armazenamento (órfãos, sem nenhuma linha que as referencie). Cada execução agendada trabalha por um
+ * tempo limitado e continua de onde a anterior parou; leituras e consultas ao armazenamento passam por
+ * limitadores de taxa, para não competir com os downloads.
+ * Sem "armazenamento.verificacao.reparar" os problemas são apenas registrados. Com ele, órfãos antigos
+ * vão para ".quarentena/" (nunca são apagados), um blob cujo conteúdo sumiu é recomposto a partir da
+ * camada fria ou de uma cópia órfã com o mesmo hash, e um arquivo antigo sem conteúdo passa a apontar
+ * para o blob de mesmo hash, se existir.
+ */
+@Service
+public class VerificacaoIntegridadeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerificacaoIntegridadeService.class);
+
+    private static final int TAMANHO_PAGINA = 500;
+    private static final int MAXIMO_OCORRENCIAS = 200;
+    private static final String PREFIXO_QUARENTENA = ".quarentena/";
+
+    public enum Fase { BLOBS, ARQUIVOS, ARMAZENAMENTO }
+
+    /**
+     * Um problema encontrado (e se foi reparado).
+     */
+    public record Ocorrencia(LocalDateTime momento, String tipo, String chave, String detalhe, boolean reparado) {}
+
+    /**
+     * Situação da passagem atual e contadores desde o seu início.
+     */
+    public record RelatorioVerificacao(
+            boolean emExecucao,
+            boolean reparar,
+            Fase fase,
+            LocalDateTime inicioPassagem,
+            LocalDateTime fimUltimaPassagem,
+            long blobsVerificados,
+            long arquivosVerificados,
+            long chavesVerificadas,
+            long bytesLidos,
+            long ausentes,
+            long divergentes,
+            long orfaos,
+            long reparados,
+            long falhas,
+            List<Ocorrencia> ocorrencias
+    ) {}
+
+    private final BlobArquivoRepository blobArquivoRepository;
+    private final ArquivoRepository arquivoRepository;
+    private final BlobArquivoService blobArquivoService;
+    private final Armazenamento armazenamento;
+    private final ArmazenamentoFrio armazenamentoFrio;
+    private final TransactionTemplate transactionTemplate;
+    private final LimitadorTaxa limitadorBytes;
+    private final LimitadorTaxa limitadorOperacoes;
+
+    @Value("${armazenamento.verificacao.habilitada:false}")
+    private boolean habilitada;
+
+    @Value("${armazenamento.verificacao.reparar:false}")
+    private boolean reparar;
+
+    @Value("${armazenamento.verificacao.duracao-maxima-ms:300000}")
+    private long duracaoMaximaMs;
+
+    @Value("${armazenamento.verificacao.idade-minima-orfao-horas:24}")
+    private long idadeMinimaOrfaoHoras;
+
+    private final AtomicBoolean emExecucao = new AtomicBoolean(false);
+
+    // Posição da passagem atual; só é alterada pela thread que detém emExecucao
+    private volatile Fase fase = Fase.BLOBS;
+    private String ultimoHash = "";
+    private long ultimoId = 0;
+    private String ultimaChave = "";
+
+    private volatile LocalDateTime inicioPassagem;
+    private volatile LocalDateTime fimUltimaPassagem;
+    private final AtomicLong blobsVerificados = new AtomicLong();
+    private final AtomicLong arquivosVerificados = new AtomicLong();
+    private final AtomicLong chavesVerificadas = new AtomicLong();
+    private final AtomicLong bytesLidos = new AtomicLong();
+    private final AtomicLong ausentes = new AtomicLong();
+    private final AtomicLong divergentes = new AtomicLong();
+    private final AtomicLong orfaos = new AtomicLong();
+    private final AtomicLong reparados = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final Deque<Ocorrencia> ocorrencias = new ArrayDeque<>();
+
+    public VerificacaoIntegridadeService(BlobArquivoRepository blobArquivoRepository, ArquivoRepository arquivoRepository,
+                                         BlobArquivoService blobArquivoService, Armazenamento armazenamento,
+                                         ArmazenamentoFrio armazenamentoFrio, PlatformTransactionManager transactionManager,
+                                         @Value("${armazenamento.verificacao.bytes-por-segundo:10485760}") long bytesPorSegundo,
+                                         @Value("${armazenamento.verificacao.operacoes-por-segundo:200}") long operacoesPorSegundo) {
+        this.blobArquivoRepository = blobArquivoRepository;
+        this.arquivoRepository = arquivoRepository;
+        this.blobArquivoService = blobArquivoService;
+        this.armazenamento = armazenamento;
+        this.armazenamentoFrio = armazenamentoFrio;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.limitadorBytes = new LimitadorTaxa(bytesPorSegundo, bytesPorSegundo);
+        this.limitadorOperacoes = new LimitadorTaxa(operacoesPorSegundo, operacoesPorSegundo);
+    }
+
+    /**
+     * Execução agendada: avança a passagem por no máximo "armazenamento.verificacao.duracao-maxima-ms".
+     */
+    @Scheduled(fixedDelayString = "${armazenamento.verificacao.intervalo-ms:900000}",
+            initialDelayString = "${armazenamento.verificacao.intervalo-ms:900000}")
+    public void executarAgendado() {
+        if (habilitada) {
+            executar(System.nanoTime() + duracaoMaximaMs * 1_000_000);
+        }
+    }
+
+    /**
+     * Continua a passagem atual até o fim em segundo plano, sem limite de duração.
+     * @return false se já houver uma verificação em andamento.
+     */
+    public boolean iniciar() {
+        if (emExecucao.get()) {
+            return false;
+        }
+        Thread thread = new Thread(() -> executar(Long.MAX_VALUE), "verificacao-integridade");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    public RelatorioVerificacao relatorio() {
+        List<Ocorrencia> recentes;
+        synchronized (ocorrencias) {
+            recentes = new ArrayList<>(ocorrencias);
+        }
+        return new RelatorioVerificacao(emExecucao.get(), reparar, fase, inicioPassagem, fimUltimaPassagem,
+                blobsVerificados.get(), arquivosVerificados.get(), chavesVerificadas.get(), bytesLidos.get(),
+                ausentes.get(), divergentes.get(), orfaos.get(), reparados.get(), falhas.get(), recentes);
+    }
+
+    private void executar(long prazoNanos) {
+        if (!emExecucao.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (inicioPassagem == null) {
+                novaPassagem();
+            }
+            boolean concluida = false;
+            while (!concluida && System.nanoTime() - prazoNanos < 0 && !Thread.currentThread().isInterrupted()) {
+                concluida = switch (fase) {
+                    case BLOBS -> verificarPaginaDeBlobs();
+                    case ARQUIVOS -> verificarPaginaDeArquivos();
+                    case ARMAZENAMENTO -> verificarPaginaDoArmazenamento();
+                };
+            }
+            if (concluida) {
+                fimUltimaPassagem = LocalDateTime.now();
+                logger.info("Verificação de integridade concluída: {}", relatorio());
+                inicioPassagem = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Verificação de integridade interrompida por erro; continua na próxima execução", e);
+        } finally {
+            emExecucao.set(false);
+        }
+    }
+
+    private void novaPassagem() {
+        fase = Fase.BLOBS;
+        ultimoHash = "";
+        ultimoId = 0;
+        ultimaChave = "";
+        inicioPassagem = LocalDateTime.now();
+        blobsVerificados.set(0);
+        arquivosVerificados.set(0);
+        chavesVerificadas.set(0);
+        bytesLidos.set(0);
+        ausentes.set(0);
+        divergentes.set(0);
+        orfaos.set(0);
+        reparados.set(0);
+        falhas.set(0);
+    }
+
+    /**
+     * @return true quando a passagem terminou (após a última fase).
+     */
+    private boolean verificarPaginaDeBlobs() throws InterruptedException {
+        List<BlobArquivo> pagina = blobArquivoRepository.findTop500ByHashSha256GreaterThanOrderByHashSha256Asc(ultimoHash);
+        for (BlobArquivo blob : pagina) {
+            limitadorOperacoes.adquirir(1);
+            try {
+                verificarBlob(blob);
+            } catch (IOException | RuntimeException e) {
+                falha(blob.getCaminhoArmazenamento(), e);
+            }
+            blobsVerificados.incrementAndGet();
+            ultimoHash = blob.getHashSha256();
+        }
+        if (pagina.size() < TAMANHO_PAGINA) {
+            fase = Fase.ARQUIVOS;
+        }
+        return false;
+    }
+
+    private void verificarBlob(BlobArquivo blob) throws IOException {
+        String chave = blob.getCaminhoArmazenamento();
+        if (blob.getCamada() == CamadaArmazenamento.FRIA) {
+            // O conteúdo arquivado só é conferido quanto à existência (ler a camada fria é caro)
+            if (!armazenamentoFrio.existe(armazenamento.chaveLogica(chave))) {
+                ausentes.incrementAndGet();
+                registrar("BLOB_AUSENTE", chave, "Blob " + blob.getHashSha256() + " sem cópia na camada fria", false);
+            }
+            return;
+        }
+
+        Optional<Armazenamento.Metadados> metadados = armazenamento.consultar(chave);
+        if (metadados.isEmpty()) {
+            ausentes.incrementAndGet();
+            boolean recomposto = reparar && recomporDaCamadaFria(blob);
+            registrar("BLOB_AUSENTE", chave, "Blob " + blob.getHashSha256() + " sem conteúdo no armazenamento", recomposto);
+            return;
+        }
+        if (metadados.get().tamanho() != blob.getTamanhoBytes()) {
+            divergentes.incrementAndGet();
+            registrar("TAMANHO_DIVERGENTE", chave, "Esperado " + blob.getTamanhoBytes() + " bytes, encontrado "
+                    + metadados.get().tamanho(), false);
+            return;
+        }
+
+        Optional<Path> local = armazenamento.caminhoLocal(chave);
+        if (blob.getHashArvore() != null && blob.getHashesBlocos() != null && blob.getCrc32() != null && local.isPresent()) {
+            verificarArvore(blob, local.get());
+            return;
+        }
+
+        // Sem árvore (blob antigo ou fora do disco local): leitura sequencial, que também calcula a árvore que falta
+        Digestao digestao = digerir(chave);
+        if (!digestao.sha256().equals(blob.getHashSha256())) {
+            divergentes.incrementAndGet();
+            registrar("HASH_DIVERGENTE", chave, "SHA-256 recalculado " + digestao.sha256(), false);
+            return;
+        }
+        if (blob.getCrc32() == null) {
+            blobArquivoRepository.definirCrc32(blob.getHashSha256(), digestao.crc32());
+        }
+        if (blob.getHashArvore() == null) {
+            blobArquivoRepository.definirArvore(blob.getHashSha256(), digestao.arvore().raiz(), digestao.arvore().folhas());
+        } else if (!digestao.arvore().raiz().equals(blob.getHashArvore())) {
+            divergentes.incrementAndGet();
+            registrar("ARVORE_DIVERGENTE", chave, "SHA-256 confere, mas o hash em árvore gravado não", false);
+        }
+    }
+
+    /**
+     * Confere um blob local pelo hash em árvore: os blocos são digeridos em paralelo (ainda sob o limitador
+     * de bytes) e, se a raiz divergir, as folhas gravadas apontam quais blocos foram corrompidos.
+     */
+    private void verificarArvore(BlobArquivo blob, Path arquivo) throws IOException {
+        HashEmArvore.Resultado arvore = blobArquivoService.calcularArvore(arquivo, limitadorBytes);
+        bytesLidos.addAndGet(blob.getTamanhoBytes());
+        if (arvore.raiz().equals(blob.getHashArvore())) {
+            return;
+        }
+        divergentes.incrementAndGet();
+        List<Integer> blocos = HashEmArvore.blocosDivergentes(blob.getHashesBlocos(), arvore.folhas());
+        String lista = blocos.size() > 20
+                ? blocos.subList(0, 20) + " e mais " + (blocos.size() - 20)
+                : blocos.toString();
+        registrar("HASH_DIVERGENTE", blob.getCaminhoArmazenamento(), "Blocos divergentes (de "
+                + HashEmArvore.TAMANHO_BLOCO / (1024 * 1024) + " MiB): " + lista, false);
+    }
+
+    /**
+     * Copia de volta para o armazenamento principal um blob quente cujo conteúdo sumiu, se ainda houver
+     * uma cópia na camada fria (ex.: remoção manual após um arquivamento).
+     */
+    private boolean recomporDaCamadaFria(BlobArquivo blob) {
+        String chaveFria = armazenamento.chaveLogica(blob.getCaminhoArmazenamento());
+        if (!armazenamentoFrio.existe(chaveFria)) {
+            return false;
+        }
+        try (InputStream conteudo = limitadorBytes.limitar(armazenamentoFrio.ler(chaveFria))) {
+            armazenamento.gravar(blob.getCaminhoArmazenamento(), conteudo, blob.getTamanhoBytes());
+            reparados.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            falha(blob.getCaminhoArmazenamento(), e);
+            return false;
+        }
+    }
+
+    private boolean verificarPaginaDeArquivos() throws InterruptedException {
+        List<ArquivoRepository.LocalizacaoArquivo> pagina = arquivoRepository.findTop500ByIdGreaterThanOrderByIdAsc(ultimoId);
+        for (ArquivoRepository.LocalizacaoArquivo arquivo : pagina) {
+            String hash = arquivo.getHashSha256();
+            String chave = arquivo.getCaminhoArmazenamento();
+            // Arquivos de blobs já foram conferidos na fase anterior
+            if (!blobArquivoService.armazenadoComoBlob(hash, chave)) {
+                limitadorOperacoes.adquirir(1);
+                try {
+                    verificarArquivoLegado(arquivo);
+                } catch (IOException | RuntimeException e) {
+                    falha(chave, e);
+                }
+            }
+            arquivosVerificados.incrementAndGet();
+            ultimoId = arquivo.getId();
+        }
+        if (pagina.size() < TAMANHO_PAGINA) {
+            fase = Fase.ARMAZENAMENTO;
+        }
+        return false;
+    }
+
+    private void verificarArquivoLegado(ArquivoRepository.LocalizacaoArquivo arquivo) throws IOException {
+        String chave = arquivo.getCaminhoArmazenamento();
+        Optional<Armazenamento.Metadados> metadados;
+        try {
+            metadados = armazenamento.consultar(chave);
+        } catch (IllegalArgumentException e) {
+            // Caminho fora da raiz do armazenamento (cargas antigas com caminho absoluto)
+            metadados = Optional.empty();
+        }
+        if (metadados.isEmpty()) {
+            ausentes.incrementAndGet();
+            boolean reapontado = reparar && reapontarParaBlob(arquivo);
+            registrar("ARQUIVO_AUSENTE", chave, "Arquivo " + arquivo.getId() + " sem conteúdo no armazenamento", reapontado);
+            return;
+        }
+        if (arquivo.getTamanhoBytes() != null && metadados.get().tamanho() != arquivo.getTamanhoBytes()) {
+            divergentes.incrementAndGet();
+            registrar("TAMANHO_DIVERGENTE", chave, "Arquivo " + arquivo.getId() + ": esperado "
+                    + arquivo.getTamanhoBytes() + " bytes, encontrado " + metadados.get().tamanho(), false);
+            return;
+        }
+        if (arquivo.getHashSha256() != null) {
+            Digestao digestao = digerir(chave);
+            if (!digestao.sha256().equals(arquivo.getHashSha256())) {
+                divergentes.incrementAndGet();
+                registrar("HASH_DIVERGENTE", chave, "Arquivo " + arquivo.getId() + ": SHA-256 recalculado "
+                        + digestao.sha256(), false);
+            }
+        }
+    }
+
+    /**
+     * Um arquivo antigo sem conteúdo, mas com hash conhecido, passa a usar o blob de mesmo conteúdo.
+     */
+    private boolean reapontarParaBlob(ArquivoRepository.LocalizacaoArquivo arquivo) {
+        String hash = arquivo.getHashSha256();
+        if (hash == null) {
+            return false;
+        }
+        Boolean reapontado = transactionTemplate.execute(status -> {
+            BlobArquivo blob = blobArquivoRepository.findById(hash).orElse(null);
+            if (blob == null || blobArquivoRepository.incrementarReferencias(hash) == 0) {
+                return false;
+            }
+            arquivoRepository.atualizarArmazenamento(arquivo.getId(), blob.getCaminhoArmazenamento(), hash, blob.getTamanhoBytes());
+            return true;
+        });
+        if (Boolean.TRUE.equals(reapontado)) {
+            reparados.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean verificarPaginaDoArmazenamento() throws InterruptedException {
+        limitadorOperacoes.adquirir(1);
+        List<String> chaves;
+        try {
+            chaves = armazenamento.listar(ultimaChave, TAMANHO_PAGINA);
+        } catch (IOException e) {
+            falha(ultimaChave, e);
+            return false;
+        }
+        Set<String> referenciadas = new HashSet<>();
+        if (!chaves.isEmpty()) {
+            referenciadas.addAll(blobArquivoRepository.buscarCaminhos(chaves));
+            referenciadas.addAll(arquivoRepository.buscarCaminhos(chaves));
+        }
+        Instant limite = Instant.now().minus(idadeMinimaOrfaoHoras, ChronoUnit.HOURS);
+        for (String chave : chaves) {
+            if (!referenciadas.contains(chave)) {
+                limitadorOperacoes.adquirir(1);
+                try {
+                    verificarOrfao(chave, limite);
+                } catch (IOException | RuntimeException e) {
+                    falha(chave, e);
+                }
+            }
+            chavesVerificadas.incrementAndGet();
+            ultimaChave = chave;
+        }
+        return chaves.size() < TAMANHO_PAGINA;
+    }
+
+    /**
+     * Chave sem referência no banco. Conteúdos recentes são ignorados: podem ser uploads ainda não confirmados.
+     */
+    private void verificarOrfao(String chave, Instant limite) throws IOException {
+        Optional<Armazenamento.Metadados> metadados = armazenamento.consultar(chave);
+        if (metadados.isEmpty() || metadados.get().ultimaModificacao().isAfter(limite)) {
+            return;
+        }
+        orfaos.incrementAndGet();
+        if (!reparar) {
+            registrar("ORFAO", chave, metadados.get().tamanho() + " bytes sem referência no banco", false);
+            return;
+        }
+        if (restaurarBlob(chave)) {
+            registrar("ORFAO", chave, "Conteúdo de um blob ausente; movido para o caminho do blob", true);
+            return;
+        }
+        String logica = armazenamento.chaveLogica(chave);
+        String quarentena = chave.substring(0, chave.length() - logica.length()) + PREFIXO_QUARENTENA + logica;
+        armazenamento.mover(chave, quarentena);
+        reparados.incrementAndGet();
+        registrar("ORFAO", chave, "Movido para " + quarentena, true);
+    }
+
+    /**
+     * Um órfão no layout de blobs cujo blob está registrado, mas sem conteúdo no caminho gravado
+     * (ex.: movimentação interrompida entre volumes), volta a ser o conteúdo do blob.
+     */
+    private boolean restaurarBlob(String chave) throws IOException {
+        String logica = armazenamento.chaveLogica(chave);
+        String hash = logica.substring(logica.lastIndexOf('/') + 1);
+        if (!hash.matches("[0-9a-f]{64}") || !blobArquivoService.chaveDoBlob(hash).equals(logica)) {
+            return false;
+        }
+        BlobArquivo blob = blobArquivoRepository.findById(hash).orElse(null);
+        if (blob == null || blob.getCamada() == CamadaArmazenamento.FRIA || armazenamento.existe(blob.getCaminhoArmazenamento())) {
+            return false;
+        }
+        if (!digerir(chave).sha256().equals(hash)) {
+            return false;
+        }
+        armazenamento.mover(chave, blob.getCaminhoArmazenamento());
+        reparados.incrementAndGet();
+        return true;
+    }
+
+    private record Digestao(String sha256, long crc32, HashEmArvore.Resultado arvore) {}
+
+    private Digestao digerir(String chave) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 não disponível na JVM.", e);
+        }
+        CRC32 crc = new CRC32();
+        HashEmArvore.Construtor arvore = new HashEmArvore.Construtor();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream conteudo = limitadorBytes.limitar(armazenamento.ler(chave))) {
+            int lidos;
+            while ((lidos = conteudo.read(buffer)) != -1) {
+                digest.update(buffer, 0, lidos);
+                crc.update(buffer, 0, lidos);
+                arvore.atualizar(buffer, 0, lidos);
+                bytesLidos.addAndGet(lidos);
+            }
+        }
+        return new Digestao(HexFormat.of().formatHex(digest.digest()), crc.getValue(), arvore.concluir());
+    }
+
+    private void registrar(String tipo, String chave, String detalhe, boolean reparado) {
+        logger.warn("Integridade [{}] {}: {}{}", tipo, chave, detalhe, reparado ? " (reparado)" : "");
+        synchronized (ocorrencias) {
+            if (ocorrencias.size() == MAXIMO_OCORRENCIAS) {
+                ocorrencias.removeFirst();
+            }
+            ocorrencias.addLast(new Ocorrencia(LocalDateTime.now(), tipo, chave, detalhe, reparado));
+        }
+    }
+
+    private void falha(String chave, Exception e) {
+        falhas.incrementAndGet();
+        logger.error("Falha ao verificar {}", chave, e);
+    }
+}
@@ -0,0 +1,242 @@
+package br.com.carro.utilitarios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Hash em árvore (Merkle) de um conteúdo dividido em blocos fixos de {@link #TAMANHO_BLOCO} bytes.
+ * Cada folha é SHA-256(0x00 || bloco) e cada nó interno SHA-256(0x01 || esquerda || direita); um nó sem
+ * par sobe inalterado. Os prefixos distinguem folhas de nós (como no RFC 6962). Como os blocos são
+ * independentes, um arquivo local é digerido em paralelo, e comparar as folhas mostra exatamente quais
+ * blocos mudaram.
+ */
+public final class HashEmArvore {
+
+    public static final int TAMANHO_BLOCO = 4 * 1024 * 1024;
+
+    public static final int TAMANHO_HASH = 32;
+    private static final int TAMANHO_LEITURA = 64 * 1024;
+    private static final byte PREFIXO_FOLHA = 0x00;
+    private static final byte PREFIXO_NO = 0x01;
+
+    private HashEmArvore() {
+    }
+
+    /**
+     * Raiz da árvore (hexadecimal) e as folhas concatenadas (32 bytes por bloco, na ordem do conteúdo).
+     */
+    public record Resultado(String raiz, byte[] folhas) {
+        public int quantidadeBlocos() {
+            return folhas.length / TAMANHO_HASH;
+        }
+    }
+
+    /**
+     * Digere os blocos de um arquivo em paralelo, com leituras posicionais no mesmo canal.
+     * @param canal Canal aberto para leitura (não é fechado).
+     * @param tamanho Tamanho do conteúdo.
+     * @param executor Pool onde os blocos são digeridos.
+     * @param limitador Se informado, cada bloco consome permissões de bytes antes de ser lido.
+     * @throws IOException Se houver erro de leitura ou se o conteúdo for menor que o tamanho informado.
+     */
+    public static Resultado calcular(FileChannel canal, long tamanho, ExecutorService executor,
+                                     LimitadorTaxa limitador) throws IOException {
+        int blocos = quantidadeBlocos(tamanho);
+        List<Future<byte[]>> tarefas = new ArrayList<>(blocos);
+        try {
+            for (int i = 0; i < blocos; i++) {
+                long inicio = (long) i * TAMANHO_BLOCO;
+                long quantidade = Math.min(TAMANHO_BLOCO, tamanho - inicio);
+                tarefas.add(executor.submit(() -> digerirBloco(canal, inicio, quantidade, limitador)));
+            }
+            byte[] folhas = new byte[blocos * TAMANHO_HASH];
+            for (int i = 0; i < blocos; i++) {
+                System.arraycopy(tarefas.get(i).get(), 0, folhas, i * TAMANHO_HASH, TAMANHO_HASH);
+            }
+            return new Resultado(raiz(folhas), folhas);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Cálculo do hash em árvore interrompido.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException erro) {
+                throw erro;
+            }
+            throw new IllegalStateException("Falha ao calcular o hash em árvore.", e.getCause());
+        } finally {
+            tarefas.forEach(tarefa -> tarefa.cancel(true));
+        }
+    }
+
+    /**
+     * Calcula a árvore de um conteúdo lido em sequência (um stream), na mesma passada de outra digestão.
+     * Produz o mesmo resultado de {@link #calcular}, sem paralelismo. Pode continuar a partir das folhas
+     * dos blocos já fechados (ex.: de um upload retomável), recebendo o conteúdo a partir do fim do último deles.
+     */
+    public static final class Construtor {
+
+        private final MessageDigest digest = novoDigest();
+        private final ByteArrayOutputStream folhas = new ByteArrayOutputStream();
+        private long noBloco = 0;
+
+        public Construtor() {
+            digest.update(PREFIXO_FOLHA);
+        }
+
+        /**
+         * @param folhasFechadas Folhas dos blocos completos já digeridos (null equivale a nenhuma).
+         */
+        public Construtor(byte[] folhasFechadas) {
+            this();
+            if (folhasFechadas != null) {
+                if (folhasFechadas.length % TAMANHO_HASH != 0) {
+                    throw new IllegalArgumentException("Folhas inválidas para o hash em árvore.");
+                }
+                folhas.writeBytes(folhasFechadas);
+            }
+        }
+
+        /**
+         * @return Posição do conteúdo onde termina o último bloco completo.
+         */
+        public long fimDosBlocosFechados() {
+            return (long) (folhas.size() / TAMANHO_HASH) * TAMANHO_BLOCO;
+        }
+
+        /**
+         * @return As folhas dos blocos completos até aqui (o bloco parcial em andamento fica de fora).
+         */
+        public byte[] folhasFechadas() {
+            return folhas.toByteArray();
+        }
+
+        public void atualizar(byte[] dados, int inicio, int quantidade) {
+            while (quantidade > 0) {
+                int parte = (int) Math.min(quantidade, TAMANHO_BLOCO - noBloco);
+                digest.update(dados, inicio, parte);
+                noBloco += parte;
+                inicio += parte;
+                quantidade -= parte;
+                if (noBloco == TAMANHO_BLOCO) {
+                    fecharBloco();
+                }
+            }
+        }
+
+        /**
+         * @return A árvore do conteúdo recebido até aqui. O construtor não deve ser usado depois.
+         */
+        public Resultado concluir() {
+            // Um último bloco parcial fecha a árvore; um conteúdo vazio tem um único bloco vazio
+            if (noBloco > 0 || folhas.size() == 0) {
+                fecharBloco();
+            }
+            byte[] todas = folhas.toByteArray();
+            return new Resultado(raiz(todas), todas);
+        }
+
+        private void fecharBloco() {
+            folhas.writeBytes(digest.digest());
+            digest.update(PREFIXO_FOLHA);
+            noBloco = 0;
+        }
+    }
+
+    /**
+     * Raiz (hexadecimal) a partir das folhas concatenadas.
+     */
+    public static String raiz(byte[] folhas) {
+        if (folhas.length == 0 || folhas.length % TAMANHO_HASH != 0) {
+            throw new IllegalArgumentException("Folhas inválidas para o hash em árvore.");
+        }
+        MessageDigest digest = novoDigest();
+        byte[][] nivel = new byte[folhas.length / TAMANHO_HASH][];
+        for (int i = 0; i < nivel.length; i++) {
+            nivel[i] = Arrays.copyOfRange(folhas, i * TAMANHO_HASH, (i + 1) * TAMANHO_HASH);
+        }
+        while (nivel.length > 1) {
+            byte[][] acima = new byte[(nivel.length + 1) / 2][];
+            for (int i = 0; i < acima.length; i++) {
+                if (2 * i + 1 < nivel.length) {
+                    digest.update(PREFIXO_NO);
+                    digest.update(nivel[2 * i]);
+                    digest.update(nivel[2 * i + 1]);
+                    acima[i] = digest.digest();
+                } else {
+                    acima[i] = nivel[2 * i];
+                }
+            }
+            nivel = acima;
+        }
+        return HexFormat.of().formatHex(nivel[0]);
+    }
+
+    /**
+     * Índices dos blocos cujas folhas diferem (inclusive os que só existem em uma das versões).
+     */
+    public static List<Integer> blocosDivergentes(byte[] esperadas, byte[] atuais) {
+        int blocos = Math.max(esperadas.length, atuais.length) / TAMANHO_HASH;
+        List<Integer> divergentes = new ArrayList<>();
+        for (int i = 0; i < blocos; i++) {
+            int inicio = i * TAMANHO_HASH;
+            if (inicio + TAMANHO_HASH > esperadas.length || inicio + TAMANHO_HASH > atuais.length
+                    || !Arrays.equals(esperadas, inicio, inicio + TAMANHO_HASH, atuais, inicio, inicio + TAMANHO_HASH)) {
+                divergentes.add(i);
+            }
+        }
+        return divergentes;
+    }
+
+    /**
+     * Conteúdo vazio também tem um bloco (vazio), para que toda árvore tenha raiz.
+     */
+    private static int quantidadeBlocos(long tamanho) {
+        return (int) Math.max(1, (tamanho + TAMANHO_BLOCO - 1) / TAMANHO_BLOCO);
+    }
+
+    private static byte[] digerirBloco(FileChannel canal, long inicio, long quantidade, LimitadorTaxa limitador) throws IOException {
+        if (limitador != null) {
+            try {
+                limitador.adquirir(quantidade);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Leitura interrompida durante a espera do limitador.");
+            }
+        }
+        MessageDigest digest = novoDigest();
+        digest.update(PREFIXO_FOLHA);
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_LEITURA);
+        long posicao = inicio;
+        long fim = inicio + quantidade;
+        while (posicao < fim) {
+            buffer.clear().limit((int) Math.min(TAMANHO_LEITURA, fim - posicao));
+            int lidos = canal.read(buffer, posicao);
+            if (lidos == -1) {
+                throw new IOException("Conteúdo menor que o tamanho informado.");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            posicao += lidos;
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest novoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Algoritmo SHA-256 indisponível.", e);
+        }
+    }
+}
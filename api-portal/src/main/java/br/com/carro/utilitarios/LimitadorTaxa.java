@@ -0,0 +1,116 @@
+package br.com.carro.utilitarios;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket: libera até {@code taxaPorSegundo} permissões por segundo, com rajadas de até {@code capacidade}.
+ * {@link #tentarAdquirir(long)} não bloqueia; {@link #adquirir(long)} reserva as permissões e espera
+ * (fora do lock) o tempo necessário para pagá-las, então pedidos maiores que a capacidade também funcionam.
+ */
+public class LimitadorTaxa {
+
+    private final double taxaPorNano;
+    private final double capacidade;
+
+    private double disponiveis;
+    private long ultimaRecarga;
+
+    public LimitadorTaxa(long taxaPorSegundo, long capacidade) {
+        if (taxaPorSegundo <= 0 || capacidade <= 0) {
+            throw new IllegalArgumentException("Taxa e capacidade devem ser maiores que zero.");
+        }
+        this.taxaPorNano = taxaPorSegundo / (double) TimeUnit.SECONDS.toNanos(1);
+        this.capacidade = capacidade;
+        this.disponiveis = capacidade;
+        this.ultimaRecarga = System.nanoTime();
+    }
+
+    /**
+     * Consome as permissões se houver saldo suficiente agora.
+     * @return false se não houver saldo (nada é consumido).
+     */
+    public synchronized boolean tentarAdquirir(long permissoes) {
+        recarregar();
+        if (disponiveis < permissoes) {
+            return false;
+        }
+        disponiveis -= permissoes;
+        return true;
+    }
+
+    /**
+     * Consome as permissões, esperando até que estejam pagas.
+     * @throws InterruptedException Se a thread for interrompida durante a espera.
+     */
+    public void adquirir(long permissoes) throws InterruptedException {
+        long esperaNanos;
+        synchronized (this) {
+            recarregar();
+            disponiveis -= permissoes;
+            esperaNanos = disponiveis < 0 ? (long) (-disponiveis / taxaPorNano) : 0;
+        }
+        if (esperaNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(esperaNanos);
+        }
+    }
+
+    /**
+     * Devolve permissões consumidas e não usadas (sem passar da capacidade).
+     */
+    public synchronized void devolver(long permissoes) {
+        recarregar();
+        disponiveis = Math.min(capacidade, disponiveis + permissoes);
+    }
+
+    /**
+     * Indica se o saldo está completo, ou seja, sem uso recente: descartar o limitador não muda nada.
+     */
+    public synchronized boolean cheio() {
+        recarregar();
+        return disponiveis >= capacidade;
+    }
+
+    /**
+     * Envolve um stream para que cada byte lido consuma uma permissão (limite de bytes por segundo).
+     */
+    public InputStream limitar(InputStream origem) {
+        return new FilterInputStream(origem) {
+            @Override
+            public int read() throws IOException {
+                int lido = super.read();
+                if (lido != -1) {
+                    aguardar(1);
+                }
+                return lido;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int lidos = super.read(b, off, len);
+                if (lidos > 0) {
+                    aguardar(lidos);
+                }
+                return lidos;
+            }
+
+            private void aguardar(int bytes) throws InterruptedIOException {
+                try {
+                    adquirir(bytes);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Leitura interrompida durante a espera do limitador.");
+                }
+            }
+        };
+    }
+
+    private void recarregar() {
+        long agora = System.nanoTime();
+        disponiveis = Math.min(capacidade, disponiveis + (agora - ultimaRecarga) * taxaPorNano);
+        ultimaRecarga = agora;
+    }
+}
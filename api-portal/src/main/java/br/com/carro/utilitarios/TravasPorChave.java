@@ -0,0 +1,62 @@
+package br.com.carro.utilitarios;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tabela fixa de locks ("listras"): cada chave é mapeada para um de N locks pelo seu hash.
+ * Operações sobre a mesma chave ficam serializadas sem um lock global; chaves diferentes só
+ * disputam o mesmo lock quando caem na mesma listra. Os locks valem apenas dentro desta instância.
+ */
+public class TravasPorChave {
+
+    /**
+     * Locks adquiridos por {@link #travar(Collection)}, liberados no close (try-with-resources).
+     */
+    @FunctionalInterface
+    public interface Travamento extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final ReentrantLock[] travas;
+
+    public TravasPorChave(int quantidade) {
+        if (quantidade <= 0) {
+            throw new IllegalArgumentException("A quantidade de locks deve ser maior que zero.");
+        }
+        this.travas = new ReentrantLock[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            this.travas[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Adquire o lock da chave, esperando se outra thread o tiver.
+     */
+    public Travamento travar(String chave) {
+        ReentrantLock trava = travas[indice(chave)];
+        trava.lock();
+        return trava::unlock;
+    }
+
+    /**
+     * Adquire os locks de várias chaves, sempre em ordem crescente de listra, então duas chamadas
+     * com chaves em comum nunca ficam esperando uma pela outra.
+     */
+    public Travamento travar(Collection<String> chaves) {
+        TreeSet<Integer> indices = new TreeSet<>();
+        chaves.forEach(chave -> indices.add(indice(chave)));
+        for (Integer indice : indices) {
+            travas[indice].lock();
+        }
+        return () -> indices.descendingSet().forEach(indice -> travas[indice].unlock());
+    }
+
+    private int indice(String chave) {
+        int hash = chave.hashCode();
+        // Espalha os bits altos, como no HashMap, antes de reduzir ao número de listras
+        return Math.floorMod(hash ^ (hash >>> 16), travas.length);
+    }
+}
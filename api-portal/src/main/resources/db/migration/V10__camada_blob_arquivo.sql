@@ -0,0 +1,6 @@
+-- Camadas de armazenamento: blobs sem acesso recente vão para o arquivamento (FRIA) e voltam ao serem lidos
+ALTER TABLE tb_blob_arquivo
+    ADD COLUMN camada VARCHAR(10) NOT NULL DEFAULT 'QUENTE',
+    ADD COLUMN ultimo_acesso DATETIME(6) NULL;
+
+CREATE INDEX idx_blob_arquivo_camada_acesso ON tb_blob_arquivo (camada, ultimo_acesso);
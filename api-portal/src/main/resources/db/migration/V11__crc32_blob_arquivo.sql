@@ -0,0 +1,4 @@
+-- CRC-32 do conteúdo, para o download de pastas em ZIP com entradas sem compressão (STORED)
+-- Blobs existentes ficam nulos e recebem o valor na primeira vez em que entram em um ZIP
+ALTER TABLE tb_blob_arquivo
+    ADD COLUMN crc32 BIGINT NULL;
@@ -0,0 +1,11 @@
+-- Contadores de download e visualização por arquivo. Os acessos são somados em memória e gravados
+-- aqui em lote (upsert), então um download não gera uma escrita no banco.
+CREATE TABLE IF NOT EXISTS tb_arquivo_acesso (
+    arquivo_id BIGINT NOT NULL PRIMARY KEY,
+    downloads BIGINT NOT NULL DEFAULT 0,
+    visualizacoes BIGINT NOT NULL DEFAULT 0,
+    ultimo_acesso DATETIME(6) NULL,
+    CONSTRAINT fk_arquivo_acesso_arquivo FOREIGN KEY (arquivo_id) REFERENCES tb_arquivo (id) ON DELETE CASCADE
+);
+
+CREATE INDEX idx_arquivo_acesso_ultimo_acesso ON tb_arquivo_acesso (ultimo_acesso);
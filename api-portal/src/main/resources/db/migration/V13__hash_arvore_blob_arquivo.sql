@@ -0,0 +1,8 @@
+-- Hash em árvore (Merkle, blocos de 4 MiB) do conteúdo: permite calcular e verificar blocos em paralelo
+-- e apontar quais blocos de um blob divergiram. hashes_blocos guarda as folhas (32 bytes por bloco).
+-- Blobs existentes ficam nulos e recebem a árvore na próxima verificação de integridade
+ALTER TABLE tb_blob_arquivo
+    ADD COLUMN hash_arvore CHAR(64) NULL,
+    ADD COLUMN hashes_blocos MEDIUMBLOB NULL;
+
+CREATE INDEX idx_blob_arquivo_hash_arvore ON tb_blob_arquivo (hash_arvore);
@@ -0,0 +1,23 @@
+-- Cota de armazenamento por setor, com o uso mantido de forma incremental (upload, substituição e exclusão):
+-- conferir a cota é ler e atualizar uma linha, nunca somar tb_arquivo pela hierarquia de pastas.
+-- limite_bytes nulo significa sem limite. O uso inicial é calculado uma única vez aqui; o setor de uma
+-- subpasta sem setor próprio é o da pasta acima dela
+CREATE TABLE IF NOT EXISTS tb_setor_cota (
+    setor_id BIGINT NOT NULL PRIMARY KEY,
+    limite_bytes BIGINT NULL,
+    usado_bytes BIGINT NOT NULL DEFAULT 0,
+    arquivos BIGINT NOT NULL DEFAULT 0,
+    CONSTRAINT fk_setor_cota_setor FOREIGN KEY (setor_id) REFERENCES tb_setor (id) ON DELETE CASCADE
+);
+
+INSERT INTO tb_setor_cota (setor_id, usado_bytes, arquivos)
+WITH RECURSIVE pastas_setor (id, setor_id) AS (
+    SELECT id, setor_id FROM tb_pasta WHERE pasta_pai_id IS NULL
+    UNION ALL
+    SELECT p.id, COALESCE(p.setor_id, s.setor_id) FROM tb_pasta p JOIN pastas_setor s ON p.pasta_pai_id = s.id
+)
+SELECT s.id, COALESCE(SUM(a.tamanho_bytes), 0), COUNT(a.id)
+FROM tb_setor s
+LEFT JOIN pastas_setor ps ON ps.setor_id = s.id
+LEFT JOIN tb_arquivo a ON a.pasta_id = ps.id
+GROUP BY s.id;
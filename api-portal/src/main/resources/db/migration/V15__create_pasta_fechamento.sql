@@ -0,0 +1,23 @@
+-- Tabela de fechamento (closure table) da hierarquia de pastas: uma linha para cada par ancestral/descendente,
+-- inclusive a própria pasta (profundidade 0). Perguntas sobre uma subárvore ("arquivos abaixo de X",
+-- "X está dentro de Y", setor herdado) viram um único join indexado, sem subir pasta_pai_id nível a nível.
+-- Mantida pela aplicação na criação das pastas; a exclusão de uma pasta remove as linhas dela em cascata
+CREATE TABLE IF NOT EXISTS tb_pasta_fechamento (
+    ancestral_id BIGINT NOT NULL,
+    descendente_id BIGINT NOT NULL,
+    profundidade INT NOT NULL,
+    PRIMARY KEY (ancestral_id, descendente_id),
+    CONSTRAINT fk_pasta_fechamento_ancestral FOREIGN KEY (ancestral_id) REFERENCES tb_pasta (id) ON DELETE CASCADE,
+    CONSTRAINT fk_pasta_fechamento_descendente FOREIGN KEY (descendente_id) REFERENCES tb_pasta (id) ON DELETE CASCADE
+);
+
+-- Ancestrais de uma pasta, do mais próximo ao mais distante
+CREATE INDEX idx_pasta_fechamento_descendente ON tb_pasta_fechamento (descendente_id, profundidade);
+
+INSERT INTO tb_pasta_fechamento (ancestral_id, descendente_id, profundidade)
+WITH RECURSIVE fechamento (ancestral_id, descendente_id, profundidade) AS (
+    SELECT id, id, 0 FROM tb_pasta
+    UNION ALL
+    SELECT f.ancestral_id, p.id, f.profundidade + 1 FROM tb_pasta p JOIN fechamento f ON p.pasta_pai_id = f.descendente_id
+)
+SELECT ancestral_id, descendente_id, profundidade FROM fechamento;
@@ -0,0 +1,29 @@
+-- Agregados por pasta, mantidos de forma incremental (upload, substituição, exclusão, criação e movimentação
+-- de pastas): a listagem mostra quantidade de arquivos, tamanho e última alteração sem somar tb_arquivo pela
+-- hierarquia. Cada mudança é um delta aplicado à pasta e a todos os ancestrais em um único UPDATE, pela
+-- tabela de fechamento. Os valores iniciais são calculados uma única vez aqui
+ALTER TABLE tb_pasta
+    ADD COLUMN arquivos_diretos BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN arquivos_total BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN bytes_total BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN subpastas_diretas BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN ultima_alteracao DATETIME(6) NULL;
+
+UPDATE tb_pasta p
+LEFT JOIN (
+    SELECT pasta_id, COUNT(*) AS arquivos FROM tb_arquivo GROUP BY pasta_id
+) d ON d.pasta_id = p.id
+LEFT JOIN (
+    SELECT f.ancestral_id, COUNT(a.id) AS arquivos, COALESCE(SUM(a.tamanho_bytes), 0) AS bytes,
+           MAX(a.data_upload) AS ultimo_upload
+    FROM tb_pasta_fechamento f JOIN tb_arquivo a ON a.pasta_id = f.descendente_id
+    GROUP BY f.ancestral_id
+) t ON t.ancestral_id = p.id
+LEFT JOIN (
+    SELECT pasta_pai_id, COUNT(*) AS subpastas FROM tb_pasta WHERE pasta_pai_id IS NOT NULL GROUP BY pasta_pai_id
+) s ON s.pasta_pai_id = p.id
+SET p.arquivos_diretos = COALESCE(d.arquivos, 0),
+    p.arquivos_total = COALESCE(t.arquivos, 0),
+    p.bytes_total = COALESCE(t.bytes, 0),
+    p.subpastas_diretas = COALESCE(s.subpastas, 0),
+    p.ultima_alteracao = GREATEST(p.data_criacao, COALESCE(t.ultimo_upload, p.data_criacao));
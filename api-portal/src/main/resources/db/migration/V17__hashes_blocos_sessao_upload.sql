@@ -0,0 +1,4 @@
+-- Folhas do hash em árvore (32 bytes por bloco de 4 MiB) dos blocos já completos de uma sessão de upload,
+-- calculadas a cada PATCH. Na finalização elas conferem o temporário e apontam de qual bloco reenviar
+ALTER TABLE tb_sessao_upload
+    ADD COLUMN hashes_blocos MEDIUMBLOB NULL;
@@ -0,0 +1,6 @@
+-- Conteúdo de uma sessão de upload já publicado no armazenamento cuja finalização falhou por um erro transitório
+-- (ex.: deadlock): com o hash, o CRC-32 e a chave gravada, a finalização é repetida sem reenviar o arquivo
+ALTER TABLE tb_sessao_upload
+    ADD COLUMN hash_sha256 CHAR(64) NULL,
+    ADD COLUMN crc32 BIGINT NULL,
+    ADD COLUMN chave_publicada VARCHAR(255) NULL;
@@ -0,0 +1,18 @@
+-- Um nome por pasta (sem diferenciar maiúsculas, pela collation da coluna). O lock de nome da aplicação cobre só
+-- o nome pedido: ao renomear para "x (n).ext", outro upload desse mesmo nome usa outra trava, e é este índice
+-- que recusa o segundo INSERT (a aplicação então escolhe outro nome). Repetições que já existam recebem o ID
+-- no nome, mantendo o nome original no registro mais antigo
+UPDATE tb_arquivo a
+JOIN (
+    SELECT pasta_id, nome_arquivo, MIN(id) AS primeiro
+    FROM tb_arquivo
+    WHERE pasta_id IS NOT NULL
+    GROUP BY pasta_id, nome_arquivo
+    HAVING COUNT(*) > 1
+) d ON d.pasta_id = a.pasta_id AND d.nome_arquivo = a.nome_arquivo AND a.id <> d.primeiro
+SET a.nome_arquivo = IF(LOCATE('.', a.nome_arquivo) > 1,
+    CONCAT(LEFT(a.nome_arquivo, CHAR_LENGTH(a.nome_arquivo) - CHAR_LENGTH(SUBSTRING_INDEX(a.nome_arquivo, '.', -1)) - 1),
+           ' (', a.id, ').', SUBSTRING_INDEX(a.nome_arquivo, '.', -1)),
+    CONCAT(a.nome_arquivo, ' (', a.id, ')'));
+
+CREATE UNIQUE INDEX uk_arquivo_pasta_nome ON tb_arquivo (pasta_id, nome_arquivo);
@@ -0,0 +1,3 @@
+-- Hash SHA-256 do conteúdo do arquivo, calculado durante a gravação em streaming.
+ALTER TABLE tb_arquivo
+    ADD COLUMN hash_sha256 CHAR(64) NULL AFTER tamanho_bytes;
@@ -0,0 +1,12 @@
+-- Conteúdo físico dos arquivos, endereçado pelo hash SHA-256.
+-- Vários registros de tb_arquivo (em pastas/setores diferentes) podem apontar para o mesmo blob;
+-- 'referencias' conta quantos apontam, e o blob só é removido do disco quando chega a zero.
+CREATE TABLE IF NOT EXISTS tb_blob_arquivo (
+    hash_sha256 CHAR(64) NOT NULL PRIMARY KEY,
+    caminho_armazenamento VARCHAR(255) NOT NULL,
+    tamanho_bytes BIGINT NOT NULL,
+    referencias BIGINT NOT NULL DEFAULT 0,
+    data_criacao DATETIME(6) NOT NULL
+);
+
+CREATE INDEX idx_arquivo_hash_sha256 ON tb_arquivo (hash_sha256);
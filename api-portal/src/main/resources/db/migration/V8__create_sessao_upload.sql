@@ -0,0 +1,17 @@
+-- Sessões de upload retomável: o conteúdo parcial fica em um temporário e o offset confirmado
+-- é persistido aqui, então um upload interrompido (ou um restart do servidor) continua de onde parou.
+CREATE TABLE IF NOT EXISTS tb_sessao_upload (
+    id CHAR(36) NOT NULL PRIMARY KEY,
+    pasta_id BIGINT NOT NULL,
+    usuario_id BIGINT NOT NULL,
+    nome_arquivo VARCHAR(255) NOT NULL,
+    tamanho_total BIGINT NOT NULL,
+    bytes_recebidos BIGINT NOT NULL DEFAULT 0,
+    caminho_temporario VARCHAR(255) NOT NULL,
+    data_criacao DATETIME(6) NOT NULL,
+    data_expiracao DATETIME(6) NOT NULL,
+    CONSTRAINT fk_sessao_upload_pasta FOREIGN KEY (pasta_id) REFERENCES tb_pasta (id),
+    CONSTRAINT fk_sessao_upload_usuario FOREIGN KEY (usuario_id) REFERENCES tb_usuarios (id)
+);
+
+CREATE INDEX idx_sessao_upload_expiracao ON tb_sessao_upload (data_expiracao);
@@ -0,0 +1,8 @@
+-- Os caminhos passam a ser chaves relativas a raiz do armazenamento (antes incluiam o diretorio "uploads/")
+UPDATE tb_arquivo
+SET caminho_armazenamento = SUBSTRING(caminho_armazenamento, 9)
+WHERE caminho_armazenamento LIKE 'uploads/%';
+
+UPDATE tb_blob_arquivo
+SET caminho_armazenamento = SUBSTRING(caminho_armazenamento, 9)
+WHERE caminho_armazenamento LIKE 'uploads/%';
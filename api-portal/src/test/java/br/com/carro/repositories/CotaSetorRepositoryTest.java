@@ -0,0 +1,114 @@
+package br.com.carro.repositories;
+
+import br.com.carro.entities.CotaSetor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CotaSetorRepositoryTest extends RepositorioMySqlTest {
+
+    @Autowired
+    private CotaSetorRepository cotaSetorRepository;
+
+    private Long setor;
+
+    @BeforeEach
+    void criarSetorComCota() {
+        setor = criarSetor("Teste");
+        cotaSetorRepository.criarSeAusente(setor);
+    }
+
+    @Test
+    void criarSeAusenteNaoSobrescreveALinhaExistente() {
+        cotaSetorRepository.ajustarUso(setor, 10, 1);
+
+        assertEquals(0, cotaSetorRepository.criarSeAusente(setor));
+        assertEquals(10L, cota(setor).getUsadoBytes());
+    }
+
+    @Test
+    void ajustarUsoRespeitaOLimite() {
+        cotaSetorRepository.definirLimite(setor, 100L);
+
+        assertEquals(1, cotaSetorRepository.ajustarUso(setor, 60, 1));
+        assertEquals(0, cotaSetorRepository.ajustarUso(setor, 50, 1));
+        assertEquals(1, cotaSetorRepository.ajustarUso(setor, 40, 1));
+
+        CotaSetor cota = cota(setor);
+        assertEquals(100L, cota.getUsadoBytes());
+        assertEquals(2L, cota.getArquivos());
+    }
+
+    @Test
+    void ajustarUsoSemLimiteSempreCabe() {
+        assertEquals(1, cotaSetorRepository.ajustarUso(setor, Long.MAX_VALUE / 2, 1));
+    }
+
+    @Test
+    void ajustarUsoNegativoSempreCabeENaoFicaAbaixoDeZero() {
+        cotaSetorRepository.definirLimite(setor, 100L);
+        cotaSetorRepository.ajustarUso(setor, 80, 2);
+        cotaSetorRepository.definirLimite(setor, 10L);
+
+        assertEquals(1, cotaSetorRepository.ajustarUso(setor, -500, -5));
+        CotaSetor cota = cota(setor);
+        assertEquals(0L, cota.getUsadoBytes());
+        assertEquals(0L, cota.getArquivos());
+    }
+
+    @Test
+    void ajustarUsoDeSetorSemLinhaNaoAfetaNada() {
+        Long semCota = criarSetor("Sem cota");
+
+        assertEquals(0, cotaSetorRepository.ajustarUso(semCota, 10, 1));
+    }
+
+    @Test
+    void setorDaPastaVemDaPastaMaisProximaComSetor() {
+        Long outro = criarSetor("Outro");
+        Long a = criarPasta("A", setor, null);
+        Long b = criarPasta("B", null, a);
+        Long c = criarPasta("C", outro, b);
+
+        assertEquals(setor, cotaSetorRepository.buscarSetorDaPasta(b));
+        assertEquals(outro, cotaSetorRepository.buscarSetorDaPasta(c));
+    }
+
+    @Test
+    void somarSubarvorePorSetorSeparaSubpastasComSetorProprio() {
+        Long outro = criarSetor("Outro");
+        Long a = criarPasta("A", setor, null);
+        Long b = criarPasta("B", null, a);
+        Long c = criarPasta("C", outro, b);
+        Long d = criarPasta("D", null, c);
+        criarArquivo(b, 10);
+        criarArquivo(c, 20);
+        criarArquivo(d, 5);
+
+        // Em B, o setor de B vem de cima (A); o de C e D, de dentro da subárvore. Linhas em ordem de setor
+        List<CotaSetorRepository.UsoPorSetor> usos = cotaSetorRepository.somarSubarvorePorSetor(b);
+        assertEquals(2, usos.size());
+        CotaSetorRepository.UsoPorSetor herdado = usos.get(0);
+        CotaSetorRepository.UsoPorSetor proprio = usos.get(1);
+        assertEquals(setor, herdado.getSetorId());
+        assertNull(herdado.getSetorInterno());
+        assertEquals(10L, herdado.getBytes());
+        assertEquals(1L, herdado.getArquivos());
+        assertEquals(outro, proprio.getSetorId());
+        assertEquals(outro, proprio.getSetorInterno());
+        assertEquals(25L, proprio.getBytes());
+        assertEquals(2L, proprio.getArquivos());
+
+        // A partir de A, o setor dela também é interno
+        assertEquals(setor, cotaSetorRepository.somarSubarvorePorSetor(a).get(0).getSetorInterno());
+    }
+
+    private CotaSetor cota(Long setorId) {
+        return cotaSetorRepository.findById(setorId).orElseThrow();
+    }
+}
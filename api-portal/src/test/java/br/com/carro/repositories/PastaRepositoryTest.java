@@ -0,0 +1,154 @@
+package br.com.carro.repositories;
+
+import br.com.carro.entities.Pasta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PastaRepositoryTest extends RepositorioMySqlTest {
+
+    private Long setor;
+    private Long a;
+    private Long b;
+    private Long c;
+    private Long d;
+
+    // A/B/C e D, todas do mesmo setor
+    @BeforeEach
+    void criarArvore() {
+        setor = criarSetor("Teste");
+        a = criarPasta("A", setor, null);
+        b = criarPasta("B", null, a);
+        c = criarPasta("C", null, b);
+        d = criarPasta("D", setor, null);
+    }
+
+    @Test
+    void registrarNoFechamentoLigaAPastaATodosOsAncestrais() {
+        assertEquals(List.of(List.of(c, 0L), List.of(b, 1L), List.of(a, 2L)), ancestrais(c));
+        assertEquals(List.of(List.of(a, 0L)), ancestrais(a));
+    }
+
+    @Test
+    void moverSubarvoreTrocaOsAncestraisEMantemAsLigacoesInternas() {
+        pastaRepository.desligarSubarvore(b);
+        pastaRepository.ligarSubarvore(b, d);
+
+        assertEquals(List.of(List.of(b, 0L), List.of(d, 1L)), ancestrais(b));
+        assertEquals(List.of(List.of(c, 0L), List.of(b, 1L), List.of(d, 2L)), ancestrais(c));
+        assertEquals(List.of(List.of(a, 0L)), ancestrais(a));
+        assertEquals(0, pastaRepository.contem(a, c));
+        assertEquals(1, pastaRepository.contem(d, c));
+    }
+
+    @Test
+    void desligarSemLigarDeixaASubarvoreComoRaiz() {
+        pastaRepository.desligarSubarvore(b);
+
+        assertEquals(List.of(List.of(b, 0L)), ancestrais(b));
+        assertEquals(List.of(List.of(c, 0L), List.of(b, 1L)), ancestrais(c));
+    }
+
+    @Test
+    void contemDetectaMovimentacaoParaDentroDaPropriaSubarvore() {
+        // Mover B para dentro de C (ou dela mesma) criaria um ciclo
+        assertEquals(1, pastaRepository.contem(b, c));
+        assertEquals(1, pastaRepository.contem(b, b));
+        assertEquals(0, pastaRepository.contem(c, b));
+        assertEquals(0, pastaRepository.contem(b, d));
+    }
+
+    @Test
+    void subarvoreIncluiSoAPastaEOsDescendentes() {
+        assertEquals(Set.of(a, b, c), new HashSet<>(pastaRepository.buscarIdsDaSubarvore(a)));
+        assertEquals(Set.of(c), new HashSet<>(pastaRepository.buscarIdsDaSubarvore(c)));
+        assertEquals(List.of(b, c), pastaRepository.buscarSubpastasRecursivas(a).stream().map(Pasta::getId).toList());
+    }
+
+    @Test
+    void acessoHerdaOSetorDaPastaMaisProximaAcima() {
+        Long outro = criarSetor("Outro");
+        Long e = criarPasta("E", outro, c);
+        Long f = criarPasta("F", null, e);
+
+        assertEquals(setor, pastaRepository.buscarAcesso(c, 1L).getSetorId());
+        assertEquals(outro, pastaRepository.buscarAcesso(f, 1L).getSetorId());
+        assertEquals(0L, pastaRepository.buscarAcesso(f, 1L).getPermissaoEspecial());
+    }
+
+    @Test
+    void permissaoEspecialEmUmAncestralValeParaAsSubpastas() {
+        jdbcTemplate.update("INSERT INTO tb_permissao_pasta (pasta_id, usuario_id) VALUES (?, ?)", b, 1L);
+
+        assertEquals(1L, pastaRepository.buscarAcesso(c, 1L).getPermissaoEspecial());
+        assertEquals(0L, pastaRepository.buscarAcesso(a, 1L).getPermissaoEspecial());
+        assertEquals(0L, pastaRepository.buscarAcesso(d, 1L).getPermissaoEspecial());
+    }
+
+    @Test
+    void ajustarAgregadosAplicaODeltaNaPastaENosAncestrais() {
+        LocalDateTime agora = LocalDateTime.now().withNano(0);
+        pastaRepository.ajustarAgregados(c, 2, 2, 300, 0, agora);
+        pastaRepository.ajustarAgregados(b, 0, 0, 0, 1, agora);
+
+        assertEquals(Map.of("diretos", 2L, "total", 2L, "bytes", 300L, "subpastas", 0L), agregados(c));
+        assertEquals(Map.of("diretos", 0L, "total", 2L, "bytes", 300L, "subpastas", 1L), agregados(b));
+        assertEquals(Map.of("diretos", 0L, "total", 2L, "bytes", 300L, "subpastas", 0L), agregados(a));
+        assertEquals(Map.of("diretos", 0L, "total", 0L, "bytes", 0L, "subpastas", 0L), agregados(d));
+        assertEquals(agora, jdbcTemplate.queryForObject("SELECT ultima_alteracao FROM tb_pasta WHERE id = ?",
+                LocalDateTime.class, a));
+    }
+
+    @Test
+    void ajustarAgregadosNaoDeixaTotaisNegativos() {
+        LocalDateTime agora = LocalDateTime.now();
+        pastaRepository.ajustarAgregados(c, 1, 1, 100, 0, agora);
+        pastaRepository.ajustarAgregados(c, -3, -3, -500, -1, agora);
+
+        assertEquals(Map.of("diretos", 0L, "total", 0L, "bytes", 0L, "subpastas", 0L), agregados(c));
+        assertEquals(Map.of("diretos", 0L, "total", 0L, "bytes", 0L, "subpastas", 0L), agregados(a));
+    }
+
+    @Test
+    void bloquearTotaisDevolveOPaiEOsTotaisDaSubarvore() {
+        pastaRepository.ajustarAgregados(c, 1, 1, 40, 0, LocalDateTime.now());
+
+        PastaRepository.TotaisPasta totais = pastaRepository.bloquearTotais(b);
+        assertEquals(a, totais.getPastaPaiId());
+        assertEquals(1L, totais.getArquivos());
+        assertEquals(40L, totais.getBytes());
+    }
+
+    @Test
+    void reescreverCaminhosTrocaOPrefixoDaSubarvore() {
+        pastaRepository.reescreverCaminhos(b, "/A/B", "/D/B");
+
+        assertEquals("/D/B", caminho(b));
+        assertEquals("/D/B/C", caminho(c));
+        assertEquals("/A", caminho(a));
+    }
+
+    private List<List<Long>> ancestrais(Long pasta) {
+        return jdbcTemplate.query("SELECT ancestral_id, profundidade FROM tb_pasta_fechamento " +
+                        "WHERE descendente_id = ? ORDER BY profundidade",
+                (rs, i) -> List.of(rs.getLong(1), rs.getLong(2)), pasta);
+    }
+
+    private Map<String, Long> agregados(Long pasta) {
+        return jdbcTemplate.queryForObject("SELECT arquivos_diretos, arquivos_total, bytes_total, subpastas_diretas " +
+                        "FROM tb_pasta WHERE id = ?",
+                (rs, i) -> Map.of("diretos", rs.getLong(1), "total", rs.getLong(2), "bytes", rs.getLong(3),
+                        "subpastas", rs.getLong(4)), pasta);
+    }
+
+    private String caminho(Long pasta) {
+        return jdbcTemplate.queryForObject("SELECT caminho_completo FROM tb_pasta WHERE id = ?", String.class, pasta);
+    }
+}
@@ -0,0 +1,78 @@
+package br.com.carro.repositories;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+
+/**
+ * Base dos testes de repositório: as consultas nativas (tabela de fechamento, agregados, cota) dependem do MySQL,
+ * então rodam contra um MySQL 8 em container, com o esquema das migrações do Flyway. Cada teste roda em uma
+ * transação desfeita no fim. Sem Docker, os testes são ignorados.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+abstract class RepositorioMySqlTest {
+
+    @Container
+    @ServiceConnection
+    static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0");
+
+    @Autowired
+    protected JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    protected PastaRepository pastaRepository;
+
+    protected Long criarSetor(String nome) {
+        return inserir("INSERT INTO tb_setor (nome) VALUES (?)", nome);
+    }
+
+    /**
+     * Cria uma pasta e a registra na tabela de fechamento, como PastaService.criarPasta.
+     */
+    protected Long criarPasta(String nome, Long setorId, Long pastaPaiId) {
+        String caminho = pastaPaiId == null ? "/" + nome
+                : jdbcTemplate.queryForObject("SELECT caminho_completo FROM tb_pasta WHERE id = ?", String.class,
+                pastaPaiId) + "/" + nome;
+        Long id = inserir("INSERT INTO tb_pasta (nome_pasta, caminho_completo, data_criacao, setor_id, pasta_pai_id) " +
+                "VALUES (?, ?, ?, ?, ?)", nome, caminho, Timestamp.valueOf(LocalDateTime.now()), setorId, pastaPaiId);
+        pastaRepository.registrarNoFechamento(id, pastaPaiId);
+        return id;
+    }
+
+    protected Long criarArquivo(Long pastaId, long tamanho) {
+        return inserir("INSERT INTO tb_arquivo (nome_arquivo, caminho_armazenamento, tamanho_bytes, data_upload, pasta_id) " +
+                "VALUES (?, ?, ?, ?, ?)", "arquivo.pdf", "teste/arquivo.pdf", tamanho,
+                Timestamp.valueOf(LocalDateTime.now()), pastaId);
+    }
+
+    private Long inserir(String sql, Object... valores) {
+        KeyHolder chave = new GeneratedKeyHolder();
+        jdbcTemplate.update(conexao -> {
+            PreparedStatement ps = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (int i = 0; i < valores.length; i++) {
+                if (valores[i] == null) {
+                    ps.setNull(i + 1, Types.BIGINT);
+                } else {
+                    ps.setObject(i + 1, valores[i]);
+                }
+            }
+            return ps;
+        }, chave);
+        return chave.getKey().longValue();
+    }
+}
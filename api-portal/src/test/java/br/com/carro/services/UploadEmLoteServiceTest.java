@@ -0,0 +1,184 @@
+package br.com.carro.services;
+
+import br.com.carro.entities.Role.Role;
+import br.com.carro.entities.Setor;
+import br.com.carro.entities.Usuario.Usuario;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Importação de ZIP contra um MySQL 8 em container e um armazenamento local temporário. Sem Docker, os testes
+ * são ignorados.
+ */
+@SpringBootTest
+@Testcontainers(disabledWithoutDocker = true)
+class UploadEmLoteServiceTest {
+
+    @Container
+    @ServiceConnection
+    static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0");
+
+    private static final Supplier<Path> DIRETORIO = new Supplier<>() {
+        private Path diretorio;
+
+        @Override
+        public synchronized Path get() {
+            if (diretorio == null) {
+                try {
+                    diretorio = Files.createTempDirectory("upload-lote");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return diretorio;
+        }
+    };
+
+    @DynamicPropertySource
+    static void armazenamento(DynamicPropertyRegistry registro) {
+        registro.add("armazenamento.local.raiz", () -> DIRETORIO.get().resolve("uploads").toString());
+        registro.add("armazenamento.temporario", () -> DIRETORIO.get().resolve("uploads/.tmp").toString());
+        registro.add("armazenamento.frio.raiz", () -> DIRETORIO.get().resolve("frio").toString());
+    }
+
+    @Autowired
+    private UploadEmLoteService uploadEmLoteService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long setorRaiz;
+    private Long setorSubpasta;
+    private Long raiz;
+    private Long subpasta;
+    private Usuario usuario;
+
+    // Raiz/ do setorRaiz, com Raiz/Sub/ de outro setor (setor próprio)
+    @BeforeEach
+    void criarPastas() {
+        String sufixo = UUID.randomUUID().toString().substring(0, 8);
+        setorRaiz = inserir("INSERT INTO tb_setor (nome) VALUES (?)", "Raiz " + sufixo);
+        setorSubpasta = inserir("INSERT INTO tb_setor (nome) VALUES (?)", "Sub " + sufixo);
+        raiz = criarPasta("Raiz-" + sufixo, setorRaiz, null);
+        subpasta = criarPasta("Sub", setorSubpasta, raiz);
+        jdbcTemplate.update("INSERT INTO tb_setor_cota (setor_id, usado_bytes, arquivos) VALUES (?, 0, 0)", setorRaiz);
+        jdbcTemplate.update("INSERT INTO tb_setor_cota (setor_id, limite_bytes, usado_bytes, arquivos) VALUES (?, ?, 0, 0)",
+                setorSubpasta, 150L);
+
+        Role administrador = new Role();
+        administrador.setNome("ADMINISTRADOR");
+        Setor setor = new Setor();
+        setor.setId(setorRaiz);
+        usuario = new Usuario();
+        usuario.setId(1L);
+        usuario.setSetor(setor);
+        usuario.setRoles(Set.of(administrador));
+    }
+
+    @Test
+    void itensDeUmaSubpastaComSetorProprioUsamACotaDesseSetor() throws Exception {
+        Map<String, byte[]> entradas = new LinkedHashMap<>();
+        entradas.put("Sub/um.pdf", conteudo('1', 100));
+        entradas.put("Sub/dois.pdf", conteudo('2', 100));
+        entradas.put("raiz.pdf", conteudo('3', 50));
+        byte[] zip = zip(entradas);
+
+        UploadEmLoteService.ResultadoImportacao resultado =
+                uploadEmLoteService.importarZip(new ByteArrayInputStream(zip), raiz, usuario);
+
+        assertEquals(2, resultado.arquivosCriados());
+        Map<String, UploadEmLoteService.ResultadoItem> itens = new HashMap<>();
+        resultado.itens().forEach(item -> itens.put(item.caminho(), item));
+        // O limite do setor da subpasta vale para ela, ainda que a raiz não tenha limite
+        assertNotNull(itens.get("Sub/um.pdf").arquivo());
+        assertEquals("Cota de armazenamento do setor excedida.", itens.get("Sub/dois.pdf").erro());
+        assertNull(itens.get("raiz.pdf").erro());
+
+        assertEquals(Arrays.asList(100L, 1L), uso(setorSubpasta));
+        assertEquals(Arrays.asList(50L, 1L), uso(setorRaiz));
+        assertEquals(1L, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM tb_arquivo WHERE pasta_id = ?", Long.class, subpasta));
+    }
+
+    private List<Long> uso(Long setorId) {
+        return jdbcTemplate.queryForObject("SELECT usado_bytes, arquivos FROM tb_setor_cota WHERE setor_id = ?",
+                (rs, i) -> Arrays.asList(rs.getLong(1), rs.getLong(2)), setorId);
+    }
+
+    private Long criarPasta(String nome, Long setorId, Long pastaPaiId) {
+        String caminho = pastaPaiId == null ? "/" + nome
+                : jdbcTemplate.queryForObject("SELECT caminho_completo FROM tb_pasta WHERE id = ?", String.class,
+                pastaPaiId) + "/" + nome;
+        Long id = inserir("INSERT INTO tb_pasta (nome_pasta, caminho_completo, data_criacao, setor_id, pasta_pai_id) " +
+                "VALUES (?, ?, ?, ?, ?)", nome, caminho, Timestamp.valueOf(LocalDateTime.now()), setorId, pastaPaiId);
+        jdbcTemplate.update("INSERT INTO tb_pasta_fechamento (ancestral_id, descendente_id, profundidade) " +
+                "SELECT ?, ?, 0 UNION ALL SELECT ancestral_id, ?, profundidade + 1 FROM tb_pasta_fechamento " +
+                "WHERE descendente_id = ?", id, id, id, pastaPaiId);
+        return id;
+    }
+
+    private Long inserir(String sql, Object... valores) {
+        KeyHolder chave = new GeneratedKeyHolder();
+        jdbcTemplate.update(conexao -> {
+            PreparedStatement ps = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (int i = 0; i < valores.length; i++) {
+                ps.setObject(i + 1, valores[i]);
+            }
+            return ps;
+        }, chave);
+        return chave.getKey().longValue();
+    }
+
+    private static byte[] conteudo(char preenchimento, int tamanho) {
+        byte[] bytes = new byte[tamanho];
+        Arrays.fill(bytes, (byte) preenchimento);
+        return bytes;
+    }
+
+    private static byte[] zip(Map<String, byte[]> entradas) throws IOException {
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(saida)) {
+            for (Map.Entry<String, byte[]> entrada : entradas.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entrada.getKey()));
+                zip.write(entrada.getValue());
+                zip.closeEntry();
+            }
+        }
+        return saida.toByteArray();
+    }
+}
@@ -0,0 +1,185 @@
+package br.com.carro.utilitarios;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HashEmArvoreTest {
+
+    private static final int BLOCO = HashEmArvore.TAMANHO_BLOCO;
+
+    private static ExecutorService executor;
+
+    @TempDir
+    Path diretorio;
+
+    @BeforeAll
+    static void iniciar() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterAll
+    static void encerrar() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void folhaUsaPrefixoZero() {
+        byte[] dados = "conteudo".getBytes(StandardCharsets.UTF_8);
+
+        HashEmArvore.Resultado resultado = construir(dados, dados.length);
+
+        byte[] folha = sha256(new byte[]{0x00}, dados);
+        assertEquals(1, resultado.quantidadeBlocos());
+        assertArrayEquals(folha, resultado.folhas());
+        assertEquals(HexFormat.of().formatHex(folha), resultado.raiz());
+    }
+
+    @Test
+    void conteudoVazioTemUmBlocoVazio() {
+        HashEmArvore.Resultado resultado = new HashEmArvore.Construtor().concluir();
+
+        assertEquals(1, resultado.quantidadeBlocos());
+        assertEquals(HexFormat.of().formatHex(sha256(new byte[]{0x00})), resultado.raiz());
+    }
+
+    @Test
+    void noInternoUsaPrefixoUm() {
+        byte[] esquerda = sha256("a".getBytes(StandardCharsets.UTF_8));
+        byte[] direita = sha256("b".getBytes(StandardCharsets.UTF_8));
+
+        String raiz = HashEmArvore.raiz(concatenar(esquerda, direita));
+
+        assertEquals(HexFormat.of().formatHex(sha256(new byte[]{0x01}, esquerda, direita)), raiz);
+    }
+
+    @Test
+    void folhaSemParSobeInalterada() {
+        byte[] f0 = sha256("0".getBytes(StandardCharsets.UTF_8));
+        byte[] f1 = sha256("1".getBytes(StandardCharsets.UTF_8));
+        byte[] f2 = sha256("2".getBytes(StandardCharsets.UTF_8));
+
+        String raiz = HashEmArvore.raiz(concatenar(f0, f1, f2));
+
+        byte[] esquerda = sha256(new byte[]{0x01}, f0, f1);
+        assertEquals(HexFormat.of().formatHex(sha256(new byte[]{0x01}, esquerda, f2)), raiz);
+    }
+
+    @Test
+    void folhasInvalidasSaoRejeitadas() {
+        assertThrows(IllegalArgumentException.class, () -> HashEmArvore.raiz(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> HashEmArvore.raiz(new byte[33]));
+    }
+
+    @Test
+    void construtorConfereComCalculoParalelo() throws IOException {
+        // Dois blocos completos e um parcial: exercita a folha sem par e o último bloco menor
+        byte[] dados = aleatorio(2 * BLOCO + 12_345);
+        Path arquivo = Files.write(diretorio.resolve("conteudo"), dados);
+
+        HashEmArvore.Resultado paralelo;
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            paralelo = HashEmArvore.calcular(canal, dados.length, executor, null);
+        }
+
+        // Pedaços de tamanho irregular cruzam as fronteiras dos blocos
+        HashEmArvore.Resultado sequencial = construir(dados, 1_000_003);
+
+        assertEquals(3, paralelo.quantidadeBlocos());
+        assertEquals(paralelo.raiz(), sequencial.raiz());
+        assertArrayEquals(paralelo.folhas(), sequencial.folhas());
+    }
+
+    @Test
+    void calculoDeArquivoVazioConfereComConstrutor() throws IOException {
+        Path arquivo = Files.createFile(diretorio.resolve("vazio"));
+
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            HashEmArvore.Resultado resultado = HashEmArvore.calcular(canal, 0, executor, null);
+            assertEquals(new HashEmArvore.Construtor().concluir().raiz(), resultado.raiz());
+        }
+    }
+
+    @Test
+    void construtorContinuaDasFolhasFechadas() {
+        byte[] dados = aleatorio(BLOCO + 500);
+
+        // Primeira parte termina no meio do segundo bloco, como um PATCH interrompido
+        HashEmArvore.Construtor primeiro = new HashEmArvore.Construtor();
+        primeiro.atualizar(dados, 0, BLOCO + 100);
+        byte[] fechadas = primeiro.folhasFechadas();
+        assertEquals(BLOCO, new HashEmArvore.Construtor(fechadas).fimDosBlocosFechados());
+
+        HashEmArvore.Construtor retomado = new HashEmArvore.Construtor(fechadas);
+        retomado.atualizar(dados, BLOCO, dados.length - BLOCO);
+
+        assertEquals(construir(dados, dados.length).raiz(), retomado.concluir().raiz());
+    }
+
+    @Test
+    void blocosDivergentesApontamBlocosAlteradosEExtras() {
+        byte[] dados = aleatorio(2 * BLOCO);
+        HashEmArvore.Resultado original = construir(dados, dados.length);
+
+        byte[] alterado = Arrays.copyOf(dados, dados.length + 1);
+        alterado[BLOCO + 10] ^= 1;
+        HashEmArvore.Resultado atual = construir(alterado, alterado.length);
+
+        assertEquals(List.of(1, 2), HashEmArvore.blocosDivergentes(original.folhas(), atual.folhas()));
+    }
+
+    private static HashEmArvore.Resultado construir(byte[] dados, int pedaco) {
+        HashEmArvore.Construtor construtor = new HashEmArvore.Construtor();
+        for (int inicio = 0; inicio < dados.length; inicio += pedaco) {
+            construtor.atualizar(dados, inicio, Math.min(pedaco, dados.length - inicio));
+        }
+        return construtor.concluir();
+    }
+
+    private static byte[] aleatorio(int tamanho) {
+        byte[] dados = new byte[tamanho];
+        new Random(42).nextBytes(dados);
+        return dados;
+    }
+
+    private static byte[] concatenar(byte[]... partes) {
+        byte[] todas = new byte[0];
+        for (byte[] parte : partes) {
+            int inicio = todas.length;
+            todas = Arrays.copyOf(todas, inicio + parte.length);
+            System.arraycopy(parte, 0, todas, inicio, parte.length);
+        }
+        return todas;
+    }
+
+    private static byte[] sha256(byte[]... partes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] parte : partes) {
+                digest.update(parte);
+            }
+            return digest.digest();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}